@@ -1,7 +1,10 @@
 USE waf_db;
 
-CREATE TABLE IF NOT EXISTS db_log (
-    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+-- 按天范围分区：LogRetentionService 每天预建未来几天的分区（从 p_future 拆出 pYYYYMMDD），
+-- 超过保留天数的整天先归档到本地压缩段文件，再 DROP PARTITION，热表只保留最近的数据。
+-- 分区表要求分区列出现在每个唯一键中，因此主键为 (id, log_timestamp)。
+CREATE TABLE IF NOT EXISTS waf_security_logs (
+    id BIGINT AUTO_INCREMENT,
     log_timestamp DATETIME NOT NULL,
     log_level VARCHAR(20) NOT NULL,
     client_ip VARCHAR(50) NOT NULL,
@@ -12,16 +15,31 @@ CREATE TABLE IF NOT EXISTS db_log (
     rule_id VARCHAR(50),
     rule_name VARCHAR(100),
     action_taken VARCHAR(20) NOT NULL,
+    attack_category TINYINT,
     threat_score INT,
     country_code VARCHAR(10),
+    province VARCHAR(50),
+    city VARCHAR(50),
     bytes_sent BIGINT,
     request_time DOUBLE,
     request_id VARCHAR(50),
-    created_at DATETIME DEFAULT CURRENT_TIMESTAMP
-) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+    created_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id, log_timestamp)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4
+PARTITION BY RANGE (TO_DAYS(log_timestamp)) (
+    PARTITION p_future VALUES LESS THAN MAXVALUE
+);
 
 -- 可选：添加索引以提高查询性能
-CREATE INDEX idx_db_log_timestamp ON db_log(log_timestamp);
-CREATE INDEX idx_db_log_client_ip ON db_log(client_ip);
-CREATE INDEX idx_db_log_action_taken ON db_log(action_taken);
-CREATE INDEX idx_db_log_rule_id ON db_log(rule_id);
+CREATE INDEX idx_waf_security_logs_timestamp ON waf_security_logs(log_timestamp);
+CREATE INDEX idx_waf_security_logs_client_ip ON waf_security_logs(client_ip);
+CREATE INDEX idx_waf_security_logs_action_taken ON waf_security_logs(action_taken);
+CREATE INDEX idx_waf_security_logs_rule_id ON waf_security_logs(rule_id);
+
+-- 已有库升级：攻击分类编码（见 RuleCategory）
+-- ALTER TABLE waf_security_logs ADD COLUMN attack_category TINYINT AFTER action_taken;
+-- 已有库升级：IP 归属地（见 GeoIpService）
+-- ALTER TABLE waf_security_logs ADD COLUMN province VARCHAR(50) AFTER country_code, ADD COLUMN city VARCHAR(50) AFTER province;
+-- 已有库升级：改为按天分区（表未分区时保留任务按天批量 DELETE，也能工作）
+-- ALTER TABLE waf_security_logs DROP PRIMARY KEY, ADD PRIMARY KEY (id, log_timestamp);
+-- ALTER TABLE waf_security_logs PARTITION BY RANGE (TO_DAYS(log_timestamp)) (PARTITION p_future VALUES LESS THAN MAXVALUE);
@@ -1,7 +1,10 @@
 package org.example.waf;
 
 import org.example.waf.domain.DbLog;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Date;
@@ -29,4 +32,22 @@ public interface DbLogRepository extends JpaRepository<DbLog, Long> {
     
     // 根据时间和处理结果查询日志
     List<DbLog> findByLogTimestampAfterAndActionTaken(Date timestamp, String actionTaken);
-}
\ No newline at end of file
+
+    // 早于指定时间的最早一条日志的时间，没有时为 null（日志保留任务按天从最早的开始归档）
+    @Query("select min(l.logTimestamp) from DbLog l where l.logTimestamp < :before")
+    Date findOldestTimestampBefore(@Param("before") Date before);
+
+    // 按 (时间, id) 键集分页读取 [dayStart, dayEnd) 内的日志，供归档按时间顺序写段
+    @Query("select l from DbLog l where l.logTimestamp >= :dayStart and l.logTimestamp < :dayEnd"
+            + " and (l.logTimestamp > :afterTs or (l.logTimestamp = :afterTs and l.id > :afterId))"
+            + " order by l.logTimestamp, l.id")
+    List<DbLog> findArchivePage(@Param("dayStart") Date dayStart, @Param("dayEnd") Date dayEnd,
+                                @Param("afterTs") Date afterTs, @Param("afterId") Long afterId, Pageable pageable);
+
+    // 当前最大的日志 id，攻击日志索引启动回填时确定回填范围
+    @Query("select max(l.id) from DbLog l")
+    Long findMaxId();
+
+    // 按 id 升序分页读取，供攻击日志索引回填
+    List<DbLog> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+}
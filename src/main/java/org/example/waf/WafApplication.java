@@ -1,12 +1,22 @@
 package org.example.waf;
 
+import org.example.waf.tools.RuleSetEvaluator;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.util.Arrays;
 
 @SpringBootApplication
+@EnableScheduling
 public class WafApplication {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        // 第一个参数为 --evaluate 时只做离线规则评估，不启动应用
+        if (args.length > 0 && "--evaluate".equals(args[0])) {
+            RuleSetEvaluator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         SpringApplication.run(WafApplication.class, args);
     }
 
@@ -0,0 +1,175 @@
+package org.example.waf.archive;
+
+import org.example.waf.domain.DbLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * 本地日志归档目录：每个已归档的自然日一个不可变段文件 waf-logs-yyyyMMdd.seg。
+ *
+ * 段先写到 .tmp 文件并落盘，再原子改名为正式文件，因此目录中可见的段总是完整的；
+ * 段在第一次被查询时才做内存映射，之后缓存复用。
+ */
+@Component
+public class LogArchiveStore {
+    private static final Logger logger = LoggerFactory.getLogger(LogArchiveStore.class);
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final String PREFIX = "waf-logs-";
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final ConcurrentSkipListSet<LocalDate> days = new ConcurrentSkipListSet<>();
+    private final ConcurrentMap<LocalDate, LogSegment> segments = new ConcurrentHashMap<>();
+
+    public LogArchiveStore(@Value("${app.logs.archive-dir:data/log-archive}") String dir) {
+        this.dir = Paths.get(dir);
+        try {
+            Files.createDirectories(this.dir);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(this.dir, PREFIX + "*" + SUFFIX)) {
+                for (Path f : files) {
+                    String name = f.getFileName().toString();
+                    days.add(LocalDate.parse(name.substring(PREFIX.length(), name.length() - SUFFIX.length()), DAY));
+                }
+            }
+            // 上次归档中途退出留下的临时文件
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(this.dir, PREFIX + "*" + SUFFIX + ".tmp")) {
+                for (Path f : files) {
+                    Files.deleteIfExists(f);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("读取日志归档目录失败: {}", e.getMessage());
+        }
+        logger.info("日志归档目录 {}，已归档 {} 天", this.dir.toAbsolutePath(), days.size());
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    public boolean isArchived(LocalDate day) {
+        return days.contains(day);
+    }
+
+    /** 已归档的天数。 */
+    public int size() {
+        return days.size();
+    }
+
+    /**
+     * 读取时间在 [start, end] 内的归档记录，按时间升序；start/end 为空表示不限。
+     * 单个段读取失败时跳过并记录错误，不影响其余结果。
+     */
+    public List<DbLog> read(Date start, Date end) {
+        List<DbLog> result = new ArrayList<>();
+        if (days.isEmpty()) {
+            return result;
+        }
+        long from = start == null ? Long.MIN_VALUE : start.getTime();
+        long to = end == null ? Long.MAX_VALUE : end.getTime();
+        LocalDate first = start == null ? days.first() : toDay(start);
+        LocalDate last = end == null ? days.last() : toDay(end);
+        if (first.isAfter(last)) {
+            return result;
+        }
+        for (LocalDate day : days.subSet(first, true, last, true)) {
+            try {
+                segment(day).scan(from, to, result::add);
+            } catch (IOException e) {
+                logger.error("读取日志归档段 {} 失败: {}", day, e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 合并热表查询结果与归档记录：已归档日期以归档为准（归档完成到热表删除之间两边可能都有），
+     * 其余日期用热表的数据。
+     */
+    public List<DbLog> withArchived(List<DbLog> live, Date start, Date end) {
+        if (days.isEmpty()) {
+            return live;
+        }
+        List<DbLog> merged = read(start, end);
+        for (DbLog log : live) {
+            if (log == null || log.getLogTimestamp() == null || !days.contains(toDay(log.getLogTimestamp()))) {
+                merged.add(log);
+            }
+        }
+        return merged;
+    }
+
+    LocalDate toDay(Date date) {
+        return Instant.ofEpochMilli(date.getTime()).atZone(zone).toLocalDate();
+    }
+
+    LogSegmentWriter create(LocalDate day) throws IOException {
+        return new LogSegmentWriter(tempFile(day), (int) day.toEpochDay());
+    }
+
+    /**
+     * 写完并落盘后原子改名为正式段，之后即可被查询。
+     */
+    void commit(LocalDate day, LogSegmentWriter writer) throws IOException {
+        try {
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+        Path target = file(day);
+        Files.move(tempFile(day), target, StandardCopyOption.ATOMIC_MOVE);
+        if (!target.toFile().setReadOnly()) {
+            logger.warn("无法将归档段设为只读: {}", target);
+        }
+        days.add(day);
+    }
+
+    void abort(LocalDate day, LogSegmentWriter writer) {
+        try {
+            writer.close();
+            Files.deleteIfExists(tempFile(day));
+        } catch (IOException e) {
+            logger.warn("清理未完成的归档段失败: {}", e.getMessage());
+        }
+    }
+
+    private LogSegment segment(LocalDate day) throws IOException {
+        LogSegment segment = segments.get(day);
+        if (segment == null) {
+            segment = LogSegment.open(file(day));
+            LogSegment existing = segments.putIfAbsent(day, segment);
+            if (existing != null) {
+                segment = existing;
+            }
+        }
+        return segment;
+    }
+
+    private Path file(LocalDate day) {
+        return dir.resolve(PREFIX + DAY.format(day) + SUFFIX);
+    }
+
+    private Path tempFile(LocalDate day) {
+        return dir.resolve(PREFIX + DAY.format(day) + SUFFIX + ".tmp");
+    }
+}
@@ -0,0 +1,201 @@
+package org.example.waf.archive;
+
+import org.example.waf.DbLogRepository;
+import org.example.waf.domain.DbLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 安全日志保留：热表 waf_security_logs 只保留最近 hot-days 天。
+ *
+ * 每天定时执行两步：
+ * <ol>
+ *     <li>表按天范围分区时，从 p_future 拆出今天起 future-partitions 天的 pYYYYMMDD 分区；</li>
+ *     <li>从最早的一天开始，把超过保留期的整天按时间顺序写成归档段（{@link LogArchiveStore}），
+ *     段落盘后再从热表移除：该天有独立分区时 DROP PARTITION，否则按天分批 DELETE。</li>
+ * </ol>
+ * 先归档后删除，任一步失败都停在当天，下次从同一天继续；段已存在时只做删除。
+ * 分区日期按 JVM 默认时区计算，应与数据源的 serverTimezone 一致。
+ */
+@Service
+public class LogRetentionService {
+    private static final Logger logger = LoggerFactory.getLogger(LogRetentionService.class);
+    private static final String TABLE = "waf_security_logs";
+    private static final String FUTURE_PARTITION = "p_future";
+    private static final Pattern DAY_PARTITION = Pattern.compile("p\\d{8}");
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMMdd");
+    private static final int PAGE_SIZE = 2000;
+    private static final int DELETE_BATCH = 5000;
+
+    private final DbLogRepository dbLogRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final LogArchiveStore archiveStore;
+    private final boolean enabled;
+    private final int hotDays;
+    private final int futurePartitions;
+    private final int maxDaysPerRun;
+    private volatile boolean unpartitionedLogged;
+
+    public LogRetentionService(DbLogRepository dbLogRepository,
+                               JdbcTemplate jdbcTemplate,
+                               LogArchiveStore archiveStore,
+                               @Value("${app.logs.retention.enabled:true}") boolean enabled,
+                               @Value("${app.logs.retention.hot-days:30}") int hotDays,
+                               @Value("${app.logs.retention.future-partitions:7}") int futurePartitions,
+                               @Value("${app.logs.retention.max-days-per-run:7}") int maxDaysPerRun) {
+        this.dbLogRepository = dbLogRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.archiveStore = archiveStore;
+        this.enabled = enabled;
+        this.hotDays = Math.max(1, hotDays);
+        this.futurePartitions = Math.max(1, futurePartitions);
+        this.maxDaysPerRun = Math.max(1, maxDaysPerRun);
+    }
+
+    @Scheduled(cron = "${app.logs.retention.cron:0 30 3 * * *}")
+    public synchronized void run() {
+        if (!enabled) {
+            return;
+        }
+        List<String> partitions;
+        try {
+            partitions = partitions();
+            ensureFuturePartitions(partitions);
+        } catch (Exception e) {
+            logger.error("维护日志分区失败: {}", e.getMessage());
+            return;
+        }
+        LocalDate cutoff = LocalDate.now(archiveStore.getZone()).minusDays(hotDays);
+        for (int n = 0; n < maxDaysPerRun; n++) {
+            Date oldest;
+            try {
+                oldest = dbLogRepository.findOldestTimestampBefore(startOf(cutoff));
+            } catch (Exception e) {
+                logger.error("查询待归档日志失败: {}", e.getMessage());
+                return;
+            }
+            if (oldest == null || !archiveDay(archiveStore.toDay(oldest), partitions)) {
+                return;
+            }
+        }
+    }
+
+    private List<String> partitions() {
+        return new ArrayList<>(jdbcTemplate.queryForList("SELECT PARTITION_NAME FROM information_schema.PARTITIONS"
+                + " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL", String.class, TABLE));
+    }
+
+    private void ensureFuturePartitions(List<String> partitions) {
+        if (partitions.isEmpty() || !partitions.contains(FUTURE_PARTITION)) {
+            if (!unpartitionedLogged) {
+                unpartitionedLogged = true;
+                logger.info("{} 未按天分区（见 create_log_table.sql），过期日志归档后按天批量删除", TABLE);
+            }
+            return;
+        }
+        // 只能从最后的 p_future 拆分，已有分区覆盖到的日期不再补建
+        LocalDate last = null;
+        for (String name : partitions) {
+            if (DAY_PARTITION.matcher(name).matches()) {
+                LocalDate day = LocalDate.parse(name, PARTITION_NAME);
+                if (last == null || day.isAfter(last)) {
+                    last = day;
+                }
+            }
+        }
+        LocalDate today = LocalDate.now(archiveStore.getZone());
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i <= futurePartitions; i++) {
+            LocalDate day = today.plusDays(i);
+            if (last != null && !day.isAfter(last)) {
+                continue;
+            }
+            sql.append("PARTITION ").append(PARTITION_NAME.format(day))
+                    .append(" VALUES LESS THAN (TO_DAYS('").append(day.plusDays(1)).append("')), ");
+            partitions.add(PARTITION_NAME.format(day));
+        }
+        if (sql.length() == 0) {
+            return;
+        }
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " REORGANIZE PARTITION " + FUTURE_PARTITION + " INTO ("
+                + sql + "PARTITION " + FUTURE_PARTITION + " VALUES LESS THAN MAXVALUE)");
+        logger.info("已预建日志分区至 {}", today.plusDays(futurePartitions));
+    }
+
+    // 归档并移除一天的日志，失败时返回 false
+    private boolean archiveDay(LocalDate day, List<String> partitions) {
+        Timestamp from = startOf(day);
+        Timestamp to = startOf(day.plusDays(1));
+        long records = 0;
+        if (!archiveStore.isArchived(day)) {
+            LogSegmentWriter writer;
+            try {
+                writer = archiveStore.create(day);
+            } catch (IOException e) {
+                logger.error("创建日志归档段 {} 失败: {}", day, e.getMessage());
+                return false;
+            }
+            try {
+                Date afterTs = new Date(from.getTime() - 1);
+                long afterId = 0;
+                while (true) {
+                    List<DbLog> page = dbLogRepository.findArchivePage(from, to, afterTs, afterId, PageRequest.of(0, PAGE_SIZE));
+                    for (DbLog log : page) {
+                        writer.append(log);
+                    }
+                    if (page.size() < PAGE_SIZE) {
+                        break;
+                    }
+                    DbLog last = page.get(page.size() - 1);
+                    afterTs = last.getLogTimestamp();
+                    afterId = last.getId();
+                }
+                records = writer.records();
+                archiveStore.commit(day, writer);
+            } catch (Exception e) {
+                archiveStore.abort(day, writer);
+                logger.error("归档 {} 的日志失败: {}", day, e.getMessage());
+                return false;
+            }
+        }
+
+        try {
+            String partition = PARTITION_NAME.format(day);
+            // 分区下界之前的数据都已移除时，整个分区只含当天的数据，可以直接删除
+            if (partitions.contains(partition) && jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TABLE
+                    + " PARTITION (" + partition + ") WHERE log_timestamp < ?", Long.class, from) == 0) {
+                jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP PARTITION " + partition);
+                partitions.remove(partition);
+            } else {
+                int deleted;
+                do {
+                    deleted = jdbcTemplate.update("DELETE FROM " + TABLE
+                            + " WHERE log_timestamp >= ? AND log_timestamp < ? LIMIT " + DELETE_BATCH, from, to);
+                } while (deleted == DELETE_BATCH);
+            }
+        } catch (Exception e) {
+            logger.error("从热表移除 {} 的日志失败: {}", day, e.getMessage());
+            return false;
+        }
+        logger.info("已归档 {} 的日志 {} 条并从热表移除", day, records);
+        return true;
+    }
+
+    private Timestamp startOf(LocalDate day) {
+        return Timestamp.from(day.atStartOfDay(archiveStore.getZone()).toInstant());
+    }
+}
@@ -0,0 +1,223 @@
+package org.example.waf.archive;
+
+import org.example.waf.domain.DbLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 一天的日志归档段，只读，整个文件以内存映射方式打开，线程安全。
+ *
+ * 文件格式（大端）：
+ * <pre>
+ * 头    "WAFLOGS1" | version:int | epochDay:int
+ * 块    rawLength:int | compressedLength:int | crc32(raw):int | deflate 数据   （每块最多 BLOCK_RECORDS 条）
+ * 索引  每块一项 firstTs:long | lastTs:long | offset:long | count:int            （稀疏时间索引）
+ * 尾    indexOffset:long | blocks:int | records:long | minTs:long | maxTs:long | "WAFLOGIX"
+ * </pre>
+ * 记录按时间升序排列，块内每条为 ts:long | present:int | 非空字段，字段顺序见 {@link LogSegmentWriter}。
+ * 按时间范围读取时二分索引定位首块，只解压与范围相交的块。
+ */
+final class LogSegment {
+    static final byte[] MAGIC = "WAFLOGS1".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] INDEX_MAGIC = "WAFLOGIX".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int BLOCK_HEADER_BYTES = 12;
+    static final int INDEX_ENTRY_BYTES = 28;
+    static final int FOOTER_BYTES = 44;
+    static final int BLOCK_RECORDS = 1024;
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int epochDay;
+    private final long[] firstTs;
+    private final long[] lastTs;
+    private final long[] offsets;
+    private final long records;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+
+    private LogSegment(Path file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        ByteBuffer b = buffer.duplicate();
+        int size = b.limit();
+        if (size < HEADER_BYTES + FOOTER_BYTES || !hasMagic(b, 0, MAGIC) || !hasMagic(b, size - 8, INDEX_MAGIC)) {
+            throw new IOException("不是有效的日志归档段: " + file);
+        }
+        if (b.getInt(8) != VERSION) {
+            throw new IOException("不支持的归档段版本 " + b.getInt(8) + ": " + file);
+        }
+        this.epochDay = b.getInt(12);
+        int footer = size - FOOTER_BYTES;
+        long indexOffset = b.getLong(footer);
+        int blocks = b.getInt(footer + 8);
+        this.records = b.getLong(footer + 12);
+        this.minTimestamp = b.getLong(footer + 20);
+        this.maxTimestamp = b.getLong(footer + 28);
+        if (indexOffset < HEADER_BYTES || indexOffset + (long) blocks * INDEX_ENTRY_BYTES != footer) {
+            throw new IOException("归档段索引损坏: " + file);
+        }
+        this.firstTs = new long[blocks];
+        this.lastTs = new long[blocks];
+        this.offsets = new long[blocks];
+        for (int i = 0; i < blocks; i++) {
+            int p = (int) indexOffset + i * INDEX_ENTRY_BYTES;
+            firstTs[i] = b.getLong(p);
+            lastTs[i] = b.getLong(p + 8);
+            offsets[i] = b.getLong(p + 16);
+        }
+    }
+
+    static LogSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("归档段超过 2GB: " + file);
+            }
+            // 映射在通道关闭后仍然有效
+            return new LogSegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    Path file() {
+        return file;
+    }
+
+    int epochDay() {
+        return epochDay;
+    }
+
+    long records() {
+        return records;
+    }
+
+    long minTimestamp() {
+        return minTimestamp;
+    }
+
+    long maxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * 依次回调时间在 [fromMillis, toMillis] 内的记录。
+     */
+    void scan(long fromMillis, long toMillis, Consumer<DbLog> consumer) throws IOException {
+        if (records == 0 || fromMillis > maxTimestamp || toMillis < minTimestamp) {
+            return;
+        }
+        // 第一个 lastTs >= fromMillis 的块
+        int lo = 0;
+        int hi = lastTs.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lastTs[mid] < fromMillis) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        Inflater inflater = new Inflater();
+        try {
+            for (int i = lo; i < firstTs.length && firstTs[i] <= toMillis; i++) {
+                ByteBuffer raw = ByteBuffer.wrap(readBlock(i, inflater));
+                while (raw.hasRemaining()) {
+                    DbLog log = decode(raw);
+                    long ts = log.getLogTimestamp().getTime();
+                    if (ts > toMillis) {
+                        return;
+                    }
+                    if (ts >= fromMillis) {
+                        consumer.accept(log);
+                    }
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private byte[] readBlock(int block, Inflater inflater) throws IOException {
+        ByteBuffer b = buffer.duplicate();
+        int p = (int) offsets[block];
+        int rawLength = b.getInt(p);
+        int compressedLength = b.getInt(p + 4);
+        int crc = b.getInt(p + 8);
+        byte[] input = new byte[compressedLength];
+        b.position(p + BLOCK_HEADER_BYTES);
+        b.get(input);
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(input);
+        try {
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                n += inflater.inflate(raw, n, rawLength - n);
+            }
+            if (n != rawLength) {
+                throw new IOException("归档段数据块长度不符: " + file + " #" + block);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("归档段数据块解压失败: " + file + " #" + block, e);
+        }
+        CRC32 check = new CRC32();
+        check.update(raw, 0, rawLength);
+        if ((int) check.getValue() != crc) {
+            throw new IOException("归档段数据块校验失败: " + file + " #" + block);
+        }
+        return raw;
+    }
+
+    private static DbLog decode(ByteBuffer b) {
+        DbLog log = new DbLog();
+        log.setLogTimestamp(new Date(b.getLong()));
+        int present = b.getInt();
+        if ((present & 1) != 0) log.setLogLevel(string(b));
+        if ((present & 1 << 1) != 0) log.setClientIp(string(b));
+        if ((present & 1 << 2) != 0) log.setHttpMethod(string(b));
+        if ((present & 1 << 3) != 0) log.setUrl(string(b));
+        if ((present & 1 << 4) != 0) log.setStatusCode(b.getInt());
+        if ((present & 1 << 5) != 0) log.setUserAgent(string(b));
+        if ((present & 1 << 6) != 0) log.setRuleId(string(b));
+        if ((present & 1 << 7) != 0) log.setRuleName(string(b));
+        if ((present & 1 << 8) != 0) log.setActionTaken(string(b));
+        if ((present & 1 << 9) != 0) log.setAttackCategory(b.getInt());
+        if ((present & 1 << 10) != 0) log.setThreatScore(b.getInt());
+        if ((present & 1 << 11) != 0) log.setCountryCode(string(b));
+        if ((present & 1 << 12) != 0) log.setProvince(string(b));
+        if ((present & 1 << 13) != 0) log.setCity(string(b));
+        if ((present & 1 << 14) != 0) log.setBytesSent(b.getInt());
+        if ((present & 1 << 15) != 0) log.setRequestTime(b.getDouble());
+        if ((present & 1 << 16) != 0) log.setRequestId(string(b));
+        if ((present & 1 << 17) != 0) log.setCreatedAt(new Date(b.getLong()));
+        if ((present & 1 << 18) != 0) log.setId(b.getLong());
+        return log;
+    }
+
+    private static String string(ByteBuffer b) {
+        int length = b.getInt();
+        String s = new String(b.array(), b.arrayOffset() + b.position(), length, StandardCharsets.UTF_8);
+        b.position(b.position() + length);
+        return s;
+    }
+
+    private static boolean hasMagic(ByteBuffer b, int offset, byte[] magic) {
+        byte[] actual = new byte[magic.length];
+        for (int i = 0; i < magic.length; i++) {
+            actual[i] = b.get(offset + i);
+        }
+        return Arrays.equals(actual, magic);
+    }
+}
@@ -0,0 +1,169 @@
+package org.example.waf.archive;
+
+import org.example.waf.domain.DbLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 写一个日志归档段。记录必须按 log_timestamp 升序追加，每 {@link LogSegment#BLOCK_RECORDS} 条压缩为一块，
+ * 结束时在文件尾写稀疏时间索引（每块一项：首末时间、偏移、条数）。格式见 {@link LogSegment}。
+ *
+ * 只写到调用方给的临时文件；{@link #finish()} 落盘后由 {@link LogArchiveStore} 原子改名为正式段，
+ * 之后段文件不再修改。
+ */
+final class LogSegmentWriter implements Closeable {
+    private final FileChannel channel;
+    private final ByteArrayOutputStream raw = new ByteArrayOutputStream(64 * 1024);
+    private final DataOutputStream out = new DataOutputStream(raw);
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+    private final DataOutputStream indexOut = new DataOutputStream(index);
+    private byte[] compressed = new byte[64 * 1024];
+    private long position;
+    private int blockRecords;
+    private long blockFirst;
+    private long blockLast;
+    private int blocks;
+    private long records;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    LogSegmentWriter(Path file, int epochDay) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(LogSegment.HEADER_BYTES);
+        header.put(LogSegment.MAGIC).putInt(LogSegment.VERSION).putInt(epochDay).flip();
+        write(header);
+    }
+
+    void append(DbLog log) throws IOException {
+        long ts = log.getLogTimestamp() == null ? 0 : log.getLogTimestamp().getTime();
+        if (blockRecords > 0 && ts < blockLast) {
+            throw new IllegalArgumentException("记录未按时间排序: " + log.getId());
+        }
+        if (blockRecords == 0) {
+            blockFirst = ts;
+        }
+        blockLast = ts;
+        minTimestamp = Math.min(minTimestamp, ts);
+        maxTimestamp = Math.max(maxTimestamp, ts);
+        encode(log, ts);
+        blockRecords++;
+        records++;
+        if (blockRecords == LogSegment.BLOCK_RECORDS) {
+            flushBlock();
+        }
+    }
+
+    long records() {
+        return records;
+    }
+
+    /**
+     * 写出最后一块和索引，并强制落盘。
+     */
+    void finish() throws IOException {
+        if (blockRecords > 0) {
+            flushBlock();
+        }
+        long indexOffset = position;
+        indexOut.flush();
+        write(ByteBuffer.wrap(index.toByteArray()));
+        ByteBuffer footer = ByteBuffer.allocate(LogSegment.FOOTER_BYTES);
+        footer.putLong(indexOffset).putInt(blocks).putLong(records)
+                .putLong(records == 0 ? 0 : minTimestamp).putLong(records == 0 ? 0 : maxTimestamp)
+                .put(LogSegment.INDEX_MAGIC).flip();
+        write(footer);
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        channel.close();
+    }
+
+    private void encode(DbLog log, long ts) throws IOException {
+        // 可空字段的存在位，只写非空的值
+        int present = 0;
+        Object[] fields = {log.getLogLevel(), log.getClientIp(), log.getHttpMethod(), log.getUrl(), log.getStatusCode(),
+                log.getUserAgent(), log.getRuleId(), log.getRuleName(), log.getActionTaken(), log.getAttackCategory(),
+                log.getThreatScore(), log.getCountryCode(), log.getProvince(), log.getCity(), log.getBytesSent(),
+                log.getRequestTime(), log.getRequestId(), log.getCreatedAt(), log.getId()};
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                present |= 1 << i;
+            }
+        }
+        out.writeLong(ts);
+        out.writeInt(present);
+        for (Object f : fields) {
+            if (f == null) {
+                continue;
+            }
+            if (f instanceof String) {
+                byte[] bytes = ((String) f).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } else if (f instanceof Integer) {
+                out.writeInt((Integer) f);
+            } else if (f instanceof Long) {
+                out.writeLong((Long) f);
+            } else if (f instanceof Double) {
+                out.writeDouble((Double) f);
+            } else {
+                out.writeLong(((Date) f).getTime());
+            }
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        out.flush();
+        byte[] bytes = raw.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        indexOut.writeLong(blockFirst);
+        indexOut.writeLong(blockLast);
+        indexOut.writeLong(position);
+        indexOut.writeInt(blockRecords);
+
+        ByteBuffer header = ByteBuffer.allocate(LogSegment.BLOCK_HEADER_BYTES);
+        header.putInt(bytes.length).putInt(length).putInt((int) crc.getValue()).flip();
+        write(header);
+        write(ByteBuffer.wrap(compressed, 0, length));
+
+        blocks++;
+        blockRecords = 0;
+        raw.reset();
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf);
+        }
+    }
+}
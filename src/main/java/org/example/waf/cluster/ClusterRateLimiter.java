@@ -0,0 +1,486 @@
+package org.example.waf.cluster;
+
+import org.example.waf.security.SlidingWindowCounter;
+import org.example.waf.waf.WafService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 集群范围的按 IP 限流。每个节点用滑动窗口记录本地请求数，定时通过 UDP 把窗口计数达到上报阈值的
+ * “重” IP（稀疏的 IP→计数表）发给各对端；判断时用本地计数加上各对端最近上报的计数作为全局近似值。
+ *
+ * 上报的是窗口内的当前计数而不是增量，报文丢失或重复都不会累积误差，对端的记录超过几个上报周期未刷新即作废。
+ * 未达上报阈值的 IP 只按本地计数判断，所以全局计数最多少算 (节点数-1)×阈值：
+ * 阈值越小越准，报文也越多；每轮上报的 IP 数另有上限。
+ *
+ * 配置了 app.cluster.token 时报文带 HMAC 并校验，否则只接受来自本机地址的报文（便于单机多实例测试）。
+ * 每个报文带发送方的递增序号，同一节点序号不大于已收到的报文视为重放（或乱序的旧报文）丢弃。
+ *
+ * 被拒绝的请求不计入窗口：超限的客户端持续重试时，窗口滑过后仍能按上限放行，不会被自己的重试一直锁住。
+ * 本地和对端上报的 IP 各自最多跟踪 max-tracked-ips 个，超出时都淘汰窗口计数最小的一批：
+ * 轮换源地址的请求方每个地址计数都很小，先被淘汰，已接近上限的 IP 保留，新 IP 照常计数，不会因表满而放行。
+ */
+@Component
+public class ClusterRateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterRateLimiter.class);
+    private static final int MAGIC = 0x57524c32; // "WRL2"
+    private static final int MAX_DATAGRAM = 1400;
+    private static final int MAC_LENGTH = 16;
+
+    /** 一个 IP 在各对端最近上报的计数，条目很少（只有上报了该 IP 的节点），用数组线性查找 */
+    static final class RemoteCounts {
+        private String[] nodes = new String[2];
+        private long[] counts = new long[2];
+        private long[] times = new long[2];
+        private int size;
+
+        synchronized void put(String node, long count, long now) {
+            for (int i = 0; i < size; i++) {
+                if (nodes[i].equals(node)) {
+                    counts[i] = count;
+                    times[i] = now;
+                    return;
+                }
+            }
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+            }
+            nodes[size] = node;
+            counts[size] = count;
+            times[size] = now;
+            size++;
+        }
+
+        /** 未过期记录之和，顺便移除过期记录 */
+        synchronized long sum(long now, long ttl) {
+            long total = 0;
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (now - times[i] <= ttl) {
+                    nodes[kept] = nodes[i];
+                    counts[kept] = counts[i];
+                    times[kept] = times[i];
+                    total += counts[i];
+                    kept++;
+                }
+            }
+            size = kept;
+            return total;
+        }
+
+        synchronized boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+    private final WafService wafService;
+    private final boolean enabled;
+    private final long limit;
+    private final long windowMillis;
+    private final int buckets;
+    private final int gossipPort;
+    private final String bindAddress;
+    private final List<InetSocketAddress> peers = new ArrayList<>();
+    private final long gossipMillis;
+    private final long reportThreshold;
+    private final int maxReport;
+    private final int maxTrackedIps;
+    private final byte[] key;
+
+    private final ConcurrentMap<String, SlidingWindowCounter> local = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RemoteCounts> remote = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> peerLastSeen = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> peerLastSeq = new ConcurrentHashMap<>();
+    // 以启动时间（微秒级）为起点，重启后的序号仍大于重启前发出的
+    private final AtomicLong sendSeq = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final AtomicLong limited = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong rejectedPackets = new AtomicLong();
+    private final ReentrantLock evictLock = new ReentrantLock();
+    private volatile boolean overflowWarned;
+    private volatile boolean remoteOverflowWarned;
+    private DatagramSocket socket;
+    private Thread receiver;
+    private Mac sendMac;
+
+    public ClusterRateLimiter(WafService wafService,
+                              @Value("${app.ratelimit.enabled:false}") boolean enabled,
+                              @Value("${app.ratelimit.limit:600}") long limit,
+                              @Value("${app.ratelimit.window-seconds:60}") int windowSeconds,
+                              @Value("${app.ratelimit.buckets:12}") int buckets,
+                              @Value("${app.ratelimit.gossip-port:0}") int gossipPort,
+                              @Value("${app.ratelimit.bind:0.0.0.0}") String bindAddress,
+                              @Value("${app.ratelimit.peers:}") String peers,
+                              @Value("${app.ratelimit.gossip-ms:1000}") long gossipMillis,
+                              @Value("${app.ratelimit.report-threshold:20}") long reportThreshold,
+                              @Value("${app.ratelimit.max-report:2000}") int maxReport,
+                              @Value("${app.ratelimit.max-tracked-ips:200000}") int maxTrackedIps,
+                              @Value("${app.cluster.token:}") String token) {
+        this.wafService = wafService;
+        this.enabled = enabled;
+        this.limit = limit;
+        this.windowMillis = TimeUnit.SECONDS.toMillis(Math.max(1, windowSeconds));
+        this.buckets = Math.max(1, buckets);
+        this.gossipPort = gossipPort;
+        this.bindAddress = bindAddress;
+        for (String p : peers.split(",")) {
+            String peer = p.trim();
+            int colon = peer.lastIndexOf(':');
+            if (colon > 0) {
+                this.peers.add(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+            }
+        }
+        this.gossipMillis = Math.max(100, gossipMillis);
+        this.reportThreshold = Math.max(1, reportThreshold);
+        this.maxReport = Math.max(1, maxReport);
+        this.maxTrackedIps = maxTrackedIps;
+        this.key = token.trim().isEmpty() ? null : token.trim().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled || gossipPort <= 0) {
+            return;
+        }
+        try {
+            socket = new DatagramSocket(new InetSocketAddress(bindAddress, gossipPort));
+            sendMac = newMac();
+        } catch (IOException | GeneralSecurityException e) {
+            logger.error("限流计数交换端口 {} 打开失败，只按本节点计数限流: {}", gossipPort, e.toString());
+            socket = null;
+            return;
+        }
+        receiver = new Thread(this::receiveLoop, "ratelimit-gossip");
+        receiver.setDaemon(true);
+        receiver.start();
+        logger.info("集群限流已启用：每 IP {} 次/{} 秒，计数交换端口 {}，对端 {}", limit,
+                TimeUnit.MILLISECONDS.toSeconds(windowMillis), gossipPort, peers);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 判断是否超限并记录：本地窗口计数加上各对端上报的计数已达上限即拒绝，被拒绝的请求不计数。
+     * 本地跟踪的 IP 数达到上限时先淘汰计数最小的一批，新 IP 照常计数。
+     */
+    public boolean tryAcquire(String ip) {
+        if (!enabled || ip == null) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        SlidingWindowCounter counter = local.get(ip);
+        if (counter == null) {
+            if (local.size() >= maxTrackedIps) {
+                evictLocal(now);
+            }
+            counter = local.computeIfAbsent(ip, k -> new SlidingWindowCounter(windowMillis, buckets));
+        }
+        long total = counter.sum(now);
+        RemoteCounts others = total < limit ? remote.get(ip) : null;
+        if (others != null) {
+            total += others.sum(now, remoteTtl());
+        }
+        if (total >= limit) {
+            limited.incrementAndGet();
+            return false;
+        }
+        counter.increment(now);
+        return true;
+    }
+
+    /** 某个 IP 当前的全局近似计数 */
+    public long estimate(String ip) {
+        long now = System.currentTimeMillis();
+        SlidingWindowCounter counter = local.get(ip);
+        RemoteCounts others = remote.get(ip);
+        return (counter == null ? 0 : counter.sum(now)) + (others == null ? 0 : others.sum(now, remoteTtl()));
+    }
+
+    // 对端记录的有效期：几个上报周期未刷新说明该 IP 在对端已不再是重 IP（或对端已下线）
+    private long remoteTtl() {
+        return gossipMillis * 3;
+    }
+
+    @Scheduled(fixedDelayString = "${app.ratelimit.gossip-ms:1000}")
+    public void gossip() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        local.values().removeIf(c -> c.isIdle(now));
+        remote.entrySet().removeIf(e -> {
+            e.getValue().sum(now, remoteTtl());
+            return e.getValue().isEmpty();
+        });
+        if (local.size() < maxTrackedIps) {
+            overflowWarned = false;
+        }
+        if (remote.size() < maxTrackedIps) {
+            remoteOverflowWarned = false;
+        }
+        if (socket == null || peers.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<String, Long>> heavy = new ArrayList<>();
+        for (Map.Entry<String, SlidingWindowCounter> e : local.entrySet()) {
+            long count = e.getValue().sum(now);
+            if (count >= reportThreshold) {
+                heavy.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), count));
+            }
+        }
+        if (heavy.isEmpty()) {
+            return;
+        }
+        heavy.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        if (heavy.size() > maxReport) {
+            heavy = heavy.subList(0, maxReport);
+        }
+        try {
+            for (byte[] packet : encode(wafService.getNodeId(), now, heavy)) {
+                for (InetSocketAddress peer : peers) {
+                    socket.send(new DatagramPacket(packet, packet.length, peer));
+                    sentBytes.addAndGet(packet.length);
+                }
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            logger.debug("发送限流计数失败: {}", e.toString());
+        }
+    }
+
+    /**
+     * 报文：magic(4) 节点标识(1+n) 发送时间(8) 序号(8) 条数(2) 若干个 [IP 长度(1) IP 计数(4)]，
+     * 配置了密钥时末尾带 16 字节 HMAC。
+     * 条目多时拆成多个不超过 1400 字节的报文。
+     */
+    List<byte[]> encode(String node, long sentAt, List<Map.Entry<String, Long>> entries) throws GeneralSecurityException {
+        byte[] nodeBytes = node.getBytes(StandardCharsets.UTF_8);
+        int header = 4 + 1 + nodeBytes.length + 8 + 8 + 2;
+        int room = MAX_DATAGRAM - header - (key == null ? 0 : MAC_LENGTH);
+        List<byte[]> packets = new ArrayList<>();
+        int i = 0;
+        while (i < entries.size()) {
+            ByteBuffer buf = ByteBuffer.allocate(MAX_DATAGRAM);
+            buf.putInt(MAGIC).put((byte) nodeBytes.length).put(nodeBytes).putLong(sentAt).putLong(sendSeq.incrementAndGet());
+            int countPos = buf.position();
+            buf.putShort((short) 0);
+            int used = 0;
+            int n = 0;
+            for (; i < entries.size(); i++) {
+                byte[] ip = entries.get(i).getKey().getBytes(StandardCharsets.US_ASCII);
+                if (ip.length > 255) {
+                    continue;
+                }
+                if (used + 1 + ip.length + 4 > room) {
+                    break;
+                }
+                buf.put((byte) ip.length).put(ip).putInt((int) Math.min(Integer.MAX_VALUE, entries.get(i).getValue()));
+                used += 1 + ip.length + 4;
+                n++;
+            }
+            buf.putShort(countPos, (short) n);
+            if (key != null) {
+                sendMac.update(buf.array(), 0, buf.position());
+                buf.put(sendMac.doFinal(), 0, MAC_LENGTH);
+            }
+            packets.add(Arrays.copyOf(buf.array(), buf.position()));
+        }
+        return packets;
+    }
+
+    private void receiveLoop() {
+        byte[] buf = new byte[2048];
+        Mac mac;
+        try {
+            mac = newMac();
+        } catch (GeneralSecurityException e) {
+            logger.error("限流计数校验初始化失败: {}", e.toString());
+            return;
+        }
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            try {
+                socket.receive(packet);
+            } catch (SocketException e) {
+                return;
+            } catch (IOException e) {
+                logger.debug("接收限流计数失败: {}", e.toString());
+                continue;
+            }
+            receivedBytes.addAndGet(packet.getLength());
+            if (!accept(packet.getAddress(), packet.getData(), packet.getLength(), mac)) {
+                rejectedPackets.incrementAndGet();
+            }
+        }
+    }
+
+    boolean accept(InetAddress from, byte[] data, int length, Mac mac) {
+        if (key == null && !from.isLoopbackAddress()) {
+            return false;
+        }
+        if (key != null) {
+            if (length < MAC_LENGTH) {
+                return false;
+            }
+            mac.update(data, 0, length - MAC_LENGTH);
+            byte[] expected = Arrays.copyOf(mac.doFinal(), MAC_LENGTH);
+            if (!MessageDigest.isEqual(expected, Arrays.copyOfRange(data, length - MAC_LENGTH, length))) {
+                return false;
+            }
+            length -= MAC_LENGTH;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+        try {
+            if (buf.getInt() != MAGIC) {
+                return false;
+            }
+            byte[] nodeBytes = new byte[buf.get() & 0xff];
+            buf.get(nodeBytes);
+            String node = new String(nodeBytes, StandardCharsets.UTF_8);
+            long sentAt = buf.getLong();
+            long seq = buf.getLong();
+            long now = System.currentTimeMillis();
+            // 自己发出的（对端列表配置了本机）、或明显过期/时钟偏差过大的报文丢弃
+            if (node.equals(wafService.getNodeId()) || Math.abs(now - sentAt) > windowMillis) {
+                return false;
+            }
+            // 只有接收线程写入；乱序到达的旧报文一并丢弃，下一轮上报的是最新计数
+            Long lastSeq = peerLastSeq.get(node);
+            if (lastSeq != null && seq <= lastSeq) {
+                return false;
+            }
+            peerLastSeq.put(node, seq);
+            int n = buf.getShort() & 0xffff;
+            for (int i = 0; i < n; i++) {
+                byte[] ipBytes = new byte[buf.get() & 0xff];
+                buf.get(ipBytes);
+                long count = buf.getInt() & 0xffffffffL;
+                String ip = new String(ipBytes, StandardCharsets.US_ASCII);
+                RemoteCounts counts = remote.get(ip);
+                if (counts == null) {
+                    counts = remote.computeIfAbsent(ip, k -> new RemoteCounts());
+                }
+                counts.put(node, count, now);
+            }
+            peerLastSeen.put(node, now);
+            if (remote.size() > maxTrackedIps) {
+                evictRemote(now);
+            }
+            return true;
+        } catch (BufferUnderflowException e) {
+            return false;
+        }
+    }
+
+    // 本地跟踪的 IP 达到上限：淘汰窗口计数最小的，一次降到上限的九成，排序的开销分摊到之后的新 IP 上。
+    // 同时只有一个线程淘汰，其他线程照常插入，表的大小短暂略超上限
+    private void evictLocal(long now) {
+        if (!evictLock.tryLock()) {
+            return;
+        }
+        try {
+            if (local.size() < maxTrackedIps) {
+                return;
+            }
+            List<Map.Entry<String, Long>> sums = new ArrayList<>(local.size());
+            for (Map.Entry<String, SlidingWindowCounter> e : local.entrySet()) {
+                sums.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue().sum(now)));
+            }
+            sums.sort(Map.Entry.comparingByValue());
+            int evict = sums.size() - (maxTrackedIps - Math.max(1, maxTrackedIps / 10));
+            for (int i = 0; i < evict; i++) {
+                local.remove(sums.get(i).getKey());
+            }
+            if (!overflowWarned) {
+                overflowWarned = true;
+                logger.warn("限流跟踪的 IP 数已达上限 {}，已淘汰计数最小的 {} 个", maxTrackedIps, Math.max(0, evict));
+            }
+        } finally {
+            evictLock.unlock();
+        }
+    }
+
+    // 对端上报的 IP 超出上限：淘汰计数最小的，一次降到上限的九成，避免每个报文都排序
+    private void evictRemote(long now) {
+        List<Map.Entry<String, Long>> sums = new ArrayList<>(remote.size());
+        for (Map.Entry<String, RemoteCounts> e : remote.entrySet()) {
+            sums.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue().sum(now, remoteTtl())));
+        }
+        sums.sort(Map.Entry.comparingByValue());
+        int evict = sums.size() - (maxTrackedIps - maxTrackedIps / 10);
+        for (int i = 0; i < evict; i++) {
+            remote.remove(sums.get(i).getKey());
+        }
+        if (!remoteOverflowWarned) {
+            remoteOverflowWarned = true;
+            logger.warn("对端上报的 IP 数超过上限 {}，已淘汰计数最小的 {} 个", maxTrackedIps, Math.max(0, evict));
+        }
+    }
+
+    private Mac newMac() throws GeneralSecurityException {
+        if (key == null) {
+            return null;
+        }
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("limit", limit);
+        status.put("windowSeconds", TimeUnit.MILLISECONDS.toSeconds(windowMillis));
+        status.put("gossipPort", socket == null ? 0 : gossipPort);
+        status.put("reportThreshold", reportThreshold);
+        status.put("trackedIps", local.size());
+        status.put("remoteIps", remote.size());
+        status.put("limitedRequests", limited.get());
+        status.put("sentBytes", sentBytes.get());
+        status.put("receivedBytes", receivedBytes.get());
+        status.put("rejectedPackets", rejectedPackets.get());
+        status.put("peers", new LinkedHashMap<>(peerLastSeen));
+        return status;
+    }
+}
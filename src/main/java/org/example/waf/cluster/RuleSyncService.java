@@ -0,0 +1,335 @@
+package org.example.waf.cluster;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.waf.waf.RuleDelta;
+import org.example.waf.waf.WafService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 多节点规则同步。每个节点定时向其他节点拉取增量（/api/cluster/rules/delta?since=上次的代数），
+ * 只传输对方在此之后改动过的规则；也可以（或同时）通过共享目录交换：每个节点把完整规则集写成
+ * rules-节点标识.json，再读取其他节点的文件。增量先校验摘要再合并，合并规则见 {@link WafService#applyChanges}。
+ * 配置了 app.cluster.token 时增量带 HMAC 签名（与集群限流共用密钥），签名不符的整批丢弃。
+ *
+ * 对端的代数回退或节点标识变化（数据被重置）时从 0 重新全量拉取。
+ *
+ * 删除标记的清理：每个节点在增量里附上自己已合并到的各节点修改序号（acks），
+ * 所有已知对端都确认过的删除标记才从版本表中清理，之后拉取的对端不会再需要它们。
+ * 已下线的节点会一直阻止清理，需从对端列表（或共享目录）中移除。
+ */
+@Component
+public class RuleSyncService {
+    private static final Logger logger = LoggerFactory.getLogger(RuleSyncService.class);
+    static final String TOKEN_HEADER = "X-Cluster-Token";
+
+    /** 一个对端（HTTP 地址或共享目录里的文件）的同步进度 */
+    static final class PeerState {
+        volatile String node;
+        volatile long cursor;
+        volatile long generation;
+        volatile String stateHash;
+        volatile long lastSyncTime;
+        volatile long lastModified;
+        volatile String lastError;
+        volatile long applied;
+        volatile long acked;   // 对端确认已合并到的本节点修改序号
+    }
+
+    private final WafService wafService;
+    private final List<String> peers = new ArrayList<>();
+    private final Path sharedDir;
+    private final String token;
+    private final byte[] key;
+    private final int timeoutMs;
+    private final ObjectMapper mapper = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private final ConcurrentMap<String, PeerState> states = new ConcurrentHashMap<>();
+    private long exportedGeneration = -1;
+    private Map<String, Long> exportedAcks;
+
+    public RuleSyncService(WafService wafService,
+                           @Value("${app.cluster.peers:}") String peers,
+                           @Value("${app.cluster.shared-dir:}") String sharedDir,
+                           @Value("${app.cluster.token:}") String token,
+                           @Value("${app.cluster.timeout-ms:2000}") int timeoutMs) {
+        this.wafService = wafService;
+        for (String p : peers.split(",")) {
+            String peer = p.trim();
+            if (!peer.isEmpty()) {
+                this.peers.add(peer.endsWith("/") ? peer.substring(0, peer.length() - 1) : peer);
+            }
+        }
+        this.sharedDir = sharedDir.trim().isEmpty() ? null : Paths.get(sharedDir.trim()).toAbsolutePath();
+        this.token = token.trim();
+        this.key = this.token.isEmpty() ? null : this.token.getBytes(StandardCharsets.UTF_8);
+        this.timeoutMs = timeoutMs;
+        if (!this.peers.isEmpty() || this.sharedDir != null) {
+            logger.info("规则同步已启用，节点 {}，对端 {}，共享目录 {}", wafService.getNodeId(), this.peers, this.sharedDir);
+        }
+    }
+
+    /**
+     * 节点间请求的鉴权：配置了 token 时必须一致；未配置时只接受本机请求（便于单机多实例测试）。
+     */
+    public boolean authorize(String presented, String remoteAddr) {
+        if (!token.isEmpty()) {
+            return presented != null && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                    presented.getBytes(StandardCharsets.UTF_8));
+        }
+        try {
+            return remoteAddr != null && InetAddress.getByName(remoteAddr).isLoopbackAddress();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 对外提供的增量（接口和共享目录共用）：附上本节点的确认序号，配置了密钥时签名。
+     */
+    public RuleDelta export(long since) {
+        RuleDelta delta = wafService.changesSince(since);
+        delta.acks = acks(delta.node);
+        delta.signature = sign(delta);
+        return delta;
+    }
+
+    // 本节点已从各节点合并到的修改序号；同一节点经多个途径同步时取最大值
+    private Map<String, Long> acks(String self) {
+        Map<String, Long> acks = new TreeMap<>();
+        for (PeerState st : states.values()) {
+            String node = st.node;
+            if (node != null && !node.equals(self) && st.cursor > 0) {
+                acks.merge(node, st.cursor, Math::max);
+            }
+        }
+        return acks;
+    }
+
+    @Scheduled(fixedDelayString = "${app.cluster.sync-ms:2000}")
+    public synchronized void sync() {
+        for (String peer : peers) {
+            pullPeer(peer);
+        }
+        if (sharedDir != null) {
+            try {
+                syncSharedDir();
+            } catch (IOException e) {
+                logger.warn("共享目录规则同步失败: {}", e.toString());
+            }
+        }
+        pruneTombstones();
+    }
+
+    // 所有已知对端都确认过的删除标记可以清理；有对端从未同步成功时不清理。没有配置任何对端时直接清理
+    private void pruneTombstones() {
+        String self = wafService.getNodeId();
+        long upTo = Long.MAX_VALUE;
+        boolean known = false;
+        for (PeerState st : states.values()) {
+            if (st.node == null) {
+                return;
+            }
+            if (!st.node.equals(self)) {
+                upTo = Math.min(upTo, st.acked);
+                known = true;
+            }
+        }
+        if (!known) {
+            if (!peers.isEmpty() || sharedDir != null) {
+                return;
+            }
+            upTo = wafService.getGeneration();
+        }
+        int pruned = upTo > 0 ? wafService.pruneTombstones(upTo) : 0;
+        if (pruned > 0) {
+            logger.info("清理 {} 条各对端均已确认的规则删除标记（修改序号 <= {}）", pruned, upTo);
+        }
+    }
+
+    private void pullPeer(String base) {
+        PeerState st = states.computeIfAbsent(base, k -> new PeerState());
+        try {
+            RuleDelta delta = fetch(base, st.cursor);
+            if (st.cursor > 0 && (delta.generation < st.cursor || (st.node != null && !st.node.equals(delta.node)))) {
+                logger.info("对端 {} 的规则代数回退或节点已更换，重新全量同步", base);
+                st.cursor = 0;
+                delta = fetch(base, 0);
+            }
+            accept(base, st, delta);
+        } catch (IOException | RuntimeException e) {
+            st.lastError = e.toString();
+            logger.debug("从 {} 拉取规则增量失败: {}", base, e.toString());
+        }
+    }
+
+    private RuleDelta fetch(String base, long since) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(base + "/api/cluster/rules/delta?since=" + since)
+                .openConnection();
+        conn.setConnectTimeout(timeoutMs);
+        conn.setReadTimeout(timeoutMs);
+        if (!token.isEmpty()) {
+            conn.setRequestProperty(TOKEN_HEADER, token);
+        }
+        int code = conn.getResponseCode();
+        if (code != HttpURLConnection.HTTP_OK) {
+            throw new IOException("HTTP " + code);
+        }
+        try (InputStream in = conn.getInputStream()) {
+            return mapper.readValue(in, RuleDelta.class);
+        }
+    }
+
+    // 签名或摘要不符时抛异常，游标不前进，下一轮重新拉取
+    private void accept(String source, PeerState st, RuleDelta delta) {
+        if (key != null && (delta.signature == null || !MessageDigest.isEqual(
+                sign(delta).getBytes(StandardCharsets.UTF_8), delta.signature.getBytes(StandardCharsets.UTF_8)))) {
+            throw new IllegalArgumentException("规则增量签名校验失败: " + delta.node);
+        }
+        st.node = delta.node;
+        st.generation = delta.generation;
+        st.stateHash = delta.stateHash;
+        st.lastSyncTime = System.currentTimeMillis();
+        Long acked = delta.acks == null ? null : delta.acks.get(wafService.getNodeId());
+        st.acked = acked == null ? 0 : acked;
+        if (wafService.getNodeId().equals(delta.node)) {
+            // 对端列表里配置了本节点自己
+            st.lastError = null;
+            return;
+        }
+        int applied = wafService.applyChanges(delta);
+        st.cursor = delta.generation;
+        st.applied += applied;
+        st.lastError = null;
+        if (applied > 0) {
+            logger.info("从 {}（节点 {}）合并 {} 条规则修改，本地代数 {}", source, delta.node, applied,
+                    wafService.getGeneration());
+        }
+    }
+
+    private void syncSharedDir() throws IOException {
+        Files.createDirectories(sharedDir);
+        String self = fileNameOf(wafService.getNodeId());
+        long generation = wafService.getGeneration();
+        // 确认序号变了也要重写，否则对端看不到本节点的确认，删除标记一直无法清理
+        Map<String, Long> acks = acks(wafService.getNodeId());
+        if (generation != exportedGeneration || !acks.equals(exportedAcks)) {
+            byte[] bytes = mapper.writeValueAsBytes(export(0));
+            Path tmp = sharedDir.resolve(self + ".tmp");
+            Files.write(tmp, bytes);
+            Files.move(tmp, sharedDir.resolve(self), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            exportedGeneration = generation;
+            exportedAcks = acks;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(sharedDir, "rules-*.json")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.equals(self)) {
+                    continue;
+                }
+                PeerState st = states.computeIfAbsent("dir:" + name, k -> new PeerState());
+                long modified = Files.getLastModifiedTime(file).toMillis();
+                if (modified == st.lastModified) {
+                    continue;
+                }
+                try {
+                    // 文件里是对端的完整规则集，合并时只有比本地新的修改会生效
+                    accept(file.toString(), st, mapper.readValue(file.toFile(), RuleDelta.class));
+                    st.lastModified = modified;
+                } catch (IOException | RuntimeException e) {
+                    st.lastError = e.toString();
+                    logger.debug("读取共享规则文件 {} 失败: {}", file, e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * 增量的 HMAC-SHA256：覆盖各元数据字段和 deltaHash（deltaHash 又覆盖全部修改，接收方会重新计算），
+     * 未配置密钥时返回 null。
+     */
+    private String sign(RuleDelta delta) {
+        if (key == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(delta.node).append('\n').append(delta.since).append('\n').append(delta.generation).append('\n')
+                .append(delta.stateHash).append('\n').append(delta.deltaHash).append('\n')
+                .append(delta.enabled).append('\n').append(delta.enabledRevision).append('\n')
+                .append(delta.enabledOrigin).append('\n');
+        if (delta.acks != null) {
+            for (Map.Entry<String, Long> e : new TreeMap<>(delta.acks).entrySet()) {
+                sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+            }
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            byte[] out = mac.doFinal(sb.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(out.length * 2);
+            for (byte b : out) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String fileNameOf(String nodeId) {
+        return "rules-" + nodeId.replaceAll("[^A-Za-z0-9._-]", "_") + ".json";
+    }
+
+    public Map<String, Object> getStatus() {
+        String stateHash = wafService.getStateHash();
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("node", wafService.getNodeId());
+        status.put("generation", wafService.getGeneration());
+        status.put("stateHash", stateHash);
+        status.put("sharedDir", sharedDir == null ? null : sharedDir.toString());
+        List<Map<String, Object>> peerList = new ArrayList<>();
+        for (Map.Entry<String, PeerState> e : states.entrySet()) {
+            PeerState st = e.getValue();
+            Map<String, Object> p = new LinkedHashMap<>();
+            p.put("peer", e.getKey());
+            p.put("node", st.node);
+            p.put("cursor", st.cursor);
+            p.put("generation", st.generation);
+            p.put("converged", stateHash.equals(st.stateHash));
+            p.put("appliedChanges", st.applied);
+            p.put("ackedGeneration", st.acked);
+            p.put("lastSyncTime", st.lastSyncTime);
+            p.put("lastError", st.lastError);
+            peerList.add(p);
+        }
+        status.put("peers", peerList);
+        return status;
+    }
+}
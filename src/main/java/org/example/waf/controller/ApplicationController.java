@@ -2,12 +2,17 @@ package org.example.waf.controller;
 
 import org.example.waf.domain.Application;
 import org.example.waf.service.ApplicationService;
+import org.example.waf.waf.ApplicationRouter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 import java.util.List;
 
 @RestController
@@ -16,10 +21,13 @@ import java.util.List;
 public class ApplicationController {
     private static final Logger logger = LoggerFactory.getLogger(ApplicationController.class);
     private final ApplicationService applicationService;
+    private final boolean allowLoopbackUpstream;
 
     // 构造函数注入
-    public ApplicationController(ApplicationService applicationService) {
+    public ApplicationController(ApplicationService applicationService,
+                                 @Value("${app.proxy.upstream.allow-loopback:false}") boolean allowLoopbackUpstream) {
         this.applicationService = applicationService;
+        this.allowLoopbackUpstream = allowLoopbackUpstream;
     }
 
     // 获取所有应用
@@ -85,6 +93,51 @@ public class ApplicationController {
         }
     }
 
+    // 更新上游地址（反向代理模式）
+    @PutMapping("/{id}/upstream")
+    public ResponseEntity<?> updateApplicationUpstream(@PathVariable Long id, @RequestBody UpstreamUpdateRequest request) {
+        try {
+            logger.info("更新上游地址请求: id={}, upstream={}", id, request.getUpstream());
+
+            String upstream = request.getUpstream() == null || request.getUpstream().trim().isEmpty()
+                    ? null : request.getUpstream().trim();
+            InetSocketAddress address = upstream == null ? null : ApplicationRouter.parseUpstream(upstream);
+            if (upstream != null && address == null) {
+                return ResponseEntity.badRequest()
+                        .body(new ApiResponse(400, "上游地址格式错误，应为 http://host:port", null));
+            }
+            if (address != null && !isAllowedUpstream(address.getHostString())) {
+                logger.warn("拒绝设置上游地址: id={}, upstream={}", id, upstream);
+                return ResponseEntity.badRequest()
+                        .body(new ApiResponse(400, "上游地址不允许指向本机或链路本地地址", null));
+            }
+            boolean success = applicationService.updateApplicationUpstream(id, upstream);
+            if (success) {
+                return ResponseEntity.ok(new ApiResponse(200, "success", null));
+            } else {
+                return ResponseEntity.notFound().build();
+            }
+        } catch (Exception e) {
+            logger.error("更新上游地址失败: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ApiResponse(500, "更新上游地址失败", null));
+        }
+    }
+
+    // 域名解析失败时先放行，代理建立连接解析出地址后还会再检查一次
+    private boolean isAllowedUpstream(String host) {
+        try {
+            for (InetAddress a : InetAddress.getAllByName(host)) {
+                if (!ApplicationRouter.isAllowedUpstream(a, allowLoopbackUpstream)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (UnknownHostException e) {
+            return true;
+        }
+    }
+
     // 删除应用
     @DeleteMapping("/{id}")
     public ResponseEntity<?> deleteApplication(@PathVariable Long id) {
@@ -143,4 +196,17 @@ public class ApplicationController {
             this.status = status;
         }
     }
-}
\ No newline at end of file
+
+    // 内部静态类：上游地址更新请求
+    static class UpstreamUpdateRequest {
+        private String upstream;
+
+        public String getUpstream() {
+            return upstream;
+        }
+
+        public void setUpstream(String upstream) {
+            this.upstream = upstream;
+        }
+    }
+}
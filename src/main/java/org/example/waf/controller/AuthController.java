@@ -1,6 +1,7 @@
 package org.example.waf.controller;
 
 import org.example.waf.domain.User;
+import org.example.waf.security.PasswordHasher;
 import org.example.waf.service.UserService;
 import org.example.waf.util.JwtUtil;
 import org.example.waf.dto.LoginResponse;
@@ -8,8 +9,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Pattern;
 
 @RestController
@@ -17,62 +20,85 @@ import java.util.regex.Pattern;
 @CrossOrigin(origins = "${app.cors.allowed-origins}", allowCredentials = "true")
 public class AuthController {
 
+    private static final ResponseEntity<?> BUSY = ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .body(new LoginResponse(false, "系统繁忙，请稍后重试"));
+
     @Autowired
     private UserService userService;
+
+    @Autowired
+    private PasswordHasher passwordHasher;
     
     // 用户名正则：3-20个字符，只能包含字母、数字和下划线
     private static final Pattern USERNAME_PATTERN = Pattern.compile("^[a-zA-Z0-9_]{3,20}$");
     // 密码正则：8-20个字符，至少包含字母、数字
     private static final Pattern PASSWORD_PATTERN = Pattern.compile("^(?=.*[A-Za-z])(?=.*\\d)[A-Za-z\\d@$!%*?&]{8,20}$");
 
-    // 注册接口 - 适配前端请求格式
+    // 注册接口 - 适配前端请求格式；密码哈希异步计算，等待期间不占用请求线程
     @PostMapping("/register")
-    public ResponseEntity<?> register(@RequestBody Map<String, String> request) {
+    public DeferredResult<ResponseEntity<?>> register(@RequestBody Map<String, String> request) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(passwordHasher.getTimeoutMs(), BUSY);
         try {
             String username = request.get("username");
             String password = request.get("password");
 
             // 参数非空验证
             if (username == null || password == null) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                        .body(new LoginResponse(false, "缺少必要参数"));
+                result.setResult(ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .body(new LoginResponse(false, "缺少必要参数")));
+                return result;
             }
             
             // 用户名格式验证
             if (!USERNAME_PATTERN.matcher(username).matches()) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                        .body(new LoginResponse(false, "用户名格式错误：3-20个字符，只能包含字母、数字和下划线"));
+                result.setResult(ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .body(new LoginResponse(false, "用户名格式错误：3-20个字符，只能包含字母、数字和下划线")));
+                return result;
             }
             
             // 密码强度验证
             if (!PASSWORD_PATTERN.matcher(password).matches()) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                        .body(new LoginResponse(false, "密码强度不足：8-20个字符，至少包含字母和数字"));
+                result.setResult(ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .body(new LoginResponse(false, "密码强度不足：8-20个字符，至少包含字母和数字")));
+                return result;
             }
 
             // 生成安全的默认邮箱：用户名+随机字符串@example.com
             String email = username + "_" + System.currentTimeMillis() + "@example.com";
 
             // 调用注册服务
-            User user = userService.registerUser(username, email, password);
+            userService.registerUser(username, email, password).whenComplete((user, error) -> {
+                if (error == null) {
+                    result.setResult(registered(user));
+                } else if (PasswordHasher.unwrap(error) instanceof RejectedExecutionException) {
+                    result.setResult(BUSY);
+                } else {
+                    result.setResult(registerFailed());
+                }
+            });
+        } catch (Exception e) {
+            result.setResult(registerFailed());
+        }
+        return result;
+    }
 
-            // 生成JWT token
-            String token = JwtUtil.generateToken(String.valueOf(user.getId()), user.getUsername());
+    private static ResponseEntity<?> registered(User user) {
+        // 生成JWT token
+        String token = JwtUtil.generateToken(String.valueOf(user.getId()), user.getUsername());
 
-            // 构建与登录接口相同格式的响应
-            LoginResponse.UserInfo userInfo = new LoginResponse.UserInfo(
-                    user.getId(),
-                    user.getUsername(),
-                    user.getRole()
-            );
-            LoginResponse response = new LoginResponse(token, 3600L, userInfo);
+        // 构建与登录接口相同格式的响应
+        LoginResponse.UserInfo userInfo = new LoginResponse.UserInfo(
+                user.getId(),
+                user.getUsername(),
+                user.getRole()
+        );
+        return ResponseEntity.ok(new LoginResponse(token, 3600L, userInfo));
+    }
 
-            return ResponseEntity.ok(response);
-        } catch (Exception e) {
-            // 避免泄露具体错误信息给用户
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(new LoginResponse(false, "注册失败，请检查输入信息"));
-        }
+    // 避免泄露具体错误信息给用户
+    private static ResponseEntity<?> registerFailed() {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new LoginResponse(false, "注册失败，请检查输入信息"));
     }
 }
 
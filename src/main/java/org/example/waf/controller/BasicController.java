@@ -4,16 +4,21 @@ import org.example.waf.dto.LoginRequest;
 import org.example.waf.dto.LoginResponse;
 import org.example.waf.domain.User;
 import org.example.waf.UserRepository;
+import org.example.waf.security.LoginAttemptLimiter;
+import org.example.waf.security.PasswordHasher;
+import org.example.waf.security.VerifiedTokenCache;
 import org.example.waf.util.JwtUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.crypto.bcrypt.BCrypt;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.http.HttpServletRequest;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/auth")
@@ -25,8 +30,24 @@ public class BasicController { // 建议改为 AuthController
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private VerifiedTokenCache tokenCache;
+
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Autowired
+    private LoginAttemptLimiter loginAttemptLimiter;
+
+    /**
+     * 登录。BCrypt 校验在独立的哈希线程池中进行，这里以异步请求返回：
+     * 等待哈希期间 Tomcat 工作线程已释放，池满或等待超时返回 429。
+     */
     @PostMapping("/login")
-    public ResponseEntity<?> login(@RequestBody LoginRequest loginRequest) {
+    public DeferredResult<ResponseEntity<?>> login(@RequestBody LoginRequest loginRequest, HttpServletRequest request) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(passwordHasher.getTimeoutMs(),
+                ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .body(new LoginResponse(false, "系统繁忙，请稍后重试")));
         try {
             logger.info("登录请求: username={}, password length={}", 
                 loginRequest.getUsername(), 
@@ -35,7 +56,17 @@ public class BasicController { // 建议改为 AuthController
             // 参数校验
             ResponseEntity<?> validationError = validateLoginRequest(loginRequest);
             if (validationError != null) {
-                return validationError;
+                result.setResult(validationError);
+                return result;
+            }
+
+            // 失败次数过多的用户名或IP直接拒绝，不查库也不计算哈希
+            String clientIp = request.getRemoteAddr();
+            if (loginAttemptLimiter.isBlocked(loginRequest.getUsername(), clientIp)) {
+                logger.warn("登录失败次数过多: username={}, ip={}", loginRequest.getUsername(), clientIp);
+                result.setResult(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .body(new LoginResponse(false, "登录失败次数过多，请稍后再试")));
+                return result;
             }
 
             // 查找用户（只通过用户名）
@@ -43,8 +74,10 @@ public class BasicController { // 建议改为 AuthController
 
             if (!userOpt.isPresent()) {
                 logger.warn("用户不存在: username={}", loginRequest.getUsername());
-                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                        .body(new LoginResponse(false, "用户不存在"));
+                loginAttemptLimiter.recordFailure(loginRequest.getUsername(), clientIp);
+                result.setResult(ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .body(new LoginResponse(false, "用户不存在")));
+                return result;
             }
 
             User user = userOpt.get();
@@ -52,32 +85,51 @@ public class BasicController { // 建议改为 AuthController
             // 检查状态（如有 status 字段）
             if (!isUserActive(user)) {
                 logger.warn("用户被禁用: {}", user.getUsername());
-                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                        .body(new LoginResponse(false, "账户已被禁用"));
+                result.setResult(ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .body(new LoginResponse(false, "账户已被禁用")));
+                return result;
             }
 
             // 验证密码
             // 检查密码是否已加密（以$2a$开头表示BCrypt加密）
-            boolean passwordValid;
             if (user.getPassword().startsWith("$2a$") || user.getPassword().startsWith("$2b$")) {
-                // 密码已加密，使用BCrypt验证
-                try {
-                    passwordValid = BCrypt.checkpw(loginRequest.getPassword(), user.getPassword());
-                } catch (Exception e) {
-                    logger.warn("BCrypt验证失败: {}", e.getMessage());
-                    passwordValid = false;
-                }
+                // 密码已加密，在独立的哈希线程池中验证，结果回调里完成响应；池满时快速返回429
+                passwordHasher.matches(loginRequest.getPassword(), user.getPassword())
+                        .whenComplete((valid, error) -> {
+                            if (error == null) {
+                                result.setResult(finishLogin(loginRequest, clientIp, user, valid));
+                            } else if (PasswordHasher.unwrap(error) instanceof RejectedExecutionException) {
+                                logger.warn("密码验证繁忙，拒绝登录请求: {}", PasswordHasher.unwrap(error).getMessage());
+                                result.setResult(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                                        .body(new LoginResponse(false, "系统繁忙，请稍后重试")));
+                            } else {
+                                logger.error("登录异常", error);
+                                result.setResult(serverError());
+                            }
+                        });
             } else {
                 // 密码是明文，直接比较
-                passwordValid = loginRequest.getPassword().equals(user.getPassword());
+                result.setResult(finishLogin(loginRequest, clientIp, user,
+                        loginRequest.getPassword().equals(user.getPassword())));
             }
-            
+        } catch (Exception e) {
+            logger.error("登录异常", e);
+            result.setResult(serverError());
+        }
+        return result;
+    }
+
+    private ResponseEntity<?> finishLogin(LoginRequest loginRequest, String clientIp, User user, boolean passwordValid) {
+        try {
             if (!passwordValid) {
                 logger.warn("密码错误: {}", user.getUsername());
+                loginAttemptLimiter.recordFailure(loginRequest.getUsername(), clientIp);
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                         .body(new LoginResponse(false, "密码错误"));
             }
 
+            loginAttemptLimiter.recordSuccess(loginRequest.getUsername());
+
             // 生成 token
             String token = JwtUtil.generateToken(String.valueOf(user.getId()), user.getUsername());
 
@@ -91,14 +143,17 @@ public class BasicController { // 建议改为 AuthController
 
             logger.info("用户登录成功: {}", user.getUsername());
             return ResponseEntity.ok(response);
-
         } catch (Exception e) {
             logger.error("登录异常", e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(new LoginResponse(false, "系统错误，请稍后重试"));
+            return serverError();
         }
     }
 
+    private static ResponseEntity<?> serverError() {
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(new LoginResponse(false, "系统错误，请稍后重试"));
+    }
+
     // 参数校验
     private ResponseEntity<?> validateLoginRequest(LoginRequest loginRequest) {
         if (loginRequest.getUsername() == null || loginRequest.getUsername().trim().isEmpty()) {
@@ -134,7 +189,7 @@ public class BasicController { // 建议改为 AuthController
             }
 
             String token = authHeader.substring(7);
-            if (JwtUtil.validateToken(token)) {
+            if (tokenCache.verify(token) != null) {
                 return ResponseEntity.ok(new LoginResponse(true, "Token有效"));
             } else {
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
@@ -145,4 +200,15 @@ public class BasicController { // 建议改为 AuthController
                     .body(new LoginResponse(false, "Token验证失败"));
         }
     }
+
+    // 注销：吊销当前 Token，之后即使未过期也无法再访问管理接口
+    @PostMapping("/logout")
+    public ResponseEntity<?> logout(@RequestHeader(value = "Authorization", required = false) String authHeader) {
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(new LoginResponse(false, "Token无效"));
+        }
+        tokenCache.revoke(authHeader.substring(7));
+        return ResponseEntity.ok(new LoginResponse(true, "已注销"));
+    }
 }
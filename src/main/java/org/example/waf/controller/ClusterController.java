@@ -0,0 +1,72 @@
+package org.example.waf.controller;
+
+import org.example.waf.cluster.ClusterRateLimiter;
+import org.example.waf.cluster.RuleSyncService;
+import org.example.waf.waf.RuleDelta;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+
+/**
+ * 节点间规则同步接口：对端按代数拉取增量，以及查看各对端的同步进度和集群限流状态。
+ * 配置了 app.cluster.token 时需带 X-Cluster-Token 请求头，否则只接受本机请求。
+ */
+@RestController
+@RequestMapping("/api/cluster")
+public class ClusterController {
+    private final RuleSyncService ruleSyncService;
+    private final ClusterRateLimiter rateLimiter;
+
+    public ClusterController(RuleSyncService ruleSyncService, ClusterRateLimiter rateLimiter) {
+        this.ruleSyncService = ruleSyncService;
+        this.rateLimiter = rateLimiter;
+    }
+
+    @GetMapping("/rules/delta")
+    public ResponseEntity<RuleDelta> delta(@RequestParam(defaultValue = "0") long since,
+                                           @RequestHeader(value = "X-Cluster-Token", required = false) String token,
+                                           HttpServletRequest request) {
+        if (!ruleSyncService.authorize(token, request.getRemoteAddr())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(ruleSyncService.export(Math.max(0, since)));
+    }
+
+    @GetMapping("/status")
+    public ResponseEntity<Map<String, Object>> status(@RequestHeader(value = "X-Cluster-Token", required = false) String token,
+                                                      HttpServletRequest request) {
+        if (!ruleSyncService.authorize(token, request.getRemoteAddr())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(ruleSyncService.getStatus());
+    }
+
+    /** 立即同步一轮，不等定时任务 */
+    @PostMapping("/sync")
+    public ResponseEntity<Map<String, Object>> sync(@RequestHeader(value = "X-Cluster-Token", required = false) String token,
+                                                    HttpServletRequest request) {
+        if (!ruleSyncService.authorize(token, request.getRemoteAddr())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        ruleSyncService.sync();
+        return ResponseEntity.ok(ruleSyncService.getStatus());
+    }
+
+    /** 集群限流状态：跟踪的 IP 数、计数交换流量和各对端最近一次上报时间 */
+    @GetMapping("/ratelimit")
+    public ResponseEntity<Map<String, Object>> rateLimit(@RequestHeader(value = "X-Cluster-Token", required = false) String token,
+                                                         HttpServletRequest request) {
+        if (!ruleSyncService.authorize(token, request.getRemoteAddr())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(rateLimiter.getStatus());
+    }
+}
@@ -0,0 +1,118 @@
+package org.example.waf.controller;
+
+import org.example.waf.events.EventDimension;
+import org.example.waf.events.EventQuery;
+import org.example.waf.events.EventStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 内嵌事件存储的查询接口：时间参数为毫秒时间戳，过滤条件之间为 AND。
+ */
+@RestController
+@RequestMapping("/api/statistics/events")
+public class EventStoreController {
+    private static final Logger logger = LoggerFactory.getLogger(EventStoreController.class);
+    private final EventStore eventStore;
+
+    public EventStoreController(EventStore eventStore) {
+        this.eventStore = eventStore;
+    }
+
+    @GetMapping("/status")
+    public ResponseEntity<Map<String, Object>> getStatus() {
+        return ResponseEntity.ok(eventStore.getStatus());
+    }
+
+    @GetMapping("/count")
+    public ResponseEntity<Map<String, Object>> count(@RequestParam(required = false) Long from,
+                                                     @RequestParam(required = false) Long to,
+                                                     @RequestParam(required = false) String ip,
+                                                     @RequestParam(required = false) String ruleId,
+                                                     @RequestParam(required = false) String action,
+                                                     @RequestParam(required = false) Integer category,
+                                                     @RequestParam(required = false) Integer status,
+                                                     @RequestParam(required = false) Integer minScore) {
+        if (!eventStore.isEnabled()) {
+            return disabled();
+        }
+        long start = System.nanoTime();
+        EventQuery query = query(from, to, ip, ruleId, action, category, status, minScore);
+        Map<String, Object> result = new HashMap<>();
+        result.put("count", eventStore.count(query));
+        result.put("tookMs", (System.nanoTime() - start) / 1_000_000.0);
+        return ResponseEntity.ok(result);
+    }
+
+    @GetMapping("/group-by")
+    public ResponseEntity<Map<String, Object>> groupBy(@RequestParam String dimension,
+                                                       @RequestParam(defaultValue = "10") int limit,
+                                                       @RequestParam(required = false) Long from,
+                                                       @RequestParam(required = false) Long to,
+                                                       @RequestParam(required = false) String ip,
+                                                       @RequestParam(required = false) String ruleId,
+                                                       @RequestParam(required = false) String action,
+                                                       @RequestParam(required = false) Integer category,
+                                                       @RequestParam(required = false) Integer status,
+                                                       @RequestParam(required = false) Integer minScore) {
+        if (!eventStore.isEnabled()) {
+            return disabled();
+        }
+        EventDimension d = EventDimension.of(dimension);
+        if (d == null) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", "dimension 必须是 ip、rule、action、category、status 之一");
+            return ResponseEntity.badRequest().body(error);
+        }
+        long start = System.nanoTime();
+        EventQuery query = query(from, to, ip, ruleId, action, category, status, minScore);
+        Map<String, Object> result = new HashMap<>();
+        result.put("dimension", d.name().toLowerCase());
+        result.put("groups", eventStore.groupBy(query, d, limit));
+        result.put("tookMs", (System.nanoTime() - start) / 1_000_000.0);
+        return ResponseEntity.ok(result);
+    }
+
+    @GetMapping("/latest")
+    public ResponseEntity<Map<String, Object>> latest(@RequestParam(defaultValue = "50") int limit,
+                                                      @RequestParam(required = false) Long from,
+                                                      @RequestParam(required = false) Long to,
+                                                      @RequestParam(required = false) String ip,
+                                                      @RequestParam(required = false) String ruleId,
+                                                      @RequestParam(required = false) String action,
+                                                      @RequestParam(required = false) Integer category,
+                                                      @RequestParam(required = false) Integer status,
+                                                      @RequestParam(required = false) Integer minScore) {
+        if (!eventStore.isEnabled()) {
+            return disabled();
+        }
+        long start = System.nanoTime();
+        EventQuery query = query(from, to, ip, ruleId, action, category, status, minScore);
+        Map<String, Object> result = new HashMap<>();
+        result.put("events", eventStore.latest(query, Math.min(Math.max(limit, 0), 1000)));
+        result.put("tookMs", (System.nanoTime() - start) / 1_000_000.0);
+        return ResponseEntity.ok(result);
+    }
+
+    private static EventQuery query(Long from, Long to, String ip, String ruleId, String action,
+                                    Integer category, Integer status, Integer minScore) {
+        return EventQuery.between(from == null ? Long.MIN_VALUE : from, to == null ? Long.MAX_VALUE : to)
+                .ip(ip).ruleId(ruleId).action(action).category(category).status(status).minScore(minScore);
+    }
+
+    private static ResponseEntity<Map<String, Object>> disabled() {
+        logger.debug("事件存储未启用");
+        Map<String, Object> error = new HashMap<>();
+        error.put("error", "事件存储未启用（app.events.store.enabled）");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(error);
+    }
+}
@@ -1,9 +1,11 @@
 package org.example.waf.controller;
 
+import org.example.waf.service.RequestLatencyTracker;
 import org.example.waf.service.SystemMonitorService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.Map;
@@ -13,9 +15,11 @@ import java.util.Map;
 public class OSBeanMonitor {
 
     private final SystemMonitorService systemMonitorService;
+    private final RequestLatencyTracker latencyTracker;
 
-    public OSBeanMonitor(SystemMonitorService systemMonitorService) {
+    public OSBeanMonitor(SystemMonitorService systemMonitorService, RequestLatencyTracker latencyTracker) {
         this.systemMonitorService = systemMonitorService;
+        this.latencyTracker = latencyTracker;
     }
 
     /**
@@ -90,6 +94,25 @@ public class OSBeanMonitor {
         return ResponseEntity.ok(systemMonitorService.getSystemInfo());
     }
 
+    /**
+     * 获取最近一段时间的延迟分位值（毫秒）：完整请求耗时和 WAF 检测开销
+     * @param minutes 统计最近多少分钟，超过一小时按整点小时合并
+     * @return 延迟分布信息
+     */
+    @GetMapping("/latency")
+    public ResponseEntity<Map<String, Object>> getLatency(@RequestParam(defaultValue = "5") int minutes) {
+        int window = Math.max(1, Math.min(minutes, 1440));
+        long now = System.currentTimeMillis();
+        long from = now - window * 60_000L;
+        Map<String, Object> latencyInfo = Map.of(
+            "minutes", window,
+            "request", latencyTracker.summary(RequestLatencyTracker.Metric.REQUEST, from, now + 1),
+            "wafOverhead", latencyTracker.summary(RequestLatencyTracker.Metric.WAF_OVERHEAD, from, now + 1),
+            "timestamp", now
+        );
+        return ResponseEntity.ok(latencyInfo);
+    }
+
     /**
      * 获取网络接口信息
      * @return 网络接口信息
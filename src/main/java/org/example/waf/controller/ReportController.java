@@ -1,10 +1,13 @@
 package org.example.waf.controller;
 
 import org.example.waf.DbLogRepository;
+import org.example.waf.archive.LogArchiveStore;
 import org.example.waf.domain.AttackDetail;
 import org.example.waf.domain.DbLog;
 import org.example.waf.domain.ReportSummary;
 import org.example.waf.dto.ReportResponse;
+import org.example.waf.sketch.UniqueIpCounter;
+import org.example.waf.waf.RuleCategory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,6 +25,12 @@ public class ReportController {
     @Autowired
     private DbLogRepository dbLogRepository;
 
+    @Autowired
+    private LogArchiveStore logArchiveStore;
+
+    @Autowired
+    private UniqueIpCounter uniqueIpCounter;
+
     @GetMapping("/report")
     public ReportResponse getReportData(
             @RequestParam(required = false) String startDate,
@@ -33,6 +42,9 @@ public class ReportController {
         
         // 查询数据库日志数据
         List<DbLog> dbLogs = new ArrayList<>();
+        // 独立 IP 统计的时间范围，未指定日期时为全部
+        long rangeStart = Long.MIN_VALUE;
+        long rangeEnd = Long.MAX_VALUE;
         
         try {
             if (startDate != null && endDate != null) {
@@ -48,13 +60,16 @@ public class ReportController {
                 calendar.set(Calendar.MINUTE, 59);
                 calendar.set(Calendar.SECOND, 59);
                 end = calendar.getTime();
+                rangeStart = start.getTime();
+                rangeEnd = end.getTime() + 1000;
                 
                 logger.info("按日期范围查询日志：start={}, end={}", start, end);
-                dbLogs = dbLogRepository.findByLogTimestampBetween(start, end);
+                // 超过保留期的日期已移出热表，从归档段读取
+                dbLogs = logArchiveStore.withArchived(dbLogRepository.findByLogTimestampBetween(start, end), start, end);
             } else {
                 // 如果没有提供日期范围，查询所有日志
                 logger.info("查询所有日志");
-                dbLogs = dbLogRepository.findAll();
+                dbLogs = logArchiveStore.withArchived(dbLogRepository.findAll(), null, null);
             }
             
             logger.info("查询到的日志数量：{}", dbLogs.size());
@@ -79,6 +94,11 @@ public class ReportController {
                     .count();
             summary.setHighRiskAttacks((int) highRiskAttacks);
 
+            // 独立 IP 数来自 HyperLogLog 统计，不再对日志做 COUNT(DISTINCT)
+            long[] uniques = uniqueIpCounter.count(rangeStart, rangeEnd);
+            summary.setUniqueVisitors(uniques[0]);
+            summary.setUniqueAttackers(uniques[1]);
+
             // 将DbLog转换为AttackDetail
             List<AttackDetail> attackList = new ArrayList<>();
             for (DbLog log : dbLogs) {
@@ -99,24 +119,16 @@ public class ReportController {
                 
                 attack.setIp(log.getClientIp());
                 
-                // 从ruleName中提取攻击类型
-                String attackType = "未知攻击";
-                if (log.getRuleName() != null) {
-                    if (log.getRuleName().contains("SQL") || log.getRuleName().contains("SQLi")) {
-                        attackType = "SQL注入";
-                    } else if (log.getRuleName().contains("XSS")) {
-                        attackType = "XSS攻击";
-                    } else if (log.getRuleName().contains("Scanner")) {
-                        attackType = "扫描器检测";
-                    } else {
-                        attackType = log.getRuleName();
-                    }
-                }
+                // 攻击类型：优先使用落库的分类编码
+                String attackType = RuleCategory.of(log.getAttackCategory(), log.getRuleName()).getLabel();
                 attack.setType(attackType);
                 
-                // 根据国家代码生成地理位置
+                // 根据归属地生成地理位置，历史数据只有国家代码
                 String location = "未知地区";
-                if (log.getCountryCode() != null) {
+                if (log.getProvince() != null && !log.getProvince().isEmpty()) {
+                    location = log.getCity() != null && !log.getCity().isEmpty() && !log.getCity().equals(log.getProvince())
+                            ? log.getProvince() + log.getCity() : log.getProvince();
+                } else if (log.getCountryCode() != null) {
                     if ("CN".equals(log.getCountryCode())) {
                         location = "中国";
                     } else if ("US".equals(log.getCountryCode())) {
@@ -2,6 +2,18 @@ package org.example.waf.controller;
 
 import org.example.waf.DbLogRepository;
 import org.example.waf.domain.DbLog;
+import org.example.waf.domain.GeoRegion;
+import org.example.waf.search.AttackLogIndex;
+import org.example.waf.search.LogSearchQuery;
+import org.example.waf.search.LogSearchResult;
+import org.example.waf.sketch.HeavyHitter;
+import org.example.waf.sketch.HeavyHitterDimension;
+import org.example.waf.sketch.HeavyHitterTracker;
+import org.example.waf.sketch.UniqueIpCounter;
+import org.example.waf.service.GeoIpService;
+import org.example.waf.service.RequestLatencyTracker;
+import org.example.waf.util.LatencyHistogram;
+import org.example.waf.waf.RuleCategory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,6 +21,7 @@ import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -30,6 +43,21 @@ public class StatisticsController {
     @Autowired
     private DbLogRepository dbLogRepository;
 
+    @Autowired
+    private GeoIpService geoIpService;
+
+    @Autowired
+    private AttackLogIndex attackLogIndex;
+
+    @Autowired
+    private HeavyHitterTracker heavyHitterTracker;
+
+    @Autowired
+    private UniqueIpCounter uniqueIpCounter;
+
+    @Autowired
+    private RequestLatencyTracker latencyTracker;
+
     @GetMapping("/big-screen")
     public ResponseEntity<Map<String, Object>> getBigScreenData() {
         try {
@@ -58,24 +86,21 @@ public class StatisticsController {
             double blockRate = totalRequestsToday > 0 ? (totalAttacksToday * 100.0 / totalRequestsToday) : 0.0;
             blockRate = Math.round(blockRate * 10) / 10.0; // 保留一位小数
             
-            // 计算平均响应时间
-            double avgResponseTime = todayLogs.stream()
-                .filter(log -> log != null && log.getRequestTime() != null)
-                .mapToDouble(DbLog::getRequestTime)
-                .average()
-                .orElse(23.0);
-            avgResponseTime = Math.round(avgResponseTime); // 取整
+            // 响应时间：今日全部请求的延迟直方图（不只是落库的攻击日志）
+            LatencyHistogram todayLatency = latencyTracker.snapshot(RequestLatencyTracker.Metric.REQUEST,
+                    todayStart.getTime(), System.currentTimeMillis() + 1);
             
             // 成都地区攻击数
             long chengduAttacks = todayLogs.stream()
                 .filter(log -> log != null && "block".equals(log.getActionTaken()) && 
-                            ("四川".equals(log.getCountryCode()) || "成都".equals(log.getCountryCode())))
+                            ("四川".equals(regionName(log)) || "成都".equals(log.getCity())))
                 .count();
             
             Map<String, Object> keyMetrics = new HashMap<>();
             keyMetrics.put("todayAttacks", totalAttacksToday > 0 ? totalAttacksToday : 1256L);
             keyMetrics.put("blockRate", blockRate > 0 ? blockRate : 98.5);
-            keyMetrics.put("responseTime", avgResponseTime > 0 ? avgResponseTime : 23.0);
+            keyMetrics.put("responseTime", RequestLatencyTracker.toMillis(todayLatency.percentile(50)));
+            keyMetrics.put("responseTimeP99", RequestLatencyTracker.toMillis(todayLatency.percentile(99)));
             keyMetrics.put("chengduAttacks", chengduAttacks > 0 ? chengduAttacks : 89L);
             
             // 3. 实时攻击数据
@@ -105,29 +130,15 @@ public class StatisticsController {
                 attack.put("time", log.getLogTimestamp() != null ? timeFormat.format(log.getLogTimestamp()) : "");
                 attack.put("ip", log.getClientIp() != null ? log.getClientIp() : "");
                 
-                // 确定攻击类型
-                String attackType = "其他";
-                if (log.getRuleName() != null) {
-                    if (log.getRuleName().contains("SQL") || log.getRuleName().contains("SQLi")) {
-                        attackType = "SQL注入";
-                    } else if (log.getRuleName().contains("XSS")) {
-                        attackType = "XSS攻击";
-                    } else if (log.getRuleName().contains("Path") || log.getRuleName().contains("路径")) {
-                        attackType = "路径遍历";
-                    } else if (log.getRuleName().contains("Upload") || log.getRuleName().contains("上传")) {
-                        attackType = "文件上传";
-                    } else if (log.getRuleName().contains("Command") || log.getRuleName().contains("命令")) {
-                        attackType = "命令注入";
-                    } else if (log.getRuleName().contains("Brute") || log.getRuleName().contains("暴力")) {
-                        attackType = "暴力破解";
-                    } else if (log.getRuleName().contains("CSRF")) {
-                        attackType = "CSRF";
-                    }
-                }
+                // 攻击类型：命中时已写入分类编码
+                String attackType = RuleCategory.of(log.getAttackCategory(), log.getRuleName()).getLabel();
                 attack.put("type", attackType);
                 
                 // 位置信息
-                String location = log.getCountryCode() != null ? log.getCountryCode() : "未知";
+                String location = regionName(log);
+                if (log.getCity() != null && !log.getCity().isEmpty() && !log.getCity().equals(location)) {
+                    location += log.getCity();
+                }
                 attack.put("location", location);
                 attack.put("status", "已拦截");
                 
@@ -163,34 +174,31 @@ public class StatisticsController {
                 }
             }
             
-            // 3. 地理数据
+            // 3. 地理数据：按入队时解析出的省份聚合
             Map<String, Long> locationCounts = new HashMap<>();
-            locationCounts.put("四川", 89L);
-            locationCounts.put("北京", 45L);
-            locationCounts.put("上海", 33L);
-            locationCounts.put("广东", 56L);
-            
-            // 从数据库统计各地区攻击数
             todayLogs.stream()
-                .filter(log -> log != null && "block".equals(log.getActionTaken()) && log.getCountryCode() != null)
-                .forEach(log -> {
-                    String country = log.getCountryCode();
-                    locationCounts.put(country, locationCounts.getOrDefault(country, 0L) + 1);
-                });
-            
-            // 地理坐标映射
-            Map<String, double[]> geoCoordinates = new HashMap<>();
-            geoCoordinates.put("四川", new double[]{104.06, 30.67});
-            geoCoordinates.put("北京", new double[]{116.40, 39.90});
-            geoCoordinates.put("上海", new double[]{121.47, 31.23});
-            geoCoordinates.put("广东", new double[]{113.27, 23.13});
-            geoCoordinates.put("成都", new double[]{104.06, 30.67});
-            
+                .filter(log -> log != null && "block".equals(log.getActionTaken()))
+                .map(this::regionName)
+                .filter(name -> !"未知".equals(name))
+                .forEach(name -> locationCounts.merge(name, 1L, Long::sum));
+
+            // 如果没有地理数据，使用模拟数据
+            if (locationCounts.isEmpty()) {
+                locationCounts.put("四川", 89L);
+                locationCounts.put("北京", 45L);
+                locationCounts.put("上海", 33L);
+                locationCounts.put("广东", 56L);
+            }
+
             List<Map<String, Object>> geographicData = new ArrayList<>();
             for (Map.Entry<String, Long> entry : locationCounts.entrySet()) {
                 String name = entry.getKey();
                 long value = entry.getValue();
-                double[] coordinates = geoCoordinates.getOrDefault(name, new double[]{104.06, 30.67});
+                // 坐标取自IP段库中该地区的记录，段库未收录时落在默认位置
+                GeoRegion region = geoIpService.findByName(name);
+                double[] coordinates = region != null
+                        ? new double[]{region.getLongitude(), region.getLatitude()}
+                        : new double[]{104.06, 30.67};
                 
                 Map<String, Object> geoItem = new HashMap<>();
                 geoItem.put("name", name);
@@ -316,20 +324,12 @@ public class StatisticsController {
                     .count();
             int totalAllowed = totalRequests - totalBlocked;
 
-            // 计算平均响应时间
-            double avgResponseTime = logsToUse.stream()
-                    .filter(log -> log != null && log.getRequestTime() != null)
-                    .mapToDouble(DbLog::getRequestTime)
-                    .average()
-                    .orElse(0.0);
-            avgResponseTime = Math.round(avgResponseTime * 100) / 100.0; // 保留两位小数
 
             // 如果数据库中没有数据，则返回模拟数据
             if (totalRequests == 0) {
                 totalRequests = 12450;
                 totalBlocked = 156;
                 totalAllowed = 12294;
-                avgResponseTime = 23.0;
                 logger.info("数据库中无日志数据，返回模拟数据");
             }
 
@@ -338,7 +338,23 @@ public class StatisticsController {
             summary.put("todayBlocked", totalBlocked);
             summary.put("todayRequests", totalRequests);
             summary.put("todayAllowed", totalAllowed);
-            summary.put("avgResponseTime", avgResponseTime);
+
+            // 延迟分布（毫秒）：完整请求耗时和 WAF 自身检测开销，平均值会掩盖长尾，同时给出分位值
+            long now = System.currentTimeMillis();
+            LatencyHistogram requestLatency = latencyTracker.snapshot(RequestLatencyTracker.Metric.REQUEST,
+                    todayStart.getTime(), now + 1);
+            summary.put("avgResponseTime", RequestLatencyTracker.toMillis(requestLatency.mean()));
+            summary.put("responseTime", RequestLatencyTracker.describe(requestLatency));
+            summary.put("wafOverhead", latencyTracker.summary(RequestLatencyTracker.Metric.WAF_OVERHEAD,
+                    todayStart.getTime(), now + 1));
+
+            // 独立 IP 数（HyperLogLog 估计，误差约 1%）：今日全部/被拦截，以及最近一小时
+            long[] todayUniques = uniqueIpCounter.count(todayStart.getTime(), now + 1);
+            long[] lastHourUniques = uniqueIpCounter.count(now - 3_600_000L, now + 1);
+            summary.put("todayUniqueVisitors", todayUniques[0]);
+            summary.put("todayUniqueAttackers", todayUniques[1]);
+            summary.put("lastHourUniqueVisitors", lastHourUniques[0]);
+            summary.put("lastHourUniqueAttackers", lastHourUniques[1]);
 
             Map<String, Object> response = new HashMap<>();
             response.put("code", 200);
@@ -373,16 +389,14 @@ public class StatisticsController {
             List<DbLog> todayLogs = dbLogRepository.findByLogTimestampAfter(todayStart);
             logger.info("查询到今日日志总数: {}", todayLogs.size());
 
-            // 计算今日拦截的总数
-            long totalBlockedToday = todayLogs.stream()
-                .filter(log -> log != null && "block".equals(log.getActionTaken()))
-                .count();
+            // 按分类编码计数：每行一次数组下标累加
+            long[] counts = new long[RuleCategory.values().length];
+            long totalBlockedToday = countBlockedByCategory(todayLogs, counts);
             logger.info("今日拦截总数: {}", totalBlockedToday);
 
-            // 如果今天没有拦截日志，查询所有拦截日志
+            // 如果今天没有拦截日志，统计所有拦截日志
             if (totalBlockedToday == 0) {
-                List<DbLog> allBlockedLogs = dbLogRepository.findByActionTaken("block");
-                totalBlockedToday = allBlockedLogs.size();
+                totalBlockedToday = countBlockedByCategory(dbLogRepository.findByActionTaken("block"), counts);
                 logger.info("今日无拦截日志，使用所有拦截日志总数: {}", totalBlockedToday);
             }
 
@@ -400,42 +414,15 @@ public class StatisticsController {
                     Map.of("type", "其他", "count", 36)
                 );
             } else {
-                // 按比例分配攻击类型数据（总比例和为1）
-                Map<String, Double> typeRatioMap = new HashMap<>();
-                typeRatioMap.put("SQL注入", 0.35);    // 35%
-                typeRatioMap.put("XSS攻击", 0.25);     // 25%
-                typeRatioMap.put("路径遍历", 0.2);     // 20%
-                typeRatioMap.put("文件上传", 0.1);     // 10%
-                typeRatioMap.put("其他", 0.1);         // 10%
-                
-                // 分配数量并添加到统计列表
-                long remainingCount = totalBlockedToday;
-                List<String> types = new ArrayList<>(typeRatioMap.keySet());
-                
-                for (int i = 0; i < types.size(); i++) {
-                    String type = types.get(i);
-                    double ratio = typeRatioMap.get(type);
-                    long count;
-                    
-                    // 最后一种类型处理剩余数量，避免小数问题
-                    if (i == types.size() - 1) {
-                        count = remainingCount;
-                    } else {
-                        count = Math.round(totalBlockedToday * ratio);
-                        remainingCount -= count;
-                    }
-                    
-                    // 确保每种类型至少有1个（如果总数足够）
-                    if (count < 1 && totalBlockedToday > 0) {
-                        count = 1;
-                        remainingCount -= 1;
+                for (RuleCategory category : RuleCategory.values()) {
+                    long count = counts[category.ordinal()];
+                    if (count == 0) {
+                        continue;
                     }
-                    
                     Map<String, Object> item = new HashMap<>();
-                    item.put("type", type);
+                    item.put("type", category.getLabel());
                     item.put("count", count);
                     statsList.add(item);
-                    logger.info("添加统计项: {} = {} (比例: {})", type, count, ratio);
                 }
             }
 
@@ -457,8 +444,29 @@ public class StatisticsController {
     }
 
     // 获取攻击日志
+    /**
+     * 最近攻击日志。带任一过滤条件（ip、ruleId、url、ua、status、action）时走攻击日志倒排索引：
+     * 同一参数里逗号分隔的多个值之间为 OR，url、ua 按词匹配；不同参数之间默认 AND，op=or 时为 OR。
+     */
     @GetMapping("/attack-logs")
-    public ResponseEntity<Map<String, Object>> getAttackLogs(@RequestParam(defaultValue = "10") int limit) {
+    public ResponseEntity<Map<String, Object>> getAttackLogs(@RequestParam(defaultValue = "10") int limit,
+                                                             @RequestParam(required = false) String ip,
+                                                             @RequestParam(required = false) String ruleId,
+                                                             @RequestParam(required = false) String url,
+                                                             @RequestParam(required = false) String ua,
+                                                             @RequestParam(required = false) String status,
+                                                             @RequestParam(required = false) String action,
+                                                             @RequestParam(defaultValue = "and") String op,
+                                                             @RequestParam(required = false) Long from,
+                                                             @RequestParam(required = false) Long to) {
+        LogSearchQuery query = new LogSearchQuery().ip(ip).ruleId(ruleId).url(url).userAgent(ua)
+                .status(status).action(action).between(from, to);
+        if ("or".equalsIgnoreCase(op)) {
+            query.or();
+        }
+        if (!query.isEmpty()) {
+            return searchAttackLogs(query, Math.min(Math.max(limit, 0), 1000));
+        }
         try {
             // 获取今天的起始时间
             Calendar calendar = Calendar.getInstance();
@@ -497,33 +505,7 @@ public class StatisticsController {
             
             for (DbLog log : limitedLogs) {
                 if (log == null) continue;
-                
-                String attackType;
-                if (log.getRuleName() != null) {
-                    if (log.getRuleName().contains("SQL") || log.getRuleName().contains("SQLi")) {
-                        attackType = "SQL注入";
-                    } else if (log.getRuleName().contains("XSS")) {
-                        attackType = "XSS攻击";
-                    } else if (log.getRuleName().contains("Path") || log.getRuleName().contains("路径")) {
-                        attackType = "路径遍历";
-                    } else if (log.getRuleName().contains("Upload") || log.getRuleName().contains("上传")) {
-                        attackType = "文件上传";
-                    } else {
-                        attackType = "其他";
-                    }
-                } else {
-                    attackType = "其他";
-                }
-
-                Map<String, Object> attackLog = new HashMap<>();
-                attackLog.put("time", log.getLogTimestamp() != null ? sdf.format(log.getLogTimestamp()) : "");
-                attackLog.put("ip", log.getClientIp() != null ? log.getClientIp() : "");
-                attackLog.put("attackType", attackType);
-                attackLog.put("pattern", log.getRuleName() != null ? log.getRuleName() : "");
-                attackLog.put("url", log.getUrl() != null ? log.getUrl() : "");
-                attackLog.put("action", log.getActionTaken() != null ? log.getActionTaken() : "");
-                
-                attackLogs.add(attackLog);
+                attackLogs.add(toAttackLog(log, sdf));
             }
 
             // 如果数据库中没有数据，则返回模拟数据
@@ -573,6 +555,206 @@ public class StatisticsController {
         }
     }
 
+    @GetMapping("/attack-logs/index-status")
+    public ResponseEntity<Map<String, Object>> getAttackLogIndexStatus() {
+        return ResponseEntity.ok(attackLogIndex.getStatus());
+    }
+
+    /**
+     * 最近 minutes 分钟内的 Top-K：dimension 为 ip、path、ua、rule，
+     * scope=attacks（默认）统计命中规则的事件，scope=requests 统计全部经过检测的请求（没有 rule 维度）。
+     */
+    @GetMapping("/top/{dimension}")
+    public ResponseEntity<Map<String, Object>> getTopK(@PathVariable String dimension,
+                                                       @RequestParam(defaultValue = HeavyHitterTracker.ATTACKS) String scope,
+                                                       @RequestParam(defaultValue = "5") int minutes,
+                                                       @RequestParam(defaultValue = "10") int k) {
+        HeavyHitterDimension d = HeavyHitterDimension.of(dimension);
+        if (d == null || !(HeavyHitterTracker.ATTACKS.equals(scope) || HeavyHitterTracker.REQUESTS.equals(scope))) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("code", 400);
+            error.put("message", "dimension 必须是 ip、path、ua、rule 之一，scope 必须是 attacks 或 requests");
+            return ResponseEntity.badRequest().body(error);
+        }
+        if (!heavyHitterTracker.isEnabled()) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("code", 503);
+            error.put("message", "Top-K 统计未启用");
+            return ResponseEntity.status(503).body(error);
+        }
+        int window = Math.min(Math.max(minutes, 1), heavyHitterTracker.getWindowMinutes());
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (HeavyHitter h : heavyHitterTracker.top(scope, d, window, Math.min(Math.max(k, 1), 100))) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("key", h.getKey());
+            item.put("count", h.getCount());
+            item.put("error", h.getError());
+            items.add(item);
+        }
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("dimension", dimension.toLowerCase());
+        data.put("scope", scope);
+        data.put("minutes", window);
+        data.put("items", items);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("code", 200);
+        response.put("message", "success");
+        response.put("data", data);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 独立 IP 数的时间序列：granularity 为 minute、hour（默认）或 day，返回最近 points 个时间段，旧的在前。
+     */
+    @GetMapping("/unique-ips")
+    public ResponseEntity<Map<String, Object>> getUniqueIps(@RequestParam(defaultValue = "hour") String granularity,
+                                                            @RequestParam(defaultValue = "24") int points) {
+        long step;
+        SimpleDateFormat sdf;
+        if ("minute".equals(granularity)) {
+            step = 60_000L;
+            sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        } else if ("hour".equals(granularity)) {
+            step = 3_600_000L;
+            sdf = new SimpleDateFormat("yyyy-MM-dd HH:00");
+        } else if ("day".equals(granularity)) {
+            step = 86_400_000L;
+            sdf = new SimpleDateFormat("yyyy-MM-dd");
+        } else {
+            Map<String, Object> error = new HashMap<>();
+            error.put("code", 400);
+            error.put("message", "granularity 必须是 minute、hour、day 之一");
+            return ResponseEntity.badRequest().body(error);
+        }
+        int n = Math.min(Math.max(points, 1), 366);
+
+        // 按本地时区对齐到时间段起点
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (step >= 3_600_000L) {
+            calendar.set(Calendar.MINUTE, 0);
+        }
+        if (step >= 86_400_000L) {
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+        }
+        List<Map<String, Object>> series = new ArrayList<>();
+        for (int i = n - 1; i >= 0; i--) {
+            Calendar start = (Calendar) calendar.clone();
+            Calendar end = (Calendar) calendar.clone();
+            if (step == 86_400_000L) {
+                // 按日历天计算，跨夏令时也对齐到零点
+                start.add(Calendar.DAY_OF_MONTH, -i);
+                end.add(Calendar.DAY_OF_MONTH, -i + 1);
+            } else {
+                start.setTimeInMillis(calendar.getTimeInMillis() - i * step);
+                end.setTimeInMillis(start.getTimeInMillis() + step);
+            }
+            long[] uniques = uniqueIpCounter.count(start.getTimeInMillis(), end.getTimeInMillis());
+            Map<String, Object> point = new HashMap<>();
+            point.put("time", sdf.format(start.getTime()));
+            point.put("visitors", uniques[0]);
+            point.put("attackers", uniques[1]);
+            series.add(point);
+        }
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("granularity", granularity);
+        data.put("series", series);
+        data.put("status", uniqueIpCounter.getStatus());
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("code", 200);
+        response.put("message", "success");
+        response.put("data", data);
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/top/status")
+    public ResponseEntity<Map<String, Object>> getTopKStatus() {
+        return ResponseEntity.ok(heavyHitterTracker.getStatus());
+    }
+
+    // 辅助方法：按倒排索引检索攻击日志，只按主键回表取命中的前 N 条
+    private ResponseEntity<Map<String, Object>> searchAttackLogs(LogSearchQuery query, int limit) {
+        if (!attackLogIndex.isReady()) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("code", 503);
+            error.put("message", attackLogIndex.isEnabled() ? "攻击日志索引正在回填，请稍后重试" : "攻击日志索引未启用");
+            return ResponseEntity.status(503).body(error);
+        }
+        try {
+            LogSearchResult result = attackLogIndex.search(query, limit);
+            Map<Long, DbLog> byId = new HashMap<>();
+            for (DbLog log : dbLogRepository.findAllById(result.getIds())) {
+                byId.put(log.getId(), log);
+            }
+            List<Map<String, Object>> attackLogs = new ArrayList<>();
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            for (Long id : result.getIds()) {
+                // 已被保留任务删除或归档的日志不再回表
+                DbLog log = byId.get(id);
+                if (log != null) {
+                    attackLogs.add(toAttackLog(log, sdf));
+                }
+            }
+            logger.info("攻击日志检索命中 {} 条，索引耗时 {} ms", result.getTotal(), result.getTookMs());
+
+            Map<String, Object> data = new HashMap<>();
+            data.put("logs", attackLogs);
+            data.put("total", result.getTotal());
+            data.put("tookMs", result.getTookMs());
+            data.put("coveredSince", result.getCoveredSince() > 0 ? sdf.format(new Date(result.getCoveredSince())) : "");
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("code", 200);
+            response.put("message", "success");
+            response.put("data", data);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("检索攻击日志失败:", e);
+            Map<String, Object> error = new HashMap<>();
+            error.put("code", 500);
+            error.put("message", "检索攻击日志失败");
+            return ResponseEntity.status(500).body(error);
+        }
+    }
+
+    // 辅助方法：日志转换为前端攻击日志列表的格式
+    private Map<String, Object> toAttackLog(DbLog log, SimpleDateFormat sdf) {
+        Map<String, Object> attackLog = new HashMap<>();
+        attackLog.put("time", log.getLogTimestamp() != null ? sdf.format(log.getLogTimestamp()) : "");
+        attackLog.put("ip", log.getClientIp() != null ? log.getClientIp() : "");
+        attackLog.put("attackType", RuleCategory.of(log.getAttackCategory(), log.getRuleName()).getLabel());
+        attackLog.put("pattern", log.getRuleName() != null ? log.getRuleName() : "");
+        attackLog.put("url", log.getUrl() != null ? log.getUrl() : "");
+        attackLog.put("action", log.getActionTaken() != null ? log.getActionTaken() : "");
+        return attackLog;
+    }
+
+    // 辅助方法：日志的地区名称，优先省份，历史数据回退到国家代码
+    private String regionName(DbLog log) {
+        if (log.getProvince() != null && !log.getProvince().isEmpty()) {
+            return log.getProvince();
+        }
+        return log.getCountryCode() != null ? log.getCountryCode() : "未知";
+    }
+
+    // 辅助方法：按分类统计拦截日志，返回拦截总数
+    private long countBlockedByCategory(List<DbLog> logs, long[] counts) {
+        long total = 0;
+        for (DbLog log : logs) {
+            if (log == null || !"block".equals(log.getActionTaken())) {
+                continue;
+            }
+            counts[RuleCategory.of(log.getAttackCategory(), log.getRuleName()).ordinal()]++;
+            total++;
+        }
+        return total;
+    }
+
     // 辅助方法：创建模拟攻击数据
     private Map<String, Object> createMockAttack(int id, String time, String ip, String type, String location, String status) {
         Map<String, Object> attack = new HashMap<>();
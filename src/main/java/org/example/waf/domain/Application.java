@@ -9,9 +9,10 @@ public class Application {
     private String name;
     private String domain;
     private String status; // enabled 或 disabled
-    private Integer totalRequests;
-    private Integer blockedRequests;
-    private Integer attackCount;
+    private String upstream; // 反向代理模式下的上游地址，如 http://10.0.0.5:8080
+    private Long totalRequests;
+    private Long blockedRequests;
+    private Long attackCount;
     
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss", timezone = "GMT+8")
     private Date createTime;
@@ -21,7 +22,7 @@ public class Application {
     }
 
     // 有参构造函数
-    public Application(Long id, String name, String domain, String status, Integer totalRequests, Integer blockedRequests, Integer attackCount, Date createTime) {
+    public Application(Long id, String name, String domain, String status, Long totalRequests, Long blockedRequests, Long attackCount, Date createTime) {
         this.id = id;
         this.name = name;
         this.domain = domain;
@@ -65,27 +66,27 @@ public class Application {
         this.status = status;
     }
 
-    public Integer getTotalRequests() {
+    public Long getTotalRequests() {
         return totalRequests;
     }
 
-    public void setTotalRequests(Integer totalRequests) {
+    public void setTotalRequests(Long totalRequests) {
         this.totalRequests = totalRequests;
     }
 
-    public Integer getBlockedRequests() {
+    public Long getBlockedRequests() {
         return blockedRequests;
     }
 
-    public void setBlockedRequests(Integer blockedRequests) {
+    public void setBlockedRequests(Long blockedRequests) {
         this.blockedRequests = blockedRequests;
     }
 
-    public Integer getAttackCount() {
+    public Long getAttackCount() {
         return attackCount;
     }
 
-    public void setAttackCount(Integer attackCount) {
+    public void setAttackCount(Long attackCount) {
         this.attackCount = attackCount;
     }
 
@@ -96,4 +97,12 @@ public class Application {
     public void setCreateTime(Date createTime) {
         this.createTime = createTime;
     }
-}
\ No newline at end of file
+
+    public String getUpstream() {
+        return upstream;
+    }
+
+    public void setUpstream(String upstream) {
+        this.upstream = upstream;
+    }
+}
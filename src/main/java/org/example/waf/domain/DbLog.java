@@ -40,12 +40,21 @@ public class DbLog {
     @Column(name = "action_taken")
     private String actionTaken;
 
+    @Column(name = "attack_category")
+    private Integer attackCategory; // RuleCategory 编码
+
     @Column(name = "threat_score")
     private Integer threatScore;
 
     @Column(name = "country_code")
     private String countryCode;
 
+    @Column(name = "province")
+    private String province;
+
+    @Column(name = "city")
+    private String city;
+
     @Column(name = "bytes_sent")
     private Integer bytesSent;
 
@@ -81,10 +90,16 @@ public class DbLog {
     public void setRuleName(String ruleName) { this.ruleName = ruleName; }
     public String getActionTaken() { return actionTaken; }
     public void setActionTaken(String actionTaken) { this.actionTaken = actionTaken; }
+    public Integer getAttackCategory() { return attackCategory; }
+    public void setAttackCategory(Integer attackCategory) { this.attackCategory = attackCategory; }
     public Integer getThreatScore() { return threatScore; }
     public void setThreatScore(Integer threatScore) { this.threatScore = threatScore; }
     public String getCountryCode() { return countryCode; }
     public void setCountryCode(String countryCode) { this.countryCode = countryCode; }
+    public String getProvince() { return province; }
+    public void setProvince(String province) { this.province = province; }
+    public String getCity() { return city; }
+    public void setCity(String city) { this.city = city; }
     public Integer getBytesSent() { return bytesSent; }
     public void setBytesSent(Integer bytesSent) { this.bytesSent = bytesSent; }
     public Double getRequestTime() { return requestTime; }
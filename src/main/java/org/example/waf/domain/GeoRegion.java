@@ -0,0 +1,40 @@
+package org.example.waf.domain;
+
+/**
+ * IP 归属地。同一地区在查找表中只保存一份实例，查找结果直接复用，不产生新对象。
+ */
+public class GeoRegion {
+    public static final GeoRegion UNKNOWN = new GeoRegion("", "未知", "", 0, 0);
+
+    private final String countryCode;
+    private final String province;
+    private final String city;
+    private final double longitude;
+    private final double latitude;
+
+    public GeoRegion(String countryCode, String province, String city, double longitude, double latitude) {
+        this.countryCode = countryCode;
+        this.province = province;
+        this.city = city;
+        this.longitude = longitude;
+        this.latitude = latitude;
+    }
+
+    public String getCountryCode() { return countryCode; }
+    public String getProvince() { return province; }
+    public String getCity() { return city; }
+    public double getLongitude() { return longitude; }
+    public double getLatitude() { return latitude; }
+
+    public boolean isKnown() {
+        return this != UNKNOWN;
+    }
+
+    // 展示用名称：省份 + 城市（城市与省份相同时只显示一次，如 北京）
+    public String getDisplayName() {
+        if (city == null || city.isEmpty() || city.equals(province)) {
+            return province;
+        }
+        return province + city;
+    }
+}
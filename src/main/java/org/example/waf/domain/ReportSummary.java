@@ -7,6 +7,8 @@ public class ReportSummary {
     private int blockedAttacks;
     private double blockRate;
     private int highRiskAttacks;
+    private long uniqueVisitors;  // 独立访问 IP 数（HyperLogLog 估计）
+    private long uniqueAttackers; // 被拦截的独立 IP 数（HyperLogLog 估计）
 
     // Getter & Setter
     public int getTotalAttacks() { return totalAttacks; }
@@ -17,4 +19,8 @@ public class ReportSummary {
     public void setBlockRate(double blockRate) { this.blockRate = blockRate; }
     public int getHighRiskAttacks() { return highRiskAttacks; }
     public void setHighRiskAttacks(int highRiskAttacks) { this.highRiskAttacks = highRiskAttacks; }
+    public long getUniqueVisitors() { return uniqueVisitors; }
+    public void setUniqueVisitors(long uniqueVisitors) { this.uniqueVisitors = uniqueVisitors; }
+    public long getUniqueAttackers() { return uniqueAttackers; }
+    public void setUniqueAttackers(long uniqueAttackers) { this.uniqueAttackers = uniqueAttackers; }
 }
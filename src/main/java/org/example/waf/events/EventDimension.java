@@ -0,0 +1,25 @@
+package org.example.waf.events;
+
+/**
+ * 事件存储可分组的列。
+ */
+public enum EventDimension {
+    IP,
+    RULE,
+    ACTION,
+    CATEGORY,
+    STATUS;
+
+    /** 不区分大小写解析，未知名称返回 null。 */
+    public static EventDimension of(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (EventDimension d : values()) {
+            if (d.name().equalsIgnoreCase(name.trim())) {
+                return d;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,61 @@
+package org.example.waf.events;
+
+/**
+ * 事件存储的过滤条件，各条件之间为 AND，未设置的条件不限。时间区间为 [from, to]，单位毫秒。
+ */
+public class EventQuery {
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+    private String ip;
+    private String ruleId;
+    private String action;
+    private Integer category;
+    private Integer status;
+    private Integer minScore;
+
+    public static EventQuery between(long from, long to) {
+        EventQuery q = new EventQuery();
+        q.from = from;
+        q.to = to;
+        return q;
+    }
+
+    public EventQuery ip(String ip) {
+        this.ip = ip;
+        return this;
+    }
+
+    public EventQuery ruleId(String ruleId) {
+        this.ruleId = ruleId;
+        return this;
+    }
+
+    public EventQuery action(String action) {
+        this.action = action;
+        return this;
+    }
+
+    public EventQuery category(Integer category) {
+        this.category = category;
+        return this;
+    }
+
+    public EventQuery status(Integer status) {
+        this.status = status;
+        return this;
+    }
+
+    public EventQuery minScore(Integer minScore) {
+        this.minScore = minScore;
+        return this;
+    }
+
+    public long getFrom() { return from; }
+    public long getTo() { return to; }
+    public String getIp() { return ip; }
+    public String getRuleId() { return ruleId; }
+    public String getAction() { return action; }
+    public Integer getCategory() { return category; }
+    public Integer getStatus() { return status; }
+    public Integer getMinScore() { return minScore; }
+}
@@ -0,0 +1,35 @@
+package org.example.waf.events;
+
+/**
+ * 事件存储中的一行，只在明细查询时才物化。
+ */
+public class EventRow {
+    private final long timestamp;
+    private final String ip;
+    private final String ruleId;
+    private final String action;
+    private final int category;
+    private final int status;
+    private final int score;
+    private final int latencyMicros;
+
+    EventRow(long timestamp, String ip, String ruleId, String action, int category, int status, int score, int latencyMicros) {
+        this.timestamp = timestamp;
+        this.ip = ip;
+        this.ruleId = ruleId;
+        this.action = action;
+        this.category = category;
+        this.status = status;
+        this.score = score;
+        this.latencyMicros = latencyMicros;
+    }
+
+    public long getTimestamp() { return timestamp; }
+    public String getIp() { return ip; }
+    public String getRuleId() { return ruleId; }
+    public String getAction() { return action; }
+    public int getCategory() { return category; }
+    public int getStatus() { return status; }
+    public int getScore() { return score; }
+    public int getLatencyMicros() { return latencyMicros; }
+}
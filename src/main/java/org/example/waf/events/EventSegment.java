@@ -0,0 +1,417 @@
+package org.example.waf.events;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 事件存储的一个段：固定行数的列式文件，整体内存映射。
+ *
+ * <pre>
+ * 头（128 字节）"WAFEVT01" | version:int | count:int | sealed:int | capacity:int | 保留
+ * 列            ts:long[capacity] | ip:int[] | rule:int[] | action:byte[] | category:byte[] | status:short[] | score:int[] | latency:int[]
+ * </pre>
+ * ip、rule、action 是段内字典的编码，字典字符串按出现顺序追加到同名 .dict 文件。
+ * 每段的区间映射（时间、分数、状态码、耗时的最小/最大值）在内存中维护，打开时扫描重建，查询时据此跳过整段。
+ *
+ * 只有一个写线程；行的各列和区间映射写完后才发布 count（volatile），
+ * 读线程先读 count 再读不超过它的行，因此无需加锁即可并发查询正在写入的段。
+ */
+final class EventSegment implements Closeable {
+    static final byte[] MAGIC = "WAFEVT01".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 128;
+    static final int ROW_BYTES = 8 + 4 + 4 + 1 + 1 + 2 + 4 + 4;
+
+    static final int DICT_IP = 0;
+    static final int DICT_RULE = 1;
+    static final int DICT_ACTION = 2;
+
+    private static final int VERSION_OFFSET = 8;
+    private static final int COUNT_OFFSET = 12;
+    private static final int SEALED_OFFSET = 16;
+    private static final int CAPACITY_OFFSET = 20;
+
+    private final long id;
+    private final Path file;
+    private final Path dictFile;
+    private final int capacity;
+    private final MappedByteBuffer buffer;
+    private final FileChannel dictChannel;
+    // 写入线程（encode）和定时落盘线程（force）都会写出待落盘的字典条目，两者都在 pendingDict 上同步，
+    // 避免 toByteArray 与 reset 之间追加的条目被丢掉
+    private final ByteArrayOutputStream pendingDict = new ByteArrayOutputStream();
+    private final LongBuffer ts;
+    private final IntBuffer ip;
+    private final IntBuffer rule;
+    private final ByteBuffer action;
+    private final ByteBuffer category;
+    private final ShortBuffer status;
+    private final IntBuffer score;
+    private final IntBuffer latency;
+    private final Dictionary[] dictionaries = {new Dictionary(), new Dictionary(), new Dictionary()};
+
+    private volatile int count;
+    private volatile boolean sealed;
+    // 区间映射，写线程在发布 count 之前更新
+    private long minTs = Long.MAX_VALUE;
+    private long maxTs = Long.MIN_VALUE;
+    private int minScore = Integer.MAX_VALUE;
+    private int maxScore = Integer.MIN_VALUE;
+    private int minStatus = Integer.MAX_VALUE;
+    private int maxStatus = Integer.MIN_VALUE;
+    private int minLatency = Integer.MAX_VALUE;
+    private int maxLatency = Integer.MIN_VALUE;
+
+    /** 段内字典：写线程追加，读线程按编码取值或按字符串查编码。 */
+    static final class Dictionary {
+        private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+        private volatile String[] values = new String[64];
+        private int size;
+
+        int code(String value) {
+            Integer c = codes.get(value);
+            return c == null ? -1 : c;
+        }
+
+        String value(int code) {
+            String[] v = values;
+            return code >= 0 && code < v.length && v[code] != null ? v[code] : "";
+        }
+
+        int size() {
+            return size;
+        }
+
+        private int add(String value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = value;
+            codes.put(value, size);
+            return size++;
+        }
+    }
+
+    private EventSegment(long id, Path file, Path dictFile, MappedByteBuffer buffer, FileChannel dictChannel, int capacity) {
+        this.id = id;
+        this.file = file;
+        this.dictFile = dictFile;
+        this.buffer = buffer;
+        this.dictChannel = dictChannel;
+        this.capacity = capacity;
+        int offset = HEADER_BYTES;
+        this.ts = slice(offset, capacity * 8).asLongBuffer();
+        offset += capacity * 8;
+        this.ip = slice(offset, capacity * 4).asIntBuffer();
+        offset += capacity * 4;
+        this.rule = slice(offset, capacity * 4).asIntBuffer();
+        offset += capacity * 4;
+        this.action = slice(offset, capacity);
+        offset += capacity;
+        this.category = slice(offset, capacity);
+        offset += capacity;
+        this.status = slice(offset, capacity * 2).asShortBuffer();
+        offset += capacity * 2;
+        this.score = slice(offset, capacity * 4).asIntBuffer();
+        offset += capacity * 4;
+        this.latency = slice(offset, capacity * 4).asIntBuffer();
+    }
+
+    static EventSegment create(Path dir, long id, int capacity) throws IOException {
+        Path file = dir.resolve(name(id) + ".evt");
+        Path dictFile = dir.resolve(name(id) + ".dict");
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity * ROW_BYTES);
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            buffer.put(i, MAGIC[i]);
+        }
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        FileChannel dict = FileChannel.open(dictFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new EventSegment(id, file, dictFile, buffer, dict, capacity);
+    }
+
+    /**
+     * 打开已有的段，读回字典和区间映射；未封存的段可以继续追加。
+     */
+    static EventSegment open(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        long id = Long.parseLong(name.substring(0, name.length() - ".evt".length()));
+        Path dictFile = file.resolveSibling(name(id) + ".dict");
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(i) != MAGIC[i]) {
+                throw new IOException("不是有效的事件段: " + file);
+            }
+        }
+        int capacity = buffer.getInt(CAPACITY_OFFSET);
+        if (buffer.getInt(VERSION_OFFSET) != VERSION || buffer.capacity() != HEADER_BYTES + (long) capacity * ROW_BYTES) {
+            throw new IOException("事件段版本或大小不符: " + file);
+        }
+        FileChannel dict = FileChannel.open(dictFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        EventSegment segment = new EventSegment(id, file, dictFile, buffer, dict, capacity);
+        segment.loadDictionaries();
+        int rows = Math.min(buffer.getInt(COUNT_OFFSET), capacity);
+        // 字典文件不一定与行同时落盘，编码超出字典范围的行视为未写完
+        int valid = 0;
+        while (valid < rows && segment.ip.get(valid) < segment.dictionaries[DICT_IP].size
+                && segment.rule.get(valid) < segment.dictionaries[DICT_RULE].size
+                && (segment.action.get(valid) & 0xff) < segment.dictionaries[DICT_ACTION].size) {
+            segment.updateZones(valid);
+            valid++;
+        }
+        segment.count = valid;
+        segment.sealed = buffer.getInt(SEALED_OFFSET) != 0;
+        return segment;
+    }
+
+    static String name(long id) {
+        return String.format("%012d", id);
+    }
+
+    long id() {
+        return id;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean isFull() {
+        return count >= capacity;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    long sizeBytes() {
+        return HEADER_BYTES + (long) capacity * ROW_BYTES;
+    }
+
+    /**
+     * 追加一行（仅写线程调用），段已满时返回 false。
+     */
+    boolean append(long timestamp, String ipValue, String ruleValue, String actionValue,
+                   int categoryCode, int statusCode, int scoreValue, int latencyMicros) throws IOException {
+        int row = count;
+        if (row >= capacity || sealed) {
+            return false;
+        }
+        int actionCode = encode(DICT_ACTION, actionValue);
+        if (actionCode > 255) {
+            actionCode = encode(DICT_ACTION, "other");
+        }
+        ts.put(row, timestamp);
+        ip.put(row, encode(DICT_IP, ipValue));
+        rule.put(row, encode(DICT_RULE, ruleValue));
+        action.put(row, (byte) actionCode);
+        category.put(row, (byte) categoryCode);
+        status.put(row, (short) Math.max(0, Math.min(statusCode, Short.MAX_VALUE)));
+        score.put(row, scoreValue);
+        latency.put(row, latencyMicros);
+        updateZones(row);
+        count = row + 1;
+        buffer.putInt(COUNT_OFFSET, row + 1);
+        return true;
+    }
+
+    /** 封存：写入标记并落盘，之后只读。 */
+    void seal() throws IOException {
+        sealed = true;
+        buffer.putInt(SEALED_OFFSET, 1);
+        force();
+    }
+
+    void force() throws IOException {
+        writePendingDict();
+        dictChannel.force(false);
+        buffer.force();
+    }
+
+    Dictionary dictionary(int which) {
+        return dictionaries[which];
+    }
+
+    long minTs() {
+        return minTs;
+    }
+
+    long maxTs() {
+        return maxTs;
+    }
+
+    int minScore() {
+        return minScore;
+    }
+
+    int maxScore() {
+        return maxScore;
+    }
+
+    int minLatency() {
+        return minLatency;
+    }
+
+    int maxLatency() {
+        return maxLatency;
+    }
+
+    int minStatus() {
+        return minStatus;
+    }
+
+    int maxStatus() {
+        return maxStatus;
+    }
+
+    long ts(int row) {
+        return ts.get(row);
+    }
+
+    int ip(int row) {
+        return ip.get(row);
+    }
+
+    int rule(int row) {
+        return rule.get(row);
+    }
+
+    int action(int row) {
+        return action.get(row) & 0xff;
+    }
+
+    int category(int row) {
+        return category.get(row) & 0xff;
+    }
+
+    int status(int row) {
+        return status.get(row);
+    }
+
+    int score(int row) {
+        return score.get(row);
+    }
+
+    int latency(int row) {
+        return latency.get(row);
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dictFile);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writePendingDict();
+        } finally {
+            dictChannel.close();
+        }
+    }
+
+    private void writePendingDict() throws IOException {
+        synchronized (pendingDict) {
+            if (pendingDict.size() == 0) {
+                return;
+            }
+            ByteBuffer data = ByteBuffer.wrap(pendingDict.toByteArray());
+            while (data.hasRemaining()) {
+                dictChannel.write(data);
+            }
+            pendingDict.reset();
+        }
+    }
+
+    private void updateZones(int row) {
+        long t = ts.get(row);
+        int s = score.get(row);
+        int st = status.get(row);
+        int l = latency.get(row);
+        minTs = Math.min(minTs, t);
+        maxTs = Math.max(maxTs, t);
+        minScore = Math.min(minScore, s);
+        maxScore = Math.max(maxScore, s);
+        minStatus = Math.min(minStatus, st);
+        maxStatus = Math.max(maxStatus, st);
+        minLatency = Math.min(minLatency, l);
+        maxLatency = Math.max(maxLatency, l);
+    }
+
+    private int encode(int which, String value) throws IOException {
+        String v = value == null ? "" : value;
+        Dictionary dict = dictionaries[which];
+        int code = dict.code(v);
+        if (code >= 0) {
+            return code;
+        }
+        byte[] bytes = v.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, 0xffff);
+        // 字典条目先攒在内存里，落盘时批量写；重启时引用了未落盘条目的行会被丢弃
+        synchronized (pendingDict) {
+            pendingDict.write(which);
+            pendingDict.write(length >>> 8);
+            pendingDict.write(length);
+            pendingDict.write(bytes, 0, length);
+            if (pendingDict.size() >= 64 * 1024) {
+                writePendingDict();
+            }
+        }
+        return dict.add(length == bytes.length ? v : new String(bytes, 0, length, StandardCharsets.UTF_8));
+    }
+
+    private void loadDictionaries() throws IOException {
+        ByteBuffer data = ByteBuffer.allocate((int) dictChannel.size());
+        while (data.hasRemaining() && dictChannel.read(data) > 0) {
+            // 读完整个字典文件
+        }
+        data.flip();
+        while (data.remaining() >= 3) {
+            int which = data.get();
+            int length = data.getShort() & 0xffff;
+            if (which < 0 || which >= dictionaries.length || data.remaining() < length) {
+                break;
+            }
+            byte[] bytes = new byte[length];
+            data.get(bytes);
+            dictionaries[which].add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        // 截掉未写完的尾部，之后从这里继续追加
+        dictChannel.truncate(data.position());
+        dictChannel.position(data.position());
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset);
+        b.limit(offset + length);
+        return b.slice();
+    }
+}
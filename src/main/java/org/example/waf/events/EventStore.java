@@ -0,0 +1,434 @@
+package org.example.waf.events;
+
+import org.example.waf.waf.RuleCategory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * 内嵌的只追加列式事件存储，不依赖外部数据库。
+ *
+ * 事件按到达顺序写入当前段（{@link EventSegment}），段满后封存并新建下一段，超过 max-segments 时删除最旧的段。
+ * 查询在专用线程池上对各段并行执行：先用段的区间映射和字典排除整段（时间不相交、IP 在段内从未出现等），
+ * 再逐列扫描剩余行，分组计数按段内字典编码累加，最后按字符串合并各段结果。
+ *
+ * 写入只有 {@link #append} 一个入口（由安全事件落库线程调用），查询与写入之间无锁。
+ */
+@Component
+public class EventStore {
+    private static final Logger logger = LoggerFactory.getLogger(EventStore.class);
+
+    private final boolean enabled;
+    private final Path dir;
+    private final int segmentRows;
+    private final int maxSegments;
+    private final ForkJoinPool pool;
+    private final CopyOnWriteArrayList<EventSegment> segments = new CopyOnWriteArrayList<>();
+    private EventSegment active;   // 只由写线程访问（append 加锁）
+    private volatile boolean dirty;
+    private long appendErrors;
+
+    public EventStore(@Value("${app.events.store.enabled:false}") boolean enabled,
+                      @Value("${app.events.store.dir:data/events}") String dir,
+                      @Value("${app.events.store.segment-rows:65536}") int segmentRows,
+                      @Value("${app.events.store.max-segments:512}") int maxSegments,
+                      @Value("${app.events.store.query-threads:0}") int queryThreads) {
+        this.enabled = enabled;
+        this.dir = Paths.get(dir);
+        this.segmentRows = Math.max(1024, segmentRows);
+        this.maxSegments = Math.max(2, maxSegments);
+        this.pool = new ForkJoinPool(queryThreads > 0 ? queryThreads : Runtime.getRuntime().availableProcessors());
+        if (enabled) {
+            load();
+        }
+    }
+
+    private void load() {
+        try {
+            Files.createDirectories(dir);
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.evt")) {
+                stream.forEach(files::add);
+            }
+            files.sort(null);
+            for (Path f : files) {
+                try {
+                    segments.add(EventSegment.open(f));
+                } catch (IOException | RuntimeException e) {
+                    logger.error("打开事件段 {} 失败，已跳过: {}", f.getFileName(), e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            logger.error("读取事件存储目录失败: {}", e.getMessage());
+        }
+        if (!segments.isEmpty()) {
+            EventSegment last = segments.get(segments.size() - 1);
+            if (!last.isSealed() && !last.isFull()) {
+                active = last;
+            }
+        }
+        logger.info("事件存储 {}：{} 个段，{} 条事件", dir.toAbsolutePath(), segments.size(), size());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 追加一条事件；写盘失败时丢弃并计数，不抛出异常。
+     */
+    public synchronized void append(long timestamp, String ip, String ruleId, String action,
+                                    int category, int status, int score, int latencyMicros) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (active == null || !active.append(timestamp, ip, ruleId, action, category, status, score, latencyMicros)) {
+                rotate();
+                active.append(timestamp, ip, ruleId, action, category, status, score, latencyMicros);
+            }
+            dirty = true;
+        } catch (IOException e) {
+            if (appendErrors++ % 1000 == 0) {
+                logger.error("写入事件存储失败（累计 {} 次）: {}", appendErrors, e.getMessage());
+            }
+        }
+    }
+
+    private void rotate() throws IOException {
+        long nextId = 1;
+        if (!segments.isEmpty()) {
+            nextId = segments.get(segments.size() - 1).id() + 1;
+        }
+        if (active != null) {
+            active.seal();
+        }
+        Files.createDirectories(dir);
+        active = EventSegment.create(dir, nextId, segmentRows);
+        segments.add(active);
+        while (segments.size() > maxSegments) {
+            EventSegment oldest = segments.remove(0);
+            try {
+                oldest.delete();
+            } catch (IOException e) {
+                logger.warn("删除过期事件段 {} 失败: {}", oldest.id(), e.getMessage());
+            }
+        }
+    }
+
+    /** 事件总数。 */
+    public long size() {
+        long n = 0;
+        for (EventSegment s : segments) {
+            n += s.count();
+        }
+        return n;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        long bytes = 0;
+        for (EventSegment s : segments) {
+            bytes += s.sizeBytes();
+        }
+        status.put("enabled", enabled);
+        status.put("segments", segments.size());
+        status.put("events", size());
+        status.put("diskBytes", bytes);
+        status.put("segmentRows", segmentRows);
+        return status;
+    }
+
+    /** 满足条件的事件数。 */
+    public long count(EventQuery query) {
+        List<EventSegment> snapshot = new ArrayList<>(segments);
+        return pool.submit(() -> snapshot.parallelStream().mapToLong(s -> count(s, query)).sum()).join();
+    }
+
+    /**
+     * 按列分组计数，按数量降序返回前 limit 组（limit &lt;= 0 表示全部）。
+     * CATEGORY 的键为分类名称，其余为列的原值。
+     */
+    public Map<String, Long> groupBy(EventQuery query, EventDimension dimension, int limit) {
+        List<EventSegment> snapshot = new ArrayList<>(segments);
+        List<Map<String, Long>> partials = pool.submit(() -> snapshot.parallelStream()
+                .map(s -> groupBy(s, query, dimension))
+                .collect(Collectors.toList())).join();
+        Map<String, Long> merged = new HashMap<>();
+        for (Map<String, Long> partial : partials) {
+            partial.forEach((k, v) -> merged.merge(k, v, Long::sum));
+        }
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(merged.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> e : entries) {
+            if (limit > 0 && result.size() >= limit) {
+                break;
+            }
+            result.put(e.getKey(), e.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * 最新的 limit 条满足条件的事件，按时间降序。从最新的段往前找，
+     * 已凑满且更早的段的最大时间不晚于当前第 limit 条时停止。
+     */
+    public List<EventRow> latest(EventQuery query, int limit) {
+        List<EventRow> rows = new ArrayList<>();
+        if (limit <= 0) {
+            return rows;
+        }
+        List<EventSegment> snapshot = new ArrayList<>(segments);
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            EventSegment s = snapshot.get(i);
+            if (rows.size() >= limit && s.maxTs() <= rows.get(limit - 1).getTimestamp()) {
+                break;
+            }
+            SegmentFilter f = SegmentFilter.of(s, query);
+            if (f == null) {
+                continue;
+            }
+            int found = 0;
+            for (int row = f.rows - 1; row >= 0 && found < limit; row--) {
+                if (f.matches(row)) {
+                    rows.add(toRow(s, row));
+                    found++;
+                }
+            }
+            rows.sort((a, b) -> Long.compare(b.getTimestamp(), a.getTimestamp()));
+            if (rows.size() > limit) {
+                rows.subList(limit, rows.size()).clear();
+            }
+        }
+        return rows;
+    }
+
+    private static long count(EventSegment s, EventQuery query) {
+        SegmentFilter f = SegmentFilter.of(s, query);
+        if (f == null) {
+            return 0;
+        }
+        long n = 0;
+        for (int row = 0; row < f.rows; row++) {
+            if (f.matches(row)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static Map<String, Long> groupBy(EventSegment s, EventQuery query, EventDimension dimension) {
+        Map<String, Long> result = new HashMap<>();
+        SegmentFilter f = SegmentFilter.of(s, query);
+        if (f == null) {
+            return result;
+        }
+        // 按段内编码计数，最后才转为字符串
+        long[] counts;
+        switch (dimension) {
+            case IP:
+                counts = new long[s.dictionary(EventSegment.DICT_IP).size()];
+                break;
+            case RULE:
+                counts = new long[s.dictionary(EventSegment.DICT_RULE).size()];
+                break;
+            case ACTION:
+                counts = new long[s.dictionary(EventSegment.DICT_ACTION).size()];
+                break;
+            case CATEGORY:
+                counts = new long[256];
+                break;
+            default:
+                counts = new long[Math.max(0, s.maxStatus()) + 1];
+                break;
+        }
+        for (int row = 0; row < f.rows; row++) {
+            if (!f.matches(row)) {
+                continue;
+            }
+            int key;
+            switch (dimension) {
+                case IP:
+                    key = s.ip(row);
+                    break;
+                case RULE:
+                    key = s.rule(row);
+                    break;
+                case ACTION:
+                    key = s.action(row);
+                    break;
+                case CATEGORY:
+                    key = s.category(row);
+                    break;
+                default:
+                    key = s.status(row);
+                    break;
+            }
+            if (key < counts.length) {
+                counts[key]++;
+            }
+        }
+        for (int key = 0; key < counts.length; key++) {
+            if (counts[key] == 0) {
+                continue;
+            }
+            String name;
+            switch (dimension) {
+                case IP:
+                    name = s.dictionary(EventSegment.DICT_IP).value(key);
+                    break;
+                case RULE:
+                    name = s.dictionary(EventSegment.DICT_RULE).value(key);
+                    break;
+                case ACTION:
+                    name = s.dictionary(EventSegment.DICT_ACTION).value(key);
+                    break;
+                case CATEGORY:
+                    name = RuleCategory.fromCode(key).getLabel();
+                    break;
+                default:
+                    name = String.valueOf(key);
+                    break;
+            }
+            result.merge(name, counts[key], Long::sum);
+        }
+        return result;
+    }
+
+    private static EventRow toRow(EventSegment s, int row) {
+        return new EventRow(s.ts(row), s.dictionary(EventSegment.DICT_IP).value(s.ip(row)),
+                s.dictionary(EventSegment.DICT_RULE).value(s.rule(row)),
+                s.dictionary(EventSegment.DICT_ACTION).value(s.action(row)),
+                s.category(row), s.status(row), s.score(row), s.latency(row));
+    }
+
+    /**
+     * 单个段上的过滤条件：字符串条件预先换成段内编码，整段不可能命中时 {@link #of} 返回 null。
+     */
+    private static final class SegmentFilter {
+        final EventSegment s;
+        final int rows;
+        final long from;
+        final long to;
+        final boolean timeFilter;
+        final int ip;
+        final int rule;
+        final int action;
+        final int category;
+        final int status;
+        final int minScore;
+
+        private SegmentFilter(EventSegment s, int rows, EventQuery q, int ip, int rule, int action) {
+            this.s = s;
+            this.rows = rows;
+            this.from = q.getFrom();
+            this.to = q.getTo();
+            // 整段都在时间范围内时不再逐行比较时间
+            this.timeFilter = s.minTs() < from || s.maxTs() > to;
+            this.ip = ip;
+            this.rule = rule;
+            this.action = action;
+            this.category = q.getCategory() == null ? -1 : q.getCategory();
+            this.status = q.getStatus() == null ? -1 : q.getStatus();
+            this.minScore = q.getMinScore() == null ? Integer.MIN_VALUE : q.getMinScore();
+        }
+
+        static SegmentFilter of(EventSegment s, EventQuery q) {
+            int rows = s.count();
+            if (rows == 0 || s.maxTs() < q.getFrom() || s.minTs() > q.getTo()) {
+                return null;
+            }
+            if (q.getMinScore() != null && s.maxScore() < q.getMinScore()) {
+                return null;
+            }
+            if (q.getStatus() != null && (q.getStatus() < s.minStatus() || q.getStatus() > s.maxStatus())) {
+                return null;
+            }
+            int ip = code(s, EventSegment.DICT_IP, q.getIp());
+            int rule = code(s, EventSegment.DICT_RULE, q.getRuleId());
+            int action = code(s, EventSegment.DICT_ACTION, q.getAction());
+            if (ip == -2 || rule == -2 || action == -2) {
+                return null;
+            }
+            return new SegmentFilter(s, rows, q, ip, rule, action);
+        }
+
+        // -1 表示不限，-2 表示该值在段内从未出现
+        private static int code(EventSegment s, int dictionary, String value) {
+            if (value == null) {
+                return -1;
+            }
+            int code = s.dictionary(dictionary).code(value);
+            return code < 0 ? -2 : code;
+        }
+
+        boolean matches(int row) {
+            if (timeFilter) {
+                long t = s.ts(row);
+                if (t < from || t > to) {
+                    return false;
+                }
+            }
+            return (ip < 0 || s.ip(row) == ip)
+                    && (rule < 0 || s.rule(row) == rule)
+                    && (action < 0 || s.action(row) == action)
+                    && (category < 0 || s.category(row) == category)
+                    && (status < 0 || s.status(row) == status)
+                    && (minScore == Integer.MIN_VALUE || s.score(row) >= minScore);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.events.store.flush-ms:5000}")
+    public void flush() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        EventSegment current;
+        synchronized (this) {
+            current = active;
+        }
+        if (current != null) {
+            try {
+                current.force();
+            } catch (IOException e) {
+                logger.warn("事件段落盘失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+        synchronized (this) {
+            for (EventSegment s : segments) {
+                try {
+                    if (s == active) {
+                        s.force();
+                    }
+                    s.close();
+                } catch (IOException e) {
+                    logger.warn("关闭事件段 {} 失败: {}", s.id(), e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.example.waf.proxy;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import org.example.waf.waf.RequestView;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Netty 请求头的只读视图，路径和查询串在构造时从 URI 拆出一次。
+ * 绝对形式的 URI（http://host/path）会被规整为源站形式。
+ */
+class NettyRequestView implements RequestView {
+    private final HttpRequest request;
+    private final String clientIp;
+    private final String path;
+    private final String query;
+
+    NettyRequestView(HttpRequest request, String clientIp) {
+        this.request = request;
+        this.clientIp = clientIp;
+        String uri = request.uri();
+        if (!uri.startsWith("/")) {
+            int scheme = uri.indexOf("://");
+            if (scheme > 0) {
+                int slash = uri.indexOf('/', scheme + 3);
+                uri = slash < 0 ? "/" : uri.substring(slash);
+            }
+        }
+        int q = uri.indexOf('?');
+        this.path = q < 0 ? uri : uri.substring(0, q);
+        this.query = q < 0 ? null : uri.substring(q + 1);
+    }
+
+    // 转发给上游时使用的源站形式 URI
+    String originForm() {
+        return query == null ? path : path + "?" + query;
+    }
+
+    @Override
+    public String getMethod() {
+        return request.method().name();
+    }
+
+    @Override
+    public String getHost() {
+        return request.headers().get(HttpHeaderNames.HOST);
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String getQuery() {
+        return query;
+    }
+
+    @Override
+    public String getClientIp() {
+        return clientIp;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return request.headers().get(name);
+    }
+
+    @Override
+    public void forEachHeader(BiConsumer<String, String> action) {
+        for (Map.Entry<String, String> e : request.headers()) {
+            action.accept(e.getKey(), e.getValue());
+        }
+    }
+}
@@ -0,0 +1,532 @@
+package org.example.waf.proxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import org.example.waf.waf.BodyInspection;
+import org.example.waf.waf.WafInspector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * 前端（客户端）连接处理器。每个连接同一时刻只有一个请求在转发：
+ * 请求头到达后先在事件循环线程上执行规则检测，拦截则直接返回 403 并丢弃请求体；
+ * 放行则从连接池取上游连接，请求体和响应体按块流式转发，不做整体缓冲。
+ *
+ * 背压：任一方向对端不可写时暂停读取来源连接，恢复可写后再继续。
+ * 流水线请求在当前请求完成前暂存在 {@link #queued} 中（最多一个读批次），并停止读取。
+ *
+ * 有 args/json 规则需要检查请求体时，请求头和请求体分块先喂给 {@link BodyInspection} 并暂存在 {@link #held} 中，
+ * 结果确定后才发往上游，命中拦截规则时上游什么也收不到，直接返回 403。暂存量以 app.waf.body.max-bytes 为上限
+ * （与 Servlet 路径中重放请求体的缓冲相同）；超过上限后（通常是大文件上传）改为边检查边转发，
+ * 这时再命中只能关闭上游连接（上游只收到不完整的请求）。
+ *
+ * 空闲超时在任何状态下都生效：客户端在请求体中途停住时返回 408 并关闭，不会一直占着上游连接。
+ */
+final class ProxyFrontendHandler extends ChannelInboundHandlerAdapter {
+    private static final Logger logger = LoggerFactory.getLogger(ProxyFrontendHandler.class);
+
+    private static final AsciiString KEEP_ALIVE = AsciiString.cached("keep-alive");
+    private static final AsciiString PROXY_CONNECTION = AsciiString.cached("proxy-connection");
+    private static final AsciiString X_FORWARDED_FOR = AsciiString.cached("x-forwarded-for");
+    private static final AsciiString X_FORWARDED_PROTO = AsciiString.cached("x-forwarded-proto");
+    private static final AsciiString X_FORWARDED_HOST = AsciiString.cached("x-forwarded-host");
+
+    private enum State {
+        IDLE,        // 等待下一个请求
+        CONNECTING,  // 等待上游连接
+        STREAMING,   // 正在转发请求体
+        AWAITING,    // 请求已发完，等待响应结束
+        DISCARDING,  // 已直接响应（拦截/出错），丢弃剩余请求体
+        CLOSED
+    }
+
+    private final WafInspector inspector;
+    private final UpstreamPool upstreams;
+    private final ArrayDeque<Object> queued = new ArrayDeque<>();
+    private final ArrayDeque<HttpObject> held = new ArrayDeque<>();   // 等待请求体检查结果、尚未发往上游的消息
+    private long heldBytes;
+    private byte[] scratch;   // 直接内存缓冲喂给请求体检查时的中转数组
+
+    private ChannelHandlerContext ctx;
+    private String clientIp;
+    private State state = State.IDLE;
+
+    // 当前请求
+    private WafInspector.Verdict verdict;
+    private long startNanos;
+    private long upstreamNanos;   // 开始获取上游连接的时间
+    private boolean clientKeepAlive;
+    private boolean headRequest;
+    private boolean requestDone;
+    private boolean holding;      // 请求体检查结果确定前暂存，不发往上游
+    private boolean upstreamWritten;
+    private FixedChannelPool pool;
+    private Channel upstream;
+
+    // 当前响应
+    private boolean responseStarted;
+    private boolean informational;
+    private boolean upstreamKeepAlive;
+    private int status;
+
+    ProxyFrontendHandler(WafInspector inspector, UpstreamPool upstreams) {
+        this.inspector = inspector;
+        this.upstreams = upstreams;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+        InetSocketAddress remote = (InetSocketAddress) ctx.channel().remoteAddress();
+        this.clientIp = remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (state == State.CONNECTING || state == State.AWAITING || !queued.isEmpty()) {
+            queued.add(msg);
+            ctx.channel().config().setAutoRead(false);
+            return;
+        }
+        process(msg);
+    }
+
+    private void process(Object msg) {
+        switch (state) {
+            case IDLE:
+                if (msg instanceof HttpRequest) {
+                    startExchange((HttpRequest) msg);
+                } else {
+                    ReferenceCountUtil.release(msg);
+                }
+                break;
+            case STREAMING:
+                forward((HttpObject) msg);
+                break;
+            case DISCARDING:
+                ReferenceCountUtil.release(msg);
+                if (msg instanceof LastHttpContent) {
+                    state = State.IDLE;
+                }
+                break;
+            default:
+                ReferenceCountUtil.release(msg);
+                break;
+        }
+    }
+
+    // 依次处理暂存的消息，直到需要再次等待；队列清空且可以继续时恢复读取
+    private void drain() {
+        while (!queued.isEmpty() && (state == State.IDLE || state == State.STREAMING || state == State.DISCARDING)) {
+            process(queued.poll());
+        }
+        boolean read = queued.isEmpty() && (state == State.IDLE || state == State.DISCARDING
+                || (state == State.STREAMING && upstream.isWritable()));
+        ctx.channel().config().setAutoRead(read);
+    }
+
+    private void startExchange(HttpRequest request) {
+        boolean last = request instanceof LastHttpContent;
+        startNanos = System.nanoTime();
+        clientKeepAlive = HttpUtil.isKeepAlive(request);
+        headRequest = HttpMethod.HEAD.equals(request.method());
+        requestDone = false;
+        upstreamWritten = false;
+        responseStarted = false;
+        informational = false;
+        status = 0;
+
+        if (request.decoderResult().isFailure()) {
+            ReferenceCountUtil.release(request);
+            clientKeepAlive = false;
+            verdict = null;
+            reject(HttpResponseStatus.BAD_REQUEST, "400 Bad Request\n", true);
+            return;
+        }
+
+        NettyRequestView view = new NettyRequestView(request, clientIp);
+        verdict = inspector.inspect(view);
+        if (last) {
+            settle();
+        }
+        if (verdict.isRateLimited()) {
+            ReferenceCountUtil.release(request);
+            reject(HttpResponseStatus.TOO_MANY_REQUESTS, "429 Too Many Requests\n", last);
+            return;
+        }
+        if (verdict.isBlocked()) {
+            ReferenceCountUtil.release(request);
+            reject(HttpResponseStatus.FORBIDDEN, "403 Forbidden - Blocked by WAF rule\n", last);
+            return;
+        }
+        InetSocketAddress address = verdict.getRoute() == null ? null : verdict.getRoute().getUpstream();
+        if (address == null) {
+            ReferenceCountUtil.release(request);
+            reject(HttpResponseStatus.BAD_GATEWAY, "502 Bad Gateway - No upstream configured for host\n", last);
+            return;
+        }
+
+        prepareUpstreamRequest(request, view);
+        holding = verdict.getBodyInspection() != null;
+        upstreamNanos = System.nanoTime();
+        state = State.CONNECTING;
+        ctx.channel().config().setAutoRead(false);
+        FixedChannelPool p = upstreams.get(ctx.channel().eventLoop(), address);
+        p.acquire().addListener((Future<Channel> f) -> onAcquired(p, f, request));
+    }
+
+    private void onAcquired(FixedChannelPool p, Future<Channel> f, HttpRequest request) {
+        if (state != State.CONNECTING) {
+            // 等待期间客户端已断开
+            ReferenceCountUtil.release(request);
+            if (f.isSuccess()) {
+                p.release(f.getNow());
+            }
+            return;
+        }
+        if (!f.isSuccess()) {
+            logger.debug("获取上游连接失败: {}", f.cause().toString());
+            ReferenceCountUtil.release(request);
+            failBeforeResponse();
+            return;
+        }
+        Channel ch = f.getNow();
+        ch.attr(UpstreamHandler.EXCHANGE).set(this);
+        pool = p;
+        upstream = ch;
+        state = State.STREAMING;
+        forward(request);
+        drain();
+    }
+
+    private void forward(HttpObject msg) {
+        boolean last = msg instanceof LastHttpContent;
+        BodyInspection body = verdict.getBodyInspection();
+        if (body != null && msg instanceof HttpContent) {
+            inspectChunk(body, ((HttpContent) msg).content());
+            if (last || body.isDone()) {
+                settle();
+                if (verdict.isBlocked()) {
+                    ReferenceCountUtil.release(msg);
+                    abortBlocked(last);
+                    return;
+                }
+            }
+        }
+        if (holding) {
+            held.add(msg);
+            if (msg instanceof HttpContent) {
+                heldBytes += ((HttpContent) msg).content().readableBytes();
+            }
+            if (verdict.getBodyInspection() != null && heldBytes <= inspector.getBodyMaxBytes()) {
+                return;
+            }
+            // 结果已确定（放行），或暂存超过上限，此后边检查边转发
+            holding = false;
+            while (!held.isEmpty()) {
+                writeUpstream(held.poll());
+            }
+            heldBytes = 0;
+        } else {
+            writeUpstream(msg);
+        }
+        if (last) {
+            requestDone = true;
+            state = State.AWAITING;
+            ctx.channel().config().setAutoRead(false);
+        } else if (!upstream.isWritable()) {
+            ctx.channel().config().setAutoRead(false);
+        }
+    }
+
+    private void writeUpstream(HttpObject msg) {
+        upstreamWritten = true;
+        if (msg instanceof HttpContent) {
+            upstream.writeAndFlush(msg).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        } else {
+            upstream.write(msg).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        }
+    }
+
+    private void releaseHeld() {
+        while (!held.isEmpty()) {
+            ReferenceCountUtil.release(held.poll());
+        }
+        heldBytes = 0;
+        holding = false;
+    }
+
+    private void inspectChunk(BodyInspection body, ByteBuf content) {
+        int length = content.readableBytes();
+        if (content.hasArray()) {
+            body.feed(content.array(), content.arrayOffset() + content.readerIndex(), length);
+            return;
+        }
+        if (scratch == null) {
+            scratch = new byte[8192];
+        }
+        int index = content.readerIndex();
+        for (int done = 0; done < length && !body.isDone(); ) {
+            int n = Math.min(scratch.length, length - done);
+            content.getBytes(index + done, scratch, 0, n);
+            body.feed(scratch, 0, n);
+            done += n;
+        }
+    }
+
+    // 请求体还在检查中时按已读到的部分给出最终结果
+    private void settle() {
+        if (verdict != null && verdict.getBodyInspection() != null) {
+            verdict = inspector.conclude(verdict);
+        }
+    }
+
+    // 请求体命中拦截规则：还在暂存时上游什么也没收到，连接可以直接放回池中；否则上游已收到部分请求，只能关闭
+    private void abortBlocked(boolean requestComplete) {
+        releaseHeld();
+        releaseUpstream(upstreamWritten);
+        if (responseStarted) {
+            inspector.complete(verdict, status, startNanos);
+            state = State.CLOSED;
+            ctx.close();
+            return;
+        }
+        reject(HttpResponseStatus.FORBIDDEN, "403 Forbidden - Blocked by WAF rule\n", requestComplete);
+    }
+
+    void onUpstreamMessage(HttpObject msg) {
+        if (msg instanceof HttpResponse) {
+            HttpResponse response = (HttpResponse) msg;
+            if (response.status().codeClass() == HttpStatusClass.INFORMATIONAL) {
+                // 100-continue 已在前端应答，其余 1xx 不转发
+                informational = true;
+                ReferenceCountUtil.release(msg);
+                return;
+            }
+            prepareClientResponse(response);
+        } else if (informational) {
+            ReferenceCountUtil.release(msg);
+            if (msg instanceof LastHttpContent) {
+                informational = false;
+            }
+            return;
+        }
+
+        if (!(msg instanceof HttpContent)) {
+            ctx.write(msg);
+            return;
+        }
+        ChannelFuture future = ctx.writeAndFlush(msg);
+        if (msg instanceof LastHttpContent) {
+            onResponseComplete(future);
+        } else if (!ctx.channel().isWritable()) {
+            upstream.config().setAutoRead(false);
+        }
+    }
+
+    private void onResponseComplete(ChannelFuture lastWrite) {
+        settle();
+        inspector.recordDownstream(System.nanoTime() - upstreamNanos);
+        inspector.complete(verdict, status, startNanos);
+        // 请求体没发完上游就已响应，连接状态不确定，不再复用
+        releaseUpstream(!upstreamKeepAlive || !requestDone);
+        if (!clientKeepAlive) {
+            state = State.CLOSED;
+            lastWrite.addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        state = requestDone ? State.IDLE : State.DISCARDING;
+        drain();
+    }
+
+    void onUpstreamWritabilityChanged(boolean writable) {
+        if (writable && state == State.STREAMING && queued.isEmpty()) {
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    void onUpstreamClosed(Channel ch) {
+        if (ch != upstream) {
+            return;
+        }
+        upstream = null;
+        pool.release(ch);
+        if (responseStarted) {
+            // 响应已发出一部分，只能断开客户端
+            state = State.CLOSED;
+            ctx.close();
+            return;
+        }
+        failBeforeResponse();
+    }
+
+    private void failBeforeResponse() {
+        reject(HttpResponseStatus.BAD_GATEWAY, "502 Bad Gateway\n", requestDone);
+    }
+
+    // 直接应答（拦截、无上游、上游失败），剩余请求体丢弃
+    private void reject(HttpResponseStatus responseStatus, String body, boolean requestComplete) {
+        releaseHeld();
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, responseStatus,
+                Unpooled.copiedBuffer(body, StandardCharsets.UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.TEXT_PLAIN);
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+        HttpUtil.setKeepAlive(response, clientKeepAlive);
+        ChannelFuture future = ctx.writeAndFlush(response);
+        settle();
+        if (verdict != null) {
+            inspector.complete(verdict, responseStatus.code(), startNanos);
+        }
+        if (!clientKeepAlive) {
+            state = State.CLOSED;
+            future.addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        state = requestComplete ? State.IDLE : State.DISCARDING;
+        drain();
+    }
+
+    private void releaseUpstream(boolean close) {
+        Channel ch = upstream;
+        if (ch == null) {
+            return;
+        }
+        upstream = null;
+        ch.attr(UpstreamHandler.EXCHANGE).set(null);
+        ch.config().setAutoRead(true);
+        if (close) {
+            ch.close();
+        }
+        pool.release(ch);
+    }
+
+    private void prepareUpstreamRequest(HttpRequest request, NettyRequestView view) {
+        HttpHeaders headers = request.headers();
+        stripHopByHop(headers);
+        String forwardedFor = headers.get(X_FORWARDED_FOR);
+        headers.set(X_FORWARDED_FOR, forwardedFor == null ? clientIp : forwardedFor + ", " + clientIp);
+        if (!headers.contains(X_FORWARDED_PROTO)) {
+            headers.set(X_FORWARDED_PROTO, "http");
+        }
+        String host = headers.get(HttpHeaderNames.HOST);
+        if (host != null && !headers.contains(X_FORWARDED_HOST)) {
+            headers.set(X_FORWARDED_HOST, host);
+        }
+        request.setUri(view.originForm());
+        // 与上游之间始终使用 HTTP/1.1 长连接
+        request.setProtocolVersion(HttpVersion.HTTP_1_1);
+    }
+
+    private void prepareClientResponse(HttpResponse response) {
+        status = response.status().code();
+        upstreamKeepAlive = HttpUtil.isKeepAlive(response);
+        responseStarted = true;
+        HttpHeaders headers = response.headers();
+        stripHopByHop(headers);
+        boolean mayHaveBody = !headRequest && status != 204 && status != 304;
+        if (mayHaveBody && !HttpUtil.isContentLengthSet(response) && !HttpUtil.isTransferEncodingChunked(response)) {
+            // 上游以关闭连接表示响应结束，对客户端改为分块编码以便保持长连接
+            if (clientKeepAlive) {
+                HttpUtil.setTransferEncodingChunked(response, true);
+            }
+        }
+        HttpUtil.setKeepAlive(response, clientKeepAlive);
+    }
+
+    private static void stripHopByHop(HttpHeaders headers) {
+        String connection = headers.get(HttpHeaderNames.CONNECTION);
+        if (connection != null) {
+            for (String token : connection.split(",")) {
+                String name = token.trim();
+                if (!name.isEmpty() && !HttpHeaderNames.TRANSFER_ENCODING.contentEqualsIgnoreCase(name)) {
+                    headers.remove(name);
+                }
+            }
+        }
+        headers.remove(HttpHeaderNames.CONNECTION);
+        headers.remove(KEEP_ALIVE);
+        headers.remove(PROXY_CONNECTION);
+        headers.remove(HttpHeaderNames.TE);
+        headers.remove(HttpHeaderNames.TRAILER);
+        headers.remove(HttpHeaderNames.UPGRADE);
+        headers.remove(HttpHeaderNames.PROXY_AUTHORIZATION);
+        headers.remove(HttpHeaderNames.PROXY_AUTHENTICATE);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (upstream != null && ctx.channel().isWritable()) {
+            upstream.config().setAutoRead(true);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        boolean inFlight = state == State.STREAMING || state == State.AWAITING;
+        state = State.CLOSED;
+        // 客户端中途断开时上游连接上可能还有未读完的响应，不能放回池中复用
+        releaseUpstream(inFlight);
+        releaseHeld();
+        while (!queued.isEmpty()) {
+            ReferenceCountUtil.release(queued.poll());
+        }
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+        if (evt instanceof IdleStateEvent) {
+            if (state == State.STREAMING && !responseStarted) {
+                // 客户端在请求体中途停住：上游已收到部分请求（或还在暂存），关闭上游连接并返回 408
+                releaseUpstream(true);
+                clientKeepAlive = false;
+                reject(HttpResponseStatus.REQUEST_TIMEOUT, "408 Request Timeout\n", false);
+                return;
+            }
+            if (state != State.AWAITING && state != State.CLOSED) {
+                // 等待上游响应时由上游连接自己的读超时处理；其他状态（空闲、排队取连接、丢弃剩余请求体、
+                // 客户端不读响应）直接关闭，由 channelInactive 释放上游连接
+                ctx.close();
+            }
+            return;
+        }
+        ctx.fireUserEventTriggered(evt);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        logger.debug("客户端连接异常 {}: {}", clientIp, cause.toString());
+        ctx.close();
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.waf.proxy;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerExpectContinueHandler;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.example.waf.waf.WafInspector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+/**
+ * 反向代理数据面：基于 Netty NIO 的 HTTP/1.1 前端，按 Host 把请求转发到应用配置的上游地址，
+ * 转发前在事件循环线程上执行与 {@link org.example.waf.waf.WafFilter} 相同的规则检测。
+ * 通过 app.proxy.enabled=true 开启，与管理接口（Tomcat）监听不同端口。
+ */
+@Component
+@ConditionalOnProperty(name = "app.proxy.enabled", havingValue = "true")
+public class ReverseProxyServer {
+    private static final Logger logger = LoggerFactory.getLogger(ReverseProxyServer.class);
+
+    private final WafInspector inspector;
+    private final int port;
+    private final int workerThreads;
+    private final int idleTimeoutSeconds;
+    private final UpstreamPool upstreams;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+
+    public ReverseProxyServer(WafInspector inspector,
+                              @Value("${app.proxy.port:8090}") int port,
+                              @Value("${app.proxy.worker-threads:0}") int workerThreads,
+                              @Value("${app.proxy.idle-timeout-seconds:60}") int idleTimeoutSeconds,
+                              @Value("${app.proxy.upstream.max-connections:256}") int maxConnections,
+                              @Value("${app.proxy.upstream.max-pending-acquires:1024}") int maxPendingAcquires,
+                              @Value("${app.proxy.upstream.connect-timeout-ms:3000}") int connectTimeoutMs,
+                              @Value("${app.proxy.upstream.allow-loopback:false}") boolean allowLoopback) {
+        this.inspector = inspector;
+        this.port = port;
+        this.workerThreads = workerThreads;
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+        this.upstreams = new UpstreamPool(maxConnections, maxPendingAcquires, connectTimeoutMs, idleTimeoutSeconds,
+                allowLoopback);
+    }
+
+    @PostConstruct
+    public void start() throws InterruptedException {
+        bossGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("waf-proxy-boss", true));
+        // 0 表示使用 Netty 默认值（CPU 核数的两倍）
+        workerGroup = new NioEventLoopGroup(workerThreads, new DefaultThreadFactory("waf-proxy-worker", true));
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, 1024)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new IdleStateHandler(0, 0, idleTimeoutSeconds),
+                                new HttpServerCodec(),
+                                new HttpServerExpectContinueHandler(),
+                                new ProxyFrontendHandler(inspector, upstreams));
+                    }
+                });
+        serverChannel = bootstrap.bind(port).sync().channel();
+        logger.info("WAF 反向代理已启动，监听端口 {}", port);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (serverChannel != null) {
+            serverChannel.close().syncUninterruptibly();
+        }
+        upstreams.close();
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully();
+        }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.example.waf.proxy;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 上游连接上的处理器，把响应交给当前绑定的前端连接。连接在池中闲置时没有绑定，
+ * 此时收到的任何数据都说明连接状态异常，直接关闭。
+ */
+final class UpstreamHandler extends ChannelInboundHandlerAdapter {
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamHandler.class);
+
+    static final AttributeKey<ProxyFrontendHandler> EXCHANGE = AttributeKey.valueOf("waf.proxy.exchange");
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        ProxyFrontendHandler frontend = ctx.channel().attr(EXCHANGE).get();
+        if (frontend == null || !(msg instanceof HttpObject)) {
+            ReferenceCountUtil.release(msg);
+            ctx.close();
+            return;
+        }
+        frontend.onUpstreamMessage((HttpObject) msg);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        ProxyFrontendHandler frontend = ctx.channel().attr(EXCHANGE).get();
+        if (frontend != null) {
+            frontend.onUpstreamWritabilityChanged(ctx.channel().isWritable());
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        ProxyFrontendHandler frontend = ctx.channel().attr(EXCHANGE).getAndSet(null);
+        if (frontend != null) {
+            frontend.onUpstreamClosed(ctx.channel());
+        }
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+        if (evt instanceof IdleStateEvent) {
+            ctx.close();
+            return;
+        }
+        ctx.fireUserEventTriggered(evt);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        logger.debug("上游连接异常 {}: {}", ctx.channel().remoteAddress(), cause.toString());
+        ctx.close();
+    }
+}
@@ -0,0 +1,162 @@
+package org.example.waf.proxy;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.AbstractChannelPoolMap;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.resolver.AbstractAddressResolver;
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.dns.DnsAddressResolverGroup;
+import io.netty.resolver.dns.DnsServerAddressStreamProviders;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import org.example.waf.waf.ApplicationRouter;
+
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 上游 keep-alive 连接池。每个事件循环各有一组按上游地址划分的连接池，
+ * 前端连接只从自己所在事件循环的池中取连接，请求和响应的转发都在同一线程内完成，无需跨线程同步。
+ *
+ * 上游地址以未解析形式作为池的键，建立连接时用 Netty 的异步 DNS 解析器解析（按 TTL 缓存），
+ * 不会像 JDK 的 InetAddress 那样阻塞事件循环；上游域名的解析结果变化后新建的连接自动跟随。
+ * 解析出的地址不允许转发时（见 {@link ApplicationRouter#isAllowedUpstream}）按解析失败处理，连接不会建立。
+ */
+final class UpstreamPool {
+    private final Map<EventLoop, AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool>> byLoop = new ConcurrentHashMap<>();
+    private final int maxConnections;
+    private final int maxPendingAcquires;
+    private final int connectTimeoutMs;
+    private final int idleTimeoutSeconds;
+    private final GuardedResolverGroup resolver;
+
+    UpstreamPool(int maxConnections, int maxPendingAcquires, int connectTimeoutMs, int idleTimeoutSeconds,
+                 boolean allowLoopback) {
+        this.maxConnections = maxConnections;
+        this.maxPendingAcquires = maxPendingAcquires;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+        this.resolver = new GuardedResolverGroup(allowLoopback);
+    }
+
+    FixedChannelPool get(EventLoop loop, InetSocketAddress upstream) {
+        return byLoop.computeIfAbsent(loop, this::newPoolMap).get(upstream);
+    }
+
+    void close() {
+        for (AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool> pools : byLoop.values()) {
+            pools.close();
+        }
+        byLoop.clear();
+        resolver.close();
+    }
+
+    private AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool> newPoolMap(EventLoop loop) {
+        Bootstrap bootstrap = new Bootstrap()
+                .group(loop)
+                .channel(NioSocketChannel.class)
+                .resolver(resolver)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs);
+        return new AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool>() {
+            @Override
+            protected FixedChannelPool newPool(InetSocketAddress key) {
+                return new FixedChannelPool(bootstrap.clone().remoteAddress(key), new AbstractChannelPoolHandler() {
+                    @Override
+                    public void channelCreated(Channel ch) {
+                        // 读空闲超时同时覆盖两种情况：上游响应过慢、池中连接闲置过久
+                        ch.pipeline().addLast(new IdleStateHandler(idleTimeoutSeconds, 0, 0),
+                                new HttpClientCodec(), new UpstreamHandler());
+                    }
+                }, ChannelHealthChecker.ACTIVE, FixedChannelPool.AcquireTimeoutAction.FAIL, connectTimeoutMs,
+                        maxConnections, maxPendingAcquires, true, true);
+            }
+        };
+    }
+
+    /** 在异步 DNS 解析结果上过滤不允许的上游地址 */
+    private static final class GuardedResolverGroup extends AddressResolverGroup<InetSocketAddress> {
+        private final DnsAddressResolverGroup dns =
+                new DnsAddressResolverGroup(NioDatagramChannel.class, DnsServerAddressStreamProviders.platformDefault());
+        private final boolean allowLoopback;
+
+        GuardedResolverGroup(boolean allowLoopback) {
+            this.allowLoopback = allowLoopback;
+        }
+
+        @Override
+        protected AddressResolver<InetSocketAddress> newResolver(EventExecutor executor) {
+            AddressResolver<InetSocketAddress> delegate = dns.getResolver(executor);
+            return new AbstractAddressResolver<InetSocketAddress>(executor, InetSocketAddress.class) {
+                @Override
+                protected boolean doIsResolved(InetSocketAddress address) {
+                    return !address.isUnresolved();
+                }
+
+                @Override
+                protected void doResolve(InetSocketAddress unresolved, Promise<InetSocketAddress> promise) {
+                    delegate.resolve(unresolved).addListener((Future<InetSocketAddress> f) -> {
+                        if (!f.isSuccess()) {
+                            promise.tryFailure(f.cause());
+                        } else if (!allowed(f.getNow())) {
+                            promise.tryFailure(rejected(unresolved));
+                        } else {
+                            promise.trySuccess(f.getNow());
+                        }
+                    });
+                }
+
+                @Override
+                protected void doResolveAll(InetSocketAddress unresolved, Promise<List<InetSocketAddress>> promise) {
+                    delegate.resolveAll(unresolved).addListener((Future<List<InetSocketAddress>> f) -> {
+                        if (!f.isSuccess()) {
+                            promise.tryFailure(f.cause());
+                            return;
+                        }
+                        List<InetSocketAddress> kept = new ArrayList<>();
+                        for (InetSocketAddress a : f.getNow()) {
+                            if (allowed(a)) {
+                                kept.add(a);
+                            }
+                        }
+                        if (kept.isEmpty()) {
+                            promise.tryFailure(rejected(unresolved));
+                        } else {
+                            promise.trySuccess(kept);
+                        }
+                    });
+                }
+            };
+        }
+
+        private boolean allowed(InetSocketAddress address) {
+            return address.getAddress() != null && ApplicationRouter.isAllowedUpstream(address.getAddress(), allowLoopback);
+        }
+
+        private static UnknownHostException rejected(InetSocketAddress unresolved) {
+            return new UnknownHostException("上游地址不允许转发: " + unresolved.getHostString());
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            dns.close();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.example.waf.search;
+
+import org.example.waf.DbLogRepository;
+import org.example.waf.domain.DbLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 最近安全事件的内存倒排索引：IP、规则 id、状态码、处理动作为精确词，URL 和 User-Agent 分词后入索引。
+ * 倒排表是按分片内事件序号的压缩位图，事件落库（拿到 id）后增量写入；查询只返回命中的日志 id，
+ * 调用方按主键取前 N 条，不再整表加载后在 Java 里过滤。
+ *
+ * 事件按写入顺序编号，序号越大越新；最多保留 max-events 条，超出后整片淘汰最旧的分片。
+ * 启动时从数据库按 id 回填最近的事件，回填期间新写入的事件先缓存，回填结束后再追加，保证序号有序。
+ */
+@Component
+public class AttackLogIndex {
+    private static final Logger logger = LoggerFactory.getLogger(AttackLogIndex.class);
+    private static final int BACKFILL_PAGE = 2000;
+    private static final int MAX_PENDING = 200_000;
+
+    private final DbLogRepository dbLogRepository;
+    private final boolean enabled;
+    private final boolean backfill;
+    private final int shardEvents;
+    private final int maxShards;
+    private final CopyOnWriteArrayList<IndexShard> shards = new CopyOnWriteArrayList<>();
+    private final Object writeLock = new Object();
+    private List<DbLog> pending = new ArrayList<>();
+    private volatile boolean ready;
+    private long indexed;
+    private long evicted;
+    private long pendingDropped;
+
+    public AttackLogIndex(DbLogRepository dbLogRepository,
+                          @Value("${app.search.index.enabled:true}") boolean enabled,
+                          @Value("${app.search.index.max-events:5000000}") int maxEvents,
+                          @Value("${app.search.index.shard-events:1048576}") int shardEvents,
+                          @Value("${app.search.index.backfill:true}") boolean backfill) {
+        this.dbLogRepository = dbLogRepository;
+        this.enabled = enabled;
+        this.backfill = backfill;
+        this.shardEvents = Math.max(shardEvents, 1024);
+        this.maxShards = Math.max(1, (int) Math.ceil(maxEvents / (double) this.shardEvents));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (!backfill || dbLogRepository == null) {
+            markReady();
+            return;
+        }
+        Thread t = new Thread(this::backfill, "attack-log-index-backfill");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** 回填完成后才可查询，否则结果不完整 */
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    /**
+     * 追加已落库的日志（必须带 id），按 id 递增的顺序调用。
+     */
+    public void addAll(List<DbLog> logs) {
+        if (!enabled || logs == null || logs.isEmpty()) {
+            return;
+        }
+        synchronized (writeLock) {
+            if (!ready) {
+                if (pending.size() + logs.size() <= MAX_PENDING) {
+                    pending.addAll(logs);
+                } else {
+                    pendingDropped += logs.size();
+                }
+                return;
+            }
+            for (DbLog log : logs) {
+                index(log);
+            }
+        }
+    }
+
+    /**
+     * 按时间倒序返回前 limit 条命中的日志 id 和命中总数。
+     */
+    public LogSearchResult search(LogSearchQuery query, int limit) {
+        long start = System.nanoTime();
+        long[] total = new long[1];
+        List<long[]> hits = new ArrayList<>(Math.min(limit, 1024));
+        List<IndexShard> snapshot = new ArrayList<>(shards);
+        long coveredSince = Long.MAX_VALUE;
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            IndexShard shard = snapshot.get(i);
+            shard.search(query, limit, total, hits);
+            coveredSince = Math.min(coveredSince, shard.getMinTs());
+        }
+        // 序号顺序即写入顺序，同一批内时间可能略有交错，最后按时间再排一次
+        hits.sort((a, b) -> a[1] != b[1] ? Long.compare(b[1], a[1]) : Long.compare(b[0], a[0]));
+        List<Long> ids = new ArrayList<>(hits.size());
+        for (long[] h : hits) {
+            ids.add(h[0]);
+        }
+        return new LogSearchResult(total[0], ids, coveredSince == Long.MAX_VALUE ? 0 : coveredSince,
+                (System.nanoTime() - start) / 1_000_000.0);
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("enabled", enabled);
+        status.put("ready", ready);
+        List<IndexShard> snapshot = new ArrayList<>(shards);
+        long events = 0;
+        long terms = 0;
+        long bytes = 0;
+        for (IndexShard shard : snapshot) {
+            events += shard.size();
+            terms += shard.termCount();
+            bytes += shard.sizeInBytes();
+        }
+        status.put("shards", snapshot.size());
+        status.put("events", events);
+        status.put("terms", terms);
+        status.put("approxMemoryMb", bytes / 1048576.0);
+        synchronized (writeLock) {
+            status.put("indexed", indexed);
+            status.put("evicted", evicted);
+            status.put("pending", pending.size());
+            status.put("pendingDropped", pendingDropped);
+        }
+        return status;
+    }
+
+    /** 只能在 writeLock 内调用 */
+    private void index(DbLog log) {
+        if (log.getId() == null) {
+            return;
+        }
+        IndexShard shard = shards.isEmpty() ? null : shards.get(shards.size() - 1);
+        if (shard == null || shard.isFull()) {
+            shard = new IndexShard(shardEvents);
+            shards.add(shard);
+            while (shards.size() > maxShards) {
+                evicted += shards.remove(0).size();
+            }
+        }
+        long ts = log.getLogTimestamp() != null ? log.getLogTimestamp().getTime() : System.currentTimeMillis();
+        shard.add(log.getId(), ts, terms(log));
+        indexed++;
+    }
+
+    static Set<String> terms(DbLog log) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (log.getClientIp() != null) {
+            terms.add(LogSearchQuery.IP + log.getClientIp());
+        }
+        if (log.getRuleId() != null) {
+            terms.add(LogSearchQuery.RULE + log.getRuleId());
+        }
+        if (log.getStatusCode() != null) {
+            terms.add(LogSearchQuery.STATUS + log.getStatusCode());
+        }
+        if (log.getActionTaken() != null) {
+            terms.add(LogSearchQuery.ACTION + log.getActionTaken().toLowerCase());
+        }
+        LogTokenizer.tokenize(log.getUrl(), LogSearchQuery.URL, terms);
+        LogTokenizer.tokenize(log.getUserAgent(), LogSearchQuery.UA, terms);
+        return terms;
+    }
+
+    private void backfill() {
+        long start = System.currentTimeMillis();
+        long loaded = 0;
+        try {
+            Long maxId = dbLogRepository.findMaxId();
+            if (maxId != null) {
+                long afterId = Math.max(0, maxId - (long) maxShards * shardEvents);
+                while (true) {
+                    List<DbLog> page = dbLogRepository.findByIdGreaterThanOrderByIdAsc(afterId,
+                            PageRequest.of(0, BACKFILL_PAGE));
+                    if (page.isEmpty()) {
+                        break;
+                    }
+                    synchronized (writeLock) {
+                        for (DbLog log : page) {
+                            if (log.getId() > maxId) {
+                                break;
+                            }
+                            index(log);
+                            loaded++;
+                        }
+                    }
+                    afterId = page.get(page.size() - 1).getId();
+                    if (afterId >= maxId) {
+                        break;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("攻击日志索引回填失败，仅索引新写入的事件: {}", e.getMessage());
+        }
+        markReady();
+        logger.info("攻击日志索引回填完成: {} 条，耗时 {} ms", loaded, System.currentTimeMillis() - start);
+    }
+
+    private void markReady() {
+        synchronized (writeLock) {
+            List<DbLog> buffered = pending;
+            pending = new ArrayList<>();
+            long last = lastIndexedId();
+            for (DbLog log : buffered) {
+                // 回填可能已经读到了这些事件
+                if (log.getId() != null && log.getId() > last) {
+                    index(log);
+                }
+            }
+            ready = true;
+        }
+    }
+
+    private long lastIndexedId() {
+        if (shards.isEmpty()) {
+            return 0;
+        }
+        return shards.get(shards.size() - 1).lastId();
+    }
+}
@@ -0,0 +1,221 @@
+package org.example.waf.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 索引分片：固定容量的一段连续事件，分片内序号从 0 递增，每个词对应一个 {@link OrdinalBitmap}。
+ * 只有最新分片会被写入；淘汰时整片丢弃，不需要从位图里删除元素。
+ */
+final class IndexShard {
+    private final int capacity;
+    private final long[] ids;
+    private final long[] timestamps;
+    private final Map<String, OrdinalBitmap> postings = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private int size;
+    private long minTs = Long.MAX_VALUE;
+    private long maxTs = Long.MIN_VALUE;
+
+    IndexShard(int capacity) {
+        this.capacity = capacity;
+        this.ids = new long[capacity];
+        this.timestamps = new long[capacity];
+    }
+
+    boolean isFull() {
+        return size >= capacity;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long lastId() {
+        lock.readLock().lock();
+        try {
+            return size == 0 ? 0 : ids[size - 1];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long getMinTs() {
+        lock.readLock().lock();
+        try {
+            return minTs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** 调用方保证分片未满；写线程只有一个，锁只用于与查询互斥。 */
+    void add(long id, long ts, Collection<String> terms) {
+        lock.writeLock().lock();
+        try {
+            int ordinal = size;
+            ids[ordinal] = id;
+            timestamps[ordinal] = ts;
+            for (String term : terms) {
+                postings.computeIfAbsent(term, k -> new OrdinalBitmap()).add(ordinal);
+            }
+            minTs = Math.min(minTs, ts);
+            maxTs = Math.max(maxTs, ts);
+            size = ordinal + 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 在本分片上执行查询：命中数累加到 total[0]，从最新序号开始把命中写入 hits，直到凑满 limit。
+     */
+    void search(LogSearchQuery query, int limit, long[] total, List<long[]> hits) {
+        lock.readLock().lock();
+        try {
+            if (size == 0 || maxTs < query.getFrom() || minTs > query.getTo()) {
+                return;
+            }
+            boolean fullyInRange = minTs >= query.getFrom() && maxTs <= query.getTo();
+            if (query.isEmpty()) {
+                for (int i = size - 1; i >= 0; i--) {
+                    collect(i, query, limit, total, hits);
+                }
+                return;
+            }
+            OrdinalBitmap matched = evaluate(query);
+            if (matched == null || matched.isEmpty()) {
+                return;
+            }
+            if (fullyInRange) {
+                // 时间范围覆盖整个分片时命中数直接取基数，只遍历凑满 limit 所需的部分
+                total[0] += matched.cardinality();
+                matched.forEachDescending(ordinal -> {
+                    if (hits.size() >= limit) {
+                        return false;
+                    }
+                    hits.add(new long[]{ids[ordinal], timestamps[ordinal]});
+                    return true;
+                });
+            } else {
+                matched.forEachDescending(ordinal -> {
+                    collect(ordinal, query, limit, total, hits);
+                    return true;
+                });
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long sizeInBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 16L * capacity;
+            for (Map.Entry<String, OrdinalBitmap> e : postings.entrySet()) {
+                bytes += 64 + e.getKey().length() * 2L + e.getValue().sizeInBytes();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int termCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void collect(int ordinal, LogSearchQuery query, int limit, long[] total, List<long[]> hits) {
+        long ts = timestamps[ordinal];
+        if (ts < query.getFrom() || ts > query.getTo()) {
+            return;
+        }
+        total[0]++;
+        if (hits.size() < limit) {
+            hits.add(new long[]{ids[ordinal], ts});
+        }
+    }
+
+    private OrdinalBitmap evaluate(LogSearchQuery query) {
+        List<OrdinalBitmap> results = new ArrayList<>();
+        for (List<List<String>> clause : query.getClauses()) {
+            OrdinalBitmap r = evaluateClause(clause);
+            if (r.isEmpty() && !query.isOr()) {
+                return null;
+            }
+            results.add(r);
+        }
+        if (query.isOr()) {
+            OrdinalBitmap acc = new OrdinalBitmap();
+            for (OrdinalBitmap r : results) {
+                acc = OrdinalBitmap.or(acc, r);
+            }
+            return acc;
+        }
+        return intersect(results);
+    }
+
+    /** 候选之间 OR，候选内的词之间 AND；不存在的词视为空集。 */
+    private OrdinalBitmap evaluateClause(List<List<String>> alternatives) {
+        OrdinalBitmap acc = null;
+        for (List<String> terms : alternatives) {
+            List<OrdinalBitmap> lists = new ArrayList<>(terms.size());
+            boolean missing = false;
+            for (String term : terms) {
+                OrdinalBitmap p = postings.get(term);
+                if (p == null) {
+                    missing = true;
+                    break;
+                }
+                lists.add(p);
+            }
+            if (missing) {
+                continue;
+            }
+            OrdinalBitmap r = intersect(lists);
+            if (r == null || r.isEmpty()) {
+                continue;
+            }
+            acc = acc == null ? r : OrdinalBitmap.or(acc, r);
+        }
+        return acc == null ? new OrdinalBitmap() : acc;
+    }
+
+    /** 从基数最小的开始求交，中途为空即返回。单个列表直接返回原对象（只读使用）。 */
+    private static OrdinalBitmap intersect(List<OrdinalBitmap> lists) {
+        if (lists.isEmpty()) {
+            return null;
+        }
+        OrdinalBitmap[] sorted = lists.toArray(new OrdinalBitmap[0]);
+        int[] cards = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            cards[i] = sorted[i].cardinality();
+        }
+        Integer[] order = new Integer[sorted.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> cards[i]));
+        OrdinalBitmap acc = sorted[order[0]];
+        for (int i = 1; i < order.length && !acc.isEmpty(); i++) {
+            acc = OrdinalBitmap.and(acc, sorted[order[i]]);
+        }
+        return acc;
+    }
+}
@@ -0,0 +1,123 @@
+package org.example.waf.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 攻击日志检索条件。每个字段是一个子句，字段值可用逗号分隔多个候选（候选之间为 OR）；
+ * url、ua 的每个候选再分词，词之间为 AND（即"包含这些词"）。子句之间默认 AND，{@link #or()} 后为 OR。
+ * 可选的时间范围只过滤结果，不参与倒排计算。
+ */
+public class LogSearchQuery {
+    static final String IP = "ip:";
+    static final String RULE = "rule:";
+    static final String STATUS = "status:";
+    static final String ACTION = "action:";
+    static final String URL = "url:";
+    static final String UA = "ua:";
+
+    /** 子句 → 候选 → 词 */
+    private final List<List<List<String>>> clauses = new ArrayList<>();
+    private boolean or;
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+
+    public LogSearchQuery ip(String values) {
+        return exact(IP, values, false);
+    }
+
+    public LogSearchQuery ruleId(String values) {
+        return exact(RULE, values, false);
+    }
+
+    public LogSearchQuery status(String values) {
+        return exact(STATUS, values, false);
+    }
+
+    public LogSearchQuery action(String values) {
+        return exact(ACTION, values, true);
+    }
+
+    public LogSearchQuery url(String values) {
+        return text(URL, values);
+    }
+
+    public LogSearchQuery userAgent(String values) {
+        return text(UA, values);
+    }
+
+    public LogSearchQuery or() {
+        this.or = true;
+        return this;
+    }
+
+    public LogSearchQuery between(Long from, Long to) {
+        this.from = from == null ? Long.MIN_VALUE : from;
+        this.to = to == null ? Long.MAX_VALUE : to;
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return clauses.isEmpty();
+    }
+
+    List<List<List<String>>> getClauses() {
+        return clauses;
+    }
+
+    boolean isOr() {
+        return or;
+    }
+
+    long getFrom() {
+        return from;
+    }
+
+    long getTo() {
+        return to;
+    }
+
+    private LogSearchQuery exact(String prefix, String values, boolean lowerCase) {
+        List<List<String>> alternatives = new ArrayList<>();
+        for (String v : split(values)) {
+            alternatives.add(Collections.singletonList(prefix + (lowerCase ? v.toLowerCase() : v)));
+        }
+        if (!alternatives.isEmpty()) {
+            clauses.add(alternatives);
+        }
+        return this;
+    }
+
+    private LogSearchQuery text(String prefix, String values) {
+        List<List<String>> alternatives = new ArrayList<>();
+        for (String v : split(values)) {
+            Set<String> terms = new LinkedHashSet<>();
+            LogTokenizer.tokenize(v, prefix, terms);
+            // 全是单字符的候选无法走索引，忽略
+            if (!terms.isEmpty()) {
+                alternatives.add(new ArrayList<>(terms));
+            }
+        }
+        if (!alternatives.isEmpty()) {
+            clauses.add(alternatives);
+        }
+        return this;
+    }
+
+    private static List<String> split(String values) {
+        List<String> result = new ArrayList<>();
+        if (values == null) {
+            return result;
+        }
+        for (String v : values.split(",")) {
+            String trimmed = v.trim();
+            if (!trimmed.isEmpty()) {
+                result.add(trimmed);
+            }
+        }
+        return result;
+    }
+}
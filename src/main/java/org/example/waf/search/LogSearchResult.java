@@ -0,0 +1,37 @@
+package org.example.waf.search;
+
+import java.util.List;
+
+/**
+ * 检索结果：命中总数和按时间倒序的前 N 条日志 id（调用方按主键回表）。
+ * coveredSince 是索引中最早事件的时间，早于它的日志不在检索范围内。
+ */
+public class LogSearchResult {
+    private final long total;
+    private final List<Long> ids;
+    private final long coveredSince;
+    private final double tookMs;
+
+    LogSearchResult(long total, List<Long> ids, long coveredSince, double tookMs) {
+        this.total = total;
+        this.ids = ids;
+        this.coveredSince = coveredSince;
+        this.tookMs = tookMs;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public List<Long> getIds() {
+        return ids;
+    }
+
+    public long getCoveredSince() {
+        return coveredSince;
+    }
+
+    public double getTookMs() {
+        return tookMs;
+    }
+}
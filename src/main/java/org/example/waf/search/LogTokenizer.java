@@ -0,0 +1,50 @@
+package org.example.waf.search;
+
+import java.util.Collection;
+
+/**
+ * 倒排索引的分词：先解 %XX 转义，再按非字母数字切分并转小写。
+ * 写入和查询使用同一套规则，单字符词丢弃，过长的词截断到 {@link #MAX_TOKEN_LENGTH}。
+ */
+final class LogTokenizer {
+    static final int MIN_TOKEN_LENGTH = 2;
+    static final int MAX_TOKEN_LENGTH = 32;
+    static final int MAX_TOKENS_PER_FIELD = 32;
+
+    private LogTokenizer() {
+    }
+
+    /**
+     * 把 text 的词加上前缀后放入 out，返回加入的词数（out 为 Set 时重复词不计）。
+     */
+    static int tokenize(String text, String prefix, Collection<String> out) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int added = 0;
+        StringBuilder token = new StringBuilder(MAX_TOKEN_LENGTH);
+        int n = text.length();
+        for (int i = 0; i <= n && added < MAX_TOKENS_PER_FIELD; i++) {
+            char c = i < n ? text.charAt(i) : ' ';
+            if (c == '%' && i + 2 < n) {
+                int hi = Character.digit(text.charAt(i + 1), 16);
+                int lo = Character.digit(text.charAt(i + 2), 16);
+                if (hi >= 0 && lo >= 0) {
+                    c = (char) (hi << 4 | lo);
+                    i += 2;
+                }
+            }
+            if (Character.isLetterOrDigit(c)) {
+                if (token.length() < MAX_TOKEN_LENGTH) {
+                    token.append(Character.toLowerCase(c));
+                }
+            } else if (token.length() > 0) {
+                if (token.length() >= MIN_TOKEN_LENGTH && out.add(prefix + token)) {
+                    added++;
+                }
+                token.setLength(0);
+            }
+        }
+        return added;
+    }
+}
@@ -0,0 +1,381 @@
+package org.example.waf.search;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * 非负 int 的压缩位图（roaring 思路）：按高 16 位分桶，每桶是一个容器，
+ * 元素不超过 {@link #ARRAY_MAX} 个时为有序 char 数组，否则为 65536 位的位图。
+ * 倒排表的事件序号基本递增，追加到最后一个桶的末尾是 O(1) 的快速路径。
+ *
+ * 非线程安全，由 {@link IndexShard} 的读写锁保护。
+ */
+final class OrdinalBitmap {
+    static final int ARRAY_MAX = 4096;
+
+    private char[] keys = new char[2];
+    private Container[] containers = new Container[2];
+    private int size;
+
+    void add(int x) {
+        char key = (char) (x >>> 16);
+        char low = (char) x;
+        int i;
+        if (size > 0 && keys[size - 1] == key) {
+            i = size - 1;
+        } else {
+            i = Arrays.binarySearch(keys, 0, size, key);
+            if (i < 0) {
+                i = -i - 1;
+                insertContainer(i, key, new ArrayContainer());
+            }
+        }
+        containers[i] = containers[i].add(low);
+    }
+
+    int cardinality() {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            n += containers[i].cardinality();
+        }
+        return n;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 从大到小遍历，visitor 返回 false 时停止。
+     */
+    void forEachDescending(IntPredicate visitor) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (!containers[i].forEachDescending(keys[i] << 16, visitor)) {
+                return;
+            }
+        }
+    }
+
+    static OrdinalBitmap and(OrdinalBitmap a, OrdinalBitmap b) {
+        OrdinalBitmap result = new OrdinalBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container c = a.containers[i].and(b.containers[j]);
+                if (c.cardinality() > 0) {
+                    result.appendContainer(a.keys[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    static OrdinalBitmap or(OrdinalBitmap a, OrdinalBitmap b) {
+        OrdinalBitmap result = new OrdinalBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            if (j >= b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                result.appendContainer(a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i >= a.size || a.keys[i] > b.keys[j]) {
+                result.appendContainer(b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                result.appendContainer(a.keys[i], a.containers[i].or(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /** 大致的堆占用字节数。 */
+    long sizeInBytes() {
+        long bytes = 16 + keys.length * 2L + containers.length * 8L;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+    private void insertContainer(int i, char key, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = c;
+        size++;
+    }
+
+    private void appendContainer(char key, Container c) {
+        insertContainer(size, key, c);
+    }
+
+    private abstract static class Container {
+        abstract Container add(char x);
+
+        abstract int cardinality();
+
+        abstract boolean contains(char x);
+
+        abstract boolean forEachDescending(int high, IntPredicate visitor);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container copy();
+
+        abstract long sizeInBytes();
+    }
+
+    private static final class ArrayContainer extends Container {
+        char[] values;
+        int n;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int n) {
+            this.values = values;
+            this.n = n;
+        }
+
+        @Override
+        Container add(char x) {
+            int i;
+            if (n == 0 || values[n - 1] < x) {
+                i = n;
+            } else {
+                i = Arrays.binarySearch(values, 0, n, x);
+                if (i >= 0) {
+                    return this;
+                }
+                i = -i - 1;
+            }
+            if (n == ARRAY_MAX) {
+                BitmapContainer b = toBitmap();
+                return b.add(x);
+            }
+            if (n == values.length) {
+                values = Arrays.copyOf(values, Math.min(n * 2, ARRAY_MAX));
+            }
+            System.arraycopy(values, i, values, i + 1, n - i);
+            values[i] = x;
+            n++;
+            return this;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer b = new BitmapContainer();
+            for (int i = 0; i < n; i++) {
+                b.add(values[i]);
+            }
+            return b;
+        }
+
+        @Override
+        int cardinality() {
+            return n;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return Arrays.binarySearch(values, 0, n, x) >= 0;
+        }
+
+        @Override
+        boolean forEachDescending(int high, IntPredicate visitor) {
+            for (int i = n - 1; i >= 0; i--) {
+                if (!visitor.test(high | values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] out = new char[Math.min(n, other.cardinality())];
+            int k = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < n && j < o.n) {
+                    if (values[i] < o.values[j]) {
+                        i++;
+                    } else if (values[i] > o.values[j]) {
+                        j++;
+                    } else {
+                        out[k++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    if (other.contains(values[i])) {
+                        out[k++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(out, k);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            ArrayContainer o = (ArrayContainer) other;
+            char[] out = new char[n + o.n];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < n || j < o.n) {
+                if (j >= o.n || (i < n && values[i] < o.values[j])) {
+                    out[k++] = values[i++];
+                } else if (i >= n || values[i] > o.values[j]) {
+                    out[k++] = o.values[j++];
+                } else {
+                    out[k++] = values[i++];
+                    j++;
+                }
+            }
+            ArrayContainer merged = new ArrayContainer(out, k);
+            return k > ARRAY_MAX ? merged.toBitmap() : merged;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(n, 1)), n);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 24 + values.length * 2L;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        final long[] words;
+        int cardinality;
+
+        BitmapContainer() {
+            this(new long[1024], 0);
+        }
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char x) {
+            long bit = 1L << x;
+            int w = x >>> 6;
+            if ((words[w] & bit) == 0) {
+                words[w] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        @Override
+        boolean forEachDescending(int high, IntPredicate visitor) {
+            for (int w = words.length - 1; w >= 0; w--) {
+                long word = words[w];
+                while (word != 0) {
+                    int bit = 63 - Long.numberOfLeadingZeros(word);
+                    if (!visitor.test(high | (w << 6 | bit))) {
+                        return false;
+                    }
+                    word &= ~(1L << bit);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            BitmapContainer o = (BitmapContainer) other;
+            long[] out = new long[1024];
+            int card = 0;
+            for (int i = 0; i < 1024; i++) {
+                out[i] = words[i] & o.words[i];
+                card += Long.bitCount(out[i]);
+            }
+            if (card > ARRAY_MAX) {
+                return new BitmapContainer(out, card);
+            }
+            char[] values = new char[card];
+            int k = 0;
+            for (int i = 0; i < 1024; i++) {
+                long word = out[i];
+                while (word != 0) {
+                    values[k++] = (char) (i << 6 | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, card);
+        }
+
+        @Override
+        Container or(Container other) {
+            long[] out = words.clone();
+            int card;
+            if (other instanceof BitmapContainer) {
+                long[] o = ((BitmapContainer) other).words;
+                card = 0;
+                for (int i = 0; i < 1024; i++) {
+                    out[i] |= o[i];
+                    card += Long.bitCount(out[i]);
+                }
+            } else {
+                BitmapContainer result = new BitmapContainer(out, cardinality);
+                ArrayContainer a = (ArrayContainer) other;
+                for (int i = 0; i < a.n; i++) {
+                    result.add(a.values[i]);
+                }
+                return result;
+            }
+            return new BitmapContainer(out, card);
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 24 + 8 * 1024;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.example.waf.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Claims;
+import org.example.waf.dto.LoginResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 管理接口鉴权：要求 Authorization: Bearer &lt;token&gt;，校验结果经 {@link VerifiedTokenCache} 缓存。
+ * 通过后把用户信息放入请求属性 {@link #ATTR_USER_ID} / {@link #ATTR_USERNAME}。
+ */
+@Component
+public class JwtAuthFilter extends OncePerRequestFilter {
+    public static final String ATTR_USER_ID = "auth.userId";
+    public static final String ATTR_USERNAME = "auth.username";
+
+    private final VerifiedTokenCache tokenCache;
+    private final boolean enabled;
+    private final List<String> protectedPaths = new ArrayList<>();
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public JwtAuthFilter(VerifiedTokenCache tokenCache,
+                         @Value("${app.auth.enabled:true}") boolean enabled,
+                         @Value("${app.auth.protected-paths:/api/waf/**,/api/statistics/**,/api/applications/**,/api/monitor/**}") String protectedPaths) {
+        this.tokenCache = tokenCache;
+        this.enabled = enabled;
+        for (String p : protectedPaths.split(",")) {
+            if (!p.trim().isEmpty()) {
+                this.protectedPaths.add(p.trim());
+            }
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!enabled || HttpMethod.OPTIONS.matches(request.getMethod())) {
+            return true; // CORS 预检请求不带凭证
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (String pattern : protectedPaths) {
+            if (pathMatcher.match(pattern, path)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        String authHeader = request.getHeader("Authorization");
+        Claims claims = null;
+        if (authHeader != null && authHeader.startsWith("Bearer ")) {
+            claims = tokenCache.verify(authHeader.substring(7));
+        }
+        if (claims == null) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            objectMapper.writeValue(response.getWriter(), new LoginResponse(false, "未登录或Token无效"));
+            return;
+        }
+        request.setAttribute(ATTR_USER_ID, claims.getSubject());
+        request.setAttribute(ATTR_USERNAME, claims.get("username", String.class));
+        filterChain.doFilter(request, response);
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.waf.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录失败限流：按用户名和来源 IP 分别维护滑动窗口失败计数，
+ * 超过阈值的请求在查库和哈希之前直接拒绝。
+ */
+@Component
+public class LoginAttemptLimiter {
+    private static final int BUCKETS = 15;
+
+    private final Map<String, SlidingWindowCounter> failuresByUser = new ConcurrentHashMap<>();
+    private final Map<String, SlidingWindowCounter> failuresByIp = new ConcurrentHashMap<>();
+    private final long windowMillis;
+    private final int maxFailuresPerUser;
+    private final int maxFailuresPerIp;
+
+    public LoginAttemptLimiter(@Value("${app.auth.login.window-minutes:15}") int windowMinutes,
+                               @Value("${app.auth.login.max-failures-per-user:5}") int maxFailuresPerUser,
+                               @Value("${app.auth.login.max-failures-per-ip:20}") int maxFailuresPerIp) {
+        this.windowMillis = TimeUnit.MINUTES.toMillis(windowMinutes);
+        this.maxFailuresPerUser = maxFailuresPerUser;
+        this.maxFailuresPerIp = maxFailuresPerIp;
+    }
+
+    public boolean isBlocked(String username, String ip) {
+        long now = System.currentTimeMillis();
+        return exceeds(failuresByUser.get(userKey(username)), now, maxFailuresPerUser)
+                || exceeds(failuresByIp.get(ip), now, maxFailuresPerIp);
+    }
+
+    public void recordFailure(String username, String ip) {
+        long now = System.currentTimeMillis();
+        failuresByUser.computeIfAbsent(userKey(username), k -> newCounter()).increment(now);
+        if (ip != null) {
+            failuresByIp.computeIfAbsent(ip, k -> newCounter()).increment(now);
+        }
+    }
+
+    // 登录成功只清除该用户的失败计数，同一 IP 对其他账号的尝试仍然累计
+    public void recordSuccess(String username) {
+        SlidingWindowCounter c = failuresByUser.get(userKey(username));
+        if (c != null) {
+            c.reset();
+        }
+    }
+
+    @Scheduled(fixedDelay = 60_000)
+    public void purgeIdle() {
+        long now = System.currentTimeMillis();
+        failuresByUser.values().removeIf(c -> c.isIdle(now));
+        failuresByIp.values().removeIf(c -> c.isIdle(now));
+    }
+
+    private SlidingWindowCounter newCounter() {
+        return new SlidingWindowCounter(windowMillis, BUCKETS);
+    }
+
+    private static boolean exceeds(SlidingWindowCounter c, long now, int max) {
+        return c != null && c.sum(now) >= max;
+    }
+
+    private static String userKey(String username) {
+        return username == null ? "" : username.trim().toLowerCase();
+    }
+}
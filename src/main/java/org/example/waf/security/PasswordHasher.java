@@ -0,0 +1,91 @@
+package org.example.waf.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * BCrypt 计算放在独立的定长线程池中执行，排队数有上限，结果以 {@link CompletableFuture} 返回：
+ * 调用方（登录、注册接口）以异步请求处理，等待哈希期间不占用 Tomcat 工作线程。
+ * 池和队列都满时返回的 future 立即以 {@link RejectedExecutionException} 失败，调用方返回 429，
+ * 大量并发登录最多占用固定数量的 CPU。
+ */
+@Component
+public class PasswordHasher {
+    private final ThreadPoolExecutor executor;
+    private final BCryptPasswordEncoder encoder;
+    private final long timeoutMs;
+
+    public PasswordHasher(@Value("${app.auth.hash.threads:0}") int threads,
+                          @Value("${app.auth.hash.queue-capacity:64}") int queueCapacity,
+                          @Value("${app.auth.hash.timeout-ms:5000}") long timeoutMs,
+                          @Value("${app.auth.hash.bcrypt-strength:12}") int strength) {
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger seq = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "bcrypt-worker-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.encoder = new BCryptPasswordEncoder(strength);
+        this.timeoutMs = timeoutMs;
+    }
+
+    /** 异步请求等待哈希结果的最长时间，超时按繁忙返回 429 */
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * 校验明文密码与 BCrypt 哈希是否匹配，哈希格式错误视为不匹配。
+     * 线程池繁忙时返回的 future 以 {@link RejectedExecutionException} 失败。
+     */
+    public CompletableFuture<Boolean> matches(String rawPassword, String hash) {
+        return submit(() -> {
+            try {
+                return BCrypt.checkpw(rawPassword, hash);
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * 计算 BCrypt 哈希。线程池繁忙时返回的 future 以 {@link RejectedExecutionException} 失败。
+     */
+    public CompletableFuture<String> encode(String rawPassword) {
+        return submit(() -> encoder.encode(rawPassword));
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /** 取出 future 失败的根本原因（CompletionException 包装的那一层） */
+    public static Throwable unwrap(Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
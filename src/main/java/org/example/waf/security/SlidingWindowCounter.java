@@ -0,0 +1,60 @@
+package org.example.waf.security;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁滑动窗口计数器：窗口切成若干个桶，按时间轮转复用，过期桶在写入时惰性清零。
+ * 桶切换瞬间的并发写可能少计一两次，对限流场景可以接受。
+ */
+public class SlidingWindowCounter {
+    private final long bucketMillis;
+    private final int buckets;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray epochs;
+    private volatile long lastUpdate;
+
+    public SlidingWindowCounter(long windowMillis, int buckets) {
+        this.buckets = buckets;
+        this.bucketMillis = Math.max(1, windowMillis / buckets);
+        this.counts = new AtomicLongArray(buckets);
+        this.epochs = new AtomicLongArray(buckets);
+    }
+
+    public long increment(long now) {
+        return add(now, 1);
+    }
+
+    public long add(long now, long delta) {
+        long epoch = now / bucketMillis;
+        int i = (int) (epoch % buckets);
+        long e = epochs.get(i);
+        if (e != epoch && epochs.compareAndSet(i, e, epoch)) {
+            counts.set(i, 0);
+        }
+        counts.addAndGet(i, delta);
+        lastUpdate = now;
+        return sum(now);
+    }
+
+    public long sum(long now) {
+        long epoch = now / bucketMillis;
+        long total = 0;
+        for (int i = 0; i < buckets; i++) {
+            if (epoch - epochs.get(i) < buckets) {
+                total += counts.get(i);
+            }
+        }
+        return total;
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    // 整个窗口内都没有写入，可以回收
+    public boolean isIdle(long now) {
+        return now - lastUpdate >= bucketMillis * buckets;
+    }
+}
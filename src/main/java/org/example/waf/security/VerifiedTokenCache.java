@@ -0,0 +1,143 @@
+package org.example.waf.security;
+
+import io.jsonwebtoken.Claims;
+import org.example.waf.util.JwtUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 已验证 Token 缓存。以 Token 的 SHA-256 摘要为键保存解析后的 Claims，
+ * 大屏每秒轮询时命中缓存只需一次摘要计算，不再重复解析和 HMAC 校验。
+ *
+ * 缓存项在 Token 过期时刻（且不超过 maxTtl）失效；注销的 Token 记入吊销表直到其过期，
+ * 每次查询都会先检查吊销表。
+ */
+@Component
+public class VerifiedTokenCache {
+
+    private static final class Entry {
+        final Claims claims;
+        final long expiresAt;
+
+        Entry(Claims claims, long expiresAt) {
+            this.claims = claims;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Map<String, Entry> verified = new ConcurrentHashMap<>();
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long maxTtlMs;
+
+    public VerifiedTokenCache(@Value("${app.auth.token-cache.max-entries:10000}") int maxEntries,
+                              @Value("${app.auth.token-cache.max-ttl-ms:300000}") long maxTtlMs) {
+        this.maxEntries = maxEntries;
+        this.maxTtlMs = maxTtlMs;
+    }
+
+    /**
+     * 返回 Token 的 Claims；Token 无效、过期或已吊销时返回 null。
+     */
+    public Claims verify(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        String key = digest(token);
+        long now = System.currentTimeMillis();
+        if (revoked.containsKey(key)) {
+            return null;
+        }
+        Entry entry = verified.get(key);
+        if (entry != null) {
+            if (entry.expiresAt > now) {
+                return entry.claims;
+            }
+            verified.remove(key, entry);
+        }
+
+        Claims claims;
+        try {
+            claims = JwtUtil.parseClaims(token);
+        } catch (RuntimeException e) {
+            return null; // 签名无效、过期、格式错误
+        }
+        long expiresAt = now + maxTtlMs;
+        Date exp = claims.getExpiration();
+        if (exp != null) {
+            expiresAt = Math.min(expiresAt, exp.getTime());
+        }
+        if (verified.size() >= maxEntries) {
+            evictExpired(now);
+        }
+        // 清理后仍满则不缓存，保证内存有界
+        if (verified.size() < maxEntries) {
+            verified.put(key, new Entry(claims, expiresAt));
+        }
+        return claims;
+    }
+
+    /**
+     * 吊销 Token（如注销登录），吊销记录保留到 Token 本身过期。
+     */
+    public void revoke(String token) {
+        if (token == null || token.isEmpty()) {
+            return;
+        }
+        String key = digest(token);
+        long until = System.currentTimeMillis() + maxTtlMs;
+        try {
+            Date exp = JwtUtil.parseClaims(token).getExpiration();
+            if (exp != null) {
+                until = exp.getTime();
+            }
+        } catch (RuntimeException ignored) {
+            // 无效 Token 同样记入吊销表，按 maxTtl 保留
+        }
+        revoked.put(key, until);
+        verified.remove(key);
+    }
+
+    public int size() {
+        return verified.size();
+    }
+
+    @Scheduled(fixedDelay = 60_000)
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        evictExpired(now);
+        revoked.values().removeIf(until -> until <= now);
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Entry> it = verified.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().expiresAt <= now) {
+                it.remove();
+            }
+        }
+    }
+
+    // 摘要转为 32 个字符的字符串作为键（ISO-8859-1 一字节一字符，不做十六进制编码）
+    private static String digest(String token) {
+        byte[] d = SHA256.get().digest(token.getBytes(StandardCharsets.US_ASCII));
+        return new String(d, StandardCharsets.ISO_8859_1);
+    }
+}
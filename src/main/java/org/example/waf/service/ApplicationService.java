@@ -9,27 +9,60 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 受保护应用注册表。
+ *
+ * 读：按 id、按小写域名的并发索引 O(1) 查找，列表读取返回写时复制的不可变快照，全程无锁。
+ * 写：串行化在 {@code writeLock} 上，已发布的 Application 对象不再原地修改，而是替换为新副本。
+ * 持久化：变更只标记脏并合并到一次延迟写，写临时文件后原子 rename，进程崩溃也不会留下半个文件。
+ */
 @Service
 public class ApplicationService {
     private static final Logger logger = LoggerFactory.getLogger(ApplicationService.class);
-    private final List<Application> applications = new ArrayList<>();
+
+    private final Map<Long, Application> applicationsById = new ConcurrentHashMap<>();
+    private final Map<String, Long> idByDomain = new ConcurrentHashMap<>();
+    private volatile List<Application> snapshot = Collections.emptyList();
+    private final Object writeLock = new Object();
+
     private final AtomicLong idGenerator = new AtomicLong(0);
+    // 每次应用增删改后递增，供 Host 路由索引判断是否需要重建
+    private final AtomicLong revision = new AtomicLong(0);
     private final ObjectMapper objectMapper;
     private final Path dataFilePath;
+    private final long saveDelayMs;
+    private final AtomicBoolean saveScheduled = new AtomicBoolean(false);
+    private final ScheduledExecutorService saveExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "application-store-writer");
+        t.setDaemon(true);
+        return t;
+    });
 
-    public ApplicationService(@Value("${app.applications.file:./data/applications.json}") String filePath) {
+    public ApplicationService(@Value("${app.applications.file:./data/applications.json}") String filePath,
+                              @Value("${app.applications.save-delay-ms:200}") long saveDelayMs) {
         this.objectMapper = new ObjectMapper();
         this.dataFilePath = Paths.get(filePath).toAbsolutePath();
+        this.saveDelayMs = saveDelayMs;
         loadApplications();
     }
 
@@ -39,73 +72,118 @@ public class ApplicationService {
             // 1. 优先从外部文件加载
             if (Files.exists(dataFilePath)) {
                 List<Application> loadedApps = objectMapper.readValue(dataFilePath.toFile(), new TypeReference<List<Application>>() {});
-                applications.clear();
-                applications.addAll(loadedApps);
-                // 更新ID生成器
-                if (!applications.isEmpty()) {
-                    long maxId = applications.stream().mapToLong(Application::getId).max().orElse(0);
-                    idGenerator.set(maxId + 1);
-                }
-                logger.info("从外部文件加载应用数据成功，共{}个应用", applications.size());
+                publishAll(loadedApps);
+                logger.info("从外部文件加载应用数据成功，共{}个应用", loadedApps.size());
             } else {
                 // 2. 尝试从类路径加载默认数据
                 try {
                     ClassPathResource resource = new ClassPathResource("applications.json");
                     if (resource.exists()) {
                         List<Application> loadedApps = objectMapper.readValue(resource.getInputStream(), new TypeReference<List<Application>>() {});
-                        applications.clear();
-                        applications.addAll(loadedApps);
-                        // 更新ID生成器
-                        if (!applications.isEmpty()) {
-                            long maxId = applications.stream().mapToLong(Application::getId).max().orElse(0);
-                            idGenerator.set(maxId + 1);
-                        }
-                        logger.info("从类路径加载应用数据成功，共{}个应用", applications.size());
+                        publishAll(loadedApps);
+                        logger.info("从类路径加载应用数据成功，共{}个应用", loadedApps.size());
                     } else {
                         // 3. 初始化默认数据
-                        initDefaultApplications();
+                        publishAll(initDefaultApplications());
                         saveApplications();
                     }
                 } catch (Exception e) {
                     // 类路径加载失败，初始化默认数据
-                    initDefaultApplications();
+                    publishAll(initDefaultApplications());
                     saveApplications();
                 }
             }
         } catch (IOException e) {
             logger.error("加载应用数据失败: {}", e.getMessage());
             // 初始化默认数据
-            initDefaultApplications();
+            publishAll(initDefaultApplications());
+        }
+    }
+
+    // 用加载结果重建索引并更新ID生成器
+    private void publishAll(List<Application> loadedApps) {
+        synchronized (writeLock) {
+            applicationsById.clear();
+            idByDomain.clear();
+            long maxId = 0;
+            for (Application app : loadedApps) {
+                if (app.getId() == null) {
+                    continue;
+                }
+                applicationsById.put(app.getId(), app);
+                if (app.getDomain() != null) {
+                    idByDomain.putIfAbsent(domainKey(app.getDomain()), app.getId());
+                }
+                maxId = Math.max(maxId, app.getId());
+            }
+            if (!applicationsById.isEmpty()) {
+                idGenerator.set(maxId + 1);
+            }
+            refreshSnapshot(true);
+        }
+    }
+
+    // 在写锁内调用：重建只读快照，structural 为 true 时通知路由索引重建
+    private void refreshSnapshot(boolean structural) {
+        List<Application> list = new ArrayList<>(applicationsById.values());
+        list.sort(Comparator.comparing(Application::getId));
+        snapshot = Collections.unmodifiableList(list);
+        if (structural) {
+            revision.incrementAndGet();
         }
     }
 
-    // 保存应用数据到文件
+    // 标记脏并合并写：延迟窗口内的多次变更只落盘一次
+    private void requestSave() {
+        if (saveScheduled.compareAndSet(false, true)) {
+            saveExecutor.schedule(this::saveApplications, saveDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // 保存应用数据到文件：先写同目录临时文件，再原子替换
     private void saveApplications() {
+        saveScheduled.set(false);
         try {
             // 确保父目录存在
             Path parentDir = dataFilePath.getParent();
             if (parentDir != null && !Files.exists(parentDir)) {
                 Files.createDirectories(parentDir);
             }
-            objectMapper.writeValue(dataFilePath.toFile(), applications);
+            byte[] bytes = objectMapper.writeValueAsBytes(snapshot);
+            Path tmp = dataFilePath.resolveSibling(dataFilePath.getFileName() + ".tmp");
+            Files.write(tmp, bytes);
+            try {
+                Files.move(tmp, dataFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, dataFilePath, StandardCopyOption.REPLACE_EXISTING);
+            }
             logger.info("保存应用数据到文件成功，文件路径: {}", dataFilePath);
         } catch (IOException e) {
             logger.error("保存应用数据失败: {}", e.getMessage());
         }
     }
 
+    // 关闭时执行完已排队的延迟写（默认策略下 shutdown 后延迟任务仍会执行）
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        saveExecutor.shutdown();
+        if (!saveExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+            logger.warn("应用数据保存超时，文件可能不是最新状态: {}", dataFilePath);
+        }
+    }
+
     // 初始化默认应用数据
-    private void initDefaultApplications() {
-        applications.clear();
-        
+    private List<Application> initDefaultApplications() {
+        List<Application> applications = new ArrayList<>();
+
         Application app1 = new Application();
         app1.setId(idGenerator.incrementAndGet());
         app1.setName("API服务");
         app1.setDomain("api.demo.com");
         app1.setStatus("enabled");
-        app1.setTotalRequests(12560);
-        app1.setBlockedRequests(1234);
-        app1.setAttackCount(89);
+        app1.setTotalRequests(12560L);
+        app1.setBlockedRequests(1234L);
+        app1.setAttackCount(89L);
         app1.setCreateTime(new Date(System.currentTimeMillis() - 30 * 24 * 60 * 60 * 1000)); // 30天前
         applications.add(app1);
 
@@ -114,9 +192,9 @@ public class ApplicationService {
         app2.setName("管理后台");
         app2.setDomain("admin.demo.com");
         app2.setStatus("enabled");
-        app2.setTotalRequests(8560);
-        app2.setBlockedRequests(456);
-        app2.setAttackCount(23);
+        app2.setTotalRequests(8560L);
+        app2.setBlockedRequests(456L);
+        app2.setAttackCount(23L);
         app2.setCreateTime(new Date(System.currentTimeMillis() - 10 * 24 * 60 * 60 * 1000)); // 10天前
         applications.add(app2);
 
@@ -125,9 +203,9 @@ public class ApplicationService {
         app3.setName("Web前端");
         app3.setDomain("www.demo.com");
         app3.setStatus("disabled");
-        app3.setTotalRequests(25600);
-        app3.setBlockedRequests(1890);
-        app3.setAttackCount(156);
+        app3.setTotalRequests(25600L);
+        app3.setBlockedRequests(1890L);
+        app3.setAttackCount(156L);
         app3.setCreateTime(new Date(System.currentTimeMillis() - 15 * 24 * 60 * 60 * 1000)); // 15天前
         applications.add(app3);
 
@@ -136,69 +214,148 @@ public class ApplicationService {
         app4.setName("移动端API");
         app4.setDomain("mobile-api.demo.com");
         app4.setStatus("enabled");
-        app4.setTotalRequests(18900);
-        app4.setBlockedRequests(890);
-        app4.setAttackCount(67);
+        app4.setTotalRequests(18900L);
+        app4.setBlockedRequests(890L);
+        app4.setAttackCount(67L);
         app4.setCreateTime(new Date(System.currentTimeMillis() - 5 * 24 * 60 * 60 * 1000)); // 5天前
         applications.add(app4);
 
         logger.info("初始化默认应用数据成功，共{}个应用", applications.size());
+        return applications;
+    }
+
+    public long getRevision() {
+        return revision.get();
     }
 
-    // 获取所有应用
+    // 获取所有应用（不可变快照）
     public List<Application> getAllApplications() {
-        return new ArrayList<>(applications);
+        return snapshot;
     }
 
     // 根据ID获取应用
     public Application getApplicationById(Long id) {
-        return applications.stream()
-                .filter(app -> app.getId().equals(id))
-                .findFirst()
-                .orElse(null);
+        return id == null ? null : applicationsById.get(id);
+    }
+
+    // 根据域名获取应用（忽略大小写）
+    public Application getApplicationByDomain(String domain) {
+        Long id = domain == null ? null : idByDomain.get(domainKey(domain));
+        return id == null ? null : applicationsById.get(id);
     }
 
     // 创建应用
     public Application createApplication(Application application) {
-        // 检查域名是否已存在
-        boolean domainExists = applications.stream()
-                .anyMatch(app -> app.getDomain().equalsIgnoreCase(application.getDomain()));
-        if (domainExists) {
-            return null; // 域名已存在
-        }
+        String key = domainKey(application.getDomain());
+        synchronized (writeLock) {
+            // 检查域名是否已存在
+            if (idByDomain.containsKey(key)) {
+                return null; // 域名已存在
+            }
 
-        Application newApp = new Application();
-        newApp.setId(idGenerator.incrementAndGet());
-        newApp.setName(application.getName());
-        newApp.setDomain(application.getDomain());
-        newApp.setStatus("enabled"); // 默认启用
-        newApp.setTotalRequests(0);
-        newApp.setBlockedRequests(0);
-        newApp.setAttackCount(0);
-        newApp.setCreateTime(new Date());
-        
-        applications.add(newApp);
-        saveApplications();
-        return newApp;
+            Application newApp = new Application();
+            newApp.setId(idGenerator.incrementAndGet());
+            newApp.setName(application.getName());
+            newApp.setDomain(application.getDomain());
+            newApp.setUpstream(application.getUpstream());
+            newApp.setStatus("enabled"); // 默认启用
+            newApp.setTotalRequests(0L);
+            newApp.setBlockedRequests(0L);
+            newApp.setAttackCount(0L);
+            newApp.setCreateTime(new Date());
+
+            applicationsById.put(newApp.getId(), newApp);
+            idByDomain.put(key, newApp.getId());
+            refreshSnapshot(true);
+            requestSave();
+            return newApp;
+        }
     }
 
     // 更新应用状态
     public boolean updateApplicationStatus(Long id, String status) {
-        Application app = getApplicationById(id);
-        if (app != null) {
-            app.setStatus(status);
-            saveApplications();
+        synchronized (writeLock) {
+            Application app = getApplicationById(id);
+            if (app == null) {
+                return false;
+            }
+            Application updated = copyOf(app);
+            updated.setStatus(status);
+            applicationsById.put(id, updated);
+            refreshSnapshot(true);
+            requestSave();
+            return true;
+        }
+    }
+
+    // 更新上游地址（反向代理模式使用），传 null 表示清除
+    public boolean updateApplicationUpstream(Long id, String upstream) {
+        synchronized (writeLock) {
+            Application app = getApplicationById(id);
+            if (app == null) {
+                return false;
+            }
+            Application updated = copyOf(app);
+            updated.setUpstream(upstream);
+            applicationsById.put(id, updated);
+            refreshSnapshot(true);
+            requestSave();
             return true;
         }
-        return false;
     }
 
     // 删除应用
     public boolean deleteApplication(Long id) {
-        boolean removed = applications.removeIf(app -> app.getId().equals(id));
-        if (removed) {
-            saveApplications();
+        synchronized (writeLock) {
+            Application removed = id == null ? null : applicationsById.remove(id);
+            if (removed == null) {
+                return false;
+            }
+            if (removed.getDomain() != null) {
+                idByDomain.remove(domainKey(removed.getDomain()), id);
+            }
+            refreshSnapshot(true);
+            requestSave();
+            return true;
         }
-        return removed;
     }
-}
\ No newline at end of file
+
+    // 合并实时流量增量（由 ApplicationTrafficCounter 定期调用），所有应用合并后只写一次文件
+    public void mergeTraffic(Map<Long, long[]> deltas) {
+        synchronized (writeLock) {
+            boolean changed = false;
+            for (Map.Entry<Long, long[]> e : deltas.entrySet()) {
+                Application app = applicationsById.get(e.getKey());
+                if (app == null) {
+                    continue;
+                }
+                long[] d = e.getValue();
+                Application updated = copyOf(app);
+                updated.setTotalRequests(valueOf(app.getTotalRequests()) + d[0]);
+                updated.setBlockedRequests(valueOf(app.getBlockedRequests()) + d[1]);
+                updated.setAttackCount(valueOf(app.getAttackCount()) + d[2]);
+                applicationsById.put(app.getId(), updated);
+                changed = true;
+            }
+            if (changed) {
+                refreshSnapshot(false);
+                requestSave();
+            }
+        }
+    }
+
+    private static Application copyOf(Application app) {
+        Application copy = new Application(app.getId(), app.getName(), app.getDomain(), app.getStatus(),
+                app.getTotalRequests(), app.getBlockedRequests(), app.getAttackCount(), app.getCreateTime());
+        copy.setUpstream(app.getUpstream());
+        return copy;
+    }
+
+    private static String domainKey(String domain) {
+        return domain == null ? "" : domain.trim().toLowerCase();
+    }
+
+    private static long valueOf(Long v) {
+        return v == null ? 0 : v;
+    }
+}
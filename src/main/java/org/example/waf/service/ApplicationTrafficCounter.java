@@ -0,0 +1,115 @@
+package org.example.waf.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 应用实时流量计数。请求线程只对分段累加器（LongAdder）做无锁自增，
+ * 定时任务把增量合并进应用记录并一次性落盘，请求路径上没有锁竞争和文件 IO。
+ */
+@Component
+public class ApplicationTrafficCounter {
+    private static final Logger logger = LoggerFactory.getLogger(ApplicationTrafficCounter.class);
+
+    private static final class Counters {
+        final LongAdder total = new LongAdder();
+        final LongAdder blocked = new LongAdder();
+        final LongAdder attacks = new LongAdder();
+    }
+
+    private final ConcurrentMap<Long, Counters> counters = new ConcurrentHashMap<>();
+    // 上一轮换下的计数器，只由 flush 访问
+    private final Map<Long, Counters> retired = new HashMap<>();
+    private final ApplicationService applicationService;
+
+    public ApplicationTrafficCounter(ApplicationService applicationService) {
+        this.applicationService = applicationService;
+    }
+
+    /**
+     * 记录一次请求。
+     *
+     * @param attack  是否命中规则（拦截或记录）
+     * @param blocked 是否被拦截
+     */
+    public void record(Long applicationId, boolean attack, boolean blocked) {
+        Counters c = counters.get(applicationId);
+        if (c == null) {
+            c = counters.computeIfAbsent(applicationId, k -> new Counters());
+        }
+        c.total.increment();
+        if (attack) {
+            c.attacks.increment();
+        }
+        if (blocked) {
+            c.blocked.increment();
+        }
+    }
+
+    /**
+     * 把各应用的增量合并进应用记录。每个有增量的应用先换上新的计数器（replace 保证只替换看到的那个），
+     * 再汇总换下来的旧计数器，汇总期间的新请求都计在新计数器上，不会丢失；
+     * 换下前已拿到旧计数器、稍后才自增的请求留到下一轮从 {@link #retired} 中补上。
+     * 合并失败时增量加回计数器，下一轮重试；已删除应用的计数器直接丢弃。
+     */
+    @Scheduled(fixedDelayString = "${app.applications.traffic-flush-ms:5000}")
+    public synchronized void flush() {
+        Map<Long, long[]> deltas = new HashMap<>();
+        for (Map.Entry<Long, Counters> e : retired.entrySet()) {
+            Counters c = e.getValue();
+            add(deltas, e.getKey(), c.total.sum(), c.blocked.sum(), c.attacks.sum());
+        }
+        retired.clear();
+        for (Map.Entry<Long, Counters> e : counters.entrySet()) {
+            Long id = e.getKey();
+            Counters c = e.getValue();
+            if (applicationService.getApplicationById(id) == null) {
+                counters.remove(id, c);
+                continue;
+            }
+            if (c.total.sum() == 0 || !counters.replace(id, c, new Counters())) {
+                continue;
+            }
+            retired.put(id, c);
+            add(deltas, id, c.total.sumThenReset(), c.blocked.sumThenReset(), c.attacks.sumThenReset());
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try {
+            applicationService.mergeTraffic(deltas);
+        } catch (Exception e) {
+            logger.error("合并应用流量计数失败，增量留到下一轮: {}", e.getMessage());
+            for (Map.Entry<Long, long[]> d : deltas.entrySet()) {
+                Counters c = counters.computeIfAbsent(d.getKey(), k -> new Counters());
+                c.total.add(d.getValue()[0]);
+                c.blocked.add(d.getValue()[1]);
+                c.attacks.add(d.getValue()[2]);
+            }
+        }
+    }
+
+    private static void add(Map<Long, long[]> deltas, Long id, long total, long blocked, long attacks) {
+        if (total == 0 && blocked == 0 && attacks == 0) {
+            return;
+        }
+        long[] d = deltas.computeIfAbsent(id, k -> new long[3]);
+        d[0] += total;
+        d[1] += blocked;
+        d[2] += attacks;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
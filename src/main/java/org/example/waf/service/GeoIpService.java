@@ -0,0 +1,373 @@
+package org.example.waf.service;
+
+import org.example.waf.domain.GeoRegion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 进程内 IP 归属地查询。启动时把本地 IP 段库载入按起始地址排序的基本类型数组，
+ * 查询只做一次二分查找，不访问网络、不分配对象。
+ *
+ * 段库为 CSV，每行：起始IP,结束IP,国家代码,省份,城市,经度,纬度（# 开头为注释），
+ * IPv4 与 IPv6 可混排，各段之间不应重叠。仓库自带的段库只有内网地址，数据来源和转换方法见该文件开头的注释。
+ */
+@Service
+public class GeoIpService {
+    private static final Logger logger = LoggerFactory.getLogger(GeoIpService.class);
+
+    // 查询时解析 IPv6 的高低 64 位，每个线程复用
+    private static final ThreadLocal<long[]> V6_SCRATCH = ThreadLocal.withInitial(() -> new long[2]);
+
+    private final Path dataFilePath;
+    private volatile Table table = Table.EMPTY;
+
+    public GeoIpService(@Value("${app.geo.db-file:./data/ip-regions.csv}") String filePath) {
+        this.dataFilePath = Paths.get(filePath).toAbsolutePath();
+        reload();
+    }
+
+    // 重新加载段库，失败时保留旧表
+    public void reload() {
+        if (!Files.exists(dataFilePath)) {
+            logger.warn("IP段库不存在，归属地查询不可用: {}", dataFilePath);
+            return;
+        }
+        try {
+            table = Table.load(dataFilePath);
+            logger.info("加载IP段库成功，IPv4段{}个，IPv6段{}个，地区{}个",
+                    table.v4Start.length, table.v6StartHi.length, table.regions.length);
+        } catch (IOException | RuntimeException e) {
+            logger.error("加载IP段库失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 查询 IP 归属地，未收录或无法解析时返回 {@link GeoRegion#UNKNOWN}。
+     */
+    public GeoRegion lookup(String ip) {
+        if (ip == null || ip.isEmpty()) {
+            return GeoRegion.UNKNOWN;
+        }
+        Table t = table;
+        if (ip.indexOf(':') < 0) {
+            long v4 = parseIpv4(ip);
+            return v4 < 0 ? GeoRegion.UNKNOWN : t.lookupV4((int) v4);
+        }
+        long[] v6 = V6_SCRATCH.get();
+        if (!parseIpv6(ip, v6)) {
+            return GeoRegion.UNKNOWN;
+        }
+        if (v6[0] == 0 && (v6[1] >>> 32) == 0xffffL) {
+            // IPv4 映射地址 ::ffff:a.b.c.d 按 IPv4 查
+            return t.lookupV4((int) v6[1]);
+        }
+        return t.lookupV6(v6[0], v6[1]);
+    }
+
+    /**
+     * 按省份或城市名称查找地区（用于大屏坐标），未收录时返回 null。
+     */
+    public GeoRegion findByName(String name) {
+        return name == null ? null : table.byName.get(name);
+    }
+
+    // 手写解析，避免 InetAddress 的开销；非法输入返回 -1
+    static long parseIpv4(String ip) {
+        return parseIpv4(ip, 0, ip.length());
+    }
+
+    private static long parseIpv4(String ip, int from, int to) {
+        long result = 0;
+        int octet = -1;
+        int dots = 0;
+        for (int i = from; i < to; i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && octet >= 0 && dots < 3) {
+                result = (result << 8) | octet;
+                octet = -1;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+        if (octet < 0 || dots != 3) {
+            return -1;
+        }
+        return (result << 8) | octet;
+    }
+
+    /**
+     * 手写解析 IPv6 字面量（可带方括号、%zone 和结尾的点分 IPv4），高 64 位写入 out[0]、低 64 位写入 out[1]；
+     * 非法输入返回 false。不分配对象，也不会把非字面量交给 DNS 解析。
+     */
+    static boolean parseIpv6(String ip, long[] out) {
+        int from = 0;
+        int to = ip.length();
+        if (to > 1 && ip.charAt(0) == '[' && ip.charAt(to - 1) == ']') {
+            from = 1;
+            to--;
+        }
+        for (int i = from; i < to; i++) {
+            if (ip.charAt(i) == '%') {
+                to = i;
+                break;
+            }
+        }
+        long hi = 0;
+        long lo = 0;
+        long tailHi = 0;   // "::" 之后的组右对齐累加，最后与前面的组合并
+        long tailLo = 0;
+        int head = 0;
+        int tail = 0;
+        boolean gap = false;
+        int i = from;
+        if (to - i >= 2 && ip.charAt(i) == ':' && ip.charAt(i + 1) == ':') {
+            gap = true;
+            i += 2;
+        }
+        while (i < to) {
+            int start = i;
+            long value = 0;
+            while (i < to && i - start < 4) {
+                int d = Character.digit(ip.charAt(i), 16);
+                if (d < 0) {
+                    break;
+                }
+                value = (value << 4) | d;
+                i++;
+            }
+            int groups = 1;
+            if (i < to && ip.charAt(i) == '.') {
+                // 结尾的点分 IPv4 占两组
+                value = parseIpv4(ip, start, to);
+                if (value < 0) {
+                    return false;
+                }
+                groups = 2;
+                i = to;
+            } else if (i == start || (i < to && Character.digit(ip.charAt(i), 16) >= 0)) {
+                return false;
+            }
+            if (head + tail + groups > 8) {
+                return false;
+            }
+            for (int k = groups - 1; k >= 0; k--) {
+                long g = (value >>> (16 * k)) & 0xffff;
+                if (gap) {
+                    tailHi = (tailHi << 16) | (tailLo >>> 48);
+                    tailLo = (tailLo << 16) | g;
+                    tail++;
+                } else {
+                    int p = head++;
+                    if (p < 4) {
+                        hi |= g << (16 * (3 - p));
+                    } else {
+                        lo |= g << (16 * (7 - p));
+                    }
+                }
+            }
+            if (i == to) {
+                break;
+            }
+            if (ip.charAt(i) != ':' || ++i == to) {
+                return false;
+            }
+            if (ip.charAt(i) == ':') {
+                if (gap) {
+                    return false;
+                }
+                gap = true;
+                i++;
+            }
+        }
+        if (gap ? head + tail > 7 : head != 8) {
+            return false;
+        }
+        out[0] = hi | tailHi;
+        out[1] = lo | tailLo;
+        return true;
+    }
+
+    /**
+     * 不可变查找表。IPv4 起止地址翻转符号位后按有符号 int 比较，IPv6 拆成高低两个 long 无符号比较。
+     */
+    private static final class Table {
+        static final Table EMPTY = new Table(new int[0], new int[0], new int[0], new long[0], new long[0],
+                new long[0], new long[0], new int[0], new GeoRegion[0], new HashMap<>());
+
+        final int[] v4Start;
+        final int[] v4End;
+        final int[] v4Region;
+        final long[] v6StartHi;
+        final long[] v6StartLo;
+        final long[] v6EndHi;
+        final long[] v6EndLo;
+        final int[] v6Region;
+        final GeoRegion[] regions;
+        final Map<String, GeoRegion> byName;
+
+        Table(int[] v4Start, int[] v4End, int[] v4Region, long[] v6StartHi, long[] v6StartLo, long[] v6EndHi,
+              long[] v6EndLo, int[] v6Region, GeoRegion[] regions, Map<String, GeoRegion> byName) {
+            this.v4Start = v4Start;
+            this.v4End = v4End;
+            this.v4Region = v4Region;
+            this.v6StartHi = v6StartHi;
+            this.v6StartLo = v6StartLo;
+            this.v6EndHi = v6EndHi;
+            this.v6EndLo = v6EndLo;
+            this.v6Region = v6Region;
+            this.regions = regions;
+            this.byName = byName;
+        }
+
+        GeoRegion lookupV4(int ip) {
+            int key = ip ^ Integer.MIN_VALUE;
+            int lo = 0;
+            int hi = v4Start.length - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (v4Start[mid] <= key) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found >= 0 && key <= v4End[found] ? regions[v4Region[found]] : GeoRegion.UNKNOWN;
+        }
+
+        GeoRegion lookupV6(long ipHi, long ipLo) {
+            int lo = 0;
+            int hi = v6StartHi.length - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(v6StartHi[mid], v6StartLo[mid], ipHi, ipLo) <= 0) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found >= 0 && compare(ipHi, ipLo, v6EndHi[found], v6EndLo[found]) <= 0
+                    ? regions[v6Region[found]] : GeoRegion.UNKNOWN;
+        }
+
+        private static int compare(long aHi, long aLo, long bHi, long bLo) {
+            int c = Long.compareUnsigned(aHi, bHi);
+            return c != 0 ? c : Long.compareUnsigned(aLo, bLo);
+        }
+
+        static Table load(Path file) throws IOException {
+            List<long[]> v4 = new ArrayList<>();   // {start, end, region}
+            List<long[]> v6 = new ArrayList<>();   // {startHi, startLo, endHi, endLo, region}
+            List<GeoRegion> regions = new ArrayList<>();
+            Map<String, Integer> regionIndex = new HashMap<>();
+            Map<String, GeoRegion> byName = new HashMap<>();
+
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                int lineNo = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNo++;
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    String[] f = line.split(",", -1);
+                    if (f.length < 7) {
+                        logger.warn("IP段库第{}行格式错误，已跳过", lineNo);
+                        continue;
+                    }
+                    double longitude;
+                    double latitude;
+                    try {
+                        longitude = Double.parseDouble(f[5].trim());
+                        latitude = Double.parseDouble(f[6].trim());
+                    } catch (NumberFormatException e) {
+                        logger.warn("IP段库第{}行经纬度错误，已跳过", lineNo);
+                        continue;
+                    }
+                    String key = f[2] + "|" + f[3] + "|" + f[4];
+                    Integer idx = regionIndex.get(key);
+                    if (idx == null) {
+                        GeoRegion region = new GeoRegion(f[2].trim(), f[3].trim(), f[4].trim(), longitude, latitude);
+                        idx = regions.size();
+                        regions.add(region);
+                        regionIndex.put(key, idx);
+                        byName.putIfAbsent(region.getProvince(), region);
+                        if (!region.getCity().isEmpty()) {
+                            byName.putIfAbsent(region.getCity(), region);
+                        }
+                    }
+                    String start = f[0].trim();
+                    String end = f[1].trim();
+                    if (start.indexOf(':') < 0) {
+                        long s = parseIpv4(start);
+                        long e = parseIpv4(end);
+                        if (s < 0 || e < 0) {
+                            logger.warn("IP段库第{}行地址错误，已跳过", lineNo);
+                            continue;
+                        }
+                        v4.add(new long[]{s, e, idx});
+                    } else {
+                        long[] s = new long[2];
+                        long[] e = new long[2];
+                        if (!parseIpv6(start, s) || !parseIpv6(end, e)) {
+                            logger.warn("IP段库第{}行地址错误，已跳过", lineNo);
+                            continue;
+                        }
+                        v6.add(new long[]{s[0], s[1], e[0], e[1], idx});
+                    }
+                }
+            }
+
+            v4.sort((a, b) -> Long.compare(a[0], b[0]));
+            int[] v4Start = new int[v4.size()];
+            int[] v4End = new int[v4.size()];
+            int[] v4Region = new int[v4.size()];
+            for (int i = 0; i < v4.size(); i++) {
+                long[] r = v4.get(i);
+                v4Start[i] = (int) r[0] ^ Integer.MIN_VALUE;
+                v4End[i] = (int) r[1] ^ Integer.MIN_VALUE;
+                v4Region[i] = (int) r[2];
+            }
+
+            v6.sort((a, b) -> compare(a[0], a[1], b[0], b[1]));
+            long[] startHi = new long[v6.size()];
+            long[] startLo = new long[v6.size()];
+            long[] endHi = new long[v6.size()];
+            long[] endLo = new long[v6.size()];
+            int[] v6Region = new int[v6.size()];
+            for (int i = 0; i < v6.size(); i++) {
+                long[] r = v6.get(i);
+                startHi[i] = r[0];
+                startLo[i] = r[1];
+                endHi[i] = r[2];
+                endLo[i] = r[3];
+                v6Region[i] = (int) r[4];
+            }
+            return new Table(v4Start, v4End, v4Region, startHi, startLo, endHi, endLo, v6Region,
+                    regions.toArray(new GeoRegion[0]), byName);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.example.waf.service;
+
+import org.example.waf.util.LatencyHistogram;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 请求延迟分布：WAF 自身的检测开销和完整请求耗时各一组对数分桶直方图（{@link LatencyHistogram}），
+ * 按分钟和按小时各保留一个环形窗口。请求线程只做两次数组自增，不分配对象、不加锁；
+ * 查询时把时间范围内的槽位按桶相加合并，再取分位值，窗口之间、线程之间都可以直接合并。
+ */
+@Component
+public class RequestLatencyTracker {
+    private static final long MINUTE_MILLIS = 60_000L;
+    private static final long HOUR_MILLIS = 3_600_000L;
+
+    public enum Metric {
+        /** 规则评估（请求头阶段加请求体检查收尾）耗时，不含等待请求体到达的时间 */
+        WAF_OVERHEAD,
+        /** 从收到请求到响应完成（或被拦截）的完整耗时 */
+        REQUEST
+    }
+
+    /**
+     * 按时间分槽的直方图环。槽位在首次写入新时间段时惰性清零，
+     * 与并发写入不互斥，切换瞬间的极少量样本可能丢失。
+     */
+    static final class LatencyWindow {
+        private final long slotMillis;
+        private final LatencyHistogram[] slots;
+        private final AtomicLongArray epochs;
+
+        LatencyWindow(int slotCount, long slotMillis) {
+            this.slotMillis = slotMillis;
+            this.slots = new LatencyHistogram[slotCount];
+            this.epochs = new AtomicLongArray(slotCount);
+            for (int i = 0; i < slotCount; i++) {
+                slots[i] = new LatencyHistogram();
+                epochs.set(i, -1);
+            }
+        }
+
+        void record(long nowMillis, long nanos) {
+            long epoch = nowMillis / slotMillis;
+            int i = (int) (epoch % slots.length);
+            long current = epochs.get(i);
+            if (current != epoch) {
+                if (current > epoch) {
+                    // 时钟回拨，槽位已属于更晚的时间段
+                    return;
+                }
+                if (epochs.compareAndSet(i, current, epoch)) {
+                    slots[i].reset();
+                }
+            }
+            slots[i].record(nanos);
+        }
+
+        /** 窗口能覆盖的时长 */
+        long spanMillis() {
+            return slotMillis * slots.length;
+        }
+
+        /** 把 [fromMillis, toMillis) 涉及的槽位并入 target，超出保留范围的部分忽略 */
+        void mergeInto(LatencyHistogram target, long fromMillis, long toMillis, long nowMillis) {
+            long last = Math.min(toMillis - 1, nowMillis) / slotMillis;
+            long first = Math.max(fromMillis / slotMillis, nowMillis / slotMillis - slots.length + 1);
+            for (long epoch = first; epoch <= last; epoch++) {
+                int i = (int) (epoch % slots.length);
+                if (epochs.get(i) == epoch) {
+                    target.merge(slots[i]);
+                }
+            }
+        }
+    }
+
+    private final boolean enabled;
+    private final LatencyWindow[] minutes;
+    private final LatencyWindow[] hours;
+
+    public RequestLatencyTracker(@Value("${app.stats.latency.enabled:true}") boolean enabled,
+                                 @Value("${app.stats.latency.minute-retention:60}") int minuteRetention,
+                                 @Value("${app.stats.latency.hour-retention:25}") int hourRetention) {
+        this.enabled = enabled;
+        int metrics = Metric.values().length;
+        this.minutes = new LatencyWindow[metrics];
+        this.hours = new LatencyWindow[metrics];
+        if (enabled) {
+            for (int m = 0; m < metrics; m++) {
+                minutes[m] = new LatencyWindow(Math.max(1, minuteRetention), MINUTE_MILLIS);
+                hours[m] = new LatencyWindow(Math.max(1, hourRetention), HOUR_MILLIS);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void record(Metric metric, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        minutes[metric.ordinal()].record(now, nanos);
+        hours[metric.ordinal()].record(now, nanos);
+    }
+
+    /**
+     * 合并 [fromMillis, toMillis) 内的样本。范围在分钟窗口内时按分钟取，否则按小时取
+     * （起点向下取整到整点，所以可能多包含开始前不到一小时的数据）。
+     */
+    public LatencyHistogram snapshot(Metric metric, long fromMillis, long toMillis) {
+        LatencyHistogram merged = new LatencyHistogram();
+        if (!enabled) {
+            return merged;
+        }
+        long now = System.currentTimeMillis();
+        LatencyWindow minute = minutes[metric.ordinal()];
+        if (now - fromMillis <= minute.spanMillis()) {
+            minute.mergeInto(merged, fromMillis, toMillis, now);
+        } else {
+            hours[metric.ordinal()].mergeInto(merged, fromMillis, toMillis, now);
+        }
+        return merged;
+    }
+
+    /** 返回 {count, mean, p50, p90, p99, p999, max}，单位毫秒 */
+    public Map<String, Object> summary(Metric metric, long fromMillis, long toMillis) {
+        return describe(snapshot(metric, fromMillis, toMillis));
+    }
+
+    public static Map<String, Object> describe(LatencyHistogram histogram) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", histogram.count());
+        result.put("mean", toMillis(histogram.mean()));
+        result.put("p50", toMillis(histogram.percentile(50)));
+        result.put("p90", toMillis(histogram.percentile(90)));
+        result.put("p99", toMillis(histogram.percentile(99)));
+        result.put("p999", toMillis(histogram.percentile(99.9)));
+        result.put("max", toMillis(histogram.max()));
+        return result;
+    }
+
+    /** 纳秒转毫秒，保留三位小数 */
+    public static double toMillis(double nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
@@ -2,21 +2,24 @@ package org.example.waf.service;
 
 import org.example.waf.domain.User;
 import org.example.waf.UserRepository;
+import org.example.waf.security.PasswordHasher;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.CompletableFuture;
+
 @Service
 public class UserService {
 
     @Autowired
     private UserRepository userRepository;
-    
-    // 使用强密码加密策略
-    private static final BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(12); // 更高的工作因子增强安全性
 
-    // 注册逻辑
-    public User registerUser(String username, String email, String password) {
+    // 强度见 app.auth.hash.bcrypt-strength，哈希在独立线程池中计算
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    // 注册逻辑：密码哈希在独立线程池中计算，完成后保存用户；池满时 future 以 RejectedExecutionException 失败
+    public CompletableFuture<User> registerUser(String username, String email, String password) {
         // 检查用户名是否已存在
         if (userRepository.existsByUsername(username)) {
             throw new RuntimeException("用户名已存在");
@@ -31,10 +34,10 @@ public class UserService {
         user.setUsername(username);
         user.setEmail(email);
 
-        // 🔐 使用 BCrypt 加密密码
-        user.setPassword(encoder.encode(password));
-
-        // 默认角色在实体类里已是 "user"
-        return userRepository.save(user);
+        // 🔐 使用 BCrypt 加密密码，默认角色在实体类里已是 "user"
+        return passwordHasher.encode(password).thenApply(hash -> {
+            user.setPassword(hash);
+            return userRepository.save(user);
+        });
     }
 }
@@ -0,0 +1,37 @@
+package org.example.waf.sketch;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 供请求线程并发写入的 HyperLogLog：每个寄存器一个原子 int，只在新值更大时 CAS，
+ * 预热后绝大多数写入只有一次读。用完后通过 {@link #toSketch()} 转成紧凑的 {@link HyperLogLog}。
+ */
+final class ConcurrentHyperLogLog {
+    private final int p;
+    private final AtomicIntegerArray registers;
+
+    ConcurrentHyperLogLog(int precision) {
+        this.p = precision;
+        this.registers = new AtomicIntegerArray(1 << precision);
+    }
+
+    void offer(long hash) {
+        int index = (int) (hash >>> (64 - p));
+        int rho = Long.numberOfLeadingZeros((hash << p) | (1L << (p - 1))) + 1;
+        int current = registers.get(index);
+        while (current < rho && !registers.compareAndSet(index, current, rho)) {
+            current = registers.get(index);
+        }
+    }
+
+    HyperLogLog toSketch() {
+        HyperLogLog h = new HyperLogLog(p);
+        for (int i = 0; i < registers.length(); i++) {
+            int v = registers.get(i);
+            if (v != 0) {
+                h.set(i, v);
+            }
+        }
+        return h;
+    }
+}
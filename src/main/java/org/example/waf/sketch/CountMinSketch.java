@@ -0,0 +1,62 @@
+package org.example.waf.sketch;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-Min 计数草图：depth 行、每行 width 个计数器，估计值取各行的最小值，只会偏大。
+ * 写入是对原子数组的无锁自增；每行的位置由键的 64 位哈希加行号再混合得到，各行相互独立。
+ */
+final class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final int mask;
+    private final AtomicIntegerArray cells;
+
+    /** width 向上取整为 2 的幂 */
+    CountMinSketch(int width, int depth) {
+        this.width = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+        this.depth = Math.max(1, depth);
+        this.mask = this.width - 1;
+        this.cells = new AtomicIntegerArray(this.width * this.depth);
+    }
+
+    /**
+     * 保守更新：只自增当前等于最小值的那几行，其余行已经高估，不再加大误差。
+     * 同一个键并发写入时可能少计极少量，对 Top-K 排序可以接受。
+     */
+    void add(long hash) {
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, cells.get(index(row, hash)));
+        }
+        for (int row = 0; row < depth; row++) {
+            int i = index(row, hash);
+            if (cells.get(i) <= min) {
+                cells.getAndIncrement(i);
+            }
+        }
+    }
+
+    int cell(int row, long hash) {
+        return cells.get(index(row, hash));
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    /** 与并发写入不互斥，清零瞬间的少量写入可能丢失 */
+    void clear() {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, 0);
+        }
+    }
+
+    long sizeInBytes() {
+        return 16 + 4L * cells.length();
+    }
+
+    private int index(int row, long hash) {
+        return row * width + ((int) KeyHash.mix(hash + (row + 1) * 0x9e3779b97f4a7c15L) & mask);
+    }
+}
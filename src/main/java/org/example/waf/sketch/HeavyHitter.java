@@ -0,0 +1,28 @@
+package org.example.waf.sketch;
+
+/**
+ * 一个频繁项：count 是窗口内计数的估计值（不低于真实值），error 是估计可能偏大的上界。
+ */
+public class HeavyHitter {
+    private final String key;
+    private final long count;
+    private final long error;
+
+    HeavyHitter(String key, long count, long error) {
+        this.key = key;
+        this.count = count;
+        this.error = error;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getError() {
+        return error;
+    }
+}
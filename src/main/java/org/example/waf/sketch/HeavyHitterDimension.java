@@ -0,0 +1,29 @@
+package org.example.waf.sketch;
+
+/**
+ * 频繁项统计的维度。
+ */
+public enum HeavyHitterDimension {
+    IP, PATH, USER_AGENT, RULE;
+
+    /** 接口参数到维度，ua 是 user-agent 的简写；不认识时返回 null */
+    public static HeavyHitterDimension of(String name) {
+        if (name == null) {
+            return null;
+        }
+        switch (name.trim().toLowerCase()) {
+            case "ip":
+                return IP;
+            case "path":
+            case "url":
+                return PATH;
+            case "ua":
+            case "user-agent":
+                return USER_AGENT;
+            case "rule":
+                return RULE;
+            default:
+                return null;
+        }
+    }
+}
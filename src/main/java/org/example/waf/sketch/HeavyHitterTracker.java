@@ -0,0 +1,182 @@
+package org.example.waf.sketch;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 客户端 IP、URL 路径、User-Agent、规则的实时 Top-K，内存固定，与键的基数无关。
+ * 分两个范围：requests 是经过 WAF 检测的全部请求（没有规则维度），attacks 是命中规则的安全事件。
+ *
+ * 请求线程只做 Count-Min 的原子自增和一次无锁入队，不拿任何锁；
+ * 定时汇总线程出队后更新各槽的 Space-Saving。队列积压超过上限时样本只计入 Count-Min 并计数丢弃。
+ */
+@Component
+public class HeavyHitterTracker {
+    public static final String REQUESTS = "requests";
+    public static final String ATTACKS = "attacks";
+    private static final long SLOT_MILLIS = 60_000L;
+    private static final int MAX_KEY_LENGTH = 256;
+    private static final int DIMENSIONS = HeavyHitterDimension.values().length;
+
+    private static final class Sample {
+        final boolean attack;
+        final long epoch;
+        final String[] keys;
+
+        Sample(boolean attack, long epoch, String[] keys) {
+            this.attack = attack;
+            this.epoch = epoch;
+            this.keys = keys;
+        }
+    }
+
+    private final boolean enabled;
+    private final long slotMillis;
+    private final int slots;
+    private final int maxPending;
+    private final HeavyHitters[] requests = new HeavyHitters[DIMENSIONS];
+    private final HeavyHitters[] attacks = new HeavyHitters[DIMENSIONS];
+    private final Queue<Sample> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingSize = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+
+    public HeavyHitterTracker(@Value("${app.stats.heavy-hitters.enabled:true}") boolean enabled,
+                              @Value("${app.stats.heavy-hitters.window-minutes:60}") int windowMinutes,
+                              @Value("${app.stats.heavy-hitters.capacity:256}") int capacity,
+                              @Value("${app.stats.heavy-hitters.sketch-width:2048}") int width,
+                              @Value("${app.stats.heavy-hitters.sketch-depth:4}") int depth,
+                              @Value("${app.stats.heavy-hitters.max-pending:100000}") int maxPending) {
+        this.enabled = enabled;
+        this.slotMillis = SLOT_MILLIS;
+        // 多留一个槽给正在写入的当前分钟
+        this.slots = Math.max(1, windowMinutes) + 1;
+        this.maxPending = maxPending;
+        if (!enabled) {
+            return;
+        }
+        for (HeavyHitterDimension d : HeavyHitterDimension.values()) {
+            attacks[d.ordinal()] = new HeavyHitters(slots, capacity, width, depth);
+            if (d != HeavyHitterDimension.RULE) {
+                requests[d.ordinal()] = new HeavyHitters(slots, capacity, width, depth);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** 每个经过检测的请求调用一次 */
+    public void recordRequest(String clientIp, String path, String userAgent) {
+        record(false, System.currentTimeMillis(), clientIp, path, userAgent, null);
+    }
+
+    /** 每个命中规则的安全事件调用一次，url 可以带查询串 */
+    public void recordAttack(long timestamp, String clientIp, String url, String userAgent, String ruleId) {
+        record(true, timestamp, clientIp, url, userAgent, ruleId);
+    }
+
+    /**
+     * 最近 minutes 分钟内计数最高的 k 个键；scope 为 requests 或 attacks。
+     */
+    public List<HeavyHitter> top(String scope, HeavyHitterDimension dimension, int minutes, int k) {
+        HeavyHitters h = dimensions(ATTACKS.equals(scope))[dimension.ordinal()];
+        if (h == null) {
+            return Collections.emptyList();
+        }
+        drain();
+        int windowSlots = (int) Math.max(1, (minutes * 60_000L + slotMillis - 1) / slotMillis);
+        return h.top(k, windowSlots, System.currentTimeMillis() / slotMillis);
+    }
+
+    /** 窗口最多能覆盖的分钟数 */
+    public int getWindowMinutes() {
+        return (int) ((slots - 1) * slotMillis / 60_000L);
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("enabled", enabled);
+        status.put("windowMinutes", getWindowMinutes());
+        status.put("pending", pendingSize.get());
+        status.put("dropped", dropped.sum());
+        long bytes = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            bytes += requests[d] == null ? 0 : requests[d].sizeInBytes();
+            bytes += attacks[d] == null ? 0 : attacks[d].sizeInBytes();
+        }
+        status.put("approxMemoryMb", bytes / 1048576.0);
+        return status;
+    }
+
+    /** 把积压的样本汇总进 Space-Saving；查询前也会调用一次，保证结果包含最新样本 */
+    @Scheduled(fixedDelayString = "${app.stats.heavy-hitters.drain-ms:200}")
+    public void drain() {
+        if (!enabled) {
+            return;
+        }
+        Sample s;
+        while ((s = pending.poll()) != null) {
+            pendingSize.decrementAndGet();
+            HeavyHitters[] dims = dimensions(s.attack);
+            for (int d = 0; d < DIMENSIONS; d++) {
+                if (s.keys[d] != null && dims[d] != null) {
+                    dims[d].offer(s.keys[d], s.epoch);
+                }
+            }
+        }
+    }
+
+    private void record(boolean attack, long timestamp, String clientIp, String url, String userAgent, String ruleId) {
+        if (!enabled) {
+            return;
+        }
+        long epoch = timestamp / slotMillis;
+        String[] keys = new String[DIMENSIONS];
+        keys[HeavyHitterDimension.IP.ordinal()] = key(clientIp);
+        keys[HeavyHitterDimension.PATH.ordinal()] = key(path(url));
+        keys[HeavyHitterDimension.USER_AGENT.ordinal()] = key(userAgent);
+        keys[HeavyHitterDimension.RULE.ordinal()] = attack ? key(ruleId) : null;
+        HeavyHitters[] dims = dimensions(attack);
+        for (int d = 0; d < DIMENSIONS; d++) {
+            if (keys[d] != null && dims[d] != null) {
+                dims[d].count(keys[d], epoch);
+            }
+        }
+        if (pendingSize.incrementAndGet() > maxPending) {
+            pendingSize.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        pending.offer(new Sample(attack, epoch, keys));
+    }
+
+    private HeavyHitters[] dimensions(boolean attack) {
+        return attack ? attacks : requests;
+    }
+
+    private static String path(String url) {
+        if (url == null) {
+            return null;
+        }
+        int q = url.indexOf('?');
+        return q >= 0 ? url.substring(0, q) : url;
+    }
+
+    private static String key(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        return value.length() > MAX_KEY_LENGTH ? value.substring(0, MAX_KEY_LENGTH) : value;
+    }
+}
@@ -0,0 +1,144 @@
+package org.example.waf.sketch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 单个维度的滚动窗口频繁项统计：时间切成固定长度的槽，按槽号取模复用，每个槽一份 Count-Min 和一份 Space-Saving。
+ * 请求线程只做 {@link #count} —— Count-Min 的无锁自增，过期槽在写入时惰性清零；
+ * Space-Saving 由汇总线程通过 {@link #offer} 更新，查询与汇总之间用本对象的锁互斥，请求线程不参与。
+ * Space-Saving 满了以后用同一槽的 Count-Min 估计决定新键能否进入，长尾键不会把候选挤出去。
+ *
+ * 查询把窗口内各槽的 Space-Saving 合并得到候选键，按 Count-Min 的估计计数排序，
+ * Space-Saving 的保证计数作为下界，两者之差作为误差返回。
+ */
+final class HeavyHitters {
+    private final int slots;
+    private final CountMinSketch[] sketches;
+    private final AtomicLongArray sketchEpochs;
+    private final SpaceSaving[] summaries;
+    private final long[] summaryEpochs;
+
+    HeavyHitters(int slots, int capacity, int width, int depth) {
+        this.slots = slots;
+        this.sketches = new CountMinSketch[slots];
+        this.sketchEpochs = new AtomicLongArray(slots);
+        this.summaries = new SpaceSaving[slots];
+        this.summaryEpochs = new long[slots];
+        for (int i = 0; i < slots; i++) {
+            sketches[i] = new CountMinSketch(width, depth);
+            summaries[i] = new SpaceSaving(capacity);
+            sketchEpochs.set(i, -1);
+            summaryEpochs[i] = -1;
+        }
+    }
+
+    /** 请求线程调用，无锁 */
+    void count(String key, long epoch) {
+        int i = (int) (epoch % slots);
+        long e = sketchEpochs.get(i);
+        if (e != epoch) {
+            if (e > epoch) {
+                // 槽已被更新的时间占用，迟到的写入丢弃
+                return;
+            }
+            if (sketchEpochs.compareAndSet(i, e, epoch)) {
+                sketches[i].clear();
+            }
+        }
+        sketches[i].add(KeyHash.hash64(key));
+    }
+
+    /** 汇总线程调用 */
+    synchronized void offer(String key, long epoch) {
+        int i = (int) (epoch % slots);
+        if (summaryEpochs[i] != epoch) {
+            if (summaryEpochs[i] > epoch) {
+                return;
+            }
+            summaries[i].clear();
+            summaryEpochs[i] = epoch;
+        }
+        SpaceSaving s = summaries[i];
+        if (!s.isFull() || s.contains(key)) {
+            s.offer(key);
+            return;
+        }
+        // 满了以后先看同一槽的 Count-Min：估计不超过最小计数的长尾键不替换，避免反复挤掉真正的候选；
+        // 替换时以估计值作为计数上界，只有本次出现是确定的
+        long estimate = sketchEpochs.get(i) == epoch ? estimate(key, Collections.singletonList(i)) : 0;
+        if (estimate > s.minCount()) {
+            s.replaceMin(key, estimate, estimate - 1);
+        }
+    }
+
+    /**
+     * 最近 windowSlots 个槽（含当前槽）内计数最高的 k 个键。
+     */
+    synchronized List<HeavyHitter> top(int k, int windowSlots, long nowEpoch) {
+        int n = Math.min(Math.max(windowSlots, 1), slots);
+        long oldest = nowEpoch - n + 1;
+        List<Integer> summarySlots = new ArrayList<>(n);
+        List<Integer> sketchSlots = new ArrayList<>(n);
+        for (int i = 0; i < slots; i++) {
+            if (summaryEpochs[i] >= oldest && summaryEpochs[i] <= nowEpoch) {
+                summarySlots.add(i);
+            }
+            long e = sketchEpochs.get(i);
+            if (e >= oldest && e <= nowEpoch) {
+                sketchSlots.add(i);
+            }
+        }
+
+        // 合并 Space-Saving：未被某个槽跟踪的键，在该槽的计数上界是该槽的最小计数
+        Map<String, long[]> merged = new HashMap<>();
+        for (int slot : summarySlots) {
+            SpaceSaving s = summaries[slot];
+            for (int j = 0; j < s.size(); j++) {
+                long[] bounds = merged.computeIfAbsent(s.key(j), key -> new long[]{0, 0});
+                bounds[0] += s.count(j);
+                bounds[1] += s.error(j);
+            }
+        }
+        List<HeavyHitter> result = new ArrayList<>(merged.size());
+        for (Map.Entry<String, long[]> e : merged.entrySet()) {
+            String key = e.getKey();
+            long upper = e.getValue()[0];
+            long error = e.getValue()[1];
+            for (int slot : summarySlots) {
+                long min = summaries[slot].minCount();
+                if (min > 0 && !summaries[slot].contains(key)) {
+                    upper += min;
+                    error += min;
+                }
+            }
+            // 汇总队列积压时 Space-Saving 会漏计，只用它给出下界；Count-Min 每次都写，是可靠的上界
+            long estimate = estimate(key, sketchSlots);
+            long lower = Math.min(estimate, Math.max(0, upper - error));
+            result.add(new HeavyHitter(key, estimate, estimate - lower));
+        }
+        result.sort((a, b) -> Long.compare(b.getCount(), a.getCount()));
+        return result.size() > k ? new ArrayList<>(result.subList(0, k)) : result;
+    }
+
+    long sizeInBytes() {
+        return slots * (sketches[0].sizeInBytes() + summaries[0].sizeInBytes());
+    }
+
+    private long estimate(String key, List<Integer> sketchSlots) {
+        long h = KeyHash.hash64(key);
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < sketches[0].depth(); row++) {
+            long sum = 0;
+            for (int slot : sketchSlots) {
+                sum += sketches[slot].cell(row, h);
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+}
@@ -0,0 +1,229 @@
+package org.example.waf.sketch;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HyperLogLog 基数估计：2^p 个寄存器，标准误差约 1.04/sqrt(2^p)（p=13 时约 1.15%，稠密 8KB）。
+ * 元素少时用稀疏表示（按寄存器号有序的 int 数组，每项为 寄存器号&lt;&lt;6 | 值），
+ * 超过稠密大小的四分之一后转为每寄存器一字节的稠密数组。多个草图可以无损合并（逐寄存器取最大）。
+ *
+ * 非线程安全；请求线程并发写入用 {@link ConcurrentHyperLogLog}，结束后再转成本类。
+ */
+public final class HyperLogLog {
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+    private static final int SPARSE = 0;
+    private static final int DENSE = 1;
+
+    private final int p;
+    private final int m;
+    private byte[] registers;
+    private int[] sparse;
+    private int sparseSize;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision 必须在 " + MIN_PRECISION + "-" + MAX_PRECISION + " 之间: " + precision);
+        }
+        this.p = precision;
+        this.m = 1 << precision;
+        this.sparse = new int[8];
+    }
+
+    public int getPrecision() {
+        return p;
+    }
+
+    public void add(String value) {
+        if (value != null) {
+            addHash(KeyHash.hash64(value));
+        }
+    }
+
+    void addHash(long hash) {
+        int index = (int) (hash >>> (64 - p));
+        // 剩余位中第一个 1 的位置；末尾补一个 1 保证结果不超过 64-p+1
+        int rho = Long.numberOfLeadingZeros((hash << p) | (1L << (p - 1))) + 1;
+        set(index, rho);
+    }
+
+    void set(int index, int value) {
+        if (value == 0) {
+            return;
+        }
+        if (registers != null) {
+            if (registers[index] < value) {
+                registers[index] = (byte) value;
+            }
+            return;
+        }
+        int key = index << 6;
+        int pos = Arrays.binarySearch(sparse, 0, sparseSize, key | 63);
+        // key|63 不会真实存在，插入点前一项若是同一寄存器则比较大小
+        pos = -pos - 1;
+        if (pos > 0 && (sparse[pos - 1] >>> 6) == index) {
+            if ((sparse[pos - 1] & 63) < value) {
+                sparse[pos - 1] = key | value;
+            }
+            return;
+        }
+        if (sparseSize + 1 > m / 4) {
+            toDense();
+            set(index, value);
+            return;
+        }
+        if (sparseSize == sparse.length) {
+            sparse = Arrays.copyOf(sparse, Math.min(sparseSize * 2, m / 4));
+        }
+        System.arraycopy(sparse, pos, sparse, pos + 1, sparseSize - pos);
+        sparse[pos] = key | value;
+        sparseSize++;
+    }
+
+    /** 把 other 并入本草图，两者精度必须相同 */
+    public void merge(HyperLogLog other) {
+        if (other.p != p) {
+            throw new IllegalArgumentException("精度不同的草图不能合并: " + p + " / " + other.p);
+        }
+        if (other.registers != null) {
+            toDense();
+            for (int i = 0; i < m; i++) {
+                if (registers[i] < other.registers[i]) {
+                    registers[i] = other.registers[i];
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < other.sparseSize; i++) {
+            set(other.sparse[i] >>> 6, other.sparse[i] & 63);
+        }
+    }
+
+    /**
+     * Ertl 改进的原始估计（"New cardinality estimation algorithms for HyperLogLog sketches"）：
+     * 只用寄存器值的直方图，全量程无偏，不需要 HLL++ 的经验偏差表和线性计数切换。
+     */
+    public long estimate() {
+        int q = 64 - p;
+        int[] histogram = new int[q + 2];
+        if (registers != null) {
+            for (int i = 0; i < m; i++) {
+                histogram[registers[i]]++;
+            }
+        } else {
+            histogram[0] = m - sparseSize;
+            for (int i = 0; i < sparseSize; i++) {
+                histogram[sparse[i] & 63]++;
+            }
+        }
+        double z = m * tau(1 - (double) histogram[q + 1] / m);
+        for (int k = q; k >= 1; k--) {
+            z = 0.5 * (z + histogram[k]);
+        }
+        z += m * sigma((double) histogram[0] / m);
+        return Math.round(m / (2 * Math.log(2)) * m / z);
+    }
+
+    public boolean isEmpty() {
+        return registers == null && sparseSize == 0;
+    }
+
+    public HyperLogLog copy() {
+        HyperLogLog c = new HyperLogLog(p);
+        if (registers != null) {
+            c.registers = registers.clone();
+        } else {
+            c.sparse = Arrays.copyOf(sparse, Math.max(sparseSize, 8));
+            c.sparseSize = sparseSize;
+        }
+        return c;
+    }
+
+    /** 序列化大小：稀疏时 6+4n 字节，稠密时 6+2^p 字节 */
+    public int serializedSize() {
+        return 6 + (registers != null ? m : 4 * sparseSize);
+    }
+
+    public void writeTo(ByteBuffer buf) {
+        buf.put((byte) p);
+        if (registers != null) {
+            buf.put((byte) DENSE);
+            buf.putInt(m);
+            buf.put(registers);
+        } else {
+            buf.put((byte) SPARSE);
+            buf.putInt(sparseSize);
+            for (int i = 0; i < sparseSize; i++) {
+                buf.putInt(sparse[i]);
+            }
+        }
+    }
+
+    public static HyperLogLog readFrom(ByteBuffer buf) {
+        HyperLogLog h = new HyperLogLog(buf.get());
+        int mode = buf.get();
+        int n = buf.getInt();
+        if (mode == DENSE) {
+            if (n != h.m) {
+                throw new IllegalArgumentException("稠密寄存器数与精度不符: " + n);
+            }
+            h.registers = new byte[n];
+            buf.get(h.registers);
+        } else {
+            if (n < 0 || n > h.m / 4) {
+                throw new IllegalArgumentException("稀疏项数异常: " + n);
+            }
+            h.sparse = new int[Math.max(n, 8)];
+            for (int i = 0; i < n; i++) {
+                h.sparse[i] = buf.getInt();
+            }
+            h.sparseSize = n;
+        }
+        return h;
+    }
+
+    private void toDense() {
+        if (registers != null) {
+            return;
+        }
+        registers = new byte[m];
+        for (int i = 0; i < sparseSize; i++) {
+            registers[sparse[i] >>> 6] = (byte) (sparse[i] & 63);
+        }
+        sparse = null;
+        sparseSize = 0;
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double y = 1;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        double y = 1;
+        double z = 1 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != previous);
+        return z / 3;
+    }
+}
@@ -0,0 +1,28 @@
+package org.example.waf.sketch;
+
+/**
+ * 草图共用的 64 位键哈希（FNV-1a 后再做一次 murmur3 式混合）。
+ * 不用 String.hashCode：短 IP 串之间碰撞很常见，而且只有 32 位。
+ */
+final class KeyHash {
+    private KeyHash() {
+    }
+
+    static long hash64(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
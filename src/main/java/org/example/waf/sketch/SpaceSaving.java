@@ -0,0 +1,143 @@
+package org.example.waf.sketch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Space-Saving 频繁项摘要：最多跟踪 capacity 个键，满了以后新键替换计数最小的键，
+ * 继承其计数并把它记为误差上界。计数最小的键放在最小堆堆顶，每次更新 O(log capacity)。
+ *
+ * 非线程安全，由 {@link HeavyHitters} 的汇总线程独占写入。
+ */
+final class SpaceSaving {
+    private final int capacity;
+    private final String[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final Map<String, Integer> positions;
+    private int size;
+
+    SpaceSaving(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.keys = new String[this.capacity];
+        this.counts = new long[this.capacity];
+        this.errors = new long[this.capacity];
+        this.positions = new HashMap<>(this.capacity * 2);
+    }
+
+    void offer(String key) {
+        Integer pos = positions.get(key);
+        if (pos != null) {
+            counts[pos]++;
+            siftDown(pos);
+            return;
+        }
+        if (size < capacity) {
+            int i = size++;
+            keys[i] = key;
+            counts[i] = 1;
+            errors[i] = 0;
+            positions.put(key, i);
+            siftUp(i);
+            return;
+        }
+        // 替换堆顶（计数最小的键）
+        long min = counts[0];
+        replaceMin(key, min + 1, min);
+    }
+
+    /**
+     * 用新键替换计数最小的键。调用方给出新键计数的上界 count 和误差 error，
+     * count 不小于当前最小计数时"未跟踪的键计数不超过 minCount"仍然成立。
+     */
+    void replaceMin(String key, long count, long error) {
+        positions.remove(keys[0]);
+        keys[0] = key;
+        counts[0] = count;
+        errors[0] = error;
+        positions.put(key, 0);
+        siftDown(0);
+    }
+
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    /** 未被跟踪的键计数不超过该值 */
+    long minCount() {
+        return size < capacity ? 0 : counts[0];
+    }
+
+    boolean contains(String key) {
+        return positions.containsKey(key);
+    }
+
+    int size() {
+        return size;
+    }
+
+    String key(int i) {
+        return keys[i];
+    }
+
+    long count(int i) {
+        return counts[i];
+    }
+
+    long error(int i) {
+        return errors[i];
+    }
+
+    /** 大致的堆占用字节数（键按 48 字节估算） */
+    long sizeInBytes() {
+        return 64 + capacity * (8L + 8 + 8 + 32) + size * 48L;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            keys[i] = null;
+        }
+        positions.clear();
+        size = 0;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[parent] <= counts[i]) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                return;
+            }
+            int smallest = left + 1 < size && counts[left + 1] < counts[left] ? left + 1 : left;
+            if (counts[i] <= counts[smallest]) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String k = keys[a];
+        keys[a] = keys[b];
+        keys[b] = k;
+        long c = counts[a];
+        counts[a] = counts[b];
+        counts[b] = c;
+        long e = errors[a];
+        errors[a] = errors[b];
+        errors[b] = e;
+        positions.put(keys[a], a);
+        positions.put(keys[b], b);
+    }
+}
@@ -0,0 +1,424 @@
+package org.example.waf.sketch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 独立客户端 IP 数（全部请求 / 被拦截请求）的 HyperLogLog 统计，代替对日志表 COUNT(DISTINCT client_ip)。
+ *
+ * 请求线程写入当前分钟的 {@link ConcurrentHyperLogLog}（只有 CAS，无锁）；分钟结束后由定时任务封存为紧凑草图，
+ * 放进内存中的分钟环，同时并入所在小时的草图。小时草图按天写入 data/uniques/uniq-yyyyMMdd.hll，
+ * 天的数值由 24 个小时合并得到。任意时间段的结果 = 覆盖它的小时（边缘用分钟）草图合并后估计。
+ *
+ * 文件先写 .tmp 再原子改名，重启后从文件恢复小时草图；分钟粒度只保留在内存里。
+ */
+@Component
+public class UniqueIpCounter {
+    private static final Logger logger = LoggerFactory.getLogger(UniqueIpCounter.class);
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 3_600_000L;
+    private static final String PREFIX = "uniq-";
+    private static final String SUFFIX = ".hll";
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final byte[] MAGIC = {'W', 'A', 'F', 'H', 'L', 'L', '0', '1'};
+    private static final int VERSION = 1;
+    // 分钟切换后多等一会儿再封存，让切换瞬间拿到旧分钟的请求线程写完
+    private static final long SEAL_GRACE_MS = 2000;
+
+    /** 正在写入的一分钟 */
+    private static final class LiveMinute {
+        final long minute;
+        final ConcurrentHyperLogLog all;
+        final ConcurrentHyperLogLog blocked;
+        volatile long retiredAt;
+
+        LiveMinute(long minute, int precision) {
+            this.minute = minute;
+            this.all = new ConcurrentHyperLogLog(precision);
+            this.blocked = new ConcurrentHyperLogLog(precision);
+        }
+    }
+
+    /** 一天 24 小时的草图，[hour][0] 为全部请求，[hour][1] 为被拦截请求 */
+    private static final class DayRecord {
+        final HyperLogLog[][] hours = new HyperLogLog[24][2];
+        boolean dirty;
+    }
+
+    private final boolean enabled;
+    private final int precision;
+    private final Path dir;
+    private final int minuteSlots;
+    private final int cacheDays;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final AtomicReference<LiveMinute> live = new AtomicReference<>();
+    private final List<LiveMinute> retired = new ArrayList<>();
+    private final HyperLogLog[][] minutes;
+    private final long[] minuteEpochs;
+    // 分钟环从这一分钟开始才有完整数据（重启前的分钟只在小时草图里）
+    private final long ringStartMinute;
+    private final Map<LocalDate, DayRecord> days = new TreeMap<>();
+    private LocalDate earliestDay;
+
+    public UniqueIpCounter(@Value("${app.stats.uniques.enabled:true}") boolean enabled,
+                           @Value("${app.stats.uniques.dir:data/uniques}") String dir,
+                           @Value("${app.stats.uniques.precision:13}") int precision,
+                           @Value("${app.stats.uniques.minute-retention:1440}") int minuteRetention,
+                           @Value("${app.stats.uniques.cache-days:7}") int cacheDays) {
+        this.enabled = enabled;
+        this.precision = Math.max(HyperLogLog.MIN_PRECISION, Math.min(HyperLogLog.MAX_PRECISION, precision));
+        this.dir = Paths.get(dir);
+        this.minuteSlots = Math.max(60, minuteRetention);
+        this.cacheDays = Math.max(1, cacheDays);
+        this.minutes = new HyperLogLog[minuteSlots][];
+        this.minuteEpochs = new long[minuteSlots];
+        this.ringStartMinute = System.currentTimeMillis() / MINUTE;
+        if (enabled) {
+            live.set(new LiveMinute(System.currentTimeMillis() / MINUTE, this.precision));
+            init();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** 每个经过检测的请求调用一次 */
+    public void record(String clientIp, boolean blocked) {
+        if (!enabled || clientIp == null || clientIp.isEmpty()) {
+            return;
+        }
+        long minute = System.currentTimeMillis() / MINUTE;
+        LiveMinute current = live.get();
+        if (current.minute < minute) {
+            current = rotate(current, minute);
+        }
+        long hash = KeyHash.hash64(clientIp);
+        current.all.offer(hash);
+        if (blocked) {
+            current.blocked.offer(hash);
+        }
+    }
+
+    /**
+     * [from, to) 时间段内的独立 IP 数估计，返回 {全部请求, 被拦截请求}。
+     */
+    public synchronized long[] count(long from, long to) {
+        HyperLogLog all = new HyperLogLog(precision);
+        HyperLogLog blocked = new HyperLogLog(precision);
+        if (!enabled || to <= from) {
+            return new long[]{0, 0};
+        }
+        // 只遍历有数据的范围：最早的统计文件（或分钟环）到当前分钟
+        long nowMinute = System.currentTimeMillis() / MINUTE;
+        long earliest = earliestDay != null ? earliestDay.atStartOfDay(zone).toInstant().toEpochMilli()
+                : (nowMinute - minuteSlots) * MINUTE;
+        from = Math.max(from, earliest);
+        to = Math.min(to, (nowMinute + 1) * MINUTE);
+        if (to <= from) {
+            return new long[]{0, 0};
+        }
+        long t = from;
+        while (t < to) {
+            long hourStart = t - Math.floorMod(t + offsetMillis(t), HOUR);
+            long hourEnd = hourStart + HOUR;
+            if (t == hourStart && hourEnd <= to) {
+                mergeHour(hourStart, all, blocked);
+                t = hourEnd;
+                continue;
+            }
+            // 不完整的小时用分钟草图；分钟环没有覆盖到的（已移出或重启前）退化为整小时，结果偏大
+            long end = Math.min(hourEnd, to);
+            long firstMinute = t / MINUTE;
+            long lastMinute = (end - 1) / MINUTE;
+            if (nowMinute - firstMinute >= minuteSlots || firstMinute < ringStartMinute) {
+                mergeHour(hourStart, all, blocked);
+            } else {
+                for (long minute = firstMinute; minute <= lastMinute; minute++) {
+                    int slot = (int) (minute % minuteSlots);
+                    if (minuteEpochs[slot] == minute && minutes[slot] != null) {
+                        all.merge(minutes[slot][0]);
+                        blocked.merge(minutes[slot][1]);
+                    }
+                }
+            }
+            t = end;
+        }
+        // 还没封存的分钟
+        long fromMinute = from / MINUTE;
+        long toMinute = (to - 1) / MINUTE;
+        List<LiveMinute> unsealed = new ArrayList<>(retired);
+        unsealed.add(live.get());
+        for (LiveMinute m : unsealed) {
+            if (m.minute >= fromMinute && m.minute <= toMinute) {
+                all.merge(m.all.toSketch());
+                blocked.merge(m.blocked.toSketch());
+            }
+        }
+        return new long[]{all.estimate(), blocked.estimate()};
+    }
+
+    /** 某一天（本地时区）的独立 IP 数 */
+    public long[] countDay(LocalDate day) {
+        long start = day.atStartOfDay(zone).toInstant().toEpochMilli();
+        long end = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        return count(start, end);
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    public synchronized Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("enabled", enabled);
+        status.put("precision", precision);
+        status.put("standardError", 1.04 / Math.sqrt(1 << precision));
+        status.put("cachedDays", days.size());
+        status.put("earliestDay", earliestDay == null ? null : earliestDay.toString());
+        return status;
+    }
+
+    /** 封存已结束的分钟，并把有变化的天写盘 */
+    @Scheduled(fixedDelayString = "${app.stats.uniques.flush-ms:10000}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        LiveMinute current = live.get();
+        if (current.minute < now / MINUTE) {
+            rotate(current, now / MINUTE);
+        }
+        seal(now - SEAL_GRACE_MS);
+        writeDirtyDays();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        LiveMinute current = live.get();
+        rotate(current, current.minute + 1);
+        seal(Long.MAX_VALUE);
+        writeDirtyDays();
+    }
+
+    private LiveMinute rotate(LiveMinute current, long minute) {
+        LiveMinute next = new LiveMinute(minute, precision);
+        if (live.compareAndSet(current, next)) {
+            synchronized (this) {
+                current.retiredAt = System.currentTimeMillis();
+                retired.add(current);
+            }
+            return next;
+        }
+        return live.get();
+    }
+
+    private synchronized void seal(long retiredBefore) {
+        Iterator<LiveMinute> it = retired.iterator();
+        while (it.hasNext()) {
+            LiveMinute m = it.next();
+            if (m.retiredAt > retiredBefore) {
+                continue;
+            }
+            it.remove();
+            HyperLogLog all = m.all.toSketch();
+            HyperLogLog blocked = m.blocked.toSketch();
+            int slot = (int) (m.minute % minuteSlots);
+            minutes[slot] = new HyperLogLog[]{all, blocked};
+            minuteEpochs[slot] = m.minute;
+
+            long ts = m.minute * MINUTE;
+            LocalDate day = Instant.ofEpochMilli(ts).atZone(zone).toLocalDate();
+            int hour = Instant.ofEpochMilli(ts).atZone(zone).getHour();
+            DayRecord record = loadDay(day, true);
+            mergeInto(record.hours[hour], 0, all);
+            mergeInto(record.hours[hour], 1, blocked);
+            record.dirty = true;
+            if (earliestDay == null || day.isBefore(earliestDay)) {
+                earliestDay = day;
+            }
+        }
+    }
+
+    private void mergeInto(HyperLogLog[] pair, int i, HyperLogLog sketch) {
+        if (sketch.isEmpty()) {
+            return;
+        }
+        if (pair[i] == null) {
+            pair[i] = sketch.copy();
+        } else {
+            pair[i].merge(sketch);
+        }
+    }
+
+    private void mergeHour(long hourStart, HyperLogLog all, HyperLogLog blocked) {
+        LocalDate day = Instant.ofEpochMilli(hourStart).atZone(zone).toLocalDate();
+        int hour = Instant.ofEpochMilli(hourStart).atZone(zone).getHour();
+        DayRecord record = loadDay(day, false);
+        if (record == null) {
+            return;
+        }
+        if (record.hours[hour][0] != null) {
+            all.merge(record.hours[hour][0]);
+        }
+        if (record.hours[hour][1] != null) {
+            blocked.merge(record.hours[hour][1]);
+        }
+    }
+
+    /** 只能在 synchronized 内调用；create 为 false 且内存和磁盘上都没有时返回 null */
+    private DayRecord loadDay(LocalDate day, boolean create) {
+        DayRecord record = days.get(day);
+        if (record != null) {
+            return record;
+        }
+        Path file = file(day);
+        if (Files.exists(file)) {
+            try {
+                record = read(file);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("读取独立 IP 统计文件失败 {}: {}", file, e.getMessage());
+            }
+        }
+        if (record == null) {
+            if (!create) {
+                return null;
+            }
+            record = new DayRecord();
+        }
+        days.put(day, record);
+        evictDays();
+        return record;
+    }
+
+    private void evictDays() {
+        Iterator<Map.Entry<LocalDate, DayRecord>> it = days.entrySet().iterator();
+        while (days.size() > cacheDays && it.hasNext()) {
+            Map.Entry<LocalDate, DayRecord> e = it.next();
+            // TreeMap 按日期升序，最旧的先淘汰；未写盘的保留到下次 flush
+            if (!e.getValue().dirty) {
+                it.remove();
+            }
+        }
+    }
+
+    private synchronized void writeDirtyDays() {
+        for (Map.Entry<LocalDate, DayRecord> e : days.entrySet()) {
+            if (!e.getValue().dirty) {
+                continue;
+            }
+            try {
+                write(file(e.getKey()), e.getKey(), e.getValue());
+                e.getValue().dirty = false;
+            } catch (IOException ex) {
+                logger.error("写入独立 IP 统计文件失败 {}: {}", e.getKey(), ex.getMessage());
+            }
+        }
+        evictDays();
+    }
+
+    private void write(Path file, LocalDate day, DayRecord record) throws IOException {
+        int size = MAGIC.length + 4 + 8 + 4;
+        for (HyperLogLog[] pair : record.hours) {
+            for (HyperLogLog h : pair) {
+                size += 1 + (h == null ? 0 : h.serializedSize());
+            }
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put(MAGIC).putInt(VERSION).putLong(day.toEpochDay()).putInt(precision);
+        for (HyperLogLog[] pair : record.hours) {
+            for (HyperLogLog h : pair) {
+                if (h == null) {
+                    buf.put((byte) 0);
+                } else {
+                    buf.put((byte) 1);
+                    h.writeTo(buf);
+                }
+            }
+        }
+        Files.createDirectories(dir);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, buf.array());
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private DayRecord read(Path file) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        byte[] magic = new byte[MAGIC.length];
+        buf.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buf.getInt() != VERSION) {
+            throw new IOException("文件格式不正确");
+        }
+        buf.getLong();
+        if (buf.getInt() != precision) {
+            // 精度改过以后旧文件不能与新草图合并
+            throw new IOException("精度与当前配置不同");
+        }
+        DayRecord record = new DayRecord();
+        for (HyperLogLog[] pair : record.hours) {
+            for (int i = 0; i < pair.length; i++) {
+                if (buf.get() == 1) {
+                    pair[i] = HyperLogLog.readFrom(buf);
+                }
+            }
+        }
+        return record;
+    }
+
+    private void init() {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                try {
+                    LocalDate day = LocalDate.parse(name.substring(PREFIX.length(), name.length() - SUFFIX.length()), DAY);
+                    if (earliestDay == null || day.isBefore(earliestDay)) {
+                        earliestDay = day;
+                    }
+                } catch (RuntimeException e) {
+                    logger.warn("忽略无法识别的独立 IP 统计文件: {}", name);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("扫描独立 IP 统计目录失败: {}", e.getMessage());
+        }
+    }
+
+    private long offsetMillis(long ts) {
+        return zone.getRules().getOffset(Instant.ofEpochMilli(ts)).getTotalSeconds() * 1000L;
+    }
+
+    private Path file(LocalDate day) {
+        return dir.resolve(PREFIX + DAY.format(day) + SUFFIX);
+    }
+}
@@ -0,0 +1,387 @@
+package org.example.waf.tools;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.example.waf.util.LatencyHistogram;
+import org.example.waf.waf.CapturedRequest;
+import org.example.waf.waf.CompiledRule;
+import org.example.waf.waf.MatchResult;
+import org.example.waf.waf.Rule;
+import org.example.waf.waf.RuleFileStore;
+import org.example.waf.waf.RuleSnapshot;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 离线规则评估：用规则文件对 NDJSON 请求语料逐条匹配，统计每条规则的命中数、
+ * 疑似误报、吞吐和单次匹配延迟分位，用于上线新规则文件前评估影响。
+ *
+ * 语料每行一个 JSON 对象：
+ * <pre>
+ * {"method":"GET","host":"api.demo.com","path":"/search","query":"q=select","clientIp":"1.2.3.4",
+ *  "headers":{"User-Agent":"curl/8.0"},"label":"benign"}
+ * </pre>
+ * 也可以用 "url" 代替 path + query；label 为 benign/normal 的请求被拦截或记录时计为误报。
+ * 没有标注时，命中率超过 --fp-rate 的规则列为疑似误报。
+ *
+ * 用法：
+ * <pre>
+ * java -jar target/WAF-0.0.1-SNAPSHOT.jar --evaluate \
+ *      --rules data/waf-rules.json --corpus corpus.ndjson[.gz] [--threads 8] [--application-id 1] [--fp-rate 0.01]
+ *      [--score-threshold 100]
+ * </pre>
+ */
+public class RuleSetEvaluator {
+    private static final int BATCH_SIZE = 4096;
+    private static final int SAMPLES_PER_RULE = 3;
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    /** 单个工作线程的统计，线程内无竞争，结束时合并。 */
+    private static final class Worker {
+        final long[] hits;
+        final long[] blocked;
+        final long[] benignHits;
+        final List<List<String>> samples;
+        final LatencyHistogram latency = new LatencyHistogram();
+        long requests;
+        long benign;
+        long parseErrors;
+
+        Worker(int rules) {
+            hits = new long[rules];
+            blocked = new long[rules];
+            benignHits = new long[rules];
+            samples = new ArrayList<>(rules);
+            for (int i = 0; i < rules; i++) {
+                samples.add(new ArrayList<>(SAMPLES_PER_RULE));
+            }
+        }
+    }
+
+    private final RuleSnapshot snapshot;
+    private final CompiledRule[] rulesByIndex;
+    private final Queue<Worker> workers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Worker> localWorker;
+
+    public RuleSetEvaluator(List<Rule> rules, int scoreThreshold) {
+        this.snapshot = RuleSnapshot.compile(rules, scoreThreshold);
+        this.rulesByIndex = snapshot.rules().toArray(new CompiledRule[0]);
+        this.localWorker = ThreadLocal.withInitial(() -> {
+            Worker w = new Worker(rulesByIndex.length);
+            workers.add(w);
+            return w;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = parseArgs(args);
+        if (!opts.containsKey("rules") || !opts.containsKey("corpus")) {
+            System.err.println("用法: java -jar <waf.jar> --evaluate --rules <waf-rules.json> --corpus <requests.ndjson[.gz]>"
+                    + " [--threads N] [--application-id ID] [--fp-rate 0.01] [--score-threshold N]");
+            System.exit(2);
+        }
+        int threads = Integer.parseInt(opts.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        double fpRate = Double.parseDouble(opts.getOrDefault("fp-rate", "0.01"));
+        Long applicationId = opts.containsKey("application-id") ? Long.valueOf(opts.get("application-id")) : null;
+        int scoreThreshold = Integer.parseInt(opts.getOrDefault("score-threshold", "0"));
+
+        List<Rule> rules = new ArrayList<>();
+        for (Rule r : new RuleFileStore(opts.get("rules")).load().rules) {
+            // 与 WafService 一致：全局规则加上指定应用的专属规则
+            if (r.getApplicationId() == null || r.getApplicationId().equals(applicationId)) {
+                rules.add(r);
+            }
+        }
+        RuleSetEvaluator evaluator = new RuleSetEvaluator(rules, scoreThreshold);
+
+        long start = System.nanoTime();
+        evaluator.run(opts.get("corpus"), threads);
+        long elapsed = System.nanoTime() - start;
+        evaluator.report(elapsed, fpRate);
+    }
+
+    /**
+     * 读取线程按批切分语料，批次提交到 ForkJoinPool 并行评估；在途批次数受限，内存占用与语料大小无关。
+     */
+    public void run(String corpus, int threads) throws IOException, InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Semaphore inFlight = new Semaphore(threads * 4);
+        try (BufferedReader reader = open(corpus)) {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                batch.add(line);
+                if (batch.size() == BATCH_SIZE) {
+                    submit(pool, inFlight, batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(pool, inFlight, batch);
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void submit(ForkJoinPool pool, Semaphore inFlight, List<String> batch) throws InterruptedException {
+        inFlight.acquire();
+        pool.execute(() -> {
+            try {
+                evaluate(batch);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void evaluate(List<String> lines) {
+        Worker w = localWorker.get();
+        for (String line : lines) {
+            ParsedLine parsed;
+            try {
+                parsed = parse(line);
+            } catch (IOException | RuntimeException e) {
+                w.parseErrors++;
+                continue;
+            }
+            long t0 = System.nanoTime();
+            MatchResult match = snapshot.match(parsed.request);
+            w.latency.record(System.nanoTime() - t0);
+            CompiledRule hit = match.getRule();
+            w.requests++;
+            if (parsed.benign) {
+                w.benign++;
+            }
+            if (hit == null) {
+                continue;
+            }
+            int i = hit.getIndex();
+            w.hits[i]++;
+            if (match.isBlocking()) {
+                w.blocked[i]++;
+            }
+            if (parsed.benign && match.isAttack()) {
+                w.benignHits[i]++;
+                List<String> s = w.samples.get(i);
+                if (s.size() < SAMPLES_PER_RULE) {
+                    CapturedRequest r = parsed.request;
+                    s.add(r.getQuery() == null ? r.getPath() : r.getPath() + "?" + r.getQuery());
+                }
+            }
+        }
+    }
+
+    public void report(long elapsedNanos, double fpRate) {
+        long[] hits = new long[rulesByIndex.length];
+        long[] blockedByRule = new long[rulesByIndex.length];
+        long[] benignHits = new long[rulesByIndex.length];
+        List<List<String>> samples = new ArrayList<>();
+        for (int i = 0; i < rulesByIndex.length; i++) {
+            samples.add(new ArrayList<>());
+        }
+        LatencyHistogram latency = new LatencyHistogram();
+        long requests = 0;
+        long benign = 0;
+        long parseErrors = 0;
+        for (Worker w : workers) {
+            for (int i = 0; i < hits.length; i++) {
+                hits[i] += w.hits[i];
+                blockedByRule[i] += w.blocked[i];
+                benignHits[i] += w.benignHits[i];
+                List<String> s = samples.get(i);
+                for (String url : w.samples.get(i)) {
+                    if (s.size() < SAMPLES_PER_RULE) {
+                        s.add(url);
+                    }
+                }
+            }
+            latency.merge(w.latency);
+            requests += w.requests;
+            benign += w.benign;
+            parseErrors += w.parseErrors;
+        }
+
+        double seconds = elapsedNanos / 1e9;
+        long matched = 0;
+        long blocked = 0;
+        for (int i = 0; i < hits.length; i++) {
+            matched += hits[i];
+            blocked += blockedByRule[i];
+        }
+
+        System.out.printf("规则数: %d  请求数: %d  解析失败: %d  已标注正常请求: %d%n", rulesByIndex.length, requests, parseErrors, benign);
+        System.out.printf("耗时: %.2fs  吞吐: %.0f req/s%n", seconds, requests / Math.max(seconds, 1e-9));
+        System.out.printf("命中: %d (%.3f%%)  拦截: %d (%.3f%%)%n", matched, percent(matched, requests), blocked, percent(blocked, requests));
+        System.out.printf("单次匹配延迟(ns): p50=%d p90=%d p99=%d p99.9=%d max=%d mean=%.0f%n",
+                latency.percentile(50), latency.percentile(90), latency.percentile(99), latency.percentile(99.9),
+                latency.max(), latency.mean());
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < hits.length; i++) {
+            order.add(i);
+        }
+        order.sort((a, b) -> Long.compare(hits[b], hits[a]));
+        System.out.println();
+        System.out.println("各规则命中（按命中数降序）:");
+        System.out.printf("%-38s %-7s %-6s %-24s %12s %9s%n", "id", "scope", "action", "pattern", "hits", "rate");
+        for (int i : order) {
+            CompiledRule r = rulesByIndex[i];
+            System.out.printf("%-38s %-7s %-6s %-24s %12d %8.3f%%%n", r.getId(), r.getScope(), r.getAction(),
+                    abbreviate(r.getPattern(), 24), hits[i], percent(hits[i], requests));
+        }
+
+        System.out.println();
+        System.out.println("疑似误报:");
+        boolean any = false;
+        for (int i : order) {
+            CompiledRule r = rulesByIndex[i];
+            if (benignHits[i] > 0) {
+                any = true;
+                System.out.printf("  %s (%s) 命中已标注正常请求 %d 次，示例: %s%n", r.getId(), r.getPattern(), benignHits[i], samples.get(i));
+            } else if (benign == 0 && requests > 0 && blockedByRule[i] > requests * fpRate) {
+                any = true;
+                System.out.printf("  %s (%s) 拦截率 %.3f%% 超过阈值 %.3f%%%n", r.getId(), r.getPattern(),
+                        percent(blockedByRule[i], requests), fpRate * 100);
+            }
+        }
+        if (!any) {
+            System.out.println("  无");
+        }
+    }
+
+    private static final class ParsedLine {
+        final CapturedRequest request;
+        final boolean benign;
+
+        ParsedLine(CapturedRequest request, boolean benign) {
+            this.request = request;
+            this.benign = benign;
+        }
+    }
+
+    // 流式解析一行，不构建中间树
+    private static ParsedLine parse(String line) throws IOException {
+        String method = "GET";
+        String host = null;
+        String path = null;
+        String query = null;
+        String url = null;
+        String clientIp = null;
+        String label = null;
+        List<String[]> headers = Collections.emptyList();
+        try (JsonParser p = JSON.createParser(line)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("不是 JSON 对象");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken t = p.nextToken();
+                switch (field) {
+                    case "method":
+                        method = p.getValueAsString(method);
+                        break;
+                    case "host":
+                        host = p.getValueAsString();
+                        break;
+                    case "path":
+                        path = p.getValueAsString();
+                        break;
+                    case "query":
+                        query = p.getValueAsString();
+                        break;
+                    case "url":
+                        url = p.getValueAsString();
+                        break;
+                    case "clientIp":
+                        clientIp = p.getValueAsString();
+                        break;
+                    case "label":
+                        label = p.getValueAsString();
+                        break;
+                    case "headers":
+                        if (t == JsonToken.START_OBJECT) {
+                            headers = parseHeaders(p);
+                        } else {
+                            p.skipChildren();
+                        }
+                        break;
+                    default:
+                        p.skipChildren();
+                        break;
+                }
+            }
+        }
+        if (path == null && url != null) {
+            int q = url.indexOf('?');
+            path = q < 0 ? url : url.substring(0, q);
+            query = q < 0 ? null : url.substring(q + 1);
+        }
+        boolean benign = "benign".equalsIgnoreCase(label) || "normal".equalsIgnoreCase(label);
+        return new ParsedLine(new CapturedRequest(method, host, path, query, clientIp, headers), benign);
+    }
+
+    // 支持 {"name":"value"} 和 {"name":["v1","v2"]}
+    private static List<String[]> parseHeaders(JsonParser p) throws IOException {
+        List<String[]> headers = new ArrayList<>();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            if (p.nextToken() == JsonToken.START_ARRAY) {
+                while (p.nextToken() != JsonToken.END_ARRAY) {
+                    headers.add(new String[]{name, p.getValueAsString("")});
+                }
+            } else {
+                headers.add(new String[]{name, p.getValueAsString("")});
+            }
+        }
+        return headers;
+    }
+
+    private static BufferedReader open(String corpus) throws IOException {
+        if (corpus.endsWith(".gz")) {
+            return new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(Paths.get(corpus)), 1 << 16),
+                    StandardCharsets.UTF_8), 1 << 16);
+        }
+        return Files.newBufferedReader(Paths.get(corpus), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 < args.length) {
+                opts.put(args[i].substring(2), args[++i]);
+            }
+        }
+        return opts;
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : part * 100.0 / total;
+    }
+
+    private static String abbreviate(String s, int max) {
+        return s.length() <= max ? s : s.substring(0, max - 3) + "...";
+    }
+}
@@ -14,6 +14,11 @@ public class JwtUtil {
     // 生成符合要求的 Key
     private static final Key KEY = Keys.hmacShaKeyFor(SECRET.getBytes());
 
+    // 解析器不可变且线程安全，全局复用一个实例
+    private static final JwtParser PARSER = Jwts.parserBuilder()
+            .setSigningKey(KEY)
+            .build();
+
     /**
      * 生成 JWT Token
      */
@@ -35,13 +40,17 @@ public class JwtUtil {
      */
     public static boolean validateToken(String token) {
         try {
-            Jwts.parserBuilder()
-                    .setSigningKey(KEY)
-                    .build()
-                    .parseClaimsJws(token);
+            parseClaims(token);
             return true; // 验证成功
-        } catch (JwtException e) {
+        } catch (JwtException | IllegalArgumentException e) {
             return false; // 签名无效、过期、格式错误都会抛异常
         }
     }
+
+    /**
+     * 校验签名并返回 Claims，签名无效、过期、格式错误时抛出 JwtException
+     */
+    public static Claims parseClaims(String token) {
+        return PARSER.parseClaimsJws(token).getBody();
+    }
 }
@@ -0,0 +1,181 @@
+package org.example.waf.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 对数分桶的延迟直方图（单位纳秒）。每个 2 的幂区间再等分为 32 个子桶，相对误差约 3%，
+ * 覆盖 0 到 Long.MAX_VALUE，固定 1888 个桶。
+ *
+ * 记录只是一次数组下标计算加一次原子自增，不分配对象；多个直方图可以直接按桶相加合并，
+ * 适合按线程或按时间窗分别记录、查询时再合并。
+ * 多个线程共用一个直方图时，延迟集中在少数几个桶里，同一个计数的自增会互相争抢缓存行：
+ * 与 LongAdder 一样，首次自增失败后才按线程分出条带（最多 {@link #MAX_STRIPES} 份，惰性分配），
+ * 之后各线程写各自的条带，读取时把基础计数和各条带按桶相加。没有竞争的直方图只有一份计数。
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+    // 每份条带约 15KB，按 CPU 数取 2 的幂，最多 8 份
+    static final int MAX_STRIPES = Math.min(8, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())));
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(MAX_STRIPES);
+    private volatile boolean contended;
+
+    public void record(long nanos) {
+        int i = indexOf(Math.max(0, nanos));
+        if (MAX_STRIPES == 1) {
+            counts.incrementAndGet(i);
+            return;
+        }
+        if (!contended) {
+            long c = counts.get(i);
+            if (counts.compareAndSet(i, c, c + 1)) {
+                return;
+            }
+            contended = true;
+        }
+        stripe().incrementAndGet(i);
+    }
+
+    private AtomicLongArray stripe() {
+        long id = Thread.currentThread().getId();
+        int s = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (MAX_STRIPES - 1);
+        AtomicLongArray stripe = stripes.get(s);
+        if (stripe == null) {
+            stripe = new AtomicLongArray(BUCKETS);
+            if (!stripes.compareAndSet(s, null, stripe)) {
+                stripe = stripes.get(s);
+            }
+        }
+        return stripe;
+    }
+
+    // 各条带按桶相加后的计数
+    private long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        for (int s = 0; s < MAX_STRIPES; s++) {
+            AtomicLongArray stripe = stripes.get(s);
+            if (stripe != null) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    snapshot[i] += stripe.get(i);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    public void merge(LatencyHistogram other) {
+        long[] snapshot = other.snapshot();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (snapshot[i] != 0) {
+                counts.addAndGet(i, snapshot[i]);
+            }
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        for (int s = 0; s < MAX_STRIPES; s++) {
+            AtomicLongArray stripe = stripes.get(s);
+            if (stripe != null) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    stripe.set(i, 0);
+                }
+            }
+        }
+    }
+
+    public long count() {
+        long total = 0;
+        for (long c : snapshot()) {
+            total += c;
+        }
+        return total;
+    }
+
+    /**
+     * 返回分位值（纳秒），取所在桶的上界；没有数据时返回 0。
+     *
+     * @param percentile 0~100，例如 99.9
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long c : snapshot) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /** 近似平均值（按桶中点计算），没有数据时返回 0。 */
+    public double mean() {
+        long[] snapshot = snapshot();
+        long total = 0;
+        double sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = snapshot[i];
+            if (c != 0) {
+                total += c;
+                sum += c * ((lowerBound(i) + (double) upperBound(i)) / 2);
+            }
+        }
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /** 最大值所在桶的上界，没有数据时返回 0。 */
+    public long max() {
+        long[] snapshot = snapshot();
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (snapshot[i] != 0) {
+                return upperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) - SUB_COUNT);
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        return (long) (index % SUB_COUNT + SUB_COUNT) << shift;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long mantissa = index % SUB_COUNT + SUB_COUNT;
+        return mantissa == 2 * SUB_COUNT - 1 && shift == 63 - SUB_BITS - 1
+                ? Long.MAX_VALUE : ((mantissa + 1) << shift) - 1;
+    }
+}
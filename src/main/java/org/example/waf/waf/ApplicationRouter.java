@@ -0,0 +1,168 @@
+package org.example.waf.waf;
+
+import org.example.waf.domain.Application;
+import org.example.waf.service.ApplicationService;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按 Host 把请求分派到受保护应用。域名索引为哈希表，支持精确域名和 *.example.com 通配，
+ * 应用列表变化（按 {@link ApplicationService#getRevision()} 判断）时整体重建。
+ */
+@Component
+public class ApplicationRouter {
+
+    /** 路由结果，索引重建后不可变，请求线程无需访问可变的 Application 对象。 */
+    public static final class Route {
+        private final Long applicationId;
+        private final boolean enabled;
+        private final InetSocketAddress upstream;
+
+        Route(Long applicationId, boolean enabled, InetSocketAddress upstream) {
+            this.applicationId = applicationId;
+            this.enabled = enabled;
+            this.upstream = upstream;
+        }
+
+        public Long getApplicationId() {
+            return applicationId;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /** 反向代理的上游地址（未解析），未配置时为 null。 */
+        public InetSocketAddress getUpstream() {
+            return upstream;
+        }
+    }
+
+    private static final class Index {
+        final long revision;
+        final Map<String, Route> exact;
+        final Map<String, Route> wildcard; // key 为去掉 "*." 的后缀
+
+        Index(long revision, Map<String, Route> exact, Map<String, Route> wildcard) {
+            this.revision = revision;
+            this.exact = exact;
+            this.wildcard = wildcard;
+        }
+    }
+
+    private final ApplicationService applicationService;
+    private volatile Index index = new Index(-1, new HashMap<>(), new HashMap<>());
+
+    public ApplicationRouter(ApplicationService applicationService) {
+        this.applicationService = applicationService;
+    }
+
+    /**
+     * 解析 Host（可带端口），未匹配任何应用时返回 null。
+     */
+    public Route resolve(String host) {
+        if (host == null || host.isEmpty()) {
+            return null;
+        }
+        Index idx = currentIndex();
+        String h = normalize(host);
+        Route route = idx.exact.get(h);
+        if (route != null || idx.wildcard.isEmpty()) {
+            return route;
+        }
+        // 由近及远匹配通配域名：a.b.example.com -> b.example.com -> example.com
+        for (int dot = h.indexOf('.'); dot >= 0; dot = h.indexOf('.', dot + 1)) {
+            route = idx.wildcard.get(h.substring(dot + 1));
+            if (route != null) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    private Index currentIndex() {
+        Index idx = index;
+        long revision = applicationService.getRevision();
+        if (idx.revision == revision) {
+            return idx;
+        }
+        synchronized (this) {
+            idx = index;
+            if (idx.revision != revision) {
+                idx = build(revision);
+                index = idx;
+            }
+            return idx;
+        }
+    }
+
+    private Index build(long revision) {
+        Map<String, Route> exact = new HashMap<>();
+        Map<String, Route> wildcard = new HashMap<>();
+        for (Application app : applicationService.getAllApplications()) {
+            if (app.getDomain() == null || app.getDomain().trim().isEmpty()) {
+                continue;
+            }
+            Route route = new Route(app.getId(), !"disabled".equalsIgnoreCase(app.getStatus()),
+                    parseUpstream(app.getUpstream()));
+            String domain = normalize(app.getDomain().trim());
+            if (domain.startsWith("*.")) {
+                wildcard.putIfAbsent(domain.substring(2), route);
+            } else {
+                exact.putIfAbsent(domain, route);
+            }
+        }
+        return new Index(revision, exact, wildcard);
+    }
+
+    // 小写并去掉端口（IPv6 字面量 [::1]:8080 只去掉括号外的端口）
+    static String normalize(String host) {
+        String h = host;
+        int colon = h.lastIndexOf(':');
+        if (colon > 0 && h.indexOf(']') < colon && (h.charAt(0) == '[' || h.indexOf(':') == colon)) {
+            h = h.substring(0, colon);
+        }
+        return h.toLowerCase();
+    }
+
+    /**
+     * 解析上游地址，支持 http://host[:port] 和 host:port，格式错误或为空返回 null。
+     * 返回未解析的地址，DNS 解析留给建立连接时由代理的异步解析器进行，不阻塞事件循环。
+     */
+    public static InetSocketAddress parseUpstream(String upstream) {
+        if (upstream == null || upstream.trim().isEmpty()) {
+            return null;
+        }
+        String u = upstream.trim();
+        try {
+            URI uri = URI.create(u.contains("://") ? u : "http://" + u);
+            if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+                return null;
+            }
+            String host = uri.getHost();
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            return InetSocketAddress.createUnresolved(host, uri.getPort() > 0 ? uri.getPort() : 80);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 上游地址是否允许转发：链路本地（含云平台元数据地址 169.254.169.254）和组播地址一律拒绝，
+     * 本机地址（127.0.0.0/8、::1、0.0.0.0）只在 allowLoopback 时允许，防止借上游配置访问本机管理端口。
+     * 设置上游时和代理建立连接解析出地址后各检查一次，后者同时防止域名解析结果被改成内部地址。
+     */
+    public static boolean isAllowedUpstream(InetAddress address, boolean allowLoopback) {
+        if (address.isLinkLocalAddress() || address.isMulticastAddress()) {
+            return false;
+        }
+        return allowLoopback || !(address.isLoopbackAddress() || address.isAnyLocalAddress());
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.waf.waf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 参数级规则（args / json）的索引：未指定目标名的规则对每个参数都检查，
+ * 指定了目标名的规则按参数名放入哈希表，只在该名称出现时检查。各列表按优先级排序。
+ */
+final class ArgRuleIndex {
+    private static final CompiledRule[] NONE = new CompiledRule[0];
+
+    private final CompiledRule[] untargeted;
+    private final Map<String, CompiledRule[]> byName;
+    private final CompiledRule[] all;
+    private final int minIndex;
+    private final boolean hasAllow;
+
+    ArgRuleIndex(List<CompiledRule> rules) {
+        List<CompiledRule> plain = new ArrayList<>();
+        Map<String, List<CompiledRule>> named = new HashMap<>();
+        int min = Integer.MAX_VALUE;
+        boolean allow = false;
+        for (CompiledRule r : rules) {
+            min = Math.min(min, r.getIndex());
+            allow |= "allow".equals(r.getAction());
+            if (r.targets().length == 0) {
+                plain.add(r);
+            } else {
+                for (String name : r.targets()) {
+                    named.computeIfAbsent(name, k -> new ArrayList<>()).add(r);
+                }
+            }
+        }
+        this.untargeted = plain.toArray(NONE);
+        this.byName = new HashMap<>();
+        for (Map.Entry<String, List<CompiledRule>> e : named.entrySet()) {
+            byName.put(e.getKey(), e.getValue().toArray(NONE));
+        }
+        this.all = rules.toArray(NONE);
+        this.minIndex = min;
+        this.hasAllow = allow;
+    }
+
+    boolean isEmpty() {
+        return all.length == 0;
+    }
+
+    // 优先级最高（下标最小）的规则下标，为空时为 Integer.MAX_VALUE
+    int minIndex() {
+        return minIndex;
+    }
+
+    // 含 allow 规则：计分模式下结果已确定为 log 后仍要检查这些规则
+    boolean hasAllow() {
+        return hasAllow;
+    }
+
+    CompiledRule[] all() {
+        return all;
+    }
+
+    CompiledRule[] untargeted() {
+        return untargeted;
+    }
+
+    CompiledRule[] targeting(String lowerName) {
+        CompiledRule[] rules = byName.get(lowerName);
+        return rules == null ? NONE : rules;
+    }
+
+    /**
+     * 返回对该参数命中且下标小于 bound 的优先级最高的规则，没有则返回 null。
+     *
+     * @param valueOnly 只检查值（{@link CompiledRule#matchesValue}），否则名称和值都检查
+     */
+    CompiledRule firstHit(String lowerName, String lowerValue, int bound, boolean valueOnly) {
+        CompiledRule best = null;
+        for (CompiledRule r : untargeted) {
+            if (r.getIndex() >= bound) {
+                break;
+            }
+            if (valueOnly ? r.matchesValue(lowerName, lowerValue) : r.matchesArg(lowerName, lowerValue)) {
+                best = r;
+                bound = r.getIndex();
+                break;
+            }
+        }
+        for (CompiledRule r : targeting(lowerName)) {
+            if (r.getIndex() >= bound) {
+                break;
+            }
+            if (valueOnly ? r.matchesValue(lowerName, lowerValue) : r.matchesArg(lowerName, lowerValue)) {
+                return r;
+            }
+        }
+        return best;
+    }
+}
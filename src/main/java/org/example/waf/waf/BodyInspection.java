@@ -0,0 +1,479 @@
+package org.example.waf.waf;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 请求体阶段的参数检查，接在请求头阶段的 {@link RuleSnapshot.Evaluation} 之后。
+ *
+ * 请求体按到达的分块喂入，不整体缓存：表单按 '&amp;' / '=' 边切分边解码，
+ * JSON 用 Jackson 的非阻塞解析器逐个 token 处理，不建树、不复制整段请求体；
+ * multipart 由 {@link MultipartParser} 切分，普通字段按 args 规则检查，
+ * 文件部分检查文件名、声明类型、开头魔数，内容随数据流过自动机扫描，文件本身不缓存。
+ * 超过字节数、嵌套深度或字段数上限后停止检查，已得到的结果保留；
+ * 嵌套深度或字段数超限（常见于拿深层嵌套或海量字段绕过检查）、调用方拿不到请求体（{@link #markLimitExceeded()}）
+ * 另由 {@link #isLimitExceeded()} 报告，交给调用方按 app.waf.body.on-limit 决定结果。只超过字节数的大请求体不算。
+ * 非线程安全，每个请求一个实例。
+ */
+public final class BodyInspection {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    // multipart 普通字段最多检查的长度，超出部分不参与 args 规则
+    private static final int MAX_FIELD_BYTES = 64 * 1024;
+
+    public enum Kind {
+        FORM,
+        JSON,
+        MULTIPART
+    }
+
+    private final Kind kind;
+    private final RuleSnapshot.Evaluation evaluation;
+    private final ArgRuleIndex rules;
+    private final long maxBytes;
+    private final int maxDepth;
+    private final int maxFields;
+
+    private long bytes;
+    private int fields;
+    private boolean stopped;
+    private boolean limitExceeded;
+    private long elapsedNanos;   // 各次喂入累计的检查耗时
+
+    // JSON
+    private JsonParser json;
+    private ByteArrayFeeder feeder;
+    private String[] names;   // names[d]：深度 d 的容器所属的字段名
+    private int depth;
+    private String current = "";
+
+    // 表单、multipart 普通字段
+    private byte[] token;
+    private int tokenLength;
+    private String pendingName;
+
+    // multipart
+    private MultipartRules upload;
+    private MultipartParser parser;
+    private String partName;      // 当前部分的小写字段名，不在部分内时为 null
+    private boolean filePart;
+    private byte[] head;          // 文件开头用于魔数比较的字节
+    private int headLength;
+    private boolean headChecked;
+    private int automatonState;
+
+    private BodyInspection(Kind kind, RuleSnapshot.Evaluation evaluation, ArgRuleIndex rules,
+                           long maxBytes, int maxDepth, int maxFields) {
+        this.kind = kind;
+        this.evaluation = evaluation;
+        this.rules = rules;
+        this.maxBytes = maxBytes;
+        this.maxDepth = maxDepth;
+        this.maxFields = maxFields;
+    }
+
+    /**
+     * 按 Content-Type 决定是否需要检查请求体：只处理表单、JSON 和 multipart/form-data，
+     * 请求头阶段已确定结果或对应作用域没有规则时返回 null。
+     *
+     * @param maxBytes          表单/JSON 最多检查的字节数
+     * @param multipartMaxBytes multipart 最多检查的字节数
+     */
+    static BodyInspection open(RuleSnapshot.Evaluation evaluation, RuleSnapshot snapshot, String contentType,
+                               long maxBytes, long multipartMaxBytes, int maxDepth, int maxFields) {
+        if (contentType == null) {
+            return null;
+        }
+        String type = contentType.toLowerCase();
+        BodyInspection inspection;
+        if (type.startsWith("application/x-www-form-urlencoded")) {
+            if (maxBytes <= 0 || !evaluation.beginBody(snapshot.argRules())) {
+                return null;
+            }
+            inspection = new BodyInspection(Kind.FORM, evaluation, snapshot.argRules(), maxBytes, maxDepth, maxFields);
+            inspection.token = new byte[64];
+        } else if (type.startsWith("application/json") || type.contains("+json")) {
+            if (maxBytes <= 0 || !evaluation.beginBody(snapshot.jsonRules())) {
+                return null;
+            }
+            inspection = new BodyInspection(Kind.JSON, evaluation, snapshot.jsonRules(), maxBytes, maxDepth, maxFields);
+            inspection.openJson();
+        } else if (type.startsWith("multipart/form-data")) {
+            MultipartRules upload = snapshot.multipartRules();
+            String boundary = MultipartParser.boundaryOf(contentType);
+            if (boundary == null || multipartMaxBytes <= 0 || !evaluation.beginBody(upload.all())) {
+                return null;
+            }
+            inspection = new BodyInspection(Kind.MULTIPART, evaluation, upload.all(), multipartMaxBytes,
+                    maxDepth, maxFields);
+            inspection.openMultipart(upload, boundary);
+        } else {
+            return null;
+        }
+        return inspection;
+    }
+
+    private void openJson() {
+        try {
+            json = JSON_FACTORY.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        feeder = (ByteArrayFeeder) json.getNonBlockingInputFeeder();
+        names = new String[maxDepth + 1];
+        names[0] = "";
+    }
+
+    private void openMultipart(MultipartRules upload, String boundary) {
+        this.upload = upload;
+        this.token = new byte[64];
+        this.head = new byte[upload.magicLength()];
+        this.parser = new MultipartParser(boundary, new MultipartParser.Handler() {
+            @Override
+            public void startPart(String name, String filename, String contentType) {
+                openPart(name, filename, contentType);
+            }
+
+            @Override
+            public void content(byte[] buf, int offset, int length) {
+                onPartContent(buf, offset, length);
+            }
+
+            @Override
+            public void endPart() {
+                closePart();
+            }
+        });
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * 结果已不会再改变，或已超出检查上限；之后喂入的数据会被忽略。
+     */
+    public boolean isDone() {
+        return stopped || evaluation.isDecided(rules);
+    }
+
+    /** 嵌套深度或字段数超出上限，或请求体无法读取，之后的内容没有检查 */
+    public boolean isLimitExceeded() {
+        return limitExceeded;
+    }
+
+    /**
+     * 调用方无法取得请求体时调用（如 Servlet 容器因超出上传大小限制拒绝解析 multipart），
+     * 未检查的内容按超限处理。
+     */
+    public void markLimitExceeded() {
+        exceedLimit();
+    }
+
+    private void exceedLimit() {
+        stopped = true;
+        limitExceeded = true;
+    }
+
+    /** 到目前为止各次喂入花在解析和匹配上的时间，不含调用方等待数据的时间 */
+    long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * 喂入一段原始请求体，数组在方法返回后即可复用。
+     */
+    public void feed(byte[] buf, int offset, int length) {
+        if (isDone() || length <= 0) {
+            return;
+        }
+        long t = System.nanoTime();
+        feedChunk(buf, offset, consume(length));
+        elapsedNanos += System.nanoTime() - t;
+    }
+
+    private void feedChunk(byte[] buf, int offset, int length) {
+        switch (kind) {
+            case JSON:
+                feedJson(buf, offset, length);
+                break;
+            case FORM:
+                feedForm(buf, offset, length);
+                break;
+            default:
+                parser.feed(buf, offset, length);
+                if (parser.isFailed()) {
+                    stopped = true;
+                }
+                break;
+        }
+    }
+
+    // 计入已检查字节数，超出上限时截断并停止
+    private int consume(int length) {
+        long allowed = maxBytes - bytes;
+        if (length > allowed) {
+            length = (int) allowed;
+            stopped = true;
+        }
+        bytes += length;
+        return length;
+    }
+
+    /**
+     * 直接喂入已由容器解析好的表单参数（Servlet 的 getParameterMap），避免再读一次请求体。
+     */
+    public void feedParameter(String name, String value) {
+        if (isDone()) {
+            return;
+        }
+        if (++fields > maxFields) {
+            exceedLimit();
+            return;
+        }
+        long t = System.nanoTime();
+        evaluation.onArg(rules, name.toLowerCase(), value == null ? "" : value.toLowerCase());
+        elapsedNanos += System.nanoTime() - t;
+    }
+
+    /**
+     * multipart 的一个部分开始。原始请求体由内部解析器调用；
+     * Servlet 下由调用方按容器解析出的 Part 依次调用 startPart / partContent / endPart。
+     *
+     * @param filename 没有 filename 参数（普通字段）时为 null
+     */
+    public void startPart(String name, String filename, String contentType) {
+        long t = System.nanoTime();
+        openPart(name, filename, contentType);
+        elapsedNanos += System.nanoTime() - t;
+    }
+
+    private void openPart(String name, String filename, String contentType) {
+        partName = null;
+        if (isDone()) {
+            return;
+        }
+        if (++fields > maxFields) {
+            exceedLimit();
+            return;
+        }
+        partName = name == null ? "" : name.toLowerCase();
+        filePart = filename != null;
+        tokenLength = 0;
+        headLength = 0;
+        headChecked = head.length == 0;
+        automatonState = 0;
+        if (filePart) {
+            evaluation.onValue(upload.filenames(), partName, filename.toLowerCase());
+            evaluation.onValue(upload.fileTypes(), partName, contentType == null ? "" : contentType.toLowerCase());
+        }
+    }
+
+    public void partContent(byte[] buf, int offset, int length) {
+        if (partName == null || isDone() || length <= 0) {
+            return;
+        }
+        long t = System.nanoTime();
+        onPartContent(buf, offset, consume(length));
+        elapsedNanos += System.nanoTime() - t;
+    }
+
+    public void endPart() {
+        long t = System.nanoTime();
+        closePart();
+        elapsedNanos += System.nanoTime() - t;
+    }
+
+    private void closePart() {
+        if (partName == null || isDone()) {
+            partName = null;
+            return;
+        }
+        if (filePart) {
+            checkHead();
+        } else {
+            String value = new String(token, 0, tokenLength, StandardCharsets.UTF_8).toLowerCase();
+            evaluation.onArg(upload.args(), partName, value);
+        }
+        partName = null;
+    }
+
+    private void onPartContent(byte[] buf, int offset, int length) {
+        if (partName == null || isDone()) {
+            return;
+        }
+        if (!filePart) {
+            int n = Math.min(length, MAX_FIELD_BYTES - tokenLength);
+            if (n > 0) {
+                if (tokenLength + n > token.length) {
+                    token = Arrays.copyOf(token, Math.min(MAX_FIELD_BYTES, Math.max(token.length * 2, tokenLength + n)));
+                }
+                System.arraycopy(buf, offset, token, tokenLength, n);
+                tokenLength += n;
+            }
+            return;
+        }
+        if (!headChecked) {
+            int n = Math.min(length, head.length - headLength);
+            System.arraycopy(buf, offset, head, headLength, n);
+            headLength += n;
+            if (headLength == head.length) {
+                checkHead();
+            }
+        }
+        ByteAutomaton automaton = upload.contentAutomaton();
+        if (automaton == null) {
+            return;
+        }
+        int state = automatonState;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            state = automaton.step(state, buf[i]);
+            int hit = automaton.outputStart(state);
+            int hitEnd = automaton.outputStart(state + 1);
+            if (hit < hitEnd) {
+                for (; hit < hitEnd; hit++) {
+                    evaluation.onHit(upload.contentRule(automaton.output(hit)), partName);
+                }
+                if (isDone()) {
+                    break;
+                }
+            }
+        }
+        automatonState = state;
+    }
+
+    private void checkHead() {
+        if (!headChecked) {
+            headChecked = true;
+            upload.checkMagic(head, headLength, partName, evaluation);
+        }
+    }
+
+    /**
+     * 请求体结束（或调用方不再读取）后给出最终结果。
+     */
+    MatchResult finish() {
+        if (!isDone()) {
+            switch (kind) {
+                case JSON:
+                    feeder.endOfInput();
+                    drainJson();
+                    break;
+                case FORM:
+                    if (tokenLength > 0 || pendingName != null) {
+                        emitFormField();
+                    }
+                    break;
+                default:
+                    parser.finish();
+                    break;
+            }
+        }
+        if (json != null) {
+            try {
+                json.close();
+            } catch (IOException ignored) {
+                // 非阻塞解析器不持有外部资源
+            }
+        }
+        return evaluation.result();
+    }
+
+    private void feedJson(byte[] buf, int offset, int length) {
+        try {
+            feeder.feedInput(buf, offset, offset + length);
+        } catch (IOException e) {
+            stopped = true;
+            return;
+        }
+        drainJson();
+    }
+
+    private void drainJson() {
+        try {
+            JsonToken t;
+            while (!isDone() && (t = json.nextToken()) != null && t != JsonToken.NOT_AVAILABLE) {
+                switch (t) {
+                    case FIELD_NAME:
+                        if (++fields > maxFields) {
+                            exceedLimit();
+                            return;
+                        }
+                        current = json.getCurrentName().toLowerCase();
+                        break;
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        if (depth == maxDepth) {
+                            exceedLimit();
+                            return;
+                        }
+                        names[++depth] = current;
+                        if (!current.isEmpty()) {
+                            evaluation.onArg(rules, current, "");
+                        }
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        current = names[--depth];
+                        break;
+                    case VALUE_NULL:
+                        break;
+                    default:
+                        // 字符串、数字、布尔值；数组元素沿用数组的字段名
+                        evaluation.onArg(rules, current, json.getText().toLowerCase());
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            // 不合法的 JSON 交给后端处理，这里只停止检查
+            stopped = true;
+        }
+    }
+
+    private void feedForm(byte[] buf, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end && !isDone(); i++) {
+            byte b = buf[i];
+            if (b == '&') {
+                emitFormField();
+            } else if (b == '=' && pendingName == null) {
+                pendingName = formToken();
+            } else {
+                if (tokenLength == token.length) {
+                    token = Arrays.copyOf(token, token.length * 2);
+                }
+                token[tokenLength++] = b;
+            }
+        }
+    }
+
+    private void emitFormField() {
+        String value = formToken();
+        String name = pendingName;
+        pendingName = null;
+        if (name == null) {
+            name = value;
+            value = "";
+        }
+        if (name.isEmpty() && value.isEmpty()) {
+            return;
+        }
+        if (++fields > maxFields) {
+            exceedLimit();
+            return;
+        }
+        evaluation.onArg(rules, name, value);
+    }
+
+    private String formToken() {
+        String raw = new String(token, 0, tokenLength, StandardCharsets.ISO_8859_1);
+        tokenLength = 0;
+        return RequestInput.decode(raw);
+    }
+}
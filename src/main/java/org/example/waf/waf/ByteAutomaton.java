@@ -0,0 +1,173 @@
+package org.example.waf.waf;
+
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 多模式字节自动机（Aho-Corasick，展开为完整转移表）。编译时构建一次，之后只读、线程共享；
+ * 扫描状态只是一个 int，由调用方跨数据块保存，因此可以对任意长的流逐块匹配，内存恒定。
+ *
+ * 模式按小写字节存储，输入字节在转移时折叠 ASCII 大小写。
+ * 转移表大小为 状态数 × 256，状态数不超过所有模式的总长度 + 1。
+ *
+ * 各表都是扁平的 int 序列，既可以是新构建的数组，也可以直接是规则映像（{@link RuleImage}）里内存映射的区段。
+ */
+final class ByteAutomaton {
+    private static final byte[] FOLD = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            FOLD[i] = (byte) (i >= 'A' && i <= 'Z' ? i + 32 : i);
+        }
+    }
+
+    private final int states;
+    private final IntBuffer next;        // next[state << 8 | byte]
+    // 到达状态 s 时命中的模式下标（包括后缀链上的模式）为 outData[outStart[s] .. outStart[s + 1])
+    private final IntBuffer outStart;
+    private final IntBuffer outData;
+
+    private ByteAutomaton(IntBuffer next, IntBuffer outStart, IntBuffer outData) {
+        this.states = outStart.limit() - 1;
+        this.next = next;
+        this.outStart = outStart;
+        this.outData = outData;
+    }
+
+    /** 由已有的表（如映像中的区段）构造，表的长度由调用方校验。 */
+    static ByteAutomaton of(IntBuffer next, IntBuffer outStart, IntBuffer outData) {
+        return new ByteAutomaton(next, outStart, outData);
+    }
+
+    static ByteAutomaton build(List<byte[]> patterns) {
+        // 字典树
+        List<int[]> gotos = new ArrayList<>();
+        List<List<Integer>> out = new ArrayList<>();
+        gotos.add(newRow());
+        out.add(new ArrayList<>());
+        for (int p = 0; p < patterns.size(); p++) {
+            int state = 0;
+            for (byte b : patterns.get(p)) {
+                int c = FOLD[b & 0xff] & 0xff;
+                if (gotos.get(state)[c] < 0) {
+                    gotos.get(state)[c] = gotos.size();
+                    gotos.add(newRow());
+                    out.add(new ArrayList<>());
+                }
+                state = gotos.get(state)[c];
+            }
+            out.get(state).add(p);
+        }
+
+        // 按层 BFS 计算失配链并补全转移
+        int states = gotos.size();
+        int[] next = new int[states << 8];
+        int[] fail = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < 256; c++) {
+            int s = gotos.get(0)[c];
+            if (s < 0) {
+                next[c] = 0;
+            } else {
+                next[c] = s;
+                fail[s] = 0;
+                queue.add(s);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            out.get(state).addAll(out.get(fail[state]));
+            for (int c = 0; c < 256; c++) {
+                int s = gotos.get(state)[c];
+                if (s < 0) {
+                    next[state << 8 | c] = next[fail[state] << 8 | c];
+                } else {
+                    next[state << 8 | c] = s;
+                    fail[s] = next[fail[state] << 8 | c];
+                    queue.add(s);
+                }
+            }
+        }
+
+        int[] outStart = new int[states + 1];
+        for (int s = 0; s < states; s++) {
+            outStart[s + 1] = outStart[s] + out.get(s).size();
+        }
+        int[] outData = new int[outStart[states]];
+        for (int s = 0; s < states; s++) {
+            List<Integer> o = out.get(s);
+            for (int i = 0; i < o.size(); i++) {
+                outData[outStart[s] + i] = o.get(i);
+            }
+        }
+        return new ByteAutomaton(IntBuffer.wrap(next), IntBuffer.wrap(outStart), IntBuffer.wrap(outData));
+    }
+
+    /**
+     * 模式列表的摘要（SHA-256 十六进制），相同的模式序列构建出的自动机完全相同，映像中的自动机按它查找。
+     */
+    static String key(List<byte[]> patterns) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update("ac-v1".getBytes(StandardCharsets.US_ASCII));
+            for (byte[] p : patterns) {
+                md.update(new byte[]{(byte) (p.length >>> 24), (byte) (p.length >>> 16), (byte) (p.length >>> 8), (byte) p.length});
+                md.update(p);
+            }
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : md.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int[] newRow() {
+        int[] row = new int[256];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    int step(int state, byte b) {
+        return next.get(state << 8 | (FOLD[b & 0xff] & 0xff));
+    }
+
+    /** 该状态命中的模式在 {@link #output} 中的起始位置，结束位置为 outputStart(state + 1)。 */
+    int outputStart(int state) {
+        return outStart.get(state);
+    }
+
+    /** 第 i 个输出的模式下标。 */
+    int output(int i) {
+        return outData.get(i);
+    }
+
+    int states() {
+        return states;
+    }
+
+    // 以下供写入映像，返回只读视图
+    IntBuffer transitions() {
+        return next.asReadOnlyBuffer();
+    }
+
+    IntBuffer outputStarts() {
+        return outStart.asReadOnlyBuffer();
+    }
+
+    IntBuffer outputData() {
+        return outData.asReadOnlyBuffer();
+    }
+
+    static byte fold(byte b) {
+        return FOLD[b & 0xff];
+    }
+}
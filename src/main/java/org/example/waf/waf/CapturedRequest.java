@@ -0,0 +1,82 @@
+package org.example.waf.waf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * 不可变的请求副本，用于脱离原始连接后的评估（规则测试接口、离线评估、影子规则等）。
+ */
+public class CapturedRequest implements RequestView {
+    private final String method;
+    private final String host;
+    private final String path;
+    private final String query;
+    private final String clientIp;
+    private final List<String[]> headers; // {name, value}
+
+    public CapturedRequest(String method, String host, String path, String query, String clientIp, List<String[]> headers) {
+        this.method = method;
+        this.host = host;
+        this.path = path == null ? "" : path;
+        this.query = query;
+        this.clientIp = clientIp;
+        this.headers = headers == null ? Collections.emptyList() : headers;
+    }
+
+    /**
+     * 复制任意请求视图。
+     */
+    public static CapturedRequest copyOf(RequestView request) {
+        if (request instanceof CapturedRequest) {
+            return (CapturedRequest) request;
+        }
+        List<String[]> headers = new ArrayList<>();
+        request.forEachHeader((name, value) -> headers.add(new String[]{name, value}));
+        return new CapturedRequest(request.getMethod(), request.getHost(), request.getPath(), request.getQuery(),
+                request.getClientIp(), headers);
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String getHost() {
+        return host;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String getQuery() {
+        return query;
+    }
+
+    @Override
+    public String getClientIp() {
+        return clientIp;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        for (String[] h : headers) {
+            if (h[0].equalsIgnoreCase(name)) {
+                return h[1];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void forEachHeader(BiConsumer<String, String> action) {
+        for (String[] h : headers) {
+            action.accept(h[0], h[1]);
+        }
+    }
+}
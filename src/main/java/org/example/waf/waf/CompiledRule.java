@@ -0,0 +1,218 @@
+package org.example.waf.waf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 编译后的只读规则：模式、动作和分类在编译时一次性归一化，请求路径上不再做 toLowerCase。
+ * 检测器规则用 {@link Detector} 逐个检查解码后的值（查询参数、路径、请求头值、表单/JSON 值），
+ * 普通规则按小写子串匹配。
+ */
+public final class CompiledRule {
+    // 未配置权重时的默认值：block 规则单独即可达到默认阈值，与首个命中模式行为一致
+    static final int DEFAULT_BLOCK_SCORE = 100;
+    static final int DEFAULT_LOG_SCORE = 20;
+
+    private final int index;          // 在整个规则集中按优先级排序后的位置
+    private final String id;
+    private final String pattern;     // 原始模式，写入日志的 rule_name；检测器规则未配置模式时为 "detector:名称"
+    private final String lowerPattern;
+    private final String scope;
+    private final RuleScope scopeKind;
+    private final String[] targets;   // 小写的目标名称，为空数组表示不限定
+    private final Detector detector;  // 为空表示按 lowerPattern 子串匹配
+    private final String detectorName;
+    private final String action;      // block | log | allow（小写）
+    private final boolean blocking;
+    private final RuleCategory category;
+    private final int score;
+    private final MatchResult firstMatch; // 首个命中模式下的结果，预先创建避免每次命中分配
+
+    CompiledRule(int index, Rule rule) {
+        this.index = index;
+        this.id = rule.getId();
+        this.detector = Detector.of(rule.getDetector());
+        this.detectorName = detector == null ? null : rule.getDetector().trim().toLowerCase();
+        this.pattern = detector != null && (rule.getPattern() == null || rule.getPattern().isEmpty())
+                ? "detector:" + detectorName : rule.getPattern();
+        this.lowerPattern = pattern.toLowerCase();
+        this.scope = rule.getScope();
+        this.scopeKind = RuleScope.of(rule.getScope());
+        this.targets = parseTargets(rule.getTarget());
+        this.action = rule.getAction() == null ? "block" : rule.getAction().toLowerCase();
+        this.blocking = "block".equals(this.action);
+        if (rule.getCategory() != null) {
+            this.category = rule.getCategory();
+        } else if (scopeKind == RuleScope.FILENAME || scopeKind == RuleScope.FILE_TYPE
+                || scopeKind == RuleScope.FILE_MAGIC || scopeKind == RuleScope.FILE_CONTENT) {
+            this.category = RuleCategory.FILE_UPLOAD;
+        } else if (detector == SqlInjectionDetector.INSTANCE) {
+            this.category = RuleCategory.SQL_INJECTION;
+        } else if (detector == XssDetector.INSTANCE) {
+            this.category = RuleCategory.XSS;
+        } else {
+            this.category = RuleCategory.infer(rule.getPattern());
+        }
+        if (rule.getScore() != null) {
+            this.score = Math.max(0, rule.getScore());
+        } else {
+            this.score = blocking ? DEFAULT_BLOCK_SCORE : "log".equals(action) ? DEFAULT_LOG_SCORE : 0;
+        }
+        this.firstMatch = new MatchResult(this, action, score);
+    }
+
+    boolean matches(RequestInput input) {
+        switch (scopeKind) {
+            case QUERY:
+                if (detector != null) {
+                    for (String[] arg : input.queryArgs()) {
+                        if (detector.detect(arg[0]) || detector.detect(arg[1])) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                return input.lowerQuery().contains(lowerPattern);
+            case PATH:
+                return detector != null ? detector.detect(input.lowerDecodedPath()) : input.lowerPath().contains(lowerPattern);
+            case HEADERS:
+                if (targets.length > 0) {
+                    for (String name : targets) {
+                        String value = input.headerValue(name);
+                        if (value != null && test(value)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                for (String line : input.headerLines()) {
+                    // 检测器只看值部分，"name:" 前缀会干扰词法分析
+                    if (detector != null ? detector.detect(line.substring(line.indexOf(':') + 1)) : line.contains(lowerPattern)) {
+                        return true;
+                    }
+                }
+                return false;
+            case ARGS:
+                // 请求头阶段只有查询参数，表单参数在请求体阶段逐个检查
+                for (String[] arg : input.queryArgs()) {
+                    if (matchesArg(arg[0], arg[1])) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 单个参数（名称、值均已小写）：未限定目标时名称或值包含模式即命中，限定目标时只检查目标参数的值。
+     * 检测器规则只检查值。
+     */
+    boolean matchesArg(String lowerName, String lowerValue) {
+        if (detector != null) {
+            return targets(lowerName) && detector.detect(lowerValue);
+        }
+        if (targets.length == 0) {
+            return lowerName.contains(lowerPattern) || lowerValue.contains(lowerPattern);
+        }
+        return targets(lowerName) && lowerValue.contains(lowerPattern);
+    }
+
+    /**
+     * 只检查值（如上传文件名、文件类型），目标名称限定的是所属参数名。
+     */
+    boolean matchesValue(String lowerName, String lowerValue) {
+        return targets(lowerName) && test(lowerValue);
+    }
+
+    /** 单个已小写的值是否命中：检测器规则交给检测器，否则按子串匹配。 */
+    boolean test(String lowerValue) {
+        return detector != null ? detector.detect(lowerValue) : lowerValue.contains(lowerPattern);
+    }
+
+    /** 未限定目标或参数名在目标列表中。 */
+    boolean targets(String lowerName) {
+        if (targets.length == 0) {
+            return true;
+        }
+        for (String name : targets) {
+            if (name.equals(lowerName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    RuleScope scopeKind() {
+        return scopeKind;
+    }
+
+    MatchResult firstMatch() {
+        return firstMatch;
+    }
+
+    private static String[] parseTargets(String target) {
+        if (target == null || target.trim().isEmpty()) {
+            return new String[0];
+        }
+        List<String> names = new ArrayList<>();
+        for (String t : target.split(",")) {
+            String name = t.trim().toLowerCase();
+            if (!name.isEmpty() && !names.contains(name)) {
+                names.add(name);
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public String getLowerPattern() {
+        return lowerPattern;
+    }
+
+    /** 检测器名称，普通规则为 null。 */
+    public String getDetector() {
+        return detectorName;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    /** 小写的目标名称列表，不限定时为空数组。 */
+    public String[] getTargets() {
+        return targets.clone();
+    }
+
+    String[] targets() {
+        return targets;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public boolean isBlocking() {
+        return blocking;
+    }
+
+    public RuleCategory getCategory() {
+        return category;
+    }
+
+    public int getScore() {
+        return score;
+    }
+}
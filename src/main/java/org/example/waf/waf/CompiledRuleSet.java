@@ -0,0 +1,64 @@
+package org.example.waf.waf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 一份完整规则集的编译结果：全局快照，以及绑定了专属规则的应用各自的快照
+ * （全局规则 + 该应用规则合并编译）。线上规则和影子规则都用它，两者匹配语义完全一致。
+ */
+public final class CompiledRuleSet {
+    public static final CompiledRuleSet EMPTY = new CompiledRuleSet(RuleSnapshot.EMPTY, Collections.emptyMap());
+
+    private final RuleSnapshot global;
+    private final Map<Long, RuleSnapshot> byApplication;
+
+    private CompiledRuleSet(RuleSnapshot global, Map<Long, RuleSnapshot> byApplication) {
+        this.global = global;
+        this.byApplication = byApplication;
+    }
+
+    /**
+     * @param blockThreshold 计分模式的拦截阈值，&lt;= 0 表示首个命中模式
+     */
+    public static CompiledRuleSet compile(List<Rule> rules, int blockThreshold) {
+        return compile(rules, blockThreshold, ByteAutomaton::build);
+    }
+
+    static CompiledRuleSet compile(List<Rule> rules, int blockThreshold, Function<List<byte[]>, ByteAutomaton> automata) {
+        List<Rule> global = new ArrayList<>();
+        Map<Long, List<Rule>> bound = new HashMap<>();
+        for (Rule r : rules) {
+            if (r.getApplicationId() == null) {
+                global.add(r);
+            } else {
+                bound.computeIfAbsent(r.getApplicationId(), k -> new ArrayList<>()).add(r);
+            }
+        }
+        Map<Long, RuleSnapshot> byApp = new HashMap<>();
+        for (Map.Entry<Long, List<Rule>> e : bound.entrySet()) {
+            List<Rule> merged = new ArrayList<>(global);
+            merged.addAll(e.getValue());
+            byApp.put(e.getKey(), RuleSnapshot.compile(merged, blockThreshold, automata));
+        }
+        return new CompiledRuleSet(RuleSnapshot.compile(global, blockThreshold, automata), byApp);
+    }
+
+    // 全局规则快照（未匹配到应用的请求使用）
+    public RuleSnapshot getGlobal() {
+        return global;
+    }
+
+    // 指定应用的规则快照，applicationId 为空或应用没有专属规则时返回全局快照
+    public RuleSnapshot forApplication(Long applicationId) {
+        if (applicationId == null) {
+            return global;
+        }
+        RuleSnapshot s = byApplication.get(applicationId);
+        return s != null ? s : global;
+    }
+}
@@ -0,0 +1,25 @@
+package org.example.waf.waf;
+
+/**
+ * 检测器规则（{@link Rule#getDetector()} 非空）使用的检测逻辑，替代模式子串匹配。
+ * 实现必须无状态、线程安全，输入是已小写、已 URL 解码的单个值。
+ */
+interface Detector {
+
+    boolean detect(String lowerValue);
+
+    /** 检测器名称对应的实现，未知名称返回 null。 */
+    static Detector of(String name) {
+        if (name == null) {
+            return null;
+        }
+        switch (name.trim().toLowerCase()) {
+            case "sqli":
+                return SqlInjectionDetector.INSTANCE;
+            case "xss":
+                return XssDetector.INSTANCE;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.example.waf.waf;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 过滤器各阶段耗时、检测结果计数和规则集状态，经 actuator 以 Prometheus 文本格式导出（/actuator/prometheus）。
+ *
+ * 请求线程只对 LongAdder 做自增（分段累加，各线程落在不同的单元上），不经过 Micrometer 的 Timer，
+ * 也就没有它的最大值窗口 CAS；抓取时由 FunctionTimer / FunctionCounter 读取累计值。
+ */
+@Component
+public class FilterMetrics {
+
+    public enum Stage {
+        /** 请求数据的小写化、URL 解码、参数拆分 */
+        NORMALIZE("normalize"),
+        QUERY("query"),
+        PATH("path"),
+        HEADERS("headers"),
+        ARGS("args"),
+        /** 请求体解析和匹配（不含等待数据到达） */
+        BODY("body"),
+        /** 命中事件交给统计和异步落库队列 */
+        EVENT_ENQUEUE("event_enqueue"),
+        /** 交给后续过滤器链或上游直到响应完成 */
+        DOWNSTREAM("downstream");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+
+        /** 请求头阶段按规则作用域归类，请求体作用域返回 null */
+        static Stage of(RuleScope scope) {
+            switch (scope) {
+                case QUERY:
+                    return QUERY;
+                case PATH:
+                    return PATH;
+                case HEADERS:
+                    return HEADERS;
+                case ARGS:
+                    return ARGS;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static final String[] VERDICTS = {"pass", "allow", "log", "block", "skipped", "ratelimited"};
+
+    private static final class Accumulator {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+
+        void record(long elapsed) {
+            count.increment();
+            nanos.add(elapsed);
+        }
+    }
+
+    private final boolean stageTiming;
+    private final Accumulator request = new Accumulator();
+    private final Accumulator inspect = new Accumulator();
+    private final Accumulator[] stages = new Accumulator[Stage.values().length];
+    private final LongAdder[] verdicts = new LongAdder[VERDICTS.length];
+
+    public FilterMetrics(MeterRegistry registry, WafService wafService,
+                         @Value("${app.metrics.stage-timing:true}") boolean stageTiming) {
+        this.stageTiming = stageTiming;
+        bind(registry, "waf.request", "从收到请求到响应完成的耗时", request, null);
+        bind(registry, "waf.inspect", "WAF 规则检测开销", inspect, null);
+        for (Stage stage : Stage.values()) {
+            stages[stage.ordinal()] = new Accumulator();
+            bind(registry, "waf.stage", "过滤器各阶段耗时", stages[stage.ordinal()], stage.tag);
+        }
+        for (int i = 0; i < VERDICTS.length; i++) {
+            verdicts[i] = new LongAdder();
+            FunctionCounter.builder("waf.verdicts", verdicts[i], LongAdder::sum)
+                    .description("按动作统计的检测结果")
+                    .tag("action", VERDICTS[i])
+                    .register(registry);
+        }
+        Gauge.builder("waf.rules.compiled", wafService, s -> s.getSnapshot().size())
+                .description("全局快照中已编译的规则数")
+                .register(registry);
+        Gauge.builder("waf.rules.generation", wafService, WafService::getGeneration)
+                .description("规则集代数，本地修改或同步进来的修改都会加一")
+                .register(registry);
+        Gauge.builder("waf.enabled", wafService, s -> s.isEnabled() ? 1 : 0)
+                .register(registry);
+    }
+
+    private static void bind(MeterRegistry registry, String name, String description, Accumulator acc, String stage) {
+        FunctionTimer.Builder<Accumulator> builder = FunctionTimer.builder(name, acc,
+                a -> a.count.sum(), a -> a.nanos.sum(), TimeUnit.NANOSECONDS)
+                .description(description);
+        if (stage != null) {
+            builder.tag("stage", stage);
+        }
+        builder.register(registry);
+    }
+
+    /** 是否按作用域分阶段计时；关闭后请求头阶段不再逐段取时钟 */
+    boolean isStageTiming() {
+        return stageTiming;
+    }
+
+    void recordRequest(long nanos) {
+        request.record(nanos);
+    }
+
+    void recordInspect(long nanos) {
+        inspect.record(nanos);
+    }
+
+    void recordStage(Stage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    /** 合并一次请求头阶段按阶段序号累计的耗时，没有运行的阶段（0）不计数 */
+    void recordStages(long[] nanos) {
+        for (int i = 0; i < nanos.length; i++) {
+            if (nanos[i] > 0) {
+                stages[i].record(nanos[i]);
+            }
+        }
+    }
+
+    void recordVerdict(MatchResult match) {
+        switch (match.getAction()) {
+            case "allow":
+                verdicts[1].increment();
+                break;
+            case "log":
+                verdicts[2].increment();
+                break;
+            case "block":
+                verdicts[3].increment();
+                break;
+            default:
+                verdicts[0].increment();
+                break;
+        }
+    }
+
+    /** WAF 关闭或应用停用，未做检测 */
+    void recordSkipped() {
+        verdicts[4].increment();
+    }
+
+    /** 超出集群限流被拒绝，未做检测 */
+    void recordRateLimited() {
+        verdicts[5].increment();
+    }
+}
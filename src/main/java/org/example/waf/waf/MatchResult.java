@@ -0,0 +1,41 @@
+package org.example.waf.waf;
+
+/**
+ * 一次规则匹配的结果。首个命中模式下动作取命中规则的动作；计分模式下动作由总分与阈值决定，
+ * rule 为命中规则中权重最高的一条。
+ */
+public final class MatchResult {
+    public static final MatchResult NONE = new MatchResult(null, "pass", 0);
+
+    private final CompiledRule rule;
+    private final String action;   // block | log | allow | pass（未命中）
+    private final int score;
+
+    MatchResult(CompiledRule rule, String action, int score) {
+        this.rule = rule;
+        this.action = action;
+        this.score = score;
+    }
+
+    /** 决定结果的规则，未命中时为 null。 */
+    public CompiledRule getRule() {
+        return rule;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public boolean isBlocking() {
+        return "block".equals(action);
+    }
+
+    /** 命中了 block 或 log（allow 和未命中都不算）。 */
+    public boolean isAttack() {
+        return rule != null && !"allow".equals(action);
+    }
+}
@@ -0,0 +1,252 @@
+package org.example.waf.waf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * multipart/form-data 的流式解析器：按到达的数据块切分出各部分的头和内容，
+ * 内容直接回调给 {@link Handler}，不做缓存。分隔符用 KMP 匹配，跨块时只保留已匹配的长度，
+ * 因此除了单个部分的头（上限 {@link #MAX_HEADER_BYTES}）外占用内存恒定。
+ * 格式不合法时进入失败状态，不再回调。
+ */
+final class MultipartParser {
+    static final int MAX_HEADER_BYTES = 8192;
+
+    interface Handler {
+        void startPart(String name, String filename, String contentType);
+
+        void content(byte[] buf, int offset, int length);
+
+        void endPart();
+    }
+
+    private enum State {
+        PREAMBLE,
+        AFTER_DELIMITER,
+        HEADERS,
+        BODY,
+        EPILOGUE,
+        FAILED
+    }
+
+    private final Handler handler;
+    private final byte[] delimiter;   // "\r\n--" + boundary
+    private final int[] border;       // KMP：delimiter[0..i) 最长真前后缀的长度
+    private State state = State.PREAMBLE;
+    private int matched;
+    private boolean dash;
+    private byte[] header = new byte[256];
+    private int headerLength;
+
+    MultipartParser(String boundary, Handler handler) {
+        this.handler = handler;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.border = new int[delimiter.length + 1];
+        for (int i = 2, k = 0; i <= delimiter.length; i++) {
+            while (k > 0 && delimiter[i - 1] != delimiter[k]) {
+                k = border[k];
+            }
+            if (delimiter[i - 1] == delimiter[k]) {
+                k++;
+            }
+            border[i] = k;
+        }
+        // 第一个分隔符前没有 CRLF，视为已匹配
+        this.matched = 2;
+    }
+
+    /**
+     * 从 Content-Type 中取 boundary 参数，没有时返回 null。
+     */
+    static String boundaryOf(String contentType) {
+        String boundary = param(contentType, "boundary");
+        return boundary == null || boundary.isEmpty() || boundary.length() > 70 ? null : boundary;
+    }
+
+    boolean isFailed() {
+        return state == State.FAILED;
+    }
+
+    void feed(byte[] buf, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            switch (state) {
+                case PREAMBLE:
+                case BODY:
+                    i = scanBody(buf, i, end);
+                    break;
+                case AFTER_DELIMITER:
+                    afterDelimiter(buf[i++]);
+                    break;
+                case HEADERS:
+                    header(buf[i++]);
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    /**
+     * 输入结束：最后一个部分没有结束分隔符时也按结束处理，以便检查已收到的内容。
+     */
+    void finish() {
+        if (state == State.BODY) {
+            flushHeld();
+            handler.endPart();
+        }
+        state = State.EPILOGUE;
+    }
+
+    // 返回处理到的位置；遇到完整分隔符时切换状态并返回
+    private int scanBody(byte[] buf, int i, int end) {
+        boolean emit = state == State.BODY;
+        int run = i;   // 确定属于内容的一段的起点
+        for (; i < end; i++) {
+            byte b = buf[i];
+            if (matched == 0 && b != delimiter[0]) {
+                continue;
+            }
+            if (matched == 0 && emit && i > run) {
+                handler.content(buf, run, i - run);
+            }
+            while (matched > 0 && b != delimiter[matched]) {
+                // 之前暂扣的分隔符前缀中，不可能再构成分隔符的部分属于内容
+                int k = border[matched];
+                if (emit) {
+                    handler.content(delimiter, 0, matched - k);
+                }
+                matched = k;
+            }
+            if (b == delimiter[matched]) {
+                matched++;
+                run = i + 1;
+                if (matched == delimiter.length) {
+                    matched = 0;
+                    if (emit) {
+                        handler.endPart();
+                    }
+                    state = State.AFTER_DELIMITER;
+                    dash = false;
+                    return i + 1;
+                }
+            } else {
+                run = i;
+            }
+        }
+        if (emit && matched == 0 && end > run) {
+            handler.content(buf, run, end - run);
+        }
+        return end;
+    }
+
+    private void flushHeld() {
+        if (matched > 0) {
+            handler.content(delimiter, 0, matched);
+            matched = 0;
+        }
+    }
+
+    private void afterDelimiter(byte b) {
+        if (b == '-') {
+            if (dash) {
+                state = State.EPILOGUE;
+            }
+            dash = true;
+        } else if (dash) {
+            state = State.FAILED;
+        } else if (b == '\n') {
+            state = State.HEADERS;
+            headerLength = 0;
+        } else if (b != '\r' && b != ' ' && b != '\t') {
+            state = State.FAILED;
+        }
+    }
+
+    private void header(byte b) {
+        if (headerLength == MAX_HEADER_BYTES) {
+            state = State.FAILED;
+            return;
+        }
+        if (headerLength == header.length) {
+            header = Arrays.copyOf(header, Math.min(header.length * 2, MAX_HEADER_BYTES));
+        }
+        header[headerLength++] = b;
+        boolean empty = headerLength == 2 && header[0] == '\r' && header[1] == '\n';
+        boolean done = headerLength >= 4 && header[headerLength - 4] == '\r' && header[headerLength - 3] == '\n'
+                && header[headerLength - 2] == '\r' && header[headerLength - 1] == '\n';
+        if (empty || done) {
+            startPart(new String(header, 0, headerLength, StandardCharsets.UTF_8));
+            state = State.BODY;
+            matched = 0;
+        }
+    }
+
+    private void startPart(String headers) {
+        String name = null;
+        String filename = null;
+        String contentType = null;
+        for (String line : headers.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String key = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if ("content-disposition".equalsIgnoreCase(key)) {
+                name = param(value, "name");
+                filename = param(value, "filename");
+            } else if ("content-type".equalsIgnoreCase(key)) {
+                contentType = value;
+            }
+        }
+        handler.startPart(name, filename, contentType);
+    }
+
+    /**
+     * 取 "a; key=value; key2=\"v\"" 形式的参数值，去掉引号；不存在时返回 null。
+     * 引号内的 ';' 不作为分隔符，避免 filename="x;.php" 这类写法绕过检查。
+     */
+    static String param(String header, String key) {
+        if (header == null) {
+            return null;
+        }
+        int i = header.indexOf(';');
+        while (i >= 0 && i < header.length()) {
+            int start = i + 1;
+            int eq = header.indexOf('=', start);
+            if (eq < 0) {
+                return null;
+            }
+            String name = header.substring(start, eq).trim();
+            int pos = eq + 1;
+            while (pos < header.length() && header.charAt(pos) == ' ') {
+                pos++;
+            }
+            String value;
+            int end;
+            if (pos < header.length() && header.charAt(pos) == '"') {
+                StringBuilder sb = new StringBuilder();
+                end = pos + 1;
+                for (; end < header.length() && header.charAt(end) != '"'; end++) {
+                    char c = header.charAt(end);
+                    if (c == '\\' && end + 1 < header.length()) {
+                        c = header.charAt(++end);
+                    }
+                    sb.append(c);
+                }
+                value = sb.toString();
+                end = header.indexOf(';', end);
+            } else {
+                end = header.indexOf(';', pos);
+                value = (end < 0 ? header.substring(pos) : header.substring(pos, end)).trim();
+            }
+            if (name.equalsIgnoreCase(key)) {
+                return value;
+            }
+            i = end;
+        }
+        return null;
+    }
+}
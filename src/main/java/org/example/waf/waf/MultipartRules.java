@@ -0,0 +1,153 @@
+package org.example.waf.waf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * multipart 请求体用到的规则：普通字段沿用 args 规则，文件部分按文件名、声明类型、
+ * 开头魔数和内容检查。文件内容规则编译为一个 {@link ByteAutomaton}，所有规则一次扫描。
+ */
+final class MultipartRules {
+    // 魔数最多比较文件开头的字节数
+    static final int MAX_MAGIC_BYTES = 64;
+
+    private final ArgRuleIndex all;
+    private final ArgRuleIndex args;
+    private final ArgRuleIndex filenames;
+    private final ArgRuleIndex fileTypes;
+    private final CompiledRule[] magicRules;
+    private final byte[][] magicBytes;
+    private final boolean[] magicExact;   // hex 魔数按原字节比较，文本魔数忽略 ASCII 大小写
+    private final int magicLength;
+    private final CompiledRule[] contentRules;
+    private final ByteAutomaton contentAutomaton;
+
+    /**
+     * @param automata 按文件内容模式取得自动机（新构建，或从规则映像中取出）
+     */
+    MultipartRules(List<CompiledRule> argRules, List<CompiledRule> uploadRules,
+                   Function<List<byte[]>, ByteAutomaton> automata) {
+        List<CompiledRule> names = new ArrayList<>();
+        List<CompiledRule> types = new ArrayList<>();
+        List<CompiledRule> magic = new ArrayList<>();
+        List<byte[]> magicPatterns = new ArrayList<>();
+        List<Boolean> exact = new ArrayList<>();
+        List<CompiledRule> content = new ArrayList<>();
+        List<byte[]> contentPatterns = new ArrayList<>();
+        for (CompiledRule r : uploadRules) {
+            switch (r.scopeKind()) {
+                case FILENAME:
+                    names.add(r);
+                    break;
+                case FILE_TYPE:
+                    types.add(r);
+                    break;
+                case FILE_MAGIC:
+                    byte[] hex = parseHex(r.getPattern());
+                    byte[] bytes = hex != null ? hex : r.getLowerPattern().getBytes(StandardCharsets.UTF_8);
+                    if (bytes.length > 0 && bytes.length <= MAX_MAGIC_BYTES) {
+                        magic.add(r);
+                        magicPatterns.add(bytes);
+                        exact.add(hex != null);
+                    }
+                    break;
+                default:
+                    content.add(r);
+                    contentPatterns.add(r.getLowerPattern().getBytes(StandardCharsets.UTF_8));
+                    break;
+            }
+        }
+        List<CompiledRule> merged = new ArrayList<>(argRules);
+        merged.addAll(uploadRules);
+        merged.sort((a, b) -> Integer.compare(a.getIndex(), b.getIndex()));
+        this.all = new ArgRuleIndex(merged);
+        this.args = new ArgRuleIndex(argRules);
+        this.filenames = new ArgRuleIndex(names);
+        this.fileTypes = new ArgRuleIndex(types);
+        this.magicRules = magic.toArray(new CompiledRule[0]);
+        this.magicBytes = magicPatterns.toArray(new byte[0][]);
+        this.magicExact = new boolean[exact.size()];
+        int length = 0;
+        for (int i = 0; i < magicBytes.length; i++) {
+            magicExact[i] = exact.get(i);
+            length = Math.max(length, magicBytes[i].length);
+        }
+        this.magicLength = length;
+        this.contentRules = content.toArray(new CompiledRule[0]);
+        this.contentAutomaton = content.isEmpty() ? null : automata.apply(contentPatterns);
+    }
+
+    /** 所有可能在 multipart 请求体中命中的规则，用于判断是否需要读取以及何时可以提前结束。 */
+    ArgRuleIndex all() {
+        return all;
+    }
+
+    ArgRuleIndex args() {
+        return args;
+    }
+
+    ArgRuleIndex filenames() {
+        return filenames;
+    }
+
+    ArgRuleIndex fileTypes() {
+        return fileTypes;
+    }
+
+    /** 需要缓存的文件开头字节数，没有魔数规则时为 0。 */
+    int magicLength() {
+        return magicLength;
+    }
+
+    /** 没有文件内容规则时为 null。 */
+    ByteAutomaton contentAutomaton() {
+        return contentAutomaton;
+    }
+
+    CompiledRule contentRule(int pattern) {
+        return contentRules[pattern];
+    }
+
+    /**
+     * 检查文件开头的 length 个字节，命中的规则交给 evaluation。
+     */
+    void checkMagic(byte[] head, int length, String lowerName, RuleSnapshot.Evaluation evaluation) {
+        outer:
+        for (int i = 0; i < magicRules.length; i++) {
+            byte[] m = magicBytes[i];
+            if (m.length > length) {
+                continue;
+            }
+            for (int j = 0; j < m.length; j++) {
+                byte b = magicExact[i] ? head[j] : ByteAutomaton.fold(head[j]);
+                if (b != m[j]) {
+                    continue outer;
+                }
+            }
+            evaluation.onHit(magicRules[i], lowerName);
+        }
+    }
+
+    // "hex:4d5a" 形式的魔数，格式不对时返回 null 按文本处理
+    private static byte[] parseHex(String pattern) {
+        if (!pattern.regionMatches(true, 0, "hex:", 0, 4)) {
+            return null;
+        }
+        String hex = pattern.substring(4).replace(" ", "");
+        if (hex.isEmpty() || hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            bytes[i] = (byte) (hi << 4 | lo);
+        }
+        return bytes;
+    }
+}
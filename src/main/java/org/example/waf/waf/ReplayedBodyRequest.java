@@ -0,0 +1,89 @@
+package org.example.waf.waf;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 请求体前 length 字节已被 {@link WafFilter} 读出检查过：先重放这部分缓冲，再接着读原始输入流。
+ */
+final class ReplayedBodyRequest extends HttpServletRequestWrapper {
+    private final byte[] head;
+    private final int length;
+    private ServletInputStream stream;
+
+    ReplayedBodyRequest(HttpServletRequest request, byte[] head, int length) {
+        super(request);
+        this.head = head;
+        this.length = length;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+        if (stream == null) {
+            stream = new ReplayStream(super.getInputStream());
+        }
+        return stream;
+    }
+
+    @Override
+    public BufferedReader getReader() throws IOException {
+        String encoding = getCharacterEncoding();
+        Charset charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+        return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+    }
+
+    private final class ReplayStream extends ServletInputStream {
+        private final ServletInputStream rest;
+        private int pos;
+
+        ReplayStream(ServletInputStream rest) {
+            this.rest = rest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return pos < length ? head[pos++] & 0xff : rest.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos < length) {
+                int n = Math.min(len, length - pos);
+                System.arraycopy(head, pos, b, off, n);
+                pos += n;
+                return n;
+            }
+            return rest.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return pos < length ? length - pos : rest.available();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return pos >= length && rest.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return pos < length || rest.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            rest.setReadListener(readListener);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.example.waf.waf;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单次匹配过程中的请求数据，各部分在第一次用到时才小写化/拆分，之后所有规则共用。
+ * 开启计时时累计这些规范化处理的耗时，供分阶段统计从各作用域的耗时中扣除。
+ */
+final class RequestInput {
+    private final RequestView request;
+    private final boolean timed;
+    private long normalizeNanos;
+    private String lowerQuery;
+    private String lowerPath;
+    private String lowerDecodedPath;
+    private List<String> headerLines;
+    private List<String[]> queryArgs;
+    private Map<String, String> headerValues;
+
+    RequestInput(RequestView request) {
+        this(request, false);
+    }
+
+    RequestInput(RequestView request, boolean timed) {
+        this.request = request;
+        this.timed = timed;
+    }
+
+    /** 到目前为止规范化处理的累计耗时，未开启计时时为 0 */
+    long normalizeNanos() {
+        return normalizeNanos;
+    }
+
+    private long clock() {
+        return timed ? System.nanoTime() : 0;
+    }
+
+    private void elapsed(long since) {
+        if (timed) {
+            normalizeNanos += System.nanoTime() - since;
+        }
+    }
+
+    String lowerQuery() {
+        if (lowerQuery == null) {
+            long t = clock();
+            String query = request.getQuery();
+            lowerQuery = query == null ? "" : query.toLowerCase();
+            elapsed(t);
+        }
+        return lowerQuery;
+    }
+
+    String lowerPath() {
+        if (lowerPath == null) {
+            long t = clock();
+            String path = request.getPath();
+            lowerPath = path == null ? "" : path.toLowerCase();
+            elapsed(t);
+        }
+        return lowerPath;
+    }
+
+    /** URL 解码后的小写路径，供检测器规则使用。 */
+    String lowerDecodedPath() {
+        if (lowerDecodedPath == null) {
+            long t = clock();
+            String path = request.getPath();
+            lowerDecodedPath = path == null ? "" : decodePath(path);
+            elapsed(t);
+        }
+        return lowerDecodedPath;
+    }
+
+    /**
+     * 按名称取请求头并小写化，每个名称在一次匹配中只查一次；不存在时返回 null。
+     *
+     * @param lowerName 小写的请求头名称
+     */
+    String headerValue(String lowerName) {
+        if (headerValues == null) {
+            headerValues = new HashMap<>();
+        } else if (headerValues.containsKey(lowerName)) {
+            return headerValues.get(lowerName);
+        }
+        long t = clock();
+        String value = request.getHeader(lowerName);
+        String lower = value == null ? null : value.toLowerCase();
+        headerValues.put(lowerName, lower);
+        elapsed(t);
+        return lower;
+    }
+
+    // 小写的 "name:value" 行
+    List<String> headerLines() {
+        if (headerLines == null) {
+            long t = clock();
+            List<String> lines = new ArrayList<>();
+            request.forEachHeader((name, value) -> lines.add((name + ":" + value).toLowerCase()));
+            headerLines = lines;
+            elapsed(t);
+        }
+        return headerLines;
+    }
+
+    /**
+     * 查询参数拆分并 URL 解码后的小写 {name, value} 对，每个请求只解析一次。
+     */
+    List<String[]> queryArgs() {
+        if (queryArgs == null) {
+            long t = clock();
+            List<String[]> args = new ArrayList<>();
+            String query = request.getQuery();
+            if (query != null && !query.isEmpty()) {
+                int start = 0;
+                while (start <= query.length()) {
+                    int end = query.indexOf('&', start);
+                    if (end < 0) {
+                        end = query.length();
+                    }
+                    if (end > start) {
+                        int eq = query.indexOf('=', start);
+                        String name = eq < 0 || eq > end ? query.substring(start, end) : query.substring(start, eq);
+                        String value = eq < 0 || eq > end ? "" : query.substring(eq + 1, end);
+                        args.add(new String[]{decode(name), decode(value)});
+                    }
+                    start = end + 1;
+                }
+            }
+            queryArgs = args;
+            elapsed(t);
+        }
+        return queryArgs;
+    }
+
+    // 路径中的 '+' 不表示空格，只解码 %XX
+    private static String decodePath(String raw) {
+        if (raw.indexOf('%') < 0) {
+            return raw.toLowerCase();
+        }
+        return decode(raw.replace("+", "%2B"));
+    }
+
+    /**
+     * application/x-www-form-urlencoded 解码并小写化；编码不合法时按原文小写处理，
+     * 避免攻击者用残缺的 % 序列绕过检查。
+     */
+    static String decode(String raw) {
+        if (raw.indexOf('%') < 0 && raw.indexOf('+') < 0) {
+            return raw.toLowerCase();
+        }
+        try {
+            return URLDecoder.decode(raw, "UTF-8").toLowerCase();
+        } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+            return raw.toLowerCase();
+        }
+    }
+}
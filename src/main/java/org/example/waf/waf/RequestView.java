@@ -0,0 +1,28 @@
+package org.example.waf.waf;
+
+import java.util.function.BiConsumer;
+
+/**
+ * 与传输层无关的请求视图。Servlet 过滤器、反向代理、离线评估共用同一套规则引擎，
+ * 各自提供适配实现即可。
+ */
+public interface RequestView {
+
+    String getMethod();
+
+    // Host，可能带端口
+    String getHost();
+
+    // 原始路径（不含查询串）
+    String getPath();
+
+    // 原始查询串，没有时为 null
+    String getQuery();
+
+    String getClientIp();
+
+    // 按名称（不区分大小写）取请求头，没有时为 null
+    String getHeader(String name);
+
+    void forEachHeader(BiConsumer<String, String> action);
+}
@@ -7,6 +7,11 @@ public class Rule {
     private String scope;  // query | path | headers | body
     private boolean enabled;
     private int priority;
+    private RuleCategory category; // 为空时编译期按 pattern 推断
+    private Long applicationId;    // 为空表示全局规则，否则只作用于该应用
+    private Integer score;         // 计分模式下的权重，为空时按动作取默认值
+    private String target;         // 可选，逗号分隔的目标名称：headers 作用域为请求头名，args/json 作用域为参数名/字段名，为空表示不限定
+    private String detector;       // 可选，sqli | xss：用词法检测器代替 pattern 子串匹配，此时 pattern 可为空
 
     public String getId() {
         return id;
@@ -55,7 +60,44 @@ public class Rule {
     public void setPriority(int priority) {
         this.priority = priority;
     }
-}
 
+    public RuleCategory getCategory() {
+        return category;
+    }
+
+    public void setCategory(RuleCategory category) {
+        this.category = category;
+    }
+
+    public Long getApplicationId() {
+        return applicationId;
+    }
 
+    public void setApplicationId(Long applicationId) {
+        this.applicationId = applicationId;
+    }
 
+    public Integer getScore() {
+        return score;
+    }
+
+    public void setScore(Integer score) {
+        this.score = score;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public void setTarget(String target) {
+        this.target = target;
+    }
+
+    public String getDetector() {
+        return detector;
+    }
+
+    public void setDetector(String detector) {
+        this.detector = detector;
+    }
+}
@@ -0,0 +1,117 @@
+package org.example.waf.waf;
+
+/**
+ * 攻击分类。规则在编译时确定分类，命中时以 {@link #getCode()} 的紧凑编码写入事件，
+ * 统计时直接按 {@link #ordinal()} 做数组下标累加，不再逐行做字符串匹配。
+ * 编码一经发布不可修改（已落库），新增分类只能追加新编码。
+ */
+public enum RuleCategory {
+    OTHER(0, "其他"),
+    SQL_INJECTION(1, "SQL注入"),
+    XSS(2, "XSS攻击"),
+    PATH_TRAVERSAL(3, "路径遍历"),
+    FILE_UPLOAD(4, "文件上传"),
+    COMMAND_INJECTION(5, "命令注入"),
+    BRUTE_FORCE(6, "暴力破解"),
+    CSRF(7, "CSRF"),
+    SCANNER(8, "扫描器检测");
+
+    private static final RuleCategory[] BY_CODE;
+
+    static {
+        int max = 0;
+        for (RuleCategory c : values()) {
+            max = Math.max(max, c.code);
+        }
+        BY_CODE = new RuleCategory[max + 1];
+        for (RuleCategory c : values()) {
+            BY_CODE[c.code] = c;
+        }
+    }
+
+    // 未显式声明分类的规则按模式关键字推断（仅在编译规则时执行一次）
+    private static final String[] SQL_KEYWORDS = {"union", "select", "insert", "delete", "drop", "update", "where",
+            "1=1", "outfile", "load_file", "information_schema", "benchmark(", "sleep(", "0x", "hex("};
+    private static final String[] XSS_KEYWORDS = {"script", "alert", "onerror", "onload", "javascript:", "<img",
+            "<iframe", "<svg", "data:text/html"};
+    private static final String[] PATH_KEYWORDS = {"../", "..\\", "/etc/passwd", "proc/self", "windows/system32",
+            "php://", "file://", "dict://", "expect://", "input_file"};
+    private static final String[] COMMAND_KEYWORDS = {"wget", "curl", "powershell", "system(", "exec(", "eval(",
+            "assert(", "jndi:", "ldap://", "rmi://", "${", "shell", "cmd.exe", "bash", "chmod"};
+    private static final String[] UPLOAD_KEYWORDS = {"upload", "writefile", "multipart"};
+
+    private final int code;
+    private final String label;
+
+    RuleCategory(int code, String label) {
+        this.code = code;
+        this.label = label;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public static RuleCategory fromCode(Integer code) {
+        if (code == null || code < 0 || code >= BY_CODE.length || BY_CODE[code] == null) {
+            return OTHER;
+        }
+        return BY_CODE[code];
+    }
+
+    /**
+     * 根据规则模式推断分类，供编译期对未声明 category 的旧规则使用。
+     */
+    public static RuleCategory infer(String pattern) {
+        if (pattern == null || pattern.isEmpty()) {
+            return OTHER;
+        }
+        String p = pattern.toLowerCase();
+        if (containsAny(p, SQL_KEYWORDS)) return SQL_INJECTION;
+        if (containsAny(p, XSS_KEYWORDS)) return XSS;
+        if (containsAny(p, PATH_KEYWORDS)) return PATH_TRAVERSAL;
+        if (containsAny(p, COMMAND_KEYWORDS)) return COMMAND_INJECTION;
+        if (containsAny(p, UPLOAD_KEYWORDS)) return FILE_UPLOAD;
+        return OTHER;
+    }
+
+    /**
+     * 兼容没有 attack_category 编码的历史日志：按规则名称推断分类。
+     * 所有控制器统一走这里，保证同一行数据在各个接口中分类一致。
+     */
+    public static RuleCategory fromRuleName(String ruleName) {
+        if (ruleName == null || ruleName.isEmpty()) {
+            return OTHER;
+        }
+        if (ruleName.contains("SQL")) return SQL_INJECTION;
+        if (ruleName.contains("XSS")) return XSS;
+        if (ruleName.contains("Path") || ruleName.contains("路径")) return PATH_TRAVERSAL;
+        if (ruleName.contains("Upload") || ruleName.contains("上传")) return FILE_UPLOAD;
+        if (ruleName.contains("Command") || ruleName.contains("命令")) return COMMAND_INJECTION;
+        if (ruleName.contains("Brute") || ruleName.contains("暴力")) return BRUTE_FORCE;
+        if (ruleName.contains("CSRF")) return CSRF;
+        if (ruleName.contains("Scanner")) return SCANNER;
+        // WAF 自身写入的日志以规则模式作为名称
+        return infer(ruleName);
+    }
+
+    /**
+     * 日志行的分类：优先使用落库的编码，缺失时才回退到名称推断。
+     */
+    public static RuleCategory of(Integer code, String ruleName) {
+        return code != null ? fromCode(code) : fromRuleName(ruleName);
+    }
+
+    private static boolean containsAny(String s, String[] keywords) {
+        for (String k : keywords) {
+            if (s.contains(k)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
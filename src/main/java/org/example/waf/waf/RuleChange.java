@@ -0,0 +1,12 @@
+package org.example.waf.waf;
+
+/**
+ * 规则增量中的一项：规则的新内容，或删除标记（deleted 为 true 时 rule 为空）。
+ */
+public class RuleChange {
+    public String id;
+    public long revision;
+    public String origin = "";
+    public boolean deleted;
+    public Rule rule;
+}
@@ -0,0 +1,29 @@
+package org.example.waf.waf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 节点对外提供的规则增量：本节点修改序号大于 since 的所有规则和删除标记。
+ *
+ * generation 是本节点当前的修改序号，对端下次以它作为 since；
+ * deltaHash 是 changes 的摘要，接收方重新计算比对，不一致则整批丢弃；
+ * stateHash 是发送方当前全部有效规则的摘要，各节点相同即表示已收敛。
+ * WAF 开关随增量一起同步，只在它本身有变化时 enabled 非空。
+ * acks 是发送方已从各节点合并到的修改序号（节点标识 -> 序号），各节点据此判断删除标记何时可以清理；
+ * signature 是配置了 app.cluster.token 时对以上各字段的 HMAC，由 RuleSyncService 生成和校验。
+ */
+public class RuleDelta {
+    public String node;
+    public long since;
+    public long generation;
+    public String stateHash;
+    public String deltaHash;
+    public Boolean enabled;
+    public long enabledRevision;
+    public String enabledOrigin;
+    public List<RuleChange> changes = new ArrayList<>();
+    public Map<String, Long> acks;
+    public String signature;
+}
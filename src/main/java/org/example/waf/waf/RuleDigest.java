@@ -0,0 +1,91 @@
+package org.example.waf.waf;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 规则同步用的摘要：字段按名称排序、不含空值的紧凑 JSON 再取 SHA-256，
+ * 与序列化时的字段顺序和缩进无关，各节点对同样的内容得到同样的结果。
+ */
+final class RuleDigest {
+    private static final ObjectMapper CANONICAL = JsonMapper.builder()
+            .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+            .serializationInclusion(JsonInclude.Include.NON_NULL)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    private RuleDigest() {
+    }
+
+    /** 规则内容的规范 JSON，用于判断重新加载的文件里规则是否被改过 */
+    static String canonical(Rule rule) {
+        try {
+            return CANONICAL.writeValueAsString(rule);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** 深拷贝，增量在锁外序列化时不受规则对象后续修改的影响 */
+    static Rule copy(Rule rule) {
+        return CANONICAL.convertValue(rule, Rule.class);
+    }
+
+    /** 增量摘要，按发送顺序计算 */
+    static String ofChanges(List<RuleChange> changes) {
+        MessageDigest md = sha256();
+        for (RuleChange c : changes) {
+            update(md, c);
+        }
+        return hex(md.digest());
+    }
+
+    /**
+     * 全部有效规则的摘要：WAF 开关加按 id 排好序的规则内容与版本。
+     *
+     * @param live 已按 id 排序的有效规则（不含删除标记）
+     */
+    static String ofState(boolean enabled, Collection<RuleChange> live) {
+        MessageDigest md = sha256();
+        md.update((byte) (enabled ? 1 : 0));
+        for (RuleChange c : live) {
+            update(md, c);
+        }
+        return hex(md.digest());
+    }
+
+    private static void update(MessageDigest md, RuleChange c) {
+        try {
+            md.update(CANONICAL.writeValueAsBytes(c));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        md.update((byte) '\n');
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -13,18 +13,31 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 @Component
 public class RuleFileStore {
 
     private final ObjectMapper mapper;
     private final Path filePath;
+    // 最近一次读取或写入的规则 JSON 的 SHA-256，规则映像据此判断是否过期
+    private volatile byte[] contentHash;
 
     public static class PersistedConfig {
         public boolean enabled = true;
         public List<Rule> rules = new ArrayList<>();
+        // 多节点同步的版本信息，旧文件没有这些字段时按初始版本处理
+        public String nodeId;
+        public long clock;
+        public long seq;
+        public RuleVersion enabledVersion;
+        public Map<String, RuleVersion> versions = new TreeMap<>();
     }
 
     public RuleFileStore(@Value("${app.waf.rules-file:./data/waf-rules.json}") String file) {
@@ -41,6 +54,7 @@ public class RuleFileStore {
         if (Files.exists(filePath)) {
             byte[] bytes = Files.readAllBytes(filePath);
             if (bytes.length > 0) {
+                contentHash = sha256(bytes);
                 return mapper.readValue(bytes, new TypeReference<PersistedConfig>(){});
             }
         }
@@ -51,6 +65,7 @@ public class RuleFileStore {
             if (resource.exists()) {
                 byte[] bytes = Files.readAllBytes(Paths.get(resource.getURI()));
                 if (bytes.length > 0) {
+                    contentHash = sha256(bytes);
                     return mapper.readValue(bytes, new TypeReference<PersistedConfig>(){});
                 }
             }
@@ -66,7 +81,10 @@ public class RuleFileStore {
         PersistedConfig cfg = new PersistedConfig();
         cfg.enabled = enabled;
         cfg.rules = new ArrayList<>(rules);
-        
+        save(cfg);
+    }
+
+    public void save(PersistedConfig cfg) throws IOException {
         // 确保目录存在
         Path dir = filePath.getParent();
         if (dir != null && !Files.exists(dir)) {
@@ -74,13 +92,36 @@ public class RuleFileStore {
         }
         
         // 写入文件
+        // 先写临时文件再替换，同步频繁保存时读者不会读到写了一半的文件
         byte[] bytes = mapper.writeValueAsBytes(cfg);
-        Files.write(filePath, bytes);
+        Path tmp = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+        Files.write(tmp, bytes);
+        Files.move(tmp, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        contentHash = sha256(bytes);
     }
 
     public Path getFilePath() {
         return filePath;
     }
+
+    /** 编译后规则映像的位置：规则文件旁的同名 .img 文件 */
+    public Path getImagePath() {
+        return filePath.resolveSibling(filePath.getFileName() + ".img");
+    }
+
+    /** 最近一次读取或写入的规则 JSON 内容的 SHA-256，尚未读写过时为 null */
+    public byte[] getContentHash() {
+        byte[] hash = contentHash;
+        return hash == null ? null : hash.clone();
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
 
 
@@ -0,0 +1,241 @@
+package org.example.waf.waf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 规则映像：把编译好的文件内容自动机（完整转移表）存成二进制文件，启动时内存映射后直接当作自动机的表使用，
+ * 不再逐个状态重新构建。规则 JSON 仍是唯一的数据来源，映像只是缓存：记录生成时 JSON 文件的 SHA-256，
+ * JSON 变化后由 {@link WafService} 重新生成；自动机按模式列表的摘要查找，映像过期时其中仍匹配的自动机照样可用。
+ *
+ * 格式（小端）：
+ * <pre>
+ * 头部 64 字节：magic(8) 版本(4) 自动机个数(4) JSON 摘要(32) 正文长度(8) 正文 CRC32(4) 保留(4)
+ * 正文：每个自动机依次为 模式摘要(32) 状态数(4) 输出总数(4) 转移表(状态数×256 个 int)
+ *       输出起始表(状态数+1 个 int) 输出表(输出总数个 int)
+ * </pre>
+ * 所有区段都是 4 字节对齐的 int 序列，映射后直接切片为 IntBuffer。
+ */
+final class RuleImage {
+    private static final long MAGIC = 0x31474d4952464157L; // "WAFRIMG1"
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int HASH_LENGTH = 32;
+
+    private final byte[] sourceHash;
+    private final Map<String, ByteAutomaton> automata;
+
+    private RuleImage(byte[] sourceHash, Map<String, ByteAutomaton> automata) {
+        this.sourceHash = sourceHash;
+        this.automata = automata;
+    }
+
+    /** 生成映像时规则 JSON 文件的 SHA-256 */
+    byte[] getSourceHash() {
+        return sourceHash.clone();
+    }
+
+    /** 模式摘要（{@link ByteAutomaton#key}）到自动机，自动机的表直接引用映射区 */
+    Map<String, ByteAutomaton> automata() {
+        return automata;
+    }
+
+    /**
+     * 映射并校验映像，文件不存在时返回 null；格式、版本或校验和不符时抛出 IOException。
+     */
+    static RuleImage load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        MappedByteBuffer mapped;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER || ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("映像大小不正确: " + ch.size());
+            }
+            // 映射在通道关闭后仍然有效
+            mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        ByteBuffer buf = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.getLong(0) != MAGIC) {
+            throw new IOException("不是规则映像文件");
+        }
+        if (buf.getInt(8) != VERSION) {
+            throw new IOException("映像版本不支持: " + buf.getInt(8));
+        }
+        int count = buf.getInt(12);
+        byte[] sourceHash = new byte[HASH_LENGTH];
+        buf.position(16);
+        buf.get(sourceHash);
+        long bodyLength = buf.getLong(48);
+        if (bodyLength != buf.capacity() - HEADER) {
+            throw new IOException("映像长度不符，文件可能被截断");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(slice(buf, HEADER, (int) bodyLength));
+        if ((int) crc.getValue() != buf.getInt(56)) {
+            throw new IOException("映像校验和不符");
+        }
+
+        Map<String, ByteAutomaton> automata = new LinkedHashMap<>();
+        int pos = HEADER;
+        for (int i = 0; i < count; i++) {
+            if (buf.capacity() - pos < HASH_LENGTH + 8) {
+                throw new IOException("映像内容不完整");
+            }
+            byte[] key = new byte[HASH_LENGTH];
+            buf.position(pos);
+            buf.get(key);
+            int states = buf.getInt(pos + HASH_LENGTH);
+            int outputs = buf.getInt(pos + HASH_LENGTH + 4);
+            pos += HASH_LENGTH + 8;
+            long ints = (long) states * 256 + states + 1 + outputs;
+            if (states <= 0 || outputs < 0 || ints * 4 > buf.capacity() - pos) {
+                throw new IOException("映像内容不完整");
+            }
+            IntBuffer next = slice(buf, pos, states * 256 * 4).asIntBuffer();
+            pos += states * 256 * 4;
+            IntBuffer outStart = slice(buf, pos, (states + 1) * 4).asIntBuffer();
+            pos += (states + 1) * 4;
+            IntBuffer outData = slice(buf, pos, outputs * 4).asIntBuffer();
+            pos += outputs * 4;
+            checkTables(states, outputs, next, outStart);
+            automata.put(hex(key), ByteAutomaton.of(next, outStart, outData));
+        }
+        return new RuleImage(sourceHash, Collections.unmodifiableMap(automata));
+    }
+
+    /**
+     * 校验和只能发现损坏，不能保证表的内容合法（例如写映像的程序有缺陷）。匹配时按表直接跳转、不做边界检查，
+     * 所以载入时逐项检查一遍：跳转目标都在 [0, states) 内，输出起点从 0 开始单调不减且不超过输出表长度。
+     * 任何一项不符都拒绝整个映像，由调用方重新生成。
+     */
+    private static void checkTables(int states, int outputs, IntBuffer next, IntBuffer outStart) throws IOException {
+        for (int i = 0, n = next.limit(); i < n; i++) {
+            int target = next.get(i);
+            if (target < 0 || target >= states) {
+                throw new IOException("映像跳转表越界: 状态 " + (i >>> 8) + " 跳转到 " + target);
+            }
+        }
+        if (outStart.get(0) != 0) {
+            throw new IOException("映像输出表起点不为 0");
+        }
+        for (int s = 0; s < states; s++) {
+            int from = outStart.get(s);
+            int to = outStart.get(s + 1);
+            if (to < from || to > outputs) {
+                throw new IOException("映像输出表越界: 状态 " + s + " 的输出区间 [" + from + ", " + to + ")");
+            }
+        }
+    }
+
+    /**
+     * 写入映像：先写临时文件，算好校验和后补写头部，再原子替换，读者不会映射到写了一半的文件。
+     */
+    static void write(Path file, byte[] sourceHash, Map<String, ByteAutomaton> automata) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) {
+            Files.createDirectories(dir);
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        long bodyLength = 0;
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer chunk = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            ch.position(HEADER);
+            for (Map.Entry<String, ByteAutomaton> e : automata.entrySet()) {
+                ByteAutomaton a = e.getValue();
+                IntBuffer outData = a.outputData();
+                chunk.put(unhex(e.getKey())).putInt(a.states()).putInt(outData.remaining());
+                for (IntBuffer ints : new IntBuffer[]{a.transitions(), a.outputStarts(), outData}) {
+                    while (ints.hasRemaining()) {
+                        if (chunk.remaining() < 4) {
+                            bodyLength += flush(ch, chunk, crc);
+                        }
+                        int n = Math.min(ints.remaining(), chunk.remaining() / 4);
+                        IntBuffer part = ints.slice();
+                        part.limit(n);
+                        chunk.asIntBuffer().put(part);
+                        ints.position(ints.position() + n);
+                        chunk.position(chunk.position() + n * 4);
+                    }
+                }
+                if (chunk.remaining() < HASH_LENGTH + 8) {
+                    bodyLength += flush(ch, chunk, crc);
+                }
+            }
+            bodyLength += flush(ch, chunk, crc);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(MAGIC).putInt(VERSION).putInt(automata.size()).put(Arrays.copyOf(sourceHash, HASH_LENGTH))
+                    .putLong(bodyLength).putInt((int) crc.getValue()).putInt(0);
+            header.flip();
+            while (header.hasRemaining()) {
+                ch.write(header, HEADER - header.remaining());
+            }
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 自动机没有变化、只是规则 JSON 变了（如改了其他作用域的规则）时，只改写头部记录的 JSON 摘要。
+     * 头部不在校验范围内；写到一半中断只会导致下次启动时摘要不符而整体重建。
+     */
+    static void restamp(Path file, byte[] sourceHash) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer hash = ByteBuffer.wrap(Arrays.copyOf(sourceHash, HASH_LENGTH));
+            while (hash.hasRemaining()) {
+                ch.write(hash, 16 + hash.position());
+            }
+        }
+    }
+
+    private static int flush(FileChannel ch, ByteBuffer chunk, CRC32 crc) throws IOException {
+        chunk.flip();
+        int n = chunk.remaining();
+        crc.update(chunk.duplicate());
+        while (chunk.hasRemaining()) {
+            ch.write(chunk);
+        }
+        chunk.clear();
+        return n;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int offset, int length) {
+        ByteBuffer dup = buf.duplicate();
+        dup.limit(offset + length);
+        dup.position(offset);
+        // slice 之后字节序会重置为大端
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] unhex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,45 @@
+package org.example.waf.waf;
+
+/**
+ * 规则作用域。规则文件中以小写字符串保存，未知作用域的规则在编译时跳过。
+ */
+enum RuleScope {
+    QUERY,
+    PATH,
+    HEADERS,
+    ARGS,   // 查询参数和表单参数，逐个名称/值匹配
+    JSON,   // JSON 请求体中的字段名/标量值
+    // multipart 上传的文件部分，target 限定表单字段名
+    FILENAME,       // 上传文件名
+    FILE_TYPE,      // 部分声明的 Content-Type
+    FILE_MAGIC,     // 文件开头的魔数：文本前缀，或 "hex:" 开头的十六进制字节
+    FILE_CONTENT;   // 文件内容，流式多模式匹配
+
+    static RuleScope of(String scope) {
+        if (scope == null) {
+            return null;
+        }
+        switch (scope) {
+            case "query":
+                return QUERY;
+            case "path":
+                return PATH;
+            case "headers":
+                return HEADERS;
+            case "args":
+                return ARGS;
+            case "json":
+                return JSON;
+            case "filename":
+                return FILENAME;
+            case "file_type":
+                return FILE_TYPE;
+            case "file_magic":
+                return FILE_MAGIC;
+            case "file_content":
+                return FILE_CONTENT;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,510 @@
+package org.example.waf.waf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 不可变的已编译规则集。规则变更时由 {@link WafService} 整体重建并原子替换，
+ * 过滤器每个请求只做一次 volatile 读，无需加锁。
+ *
+ * 两种匹配模式：
+ * <ul>
+ *     <li>首个命中（blockThreshold &lt;= 0）：按优先级返回第一条命中规则，动作取该规则的动作；</li>
+ *     <li>计分：命中的 block/log 规则权重累加，达到阈值即拦截，未达阈值但有命中则记录。
+ *     规则按权重从高到低检查，总分达到阈值或剩余规则全部命中也达不到阈值时提前结束；
+ *     allow 规则作为白名单先于计分检查。</li>
+ * </ul>
+ *
+ * 指定了请求头名称的 headers 规则按名称建索引：每个被引用的请求头只取一次值，只运行该头上的规则；
+ * 未指定名称的规则仍对所有 "name:value" 行匹配。
+ *
+ * args 规则逐个检查 URL 解码后的参数名和值（查询参数在请求头阶段，表单参数在请求体阶段），
+ * json 规则检查 JSON 请求体中的字段；两者都可以用 target 限定参数名，限定后按名称建索引。
+ * multipart 请求体中普通字段按 args 规则检查，文件部分按 filename / file_type / file_magic / file_content 规则检查。
+ */
+public final class RuleSnapshot {
+    public static final RuleSnapshot EMPTY = compile(Collections.emptyList());
+
+    private final CompiledRule[] queryRules;
+    private final CompiledRule[] pathRules;
+    private final CompiledRule[] headerRules;           // 任意请求头
+    private final String[] indexedHeaderNames;          // 小写请求头名
+    private final CompiledRule[][] indexedHeaderRules;  // 与名称一一对应，各自按优先级排序
+    private final ArgRuleIndex argRules;                // 查询参数 + 表单参数
+    private final ArgRuleIndex jsonRules;               // 只在请求体阶段检查
+    private final MultipartRules multipartRules;
+    private final CompiledRule[] all;
+
+    // 计分模式
+    private final int blockThreshold;
+    private final CompiledRule[] allowRules;
+    private final CompiledRule[] scoredRules;   // 按权重降序
+    private final long[] remainingScore;        // remainingScore[i] = scoredRules[i..] 的权重和
+
+    private RuleSnapshot(CompiledRule[] queryRules, CompiledRule[] pathRules, CompiledRule[] headerRules,
+                         Map<String, List<CompiledRule>> headerIndex, ArgRuleIndex argRules, ArgRuleIndex jsonRules,
+                         MultipartRules multipartRules, CompiledRule[] all, int blockThreshold, CompiledRule[] allowRules, CompiledRule[] scoredRules) {
+        this.queryRules = queryRules;
+        this.pathRules = pathRules;
+        this.headerRules = headerRules;
+        this.indexedHeaderNames = headerIndex.keySet().toArray(new String[0]);
+        this.indexedHeaderRules = new CompiledRule[indexedHeaderNames.length][];
+        for (int i = 0; i < indexedHeaderNames.length; i++) {
+            indexedHeaderRules[i] = headerIndex.get(indexedHeaderNames[i]).toArray(new CompiledRule[0]);
+        }
+        this.argRules = argRules;
+        this.jsonRules = jsonRules;
+        this.multipartRules = multipartRules;
+        this.all = all;
+        this.blockThreshold = blockThreshold;
+        this.allowRules = allowRules;
+        this.scoredRules = scoredRules;
+        this.remainingScore = new long[scoredRules.length + 1];
+        for (int i = scoredRules.length - 1; i >= 0; i--) {
+            remainingScore[i] = remainingScore[i + 1] + scoredRules[i].getScore();
+        }
+    }
+
+    public static RuleSnapshot compile(List<Rule> rules) {
+        return compile(rules, 0);
+    }
+
+    /**
+     * 编译规则：跳过禁用、空模式（检测器规则除外）、未知检测器和未知作用域的规则，按优先级排序后分作用域存放。
+     *
+     * @param blockThreshold 计分模式的拦截阈值，&lt;= 0 表示首个命中模式
+     */
+    public static RuleSnapshot compile(List<Rule> rules, int blockThreshold) {
+        return compile(rules, blockThreshold, ByteAutomaton::build);
+    }
+
+    /**
+     * @param automata 文件内容规则的自动机来源，{@link WafService} 借此复用规则映像中已构建好的自动机
+     */
+    static RuleSnapshot compile(List<Rule> rules, int blockThreshold, Function<List<byte[]>, ByteAutomaton> automata) {
+        List<Rule> sorted = new ArrayList<>();
+        for (Rule r : rules) {
+            if (r != null && r.isEnabled() && RuleScope.of(r.getScope()) != null && isMatchable(r)) {
+                sorted.add(r);
+            }
+        }
+        sorted.sort((a, b) -> Integer.compare(a.getPriority(), b.getPriority()));
+
+        List<CompiledRule> query = new ArrayList<>();
+        List<CompiledRule> path = new ArrayList<>();
+        List<CompiledRule> headers = new ArrayList<>();
+        Map<String, List<CompiledRule>> headerIndex = new LinkedHashMap<>();
+        List<CompiledRule> args = new ArrayList<>();
+        List<CompiledRule> json = new ArrayList<>();
+        List<CompiledRule> upload = new ArrayList<>();
+        List<CompiledRule> all = new ArrayList<>();
+        List<CompiledRule> allow = new ArrayList<>();
+        List<CompiledRule> scored = new ArrayList<>();
+        int index = 0;
+        for (Rule r : sorted) {
+            CompiledRule c = new CompiledRule(index++, r);
+            all.add(c);
+            switch (RuleScope.of(r.getScope())) {
+                case QUERY:
+                    query.add(c);
+                    break;
+                case PATH:
+                    path.add(c);
+                    break;
+                case ARGS:
+                    args.add(c);
+                    break;
+                case JSON:
+                    json.add(c);
+                    break;
+                case FILENAME:
+                case FILE_TYPE:
+                case FILE_MAGIC:
+                case FILE_CONTENT:
+                    upload.add(c);
+                    break;
+                default:
+                    if (c.targets().length == 0) {
+                        headers.add(c);
+                    } else {
+                        for (String name : c.targets()) {
+                            headerIndex.computeIfAbsent(name, k -> new ArrayList<>()).add(c);
+                        }
+                    }
+                    break;
+            }
+            if ("allow".equals(c.getAction())) {
+                allow.add(c);
+            } else {
+                scored.add(c);
+            }
+        }
+        // 同权重保持优先级顺序，最先命中的即为得分最高的规则
+        scored.sort((a, b) -> a.getScore() != b.getScore()
+                ? Integer.compare(b.getScore(), a.getScore()) : Integer.compare(a.getIndex(), b.getIndex()));
+        return new RuleSnapshot(query.toArray(new CompiledRule[0]), path.toArray(new CompiledRule[0]),
+                headers.toArray(new CompiledRule[0]), headerIndex, new ArgRuleIndex(args), new ArgRuleIndex(json),
+                new MultipartRules(args, upload, automata), all.toArray(new CompiledRule[0]), blockThreshold,
+                allow.toArray(new CompiledRule[0]), scored.toArray(new CompiledRule[0]));
+    }
+
+    private static boolean isMatchable(Rule r) {
+        boolean hasDetector = r.getDetector() != null && !r.getDetector().trim().isEmpty();
+        if (!hasDetector) {
+            return r.getPattern() != null && !r.getPattern().isEmpty();
+        }
+        // 文件内容/魔数按字节匹配，不支持检测器
+        RuleScope scope = RuleScope.of(r.getScope());
+        return Detector.of(r.getDetector()) != null && scope != RuleScope.FILE_MAGIC && scope != RuleScope.FILE_CONTENT;
+    }
+
+    public int size() {
+        return all.length;
+    }
+
+    public int getBlockThreshold() {
+        return blockThreshold;
+    }
+
+    /**
+     * 全部已编译规则，按全局优先级顺序（下标即 {@link CompiledRule#getIndex()}）。
+     */
+    public List<CompiledRule> rules() {
+        return Collections.unmodifiableList(Arrays.asList(all));
+    }
+
+    /**
+     * 只检查请求行和请求头（含查询参数），用于没有请求体或不检查请求体的场景。
+     */
+    public MatchResult match(RequestView request) {
+        return evaluate(request).result();
+    }
+
+    /**
+     * 完成请求头阶段的匹配，返回的评估状态可以继续喂入请求体参数（见 {@link BodyInspection}）。
+     */
+    Evaluation evaluate(RequestView request) {
+        return evaluate(request, null);
+    }
+
+    /**
+     * @param metrics 非空时按作用域分阶段计时，结束后并入统计
+     */
+    Evaluation evaluate(RequestView request, FilterMetrics metrics) {
+        Evaluation e = new Evaluation(this, new RequestInput(request, metrics != null),
+                metrics == null ? null : new long[FilterMetrics.Stage.values().length]);
+        if (blockThreshold > 0) {
+            e.scoreHeaders();
+        } else {
+            e.firstMatchHeaders();
+        }
+        if (metrics != null) {
+            e.stageNanos[FilterMetrics.Stage.NORMALIZE.ordinal()] = e.input.normalizeNanos();
+            metrics.recordStages(e.stageNanos);
+        }
+        return e;
+    }
+
+    ArgRuleIndex argRules() {
+        return argRules;
+    }
+
+    ArgRuleIndex jsonRules() {
+        return jsonRules;
+    }
+
+    MultipartRules multipartRules() {
+        return multipartRules;
+    }
+
+    private static CompiledRule firstHit(CompiledRule[] rules, RequestInput input, int bound) {
+        for (CompiledRule r : rules) {
+            if (r.getIndex() >= bound) {
+                break;
+            }
+            if (r.matches(input)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 单个请求的匹配状态。请求头阶段结束后，请求体中的参数可以逐个喂入，
+     * 两种模式都在结果已无法改变时标记为已确定，调用方据此停止读取请求体。
+     */
+    static final class Evaluation {
+        private final RuleSnapshot snapshot;
+        private final RequestInput input;
+        // 首个命中模式
+        private CompiledRule best;
+        private int bound = Integer.MAX_VALUE;
+        // 计分模式
+        private CompiledRule allowed;
+        private CompiledRule top;
+        private long total;
+        private boolean[] fired;      // 按规则下标，同一规则在一个请求中只计一次分
+        private long remainingBody;   // 请求体阶段尚未命中的规则权重和
+        private boolean decided;
+        private boolean exhausted;    // 计分规则已到不了阈值（结果至多为 log），只剩 allow 规则可能改变结果
+        // 分阶段计时：按 FilterMetrics.Stage 序号累计请求头阶段耗时，未开启时为 null
+        private final long[] stageNanos;
+        private long normalizedSeen;
+
+        private Evaluation(RuleSnapshot snapshot, RequestInput input, long[] stageNanos) {
+            this.snapshot = snapshot;
+            this.input = input;
+            this.stageNanos = stageNanos;
+        }
+
+        private long clock() {
+            return stageNanos == null ? 0 : System.nanoTime();
+        }
+
+        /**
+         * 把 since 以来的耗时记到 stage 上（扣除其间的规范化耗时，那部分单独统计），返回当前时钟；
+         * stage 为 null 时只推进时钟。
+         */
+        private long lap(FilterMetrics.Stage stage, long since) {
+            if (stageNanos == null) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            long normalized = input.normalizeNanos();
+            if (stage != null) {
+                stageNanos[stage.ordinal()] += Math.max(1, now - since - (normalized - normalizedSeen));
+            }
+            normalizedSeen = normalized;
+            return now;
+        }
+
+        private boolean scoring() {
+            return snapshot.blockThreshold > 0;
+        }
+
+        /**
+         * 按优先级找第一条命中的规则（与动作无关）。
+         * 各作用域内规则已按优先级排序，后扫描的作用域只需检查优先级更高的规则。
+         */
+        private void firstMatchHeaders() {
+            RuleSnapshot s = snapshot;
+            long t = clock();
+            hit(firstHit(s.queryRules, input, bound));
+            t = lap(FilterMetrics.Stage.QUERY, t);
+            hit(firstHit(s.pathRules, input, bound));
+            t = lap(FilterMetrics.Stage.PATH, t);
+            hit(firstHit(s.headerRules, input, bound));
+
+            for (int i = 0; i < s.indexedHeaderNames.length; i++) {
+                CompiledRule[] rules = s.indexedHeaderRules[i];
+                if (rules[0].getIndex() >= bound) {
+                    continue;
+                }
+                String value = input.headerValue(s.indexedHeaderNames[i]);
+                if (value == null) {
+                    continue;
+                }
+                for (CompiledRule r : rules) {
+                    if (r.getIndex() >= bound) {
+                        break;
+                    }
+                    if (r.test(value)) {
+                        hit(r);
+                        break;
+                    }
+                }
+            }
+            t = lap(FilterMetrics.Stage.HEADERS, t);
+
+            if (!s.argRules.isEmpty() && s.argRules.minIndex() < bound) {
+                for (String[] arg : input.queryArgs()) {
+                    hit(s.argRules.firstHit(arg[0], arg[1], bound, false));
+                }
+                lap(FilterMetrics.Stage.ARGS, t);
+            }
+        }
+
+        private void hit(CompiledRule r) {
+            if (r != null) {
+                best = r;
+                bound = r.getIndex();
+            }
+        }
+
+        private void scoreHeaders() {
+            RuleSnapshot s = snapshot;
+            for (CompiledRule r : s.allowRules) {
+                if (timedMatch(r)) {
+                    allowed = r;
+                    decided = true;
+                    return;
+                }
+            }
+            for (int i = 0; i < s.scoredRules.length; i++) {
+                CompiledRule r = s.scoredRules[i];
+                if (!timedMatch(r)) {
+                    continue;
+                }
+                fire(r);
+                if (total >= s.blockThreshold) {
+                    decided = true;
+                    return;
+                }
+                // 剩余规则（包括请求体阶段的规则）全部命中也到不了阈值，不必再查计分规则；
+                // 请求体阶段的 allow 规则仍可能放行，是否已确定交给 isDecided 按作用域判断
+                if (total + s.remainingScore[i + 1] < s.blockThreshold) {
+                    exhausted = true;
+                    return;
+                }
+            }
+        }
+
+        // 计分模式按权重顺序混合检查各作用域的规则，逐条计时后按作用域归类
+        private boolean timedMatch(CompiledRule r) {
+            if (stageNanos == null) {
+                return r.matches(input);
+            }
+            long t = System.nanoTime();
+            boolean matched = r.matches(input);
+            lap(FilterMetrics.Stage.of(r.scopeKind()), t);
+            return matched;
+        }
+
+        private void fire(CompiledRule r) {
+            if (top == null || r.getScore() > top.getScore()) {
+                top = r;
+            }
+            total += r.getScore();
+            // 查询参数里已命中的 args 规则，请求体阶段不再重复计分
+            if (fired == null) {
+                fired = new boolean[snapshot.all.length];
+            }
+            fired[r.getIndex()] = true;
+        }
+
+        /**
+         * 请求体阶段开始前调用：结果已确定或该类参数没有规则时返回 false，无需读取请求体。
+         */
+        boolean beginBody(ArgRuleIndex rules) {
+            if (rules.isEmpty() || isDecided(rules)) {
+                return false;
+            }
+            if (scoring()) {
+                remainingBody = 0;
+                for (CompiledRule r : rules.all()) {
+                    if (!"allow".equals(r.getAction()) && !isFired(r)) {
+                        remainingBody += r.getScore();
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 喂入请求体中的一个参数（名称、值均已小写），名称和值都参与匹配。
+         */
+        void onArg(ArgRuleIndex rules, String lowerName, String lowerValue) {
+            onParam(rules, lowerName, lowerValue, false);
+        }
+
+        /**
+         * 只匹配值，名称只用于目标限定（上传文件名、文件类型等）。
+         */
+        void onValue(ArgRuleIndex rules, String lowerName, String lowerValue) {
+            onParam(rules, lowerName, lowerValue, true);
+        }
+
+        /**
+         * 外部已确认命中的规则（魔数、内容自动机），这里只检查目标限定。
+         */
+        void onHit(CompiledRule r, String lowerName) {
+            if (!r.targets(lowerName)) {
+                return;
+            }
+            if (!scoring()) {
+                if (r.getIndex() < bound) {
+                    hit(r);
+                }
+            } else if (!decided && !isFired(r)) {
+                scoreHit(r);
+            }
+        }
+
+        private void onParam(ArgRuleIndex rules, String lowerName, String lowerValue, boolean valueOnly) {
+            if (!scoring()) {
+                hit(rules.firstHit(lowerName, lowerValue, bound, valueOnly));
+                return;
+            }
+            if (decided) {
+                return;
+            }
+            scoreParam(rules.untargeted(), lowerName, lowerValue, valueOnly);
+            if (!decided) {
+                scoreParam(rules.targeting(lowerName), lowerName, lowerValue, valueOnly);
+            }
+        }
+
+        private void scoreParam(CompiledRule[] rules, String lowerName, String lowerValue, boolean valueOnly) {
+            for (CompiledRule r : rules) {
+                if (isFired(r) || (exhausted && !"allow".equals(r.getAction()))) {
+                    continue;
+                }
+                if (valueOnly ? r.matchesValue(lowerName, lowerValue) : r.matchesArg(lowerName, lowerValue)) {
+                    scoreHit(r);
+                    if (decided) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void scoreHit(CompiledRule r) {
+            if ("allow".equals(r.getAction())) {
+                allowed = r;
+                decided = true;
+                return;
+            }
+            if (exhausted) {
+                return;
+            }
+            fire(r);
+            remainingBody -= r.getScore();
+            int threshold = snapshot.blockThreshold;
+            if (total >= threshold) {
+                decided = true;
+            } else if (total + remainingBody < threshold) {
+                exhausted = true;
+            }
+        }
+
+        private boolean isFired(CompiledRule r) {
+            return fired != null && fired[r.getIndex()];
+        }
+
+        /**
+         * 请求体中剩余的参数已无法改变结果。计分模式下到不了阈值后，只要该作用域还有 allow 规则就继续检查。
+         */
+        boolean isDecided(ArgRuleIndex rules) {
+            return scoring() ? decided || (exhausted && !rules.hasAllow()) : bound <= rules.minIndex();
+        }
+
+        MatchResult result() {
+            if (!scoring()) {
+                return best == null ? MatchResult.NONE : best.firstMatch();
+            }
+            if (allowed != null) {
+                return allowed.firstMatch();
+            }
+            if (top == null) {
+                return MatchResult.NONE;
+            }
+            int score = (int) Math.min(total, Integer.MAX_VALUE);
+            return new MatchResult(top, total >= snapshot.blockThreshold ? "block" : "log", score);
+        }
+    }
+}
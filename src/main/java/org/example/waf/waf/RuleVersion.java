@@ -0,0 +1,33 @@
+package org.example.waf.waf;
+
+/**
+ * 单条规则（或删除标记）的版本信息，多节点同步时用来判断谁的修改更新。
+ *
+ * revision 是 Lamport 时钟：本地修改取本节点时钟加一，合并远端修改时时钟推进到不小于对方；
+ * revision 相同按 origin（节点标识）比较，保证各节点对同一组修改得出相同的结果。
+ * seq 是本节点内部的修改序号（本地修改和合并进来的修改都会分配），对端按它增量拉取，不参与比较。
+ */
+public class RuleVersion {
+    public long revision;
+    public String origin = "";
+    public long seq;
+    public boolean deleted;
+
+    public RuleVersion() {
+    }
+
+    RuleVersion(long revision, String origin, long seq, boolean deleted) {
+        this.revision = revision;
+        this.origin = origin == null ? "" : origin;
+        this.seq = seq;
+        this.deleted = deleted;
+    }
+
+    /** 本版本是否比 (revision, origin) 新 */
+    boolean isNewerThan(long otherRevision, String otherOrigin) {
+        if (revision != otherRevision) {
+            return revision > otherRevision;
+        }
+        return origin.compareTo(otherOrigin == null ? "" : otherOrigin) > 0;
+    }
+}
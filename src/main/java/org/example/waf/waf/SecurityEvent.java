@@ -0,0 +1,96 @@
+package org.example.waf.waf;
+
+import org.example.waf.domain.DbLog;
+import org.example.waf.domain.GeoRegion;
+
+import java.util.Date;
+
+/**
+ * 规则命中时在请求线程上生成的轻量事件，由 {@link SecurityEventRecorder} 异步落库。
+ * 分类在命中时以编码形式写入，下游统计无需再解析规则名称。
+ */
+public class SecurityEvent {
+    private final long timestamp;
+    private final String requestId;
+    private final String clientIp;
+    private final String method;
+    private final String url;
+    private final String userAgent;
+    private final String ruleId;
+    private final String ruleName;
+    private final String action;
+    private final int categoryCode;
+    private final int threatScore;
+    private int statusCode;
+    private double requestTimeMs;
+    private GeoRegion region = GeoRegion.UNKNOWN;
+
+    public SecurityEvent(long timestamp, String requestId, String clientIp, String method, String url,
+                         String userAgent, MatchResult match) {
+        this.timestamp = timestamp;
+        this.requestId = requestId;
+        this.clientIp = clientIp;
+        this.method = method;
+        this.url = url;
+        this.userAgent = userAgent;
+        CompiledRule rule = match.getRule();
+        this.ruleId = rule.getId();
+        this.ruleName = rule.getPattern();
+        this.action = match.getAction();
+        this.categoryCode = rule.getCategory().getCode();
+        this.threatScore = match.getScore();
+    }
+
+    public long getTimestamp() { return timestamp; }
+    public String getRequestId() { return requestId; }
+    public String getClientIp() { return clientIp; }
+    public String getMethod() { return method; }
+    public String getUrl() { return url; }
+    public String getUserAgent() { return userAgent; }
+    public String getRuleId() { return ruleId; }
+    public String getRuleName() { return ruleName; }
+    public String getAction() { return action; }
+    public int getCategoryCode() { return categoryCode; }
+    public RuleCategory getCategory() { return RuleCategory.fromCode(categoryCode); }
+    public int getThreatScore() { return threatScore; }
+    public int getStatusCode() { return statusCode; }
+    public void setStatusCode(int statusCode) { this.statusCode = statusCode; }
+    public double getRequestTimeMs() { return requestTimeMs; }
+    public void setRequestTimeMs(double requestTimeMs) { this.requestTimeMs = requestTimeMs; }
+    public GeoRegion getRegion() { return region; }
+    public void setRegion(GeoRegion region) { this.region = region; }
+
+    /**
+     * 转为数据库实体。各字符串按 create_log_table.sql 中的列宽截断：超长的值（如规则模式作为 rule_name）
+     * 在严格 SQL 模式下会让整批写入失败。
+     */
+    public DbLog toDbLog() {
+        DbLog log = new DbLog();
+        Date ts = new Date(timestamp);
+        log.setLogTimestamp(ts);
+        log.setLogLevel("attack");
+        log.setClientIp(truncate(clientIp, 50));
+        log.setHttpMethod(truncate(method, 10));
+        log.setUrl(truncate(url, 255));
+        log.setStatusCode(statusCode);
+        log.setUserAgent(userAgent);
+        log.setRuleId(truncate(ruleId, 50));
+        log.setRuleName(truncate(ruleName, 100));
+        log.setActionTaken(truncate(action, 20));
+        log.setAttackCategory(categoryCode);
+        log.setThreatScore(threatScore);
+        log.setRequestTime(requestTimeMs);
+        if (region.isKnown()) {
+            log.setCountryCode(truncate(region.getCountryCode(), 10));
+            log.setProvince(truncate(region.getProvince(), 50));
+            log.setCity(truncate(region.getCity(), 50));
+        }
+        log.setRequestId(truncate(requestId, 50));
+        log.setCreatedAt(ts);
+        return log;
+    }
+
+    private static String truncate(String s, int max) {
+        return s != null && s.length() > max ? s.substring(0, max) : s;
+    }
+}
@@ -0,0 +1,140 @@
+package org.example.waf.waf;
+
+import org.example.waf.DbLogRepository;
+import org.example.waf.domain.DbLog;
+import org.example.waf.events.EventStore;
+import org.example.waf.search.AttackLogIndex;
+import org.example.waf.service.GeoIpService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 安全事件异步落库：请求线程只做一次非阻塞 offer，后台线程批量写入 waf_security_logs。
+ * 队列满时丢弃事件并计数，绝不阻塞被保护的业务请求。
+ * 启用内嵌事件存储（{@link EventStore}）时同一批事件也追加到本地列式段，供不依赖数据库的统计查询。
+ * 落库成功（拿到 id）后再写入攻击日志倒排索引（{@link AttackLogIndex}）。
+ * 整批写入失败时逐条重试，只丢弃本身写不进去的事件，不连累同批的其他事件。
+ */
+@Component
+public class SecurityEventRecorder {
+    private static final Logger logger = LoggerFactory.getLogger(SecurityEventRecorder.class);
+    private static final int BATCH_SIZE = 500;
+
+    private final BlockingQueue<SecurityEvent> queue;
+    private final DbLogRepository dbLogRepository;
+    private final GeoIpService geoIpService;
+    private final EventStore eventStore;
+    private final AttackLogIndex attackLogIndex;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public SecurityEventRecorder(DbLogRepository dbLogRepository, GeoIpService geoIpService, EventStore eventStore,
+                                 AttackLogIndex attackLogIndex,
+                                 @Value("${app.waf.events.queue-capacity:10000}") int capacity) {
+        this.dbLogRepository = dbLogRepository;
+        this.geoIpService = geoIpService;
+        this.eventStore = eventStore;
+        this.attackLogIndex = attackLogIndex;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::drainLoop, "waf-event-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public void record(SecurityEvent event) {
+        // 入队时补全归属地：一次内存二分查找，落库线程无需再查
+        event.setRegion(geoIpService.lookup(event.getClientIp()));
+        if (!queue.offer(event)) {
+            long n = dropped.incrementAndGet();
+            if ((n & 1023) == 1) {
+                logger.warn("安全事件队列已满，累计丢弃{}条", n);
+            }
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void drainLoop() {
+        List<SecurityEvent> batch = new ArrayList<>(BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                SecurityEvent first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<SecurityEvent> batch) {
+        List<DbLog> logs = new ArrayList<>(batch.size());
+        for (SecurityEvent e : batch) {
+            logs.add(e.toDbLog());
+            if (eventStore.isEnabled()) {
+                eventStore.append(e.getTimestamp(), e.getClientIp(), e.getRuleId(), e.getAction(), e.getCategoryCode(),
+                        e.getStatusCode(), e.getThreatScore(), (int) Math.round(e.getRequestTimeMs() * 1000));
+            }
+        }
+        try {
+            attackLogIndex.addAll(dbLogRepository.saveAll(logs));
+        } catch (Exception e) {
+            logger.warn("批量写入安全事件失败，逐条重试{}条: {}", logs.size(), e.getMessage());
+            saveOneByOne(batch);
+        }
+    }
+
+    // saveAll 在同一事务中，失败时整批回滚；实体可能已被赋予 id，重试时重新生成实体。
+    // 开头几条全部失败多半是数据库不可用，不再逐条等待超时，整批放弃
+    private void saveOneByOne(List<SecurityEvent> batch) {
+        List<DbLog> saved = new ArrayList<>(batch.size());
+        int failed = 0;
+        String lastError = null;
+        for (SecurityEvent e : batch) {
+            if (saved.isEmpty() && failed == 3) {
+                failed = batch.size();
+                break;
+            }
+            try {
+                saved.add(dbLogRepository.save(e.toDbLog()));
+            } catch (Exception ex) {
+                failed++;
+                lastError = ex.getMessage();
+            }
+        }
+        attackLogIndex.addAll(saved);
+        if (failed > 0) {
+            logger.error("写入安全事件失败，丢弃{}条（共{}条）: {}", failed, batch.size(), lastError);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+    }
+}
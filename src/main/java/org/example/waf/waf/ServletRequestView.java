@@ -0,0 +1,61 @@
+package org.example.waf.waf;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Enumeration;
+import java.util.function.BiConsumer;
+
+/**
+ * {@link HttpServletRequest} 的只读适配，不复制任何数据。
+ */
+public class ServletRequestView implements RequestView {
+    private final HttpServletRequest request;
+
+    public ServletRequestView(HttpServletRequest request) {
+        this.request = request;
+    }
+
+    @Override
+    public String getMethod() {
+        return request.getMethod();
+    }
+
+    @Override
+    public String getHost() {
+        return request.getServerName();
+    }
+
+    @Override
+    public String getPath() {
+        return request.getRequestURI();
+    }
+
+    @Override
+    public String getQuery() {
+        return request.getQueryString();
+    }
+
+    @Override
+    public String getClientIp() {
+        return request.getRemoteAddr();
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return request.getHeader(name);
+    }
+
+    @Override
+    public void forEachHeader(BiConsumer<String, String> action) {
+        Enumeration<String> names = request.getHeaderNames();
+        if (names == null) {
+            return;
+        }
+        while (names.hasMoreElements()) {
+            String name = names.nextElement();
+            Enumeration<String> values = request.getHeaders(name);
+            while (values.hasMoreElements()) {
+                action.accept(name, values.nextElement());
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.example.waf.waf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 影子（试运行）规则集：按采样率复制一部分线上请求到有界队列，由后台线程用候选规则集重新评估，
+ * 与线上判定逐条对比，统计新增拦截、不再拦截等差异，候选规则不影响任何线上请求。
+ *
+ * 请求线程只做一次采样判断和一次非阻塞入队；队列满时直接丢弃（计入 shed），不会反压线上流量。
+ *
+ * 只对比请求头阶段（query、path、headers 及查询串里的 args）：请求体不复制，候选规则集中 args/json/文件上传
+ * 等请求体作用域的规则不会对请求体求值，线上判定也取请求体检查之前的结果。需要检查请求体的采样请求
+ * 单独计数（bodyInspected），报告中 comparedScope 为 headers 以示区别。
+ */
+@Component
+public class ShadowRuleEvaluator {
+    private static final Logger logger = LoggerFactory.getLogger(ShadowRuleEvaluator.class);
+    private static final int MAX_RECENT_DIFFS = 50;
+
+    private static final class Candidate {
+        final CompiledRuleSet compiled;
+        final int ruleCount;
+        final double sampleRate;
+        final long stagedAt = System.currentTimeMillis();
+        final LongAdder sampled = new LongAdder();
+        final LongAdder shed = new LongAdder();
+        final LongAdder bodyInspected = new LongAdder();
+        // 以下只由评估线程写入
+        final Map<String, LongAdder> candidateHits = new ConcurrentHashMap<>();
+        final LongAdder evaluated = new LongAdder();
+        final LongAdder agreed = new LongAdder();
+        final LongAdder newlyBlocked = new LongAdder();
+        final LongAdder newlyAllowed = new LongAdder();
+        final LongAdder actionChanged = new LongAdder();
+        final Deque<Map<String, Object>> recentDiffs = new ArrayDeque<>();
+
+        Candidate(List<Rule> rules, double sampleRate, int scoreThreshold) {
+            this.compiled = CompiledRuleSet.compile(rules, scoreThreshold);
+            this.ruleCount = rules.size();
+            this.sampleRate = sampleRate;
+        }
+    }
+
+    private static final class Task {
+        final Candidate candidate;
+        final CapturedRequest request;
+        final Long applicationId;
+        final MatchResult live;
+
+        Task(Candidate candidate, CapturedRequest request, Long applicationId, MatchResult live) {
+            this.candidate = candidate;
+            this.request = request;
+            this.applicationId = applicationId;
+            this.live = live;
+        }
+    }
+
+    private final BlockingQueue<Task> queue;
+    private final Thread worker;
+    private volatile Candidate candidate;
+    private volatile boolean running = true;
+
+    public ShadowRuleEvaluator(@Value("${app.waf.shadow.queue-capacity:4096}") int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.worker = new Thread(this::runLoop, "waf-shadow-evaluator");
+        this.worker.setDaemon(true);
+        this.worker.setPriority(Thread.MIN_PRIORITY);
+        this.worker.start();
+    }
+
+    /**
+     * 暂存候选规则集并清空之前的对比统计。
+     *
+     * @param sampleRate     采样率 (0, 1]
+     * @param scoreThreshold 与线上一致的计分阈值，0 表示首个命中模式
+     */
+    public void stage(List<Rule> rules, double sampleRate, int scoreThreshold) {
+        candidate = new Candidate(rules, sampleRate, scoreThreshold);
+        logger.info("影子规则集已加载：{} 条规则，采样率 {}", rules.size(), sampleRate);
+    }
+
+    public void clear() {
+        candidate = null;
+        queue.clear();
+    }
+
+    public boolean isActive() {
+        return candidate != null;
+    }
+
+    /**
+     * 请求线程调用：按采样率复制请求并入队，没有候选规则集时立即返回。
+     * 先决定是否采样再复制，未采样的请求没有任何分配；采样的请求复制方法、路径、查询串和全部请求头
+     * （一个数组列表加每个请求头一个 String[]，反向代理下请求头名和值还要各转换成一个 String），
+     * 开销与请求头的个数和长度成正比，采样率决定了这部分开销占线上流量的比例。
+     *
+     * @param live          线上请求头阶段的判定
+     * @param bodyInspected 线上还检查了请求体（最终判定可能与 live 不同，这里不对比）
+     */
+    public void offer(RequestView request, Long applicationId, MatchResult live, boolean bodyInspected) {
+        Candidate c = candidate;
+        if (c == null || (c.sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= c.sampleRate)) {
+            return;
+        }
+        // 队列已满时连请求都不复制
+        if (queue.remainingCapacity() == 0 || !queue.offer(new Task(c, CapturedRequest.copyOf(request), applicationId, live))) {
+            c.shed.increment();
+            return;
+        }
+        c.sampled.increment();
+        if (bodyInspected) {
+            c.bodyInspected.increment();
+        }
+    }
+
+    private void runLoop() {
+        while (running) {
+            Task task;
+            try {
+                task = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (task == null) {
+                continue;
+            }
+            try {
+                evaluate(task);
+            } catch (RuntimeException e) {
+                logger.warn("影子规则评估失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void evaluate(Task task) {
+        Candidate c = task.candidate;
+        MatchResult shadowMatch = c.compiled.forApplication(task.applicationId).match(task.request);
+        CompiledRule shadowHit = shadowMatch.getRule();
+        CompiledRule liveHit = task.live.getRule();
+        c.evaluated.increment();
+        if (shadowHit != null) {
+            c.candidateHits.computeIfAbsent(shadowHit.getId(), k -> new LongAdder()).increment();
+        }
+
+        String live = verdictOf(task.live);
+        String shadow = verdictOf(shadowMatch);
+        if (live.equals(shadow)) {
+            c.agreed.increment();
+            return;
+        }
+        if ("block".equals(shadow)) {
+            c.newlyBlocked.increment();
+        } else if ("block".equals(live)) {
+            c.newlyAllowed.increment();
+        } else {
+            c.actionChanged.increment();
+        }
+
+        Map<String, Object> diff = new LinkedHashMap<>();
+        CapturedRequest r = task.request;
+        diff.put("method", r.getMethod());
+        diff.put("host", r.getHost());
+        diff.put("url", r.getQuery() == null ? r.getPath() : r.getPath() + "?" + r.getQuery());
+        diff.put("applicationId", task.applicationId);
+        diff.put("live", live);
+        diff.put("liveRuleId", liveHit == null ? null : liveHit.getId());
+        diff.put("liveScore", task.live.getScore());
+        diff.put("shadow", shadow);
+        diff.put("shadowRuleId", shadowHit == null ? null : shadowHit.getId());
+        diff.put("shadowPattern", shadowHit == null ? null : shadowHit.getPattern());
+        diff.put("shadowScore", shadowMatch.getScore());
+        synchronized (c.recentDiffs) {
+            if (c.recentDiffs.size() == MAX_RECENT_DIFFS) {
+                c.recentDiffs.removeFirst();
+            }
+            c.recentDiffs.addLast(diff);
+        }
+    }
+
+    // block | log | pass（allow 与未命中等价）
+    private static String verdictOf(MatchResult match) {
+        return match.isAttack() ? match.getAction() : "pass";
+    }
+
+    /**
+     * 当前候选规则集与线上规则的对比结果。
+     */
+    public Map<String, Object> report() {
+        Map<String, Object> m = new HashMap<>();
+        Candidate c = candidate;
+        m.put("active", c != null);
+        m.put("queueSize", queue.size());
+        if (c == null) {
+            return m;
+        }
+        m.put("stagedAt", c.stagedAt);
+        m.put("ruleCount", c.ruleCount);
+        m.put("sampleRate", c.sampleRate);
+        m.put("sampled", c.sampled.sum());
+        m.put("shed", c.shed.sum());
+        m.put("comparedScope", "headers");
+        m.put("bodyInspected", c.bodyInspected.sum());
+        m.put("evaluated", c.evaluated.sum());
+        m.put("agreed", c.agreed.sum());
+        m.put("newlyBlocked", c.newlyBlocked.sum());
+        m.put("newlyAllowed", c.newlyAllowed.sum());
+        m.put("actionChanged", c.actionChanged.sum());
+
+        List<Map<String, Object>> hits = new ArrayList<>();
+        for (Map.Entry<String, LongAdder> e : c.candidateHits.entrySet()) {
+            Map<String, Object> h = new HashMap<>();
+            h.put("ruleId", e.getKey());
+            h.put("hits", e.getValue().sum());
+            hits.add(h);
+        }
+        hits.sort((a, b) -> Long.compare((Long) b.get("hits"), (Long) a.get("hits")));
+        m.put("candidateRuleHits", hits);
+        synchronized (c.recentDiffs) {
+            m.put("recentDiffs", new ArrayList<>(c.recentDiffs));
+        }
+        return m;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        worker.interrupt();
+    }
+}
@@ -0,0 +1,327 @@
+package org.example.waf.waf;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 基于词法指纹的 SQL 注入检测（思路同 libinjection）。
+ *
+ * 输入按 SQL 词法切成 token，每个 token 归为一个类型字符，前 {@link #MAX_TOKENS} 个组成指纹，
+ * 例如 "1' or '1'='1" 在单引号上下文中为 "s&sos"。指纹的前缀命中预先整理的集合即判定为注入。
+ * 输入分别按原样、处于单引号字符串内、处于双引号字符串内三种上下文各切一次（后两种只在含有对应引号时进行），
+ * 每次只扫描到凑满指纹为止，耗时与规则覆盖的攻击形态数量无关。
+ *
+ * 类型：1 数字，s 字符串，n 标识符，v 变量，k 关键字，U union，E 语句，f 函数，
+ * &amp; 逻辑运算，o 其他运算符，c 注释，以及 ( ) , ; 本身。
+ */
+final class SqlInjectionDetector implements Detector {
+    static final SqlInjectionDetector INSTANCE = new SqlInjectionDetector();
+
+    private static final int MAX_TOKENS = 5;
+    private static final char NO_QUOTE = 0;
+    private static final char NBSP = (char) 0xa0;
+
+    private static final Map<String, Character> WORDS = new HashMap<>();
+    private static final Set<String> FUNCTIONS = new HashSet<>();
+    // 攻击指纹的前缀集合：指纹的任一长度 >= 2 的前缀在集合中即命中
+    private static final Set<String> FINGERPRINTS = new HashSet<>();
+
+    static {
+        for (String w : new String[]{"select", "insert", "update", "delete", "drop", "create", "alter", "truncate",
+                "exec", "execute", "declare", "shutdown", "replace", "handler"}) {
+            WORDS.put(w, 'E');
+        }
+        WORDS.put("union", 'U');
+        for (String w : new String[]{"and", "or", "xor"}) {
+            WORDS.put(w, '&');
+        }
+        for (String w : new String[]{"like", "rlike", "regexp", "is", "not", "in", "between", "div", "mod",
+                "sounds", "collate"}) {
+            WORDS.put(w, 'o');
+        }
+        for (String w : new String[]{"from", "where", "having", "limit", "offset", "order", "group", "by", "into",
+                "outfile", "dumpfile", "as", "case", "when", "then", "else", "end", "waitfor", "delay", "procedure",
+                "table", "database", "databases", "schema", "distinct", "all", "values", "set", "join", "top",
+                "exists"}) {
+            WORDS.put(w, 'k');
+        }
+        for (String w : new String[]{"null", "true", "false"}) {
+            WORDS.put(w, '1');
+        }
+        for (String f : new String[]{"sleep", "benchmark", "pg_sleep", "concat", "concat_ws", "group_concat",
+                "char", "chr", "nchar", "substring", "substr", "mid", "ascii", "ord", "hex", "unhex", "md5", "sha1",
+                "version", "user", "current_user", "system_user", "database", "schema", "load_file", "extractvalue",
+                "updatexml", "count", "if", "ifnull", "nullif", "isnull", "coalesce", "cast", "convert", "length",
+                "len", "lower", "upper", "rand", "floor", "exp", "name_const", "row", "exists", "randomblob",
+                "sqlite_version", "elt", "make_set", "position", "locate", "instr", "left", "right", "reverse",
+                "space", "repeat", "xp_cmdshell", "char_length", "db_name", "json_extract", "polygon",
+                "geometrycollection", "multipoint", "linestring", "replace", "utl_inaddr.get_host_address",
+                "dbms_pipe.receive_message"}) {
+            FUNCTIONS.add(f);
+        }
+        for (String fp : new String[]{
+                // union 查询
+                "1UE", "sUE", "nUE", "1)UE", "s)UE", "n)UE", "1))UE", "s))UE",
+                // 闭合字符串后的逻辑条件
+                "s&1", "s&s", "s&n", "s&f", "s&(", "s&v", "s)&1", "s)&s", "s)&n", "s)&f", "s)&(", "s))&",
+                "sos&", "s)os", "so(E", "sof(",
+                // 数字型注入
+                "1&1o", "1&so", "1&f(", "1&(", "1&v", "1)&1o", "1)&so", "1)&f(", "1)&(", "1o(E", "1of(",
+                // 注释截断
+                "sc", "s)c", "s))c",
+                // 堆叠查询
+                "s;E", "s;k", "s);E", "1;E", "1;k", "1);E", ";E",
+                // 排序、having 探测
+                "1kk1", "skk1", "s)kk1", "1k1o", "sk1o", "s)k1o",
+                // 以语句开头
+                "Ef(", "Eok", "Enk", "E1k", "Ev", "Evk", "E1,", "E(E"}) {
+            FINGERPRINTS.add(fp);
+        }
+    }
+
+    private SqlInjectionDetector() {
+    }
+
+    @Override
+    public boolean detect(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        return isAttack(fingerprint(s, NO_QUOTE))
+                || (s.indexOf('\'') >= 0 && isAttack(fingerprint(s, '\'')))
+                || (s.indexOf('"') >= 0 && isAttack(fingerprint(s, '"')));
+    }
+
+    private static boolean isAttack(String fp) {
+        for (int len = 2; len <= fp.length(); len++) {
+            if (FINGERPRINTS.contains(fp.substring(0, len))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 生成指纹。quote 非 0 时视为输入开头已处于该引号的字符串内。
+     */
+    static String fingerprint(String s, char quote) {
+        Lexer lx = new Lexer(s);
+        if (quote != NO_QUOTE) {
+            lx.pos = lx.endOfString(0, quote);
+            lx.add('s', false);
+        }
+        while (lx.count < MAX_TOKENS && lx.next()) {
+            // next() 每次最多追加一个 token
+        }
+        return new String(lx.tokens, 0, lx.count);
+    }
+
+    private static final class Lexer {
+        final String s;
+        final int n;
+        final char[] tokens = new char[MAX_TOKENS];
+        int count;
+        int pos;
+        boolean lastArithmetic;   // 最后一个 'o' 是否为算术运算符
+        boolean stopped;
+
+        Lexer(String s) {
+            this.s = s;
+            this.n = s.length();
+        }
+
+        // 读取下一个 token，输入结束或遇到行注释时返回 false
+        boolean next() {
+            while (pos < n && !stopped) {
+                char c = s.charAt(pos);
+                if (c <= ' ' || c == NBSP) {
+                    pos++;
+                } else if (c == '\'' || c == '"') {
+                    pos = endOfString(pos + 1, c);
+                    add('s', false);
+                    return true;
+                } else if (c == '`') {
+                    int end = s.indexOf('`', pos + 1);
+                    pos = end < 0 ? n : end + 1;
+                    add('n', false);
+                    return true;
+                } else if (isDigit(c) || (c == '.' && pos + 1 < n && isDigit(s.charAt(pos + 1)))) {
+                    pos = endOfNumber(pos);
+                    add('1', false);
+                    return true;
+                } else if (isWordStart(c)) {
+                    word();
+                    return true;
+                } else if (c == '@') {
+                    int i = pos + 1;
+                    if (i < n && s.charAt(i) == '@') {
+                        i++;
+                    }
+                    while (i < n && isWordPart(s.charAt(i))) {
+                        i++;
+                    }
+                    pos = i;
+                    add('v', false);
+                    return true;
+                } else if (c == '#' || (c == '-' && pos + 1 < n && s.charAt(pos + 1) == '-')) {
+                    add('c', false);
+                    stopped = true;
+                    return false;
+                } else if (c == '/' && pos + 1 < n && s.charAt(pos + 1) == '*') {
+                    int end = s.indexOf("*/", pos + 2);
+                    if (pos + 2 < n && s.charAt(pos + 2) == '!') {
+                        // MySQL 可执行注释 /*!50000 ... */：内容按代码继续分析
+                        int i = pos + 3;
+                        while (i < n && isDigit(s.charAt(i))) {
+                            i++;
+                        }
+                        pos = i;
+                    } else if (end < 0) {
+                        add('c', false);
+                        stopped = true;
+                        return false;
+                    } else {
+                        // 行内注释等同空白，常用于 union/**/select 这类绕过
+                        pos = end + 2;
+                    }
+                } else if (c == '*' && pos + 1 < n && s.charAt(pos + 1) == '/') {
+                    pos += 2;
+                } else if (c == '(' || c == ')' || c == ',' || c == ';') {
+                    pos++;
+                    add(c, false);
+                    return true;
+                } else if ((c == '&' || c == '|') && pos + 1 < n && s.charAt(pos + 1) == c) {
+                    pos += 2;
+                    add('&', false);
+                    return true;
+                } else if (c == '\\') {
+                    pos++;
+                } else {
+                    operator(c);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void operator(char c) {
+            int start = pos++;
+            // 比较运算符 <= >= <> != := <=> 作为一个 token
+            if ("<>=!:".indexOf(c) >= 0) {
+                while (pos < n && pos - start < 3 && "<>=".indexOf(s.charAt(pos)) >= 0) {
+                    pos++;
+                }
+            }
+            boolean single = pos - start == 1;
+            // 一元运算符（开头或跟在运算符、括号、逗号后）不影响结构
+            if (single && (c == '-' || c == '+' || c == '!' || c == '~')
+                    && (count == 0 || "o&(,".indexOf(tokens[count - 1]) >= 0)) {
+                return;
+            }
+            add('o', single && "+-*/%".indexOf(c) >= 0);
+        }
+
+        private void word() {
+            int start = pos;
+            while (pos < n && isWordPart(s.charAt(pos))) {
+                pos++;
+            }
+            String w = s.substring(start, pos);
+            int after = pos;
+            while (after < n && s.charAt(after) <= ' ') {
+                after++;
+            }
+            if (after < n && s.charAt(after) == '(' && FUNCTIONS.contains(w)) {
+                add('f', false);
+                return;
+            }
+            Character type = WORDS.get(w);
+            char t = type == null ? 'n' : type;
+            // "union all" / "union distinct" 合并为 U
+            if (count > 0 && tokens[count - 1] == 'U' && ("all".equals(w) || "distinct".equals(w))) {
+                return;
+            }
+            add(t, false);
+        }
+
+        void add(char type, boolean arithmetic) {
+            if (count > 0) {
+                char prev = tokens[count - 1];
+                // 相邻字符串（'a' 'b'）合并
+                if (type == 's' && prev == 's') {
+                    return;
+                }
+                // 数字 算术运算 数字 折叠为一个数字
+                if (type == '1' && prev == 'o' && lastArithmetic && count >= 2 && tokens[count - 2] == '1') {
+                    count--;
+                    lastArithmetic = false;
+                    return;
+                }
+            }
+            if (count < MAX_TOKENS) {
+                tokens[count++] = type;
+                if (type == 'o') {
+                    lastArithmetic = arithmetic;
+                }
+            }
+        }
+
+        // 从 start 开始找未转义的结束引号，返回其后的位置；没有结束引号时到输入末尾
+        int endOfString(int start, char quote) {
+            for (int i = start; i < n; i++) {
+                char c = s.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    if (i + 1 < n && s.charAt(i + 1) == quote) {
+                        i++;   // '' 转义
+                    } else {
+                        return i + 1;
+                    }
+                }
+            }
+            return n;
+        }
+
+        private int endOfNumber(int i) {
+            if (s.charAt(i) == '0' && i + 1 < n && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'b')) {
+                i += 2;
+                while (i < n && Character.digit(s.charAt(i), 16) >= 0) {
+                    i++;
+                }
+                return i;
+            }
+            while (i < n && (isDigit(s.charAt(i)) || s.charAt(i) == '.')) {
+                i++;
+            }
+            if (i < n && s.charAt(i) == 'e') {
+                int j = i + 1;
+                if (j < n && (s.charAt(j) == '+' || s.charAt(j) == '-')) {
+                    j++;
+                }
+                if (j < n && isDigit(s.charAt(j))) {
+                    i = j;
+                    while (i < n && isDigit(s.charAt(i))) {
+                        i++;
+                    }
+                }
+            }
+            // 1union 这类紧贴的写法，数字后的字母作为下一个 token
+            return i;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$' || c >= 0x80;
+    }
+
+    private static boolean isWordPart(char c) {
+        return isWordStart(c) || isDigit(c) || c == '.';
+    }
+}
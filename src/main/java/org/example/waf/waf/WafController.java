@@ -3,6 +3,7 @@ package org.example.waf.waf;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,9 +12,11 @@ import java.util.Map;
 @RequestMapping("/api/waf")
 public class WafController {
     private final WafService service;
+    private final ShadowRuleEvaluator shadowEvaluator;
 
-    public WafController(WafService service) {
+    public WafController(WafService service, ShadowRuleEvaluator shadowEvaluator) {
         this.service = service;
+        this.shadowEvaluator = shadowEvaluator;
     }
 
     @GetMapping("/enabled")
@@ -48,8 +51,17 @@ public class WafController {
     }
 
     @GetMapping("/rules")
-    public List<Rule> listRules() {
-        return service.listRules();
+    public List<Rule> listRules(@RequestParam(value = "applicationId", required = false) Long applicationId) {
+        if (applicationId == null) {
+            return service.listRules();
+        }
+        List<Rule> rules = new ArrayList<>();
+        for (Rule r : service.listRules()) {
+            if (applicationId.equals(r.getApplicationId())) {
+                rules.add(r);
+            }
+        }
+        return rules;
     }
 
     @PostMapping("/rules")
@@ -73,22 +85,69 @@ public class WafController {
 
     @PostMapping("/test")
     public Map<String, Object> test(@RequestParam(value = "query", required = false) String query,
-                                    @RequestParam(value = "path", required = false) String path) {
+                                    @RequestParam(value = "path", required = false) String path,
+                                    @RequestParam(value = "applicationId", required = false) Long applicationId) {
         Map<String, Object> m = new HashMap<>();
-        boolean blocked = false;
-        for (Rule r : service.listRules()) {
-            if (!r.isEnabled()) continue;
-            String patt = r.getPattern() == null ? "" : r.getPattern().toLowerCase();
-            if ("query".equals(r.getScope()) && query != null && query.toLowerCase().contains(patt) && "block".equalsIgnoreCase(r.getAction())) {
-                blocked = true; break;
-            }
-            if ("path".equals(r.getScope()) && path != null && path.toLowerCase().contains(patt) && "block".equalsIgnoreCase(r.getAction())) {
-                blocked = true; break;
-            }
+        CapturedRequest request = new CapturedRequest("GET", null, path, query, null, null);
+        MatchResult match = service.getSnapshot(applicationId).match(request);
+        CompiledRule hit = match.getRule();
+        if (hit != null) {
+            m.put("ruleId", hit.getId());
+            m.put("category", hit.getCategory());
         }
-        m.put("blocked", blocked);
+        m.put("action", match.getAction());
+        m.put("score", match.getScore());
+        m.put("blocked", match.isBlocking());
         return m;
     }
-}
 
+    // 加载影子规则集：采样的线上请求在后台用候选规则重新评估并与线上判定对比
+    @PostMapping("/shadow")
+    public ResponseEntity<Map<String, Object>> stageShadow(@RequestBody ShadowRequest request) {
+        Map<String, Object> m = new HashMap<>();
+        double rate = request.getSampleRate() == null ? 0.1 : request.getSampleRate();
+        if (request.getRules() == null || rate <= 0 || rate > 1) {
+            m.put("error", "rules 不能为空，sampleRate 取值范围 (0, 1]");
+            return ResponseEntity.badRequest().body(m);
+        }
+        shadowEvaluator.stage(request.getRules(), rate, service.getScoreThreshold());
+        m.put("staged", true);
+        m.put("ruleCount", request.getRules().size());
+        m.put("sampleRate", rate);
+        return ResponseEntity.ok(m);
+    }
 
+    @GetMapping("/shadow")
+    public Map<String, Object> shadowReport() {
+        return shadowEvaluator.report();
+    }
+
+    @DeleteMapping("/shadow")
+    public Map<String, Object> clearShadow() {
+        shadowEvaluator.clear();
+        Map<String, Object> m = new HashMap<>();
+        m.put("cleared", true);
+        return m;
+    }
+
+    static class ShadowRequest {
+        private List<Rule> rules;
+        private Double sampleRate;
+
+        public List<Rule> getRules() {
+            return rules;
+        }
+
+        public void setRules(List<Rule> rules) {
+            this.rules = rules;
+        }
+
+        public Double getSampleRate() {
+            return sampleRate;
+        }
+
+        public void setSampleRate(Double sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+    }
+}
@@ -4,84 +4,158 @@ import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.Part;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Enumeration;
-import java.util.List;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
 
 @Component
 public class WafFilter extends OncePerRequestFilter {
-    private final WafService wafService;
+    private final WafInspector inspector;
 
-    public WafFilter(WafService wafService) {
-        this.wafService = wafService;
+    public WafFilter(WafInspector inspector) {
+        this.inspector = inspector;
     }
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
-        if (!wafService.isEnabled()) {
-            filterChain.doFilter(request, response);
+        long start = System.nanoTime();
+        WafInspector.Verdict verdict = inspector.inspect(new ServletRequestView(request));
+        if (verdict.isRateLimited()) {
+            response.setStatus(429);
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getWriter().write("429 Too Many Requests\n");
+            inspector.complete(verdict, 429, start);
+            return;
+        }
+        BodyInspection body = verdict.getBodyInspection();
+        if (body != null) {
+            request = inspectBody(request, body);
+            verdict = inspector.conclude(verdict);
+        }
+        if (verdict.isBlocked()) {
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getWriter().write("403 Forbidden - Blocked by WAF rule\n");
+            inspector.complete(verdict, HttpServletResponse.SC_FORBIDDEN, start);
             return;
         }
 
-        List<Rule> rules = wafService.listRules();
-        String query = request.getQueryString();
-        String path = request.getRequestURI();
-        String lowerQuery = query == null ? "" : query.toLowerCase();
-        String lowerPath = path == null ? "" : path.toLowerCase();
+        // log：放行并在请求结束后连同实际状态码一起记录
+        long downstream = System.nanoTime();
+        boolean async = false;
+        try {
+            filterChain.doFilter(request, response);
+            async = request.isAsyncStarted();
+        } finally {
+            if (async) {
+                // 异步处理（如登录等待密码哈希）：请求线程已返回，等异步响应完成后再记录
+                completeAsync(request, verdict, start, downstream);
+            } else {
+                inspector.recordDownstream(System.nanoTime() - downstream);
+                inspector.complete(verdict, response.getStatus(), start);
+            }
+        }
+    }
 
-        for (Rule r : rules) {
-            if (!r.isEnabled()) continue;
-            String patt = r.getPattern();
-            if (patt == null || patt.isEmpty()) continue;
-            String lp = patt.toLowerCase();
-            boolean hit = false;
+    private void completeAsync(HttpServletRequest request, WafInspector.Verdict verdict, long start, long downstream) {
+        request.getAsyncContext().addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                inspector.recordDownstream(System.nanoTime() - downstream);
+                inspector.complete(verdict, ((HttpServletResponse) event.getSuppliedResponse()).getStatus(), start);
+            }
 
-            switch (r.getScope()) {
-                case "query":
-                    hit = lowerQuery.contains(lp);
-                    break;
-                case "path":
-                    hit = lowerPath.contains(lp);
-                    break;
-                case "headers": {
-                    Enumeration<String> headerNames = request.getHeaderNames();
-                    if (headerNames != null) {
-                        while (headerNames.hasMoreElements()) {
-                            String hn = headerNames.nextElement();
-                            String hv = request.getHeader(hn);
-                            if ((hn + ":" + hv).toLowerCase().contains(lp)) {
-                                hit = true;
-                                break;
-                            }
-                        }
-                    }
-                    break;
-                }
-                default:
-                    // body 检查留作未来扩展
-                    break;
+            @Override
+            public void onTimeout(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
             }
 
-            if (hit) {
-                if ("block".equalsIgnoreCase(r.getAction())) {
-                    response.setStatus(HttpServletResponse.SC_FORBIDDEN);
-                    response.setContentType(MediaType.TEXT_PLAIN_VALUE);
-                    response.getWriter().write("403 Forbidden - Blocked by WAF rule\n");
-                    return;
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                event.getAsyncContext().addListener(this);
+            }
+        });
+    }
+
+    /**
+     * 表单参数直接取容器已解析好的结果；JSON 边读边喂给解析器，读过的部分保存在唯一的一份缓冲里，
+     * 由包装后的请求重放给后续处理，未读的部分仍从原始输入流读取。
+     * multipart 由容器解析（后续的 MultipartResolver 复用同一份结果），各部分内容以固定大小的缓冲流过检查。
+     * 注意 Servlet 下容器解析时会先把整个上传读完（小的留在内存，超过 spring.servlet.multipart.file-size-threshold
+     * 的写临时文件）再交给这里检查；不缓存、边读边扫描的 multipart 检查只在反向代理（ProxyFrontendHandler）上。
+     */
+    private HttpServletRequest inspectBody(HttpServletRequest request, BodyInspection body)
+            throws IOException, ServletException {
+        if (body.getKind() == BodyInspection.Kind.FORM) {
+            for (Map.Entry<String, String[]> e : request.getParameterMap().entrySet()) {
+                for (String value : e.getValue()) {
+                    body.feedParameter(e.getKey(), value);
                 }
-                // log 或 allow 先直接放行（日志可后续接入）
+            }
+            return request;
+        }
+        if (body.getKind() == BodyInspection.Kind.MULTIPART) {
+            inspectParts(request, body);
+            return request;
+        }
+        int limit = (int) Math.min(inspector.getBodyMaxBytes(), Integer.MAX_VALUE - 8);
+        int expected = request.getContentLength();
+        byte[] buf = new byte[expected > 0 ? Math.min(expected, limit) : Math.min(8192, limit)];
+        int length = 0;
+        InputStream in = request.getInputStream();
+        while (length < limit && !body.isDone()) {
+            if (length == buf.length) {
+                buf = Arrays.copyOf(buf, (int) Math.min((long) buf.length * 2, limit));
+            }
+            int n = in.read(buf, length, buf.length - length);
+            if (n < 0) {
                 break;
             }
+            body.feed(buf, length, n);
+            length += n;
         }
+        return new ReplayedBodyRequest(request, buf, length);
+    }
 
-        filterChain.doFilter(request, response);
+    private void inspectParts(HttpServletRequest request, BodyInspection body) throws IOException, ServletException {
+        // 超大上传不交给容器缓存，与容器拒绝解析（超出 spring.servlet.multipart 的大小限制）一样
+        // 按 app.waf.body.on-limit 处理，不直接放过未检查的内容
+        if (request.getContentLengthLong() > inspector.getMultipartMaxBytes()) {
+            body.markLimitExceeded();
+            return;
+        }
+        Collection<Part> parts;
+        try {
+            parts = request.getParts();
+        } catch (IllegalStateException e) {
+            body.markLimitExceeded();
+            return;
+        }
+        byte[] buf = new byte[8192];
+        for (Part part : parts) {
+            body.startPart(part.getName(), part.getSubmittedFileName(), part.getContentType());
+            try (InputStream in = part.getInputStream()) {
+                int n;
+                while (!body.isDone() && (n = in.read(buf)) > 0) {
+                    body.partContent(buf, 0, n);
+                }
+            }
+            body.endPart();
+            if (body.isDone()) {
+                return;
+            }
+        }
     }
 }
-
-
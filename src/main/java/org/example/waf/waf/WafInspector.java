@@ -0,0 +1,269 @@
+package org.example.waf.waf;
+
+import org.example.waf.cluster.ClusterRateLimiter;
+import org.example.waf.service.ApplicationTrafficCounter;
+import org.example.waf.service.RequestLatencyTracker;
+import org.example.waf.sketch.HeavyHitterTracker;
+import org.example.waf.sketch.UniqueIpCounter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 规则检测入口，供 {@link WafFilter} 和反向代理共用：按 Host 路由到应用、匹配规则快照、统计流量，
+ * 命中 block/log 规则时生成安全事件，待响应结束后由 {@link #complete} 补上状态码并异步落库。
+ * 不做任何阻塞操作，可以直接在 Netty 事件循环线程上调用。
+ *
+ * 表单/JSON 请求体上有 args/json 规则需要检查时，{@link #inspect} 返回待定的结果：
+ * 调用方把请求体喂给 {@link Verdict#getBodyInspection()}，读完（或提前确定）后调用 {@link #conclude} 得到最终结果。
+ * 请求体嵌套深度或字段数超限时按 app.waf.body.on-limit 处理（默认拦截），作为内置规则 body-limit 的命中记录。
+ */
+@Component
+public class WafInspector {
+
+    /** 单个请求的检测结果。 */
+    public static final class Verdict {
+        private static final Verdict PASS = new Verdict(null, MatchResult.NONE, null);
+        /** 超出集群限流，未做规则检测 */
+        private static final Verdict RATE_LIMITED = new Verdict(null, MatchResult.NONE, null, null, null, -1);
+
+        private final ApplicationRouter.Route route;
+        private final MatchResult match;
+        private final SecurityEvent event;
+        // 以下只在等待请求体时有值；evaluationNanos 为请求头阶段已花费的检测时间
+        private final BodyInspection body;
+        private final RequestView request;
+        private final long evaluationNanos;
+
+        Verdict(ApplicationRouter.Route route, MatchResult match, SecurityEvent event) {
+            this(route, match, event, null, null, 0);
+        }
+
+        private Verdict(ApplicationRouter.Route route, MatchResult match, SecurityEvent event,
+                        BodyInspection body, RequestView request, long evaluationNanos) {
+            this.route = route;
+            this.match = match;
+            this.event = event;
+            this.body = body;
+            this.request = request;
+            this.evaluationNanos = evaluationNanos;
+        }
+
+        /** 匹配到的应用，未匹配任何应用时为 null。 */
+        public ApplicationRouter.Route getRoute() {
+            return route;
+        }
+
+        /**
+         * 规则匹配结果，未检测（WAF 关闭或应用停用）时为 {@link MatchResult#NONE}；
+         * 等待请求体时只是请求头阶段的结果。
+         */
+        public MatchResult getMatch() {
+            return match;
+        }
+
+        public boolean isBlocked() {
+            return event != null && match.isBlocking();
+        }
+
+        /** 该客户端 IP 在集群内的请求数超过限流上限，调用方应返回 429 */
+        public boolean isRateLimited() {
+            return this == RATE_LIMITED;
+        }
+
+        /** 需要检查请求体时非空，此时结果尚未确定，读完请求体后调用 {@link WafInspector#conclude}。 */
+        public BodyInspection getBodyInspection() {
+            return body;
+        }
+    }
+
+    private final WafService wafService;
+    private final SecurityEventRecorder eventRecorder;
+    private final ApplicationRouter applicationRouter;
+    private final ApplicationTrafficCounter trafficCounter;
+    private final ShadowRuleEvaluator shadowEvaluator;
+    private final HeavyHitterTracker heavyHitters;
+    private final UniqueIpCounter uniqueIps;
+    private final RequestLatencyTracker latency;
+    private final FilterMetrics metrics;
+    private final ClusterRateLimiter rateLimiter;
+    private final long bodyMaxBytes;
+    private final long multipartMaxBytes;
+    private final int bodyMaxDepth;
+    private final int bodyMaxFields;
+    private final MatchResult bodyLimitMatch;   // on-limit 为 allow 时为 null
+
+    public WafInspector(WafService wafService, SecurityEventRecorder eventRecorder, ApplicationRouter applicationRouter,
+                        ApplicationTrafficCounter trafficCounter, ShadowRuleEvaluator shadowEvaluator,
+                        HeavyHitterTracker heavyHitters, UniqueIpCounter uniqueIps, RequestLatencyTracker latency,
+                        FilterMetrics metrics, ClusterRateLimiter rateLimiter,
+                        @Value("${app.waf.body.max-bytes:1048576}") long bodyMaxBytes,
+                        @Value("${app.waf.body.multipart-max-bytes:104857600}") long multipartMaxBytes,
+                        @Value("${app.waf.body.max-depth:32}") int bodyMaxDepth,
+                        @Value("${app.waf.body.max-fields:1000}") int bodyMaxFields,
+                        @Value("${app.waf.body.on-limit:block}") String bodyOnLimit) {
+        this.wafService = wafService;
+        this.eventRecorder = eventRecorder;
+        this.applicationRouter = applicationRouter;
+        this.trafficCounter = trafficCounter;
+        this.shadowEvaluator = shadowEvaluator;
+        this.heavyHitters = heavyHitters;
+        this.uniqueIps = uniqueIps;
+        this.latency = latency;
+        this.metrics = metrics;
+        this.rateLimiter = rateLimiter;
+        this.bodyMaxBytes = bodyMaxBytes;
+        this.multipartMaxBytes = multipartMaxBytes;
+        this.bodyMaxDepth = bodyMaxDepth;
+        this.bodyMaxFields = bodyMaxFields;
+        this.bodyLimitMatch = bodyLimitMatch(bodyOnLimit);
+    }
+
+    private static MatchResult bodyLimitMatch(String onLimit) {
+        String action = onLimit == null ? "block" : onLimit.trim().toLowerCase();
+        if ("allow".equals(action)) {
+            return null;
+        }
+        if (!"block".equals(action) && !"log".equals(action)) {
+            throw new IllegalArgumentException("app.waf.body.on-limit 只能是 block、log 或 allow: " + onLimit);
+        }
+        Rule rule = new Rule();
+        rule.setId("body-limit");
+        rule.setPattern("body:limit-exceeded");
+        rule.setAction(action);
+        rule.setCategory(RuleCategory.OTHER);
+        CompiledRule compiled = new CompiledRule(-1, rule);
+        return new MatchResult(compiled, action, compiled.getScore());
+    }
+
+    /** 单个表单/JSON 请求体最多检查的字节数，超出部分直接放行给后端。 */
+    public long getBodyMaxBytes() {
+        return bodyMaxBytes;
+    }
+
+    /** multipart 请求体最多检查的字节数。 */
+    public long getMultipartMaxBytes() {
+        return multipartMaxBytes;
+    }
+
+    public Verdict inspect(RequestView request) {
+        // 按 Host 找到所属应用：已停用的应用不做检测，其余使用该应用自己的规则快照
+        ApplicationRouter.Route route = applicationRouter.resolve(request.getHost());
+        if (!wafService.isEnabled() || (route != null && !route.isEnabled())) {
+            metrics.recordSkipped();
+            return route == null ? Verdict.PASS : new Verdict(route, MatchResult.NONE, null);
+        }
+        Long applicationId = route == null ? null : route.getApplicationId();
+        if (!rateLimiter.tryAcquire(request.getClientIp())) {
+            // 限流拒绝量可能很大，只计数，不生成安全事件；算作拦截，但没有命中规则，不计入攻击数
+            metrics.recordRateLimited();
+            if (route != null) {
+                trafficCounter.record(applicationId, false, true);
+            }
+            return Verdict.RATE_LIMITED;
+        }
+        RuleSnapshot snapshot = wafService.getSnapshot(applicationId);
+
+        long start = System.nanoTime();
+        RuleSnapshot.Evaluation evaluation = snapshot.evaluate(request, metrics.isStageTiming() ? metrics : null);
+        BodyInspection body = BodyInspection.open(evaluation, snapshot, request.getHeader("Content-Type"),
+                bodyMaxBytes, multipartMaxBytes, bodyMaxDepth, bodyMaxFields);
+        if (body != null) {
+            // 待定结果暂存请求头阶段的匹配，影子规则集只做请求头阶段的对比（见 ShadowRuleEvaluator）
+            return new Verdict(route, evaluation.result(), null, body, request, System.nanoTime() - start);
+        }
+        MatchResult match = evaluation.result();
+        Verdict verdict = conclude(route, request, match, match, false);
+        recordOverhead(System.nanoTime() - start);
+        return verdict;
+    }
+
+    /**
+     * 请求体读完（或 {@link BodyInspection#isDone()}）后调用，返回最终结果；不需要检查请求体的结果原样返回。
+     */
+    public Verdict conclude(Verdict pending) {
+        if (pending.body == null) {
+            return pending;
+        }
+        // 检测开销只计请求头阶段、各次喂入请求体和这里的收尾，不含等待请求体到达的时间
+        long resumed = System.nanoTime();
+        MatchResult match = pending.body.finish();
+        if (pending.body.isLimitExceeded()) {
+            match = onBodyLimit(match);
+        }
+        long bodyNanos = pending.body.getElapsedNanos() + System.nanoTime() - resumed;
+        metrics.recordStage(FilterMetrics.Stage.BODY, bodyNanos);
+        resumed = System.nanoTime();
+        Verdict verdict = conclude(pending.route, pending.request, match, pending.match, true);
+        recordOverhead(pending.evaluationNanos + bodyNanos + System.nanoTime() - resumed);
+        return verdict;
+    }
+
+    // 超限部分未经检查：已被拦截或被 allow 规则放行的保持原结果；否则 block 覆盖 log，log 只补在未命中的请求上
+    private MatchResult onBodyLimit(MatchResult match) {
+        if (bodyLimitMatch == null || match.isBlocking() || "allow".equals(match.getAction())) {
+            return match;
+        }
+        return bodyLimitMatch.isBlocking() || match.getRule() == null ? bodyLimitMatch : match;
+    }
+
+    private void recordOverhead(long nanos) {
+        latency.record(RequestLatencyTracker.Metric.WAF_OVERHEAD, nanos);
+        metrics.recordInspect(nanos);
+    }
+
+    private Verdict conclude(ApplicationRouter.Route route, RequestView request, MatchResult match,
+                             MatchResult headerMatch, boolean bodyInspected) {
+        Long applicationId = route == null ? null : route.getApplicationId();
+        boolean attack = match.isAttack();
+        metrics.recordVerdict(match);
+        if (route != null) {
+            trafficCounter.record(applicationId, attack, match.isBlocking());
+        }
+        shadowEvaluator.offer(request, applicationId, headerMatch, bodyInspected);
+        heavyHitters.recordRequest(request.getClientIp(), request.getPath(), request.getHeader("User-Agent"));
+        uniqueIps.record(request.getClientIp(), match.isBlocking());
+        if (!attack) {
+            return route == null && match == MatchResult.NONE ? Verdict.PASS : new Verdict(route, match, null);
+        }
+        return new Verdict(route, match, newEvent(request, match));
+    }
+
+    /**
+     * 请求处理结束（拦截或上游响应完成）后调用，记录完整请求耗时和命中事件。
+     *
+     * @param requestStartNanos 调用方收到请求时的 {@link System#nanoTime()}
+     */
+    public void complete(Verdict verdict, int statusCode, long requestStartNanos) {
+        long elapsed = System.nanoTime() - requestStartNanos;
+        latency.record(RequestLatencyTracker.Metric.REQUEST, elapsed);
+        metrics.recordRequest(elapsed);
+        SecurityEvent event = verdict.event;
+        if (event == null) {
+            return;
+        }
+        event.setStatusCode(statusCode);
+        event.setRequestTimeMs(elapsed / 1_000_000.0);
+        long enqueue = System.nanoTime();
+        heavyHitters.recordAttack(event.getTimestamp(), event.getClientIp(), event.getUrl(), event.getUserAgent(),
+                event.getRuleId());
+        eventRecorder.record(event);
+        metrics.recordStage(FilterMetrics.Stage.EVENT_ENQUEUE, System.nanoTime() - enqueue);
+    }
+
+    /** 调用方把请求交给后续过滤器链或上游、直到响应完成所花的时间 */
+    public void recordDownstream(long nanos) {
+        metrics.recordStage(FilterMetrics.Stage.DOWNSTREAM, nanos);
+    }
+
+    private static SecurityEvent newEvent(RequestView request, MatchResult match) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        String path = request.getPath();
+        String query = request.getQuery();
+        String url = query == null ? path : path + "?" + query;
+        return new SecurityEvent(System.currentTimeMillis(), new UUID(rnd.nextLong(), rnd.nextLong()).toString(),
+                request.getClientIp(), request.getMethod(), url, request.getHeader("User-Agent"), match);
+    }
+}
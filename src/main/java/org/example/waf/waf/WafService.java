@@ -1,19 +1,53 @@
 package org.example.waf.waf;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 规则管理。每条规则（包括删除标记）带有版本号，多节点之间据此增量同步（见 {@link #changesSince}、
+ * {@link #applyChanges}）：本地修改和合并进来的修改都会推进本节点的修改序号（generation），
+ * 同一条规则在多个节点上被修改时按版本取最新的一份，各节点最终一致。
+ */
 @Service
 public class WafService {
+    private static final Logger logger = LoggerFactory.getLogger(WafService.class);
     private final WafConfigState state = new WafConfigState();
     private final Map<String, Rule> ruleById = new ConcurrentHashMap<>();
     private final RuleFileStore fileStore;
+    private final int scoreThreshold;
+    private final String configuredNodeId;
+    // 全局快照和各应用快照放在同一个对象里整体替换，读者不会看到新旧混合的状态
+    private volatile CompiledRuleSet compiled = CompiledRuleSet.EMPTY;
+    // 当前规则集用到的文件内容自动机（按模式摘要），由本对象的锁保护；启动时先填入规则映像里的
+    private final Map<String, ByteAutomaton> automata = new HashMap<>();
+    private final boolean imageEnabled;
+    private byte[] imageHash;
+    private Set<String> imageKeys = Collections.emptySet();
 
-    public WafService(RuleFileStore fileStore) {
+    // 同步版本信息，由本对象的锁保护；seq 另有无锁读取（监控指标）
+    private final Map<String, RuleVersion> versions = new HashMap<>();
+    private RuleVersion enabledVersion = new RuleVersion();
+    private String nodeId;
+    private long clock;
+    private volatile long seq;
+    private String stateHash;
+    private long stateHashSeq = -1;
+
+    public WafService(RuleFileStore fileStore,
+                      @Value("${app.waf.scoring.block-threshold:0}") int scoreThreshold,
+                      @Value("${app.cluster.node-id:}") String nodeId,
+                      @Value("${app.waf.rules-image.enabled:true}") boolean imageEnabled) {
         this.fileStore = fileStore;
+        this.scoreThreshold = scoreThreshold;
+        this.configuredNodeId = nodeId == null ? "" : nodeId.trim();
+        this.imageEnabled = imageEnabled;
         // 优先从文件加载；否则落回内置默认规则
         boolean loaded = reloadFromFileSilently();
         if (!loaded) {
@@ -21,7 +55,10 @@ public class WafService {
         }
     }
 
-    private void loadDefaults() {
+    private synchronized void loadDefaults() {
+        if (nodeId == null) {
+            nodeId = configuredNodeId.isEmpty() ? UUID.randomUUID().toString() : configuredNodeId;
+        }
         String[] defaults = new String[]{"union","select","insert","delete","drop","script","alert","../","..\\"};
         int priority = 100;
         for (String p : defaults) {
@@ -34,7 +71,9 @@ public class WafService {
             r.setPriority(priority++);
             ruleById.put(r.getId(), r);
             state.addRule(r);
+            touch(r.getId(), false);
         }
+        recompile();
     }
 
     private boolean reloadFromFileSilently() {
@@ -45,28 +84,307 @@ public class WafService {
         }
     }
 
-    public boolean reloadFromFile() throws IOException {
+    /**
+     * 从文件加载规则。启动时沿用文件里保存的版本信息；运行中重新加载（文件被手工修改过）时，
+     * 与当前内容不同的规则、新增和消失的规则都按本地修改处理，以便同步给其他节点。
+     */
+    public synchronized boolean reloadFromFile() throws IOException {
         RuleFileStore.PersistedConfig cfg = fileStore.load();
         if (cfg == null) {
             return false;
         }
-        state.setEnabled(cfg.enabled);
-        ruleById.clear();
+        boolean initial = nodeId == null;
+        if (initial) {
+            openImage();
+            nodeId = !configuredNodeId.isEmpty() ? configuredNodeId
+                    : cfg.nodeId != null && !cfg.nodeId.isEmpty() ? cfg.nodeId : UUID.randomUUID().toString();
+            clock = cfg.clock;
+            seq = cfg.seq;
+            if (cfg.versions != null) {
+                versions.putAll(cfg.versions);
+            }
+            if (cfg.enabledVersion != null) {
+                enabledVersion = cfg.enabledVersion;
+            }
+        }
+        Map<String, Rule> loaded = new LinkedHashMap<>();
         if (cfg.rules != null) {
             for (Rule r : cfg.rules) {
                 if (r.getId() == null || r.getId().isEmpty()) {
                     r.setId(UUID.randomUUID().toString());
                 }
-                ruleById.put(r.getId(), r);
+                loaded.put(r.getId(), r);
             }
         }
+        if (initial) {
+            // 旧格式文件没有版本信息：规则按初始版本处理，版本表里有记录但规则已不在的视为删除
+            for (String id : loaded.keySet()) {
+                RuleVersion v = versions.get(id);
+                if (v == null || v.deleted) {
+                    versions.put(id, new RuleVersion(v == null ? 0 : v.revision, v == null ? "" : v.origin, ++seq, false));
+                }
+            }
+            for (Map.Entry<String, RuleVersion> e : versions.entrySet()) {
+                if (!loaded.containsKey(e.getKey())) {
+                    e.getValue().deleted = true;
+                }
+            }
+        } else {
+            for (Rule r : loaded.values()) {
+                Rule current = ruleById.get(r.getId());
+                if (current == null || !RuleDigest.canonical(current).equals(RuleDigest.canonical(r))) {
+                    touch(r.getId(), false);
+                }
+            }
+            for (String id : ruleById.keySet()) {
+                if (!loaded.containsKey(id)) {
+                    touch(id, true);
+                }
+            }
+            if (cfg.enabled != state.isEnabled()) {
+                touchEnabled();
+            }
+        }
+        state.setEnabled(cfg.enabled);
+        ruleById.clear();
+        ruleById.putAll(loaded);
         state.replaceRules(new ArrayList<>(ruleById.values()));
+        recompile();
+        refreshImage();
         return true;
     }
 
+    // 规则任何变更后重建已编译快照，过滤器读到的始终是完整的一致视图
+    private synchronized void recompile() {
+        Map<String, ByteAutomaton> used = new HashMap<>();
+        compiled = CompiledRuleSet.compile(state.getRules(), scoreThreshold, patterns -> {
+            String key = ByteAutomaton.key(patterns);
+            ByteAutomaton a = automata.get(key);
+            if (a == null) {
+                a = ByteAutomaton.build(patterns);
+            }
+            used.put(key, a);
+            return a;
+        });
+        automata.clear();
+        automata.putAll(used);
+    }
+
+    // 启动时映射规则映像，其中的自动机按模式摘要复用；映像损坏时忽略，编译后重新生成
+    private void openImage() {
+        if (!imageEnabled) {
+            return;
+        }
+        try {
+            RuleImage image = RuleImage.load(fileStore.getImagePath());
+            if (image != null) {
+                automata.putAll(image.automata());
+                imageHash = image.getSourceHash();
+                imageKeys = new HashSet<>(image.automata().keySet());
+            }
+        } catch (IOException e) {
+            logger.warn("规则映像 {} 无法使用，将重新生成: {}", fileStore.getImagePath(), e.getMessage());
+        }
+    }
+
+    // 规则 JSON 与映像生成时的内容不同（或还没有映像）时，把当前的自动机写成新映像
+    private void refreshImage() {
+        byte[] hash = fileStore.getContentHash();
+        if (!imageEnabled || hash == null || Arrays.equals(hash, imageHash)) {
+            return;
+        }
+        try {
+            if (imageKeys.equals(automata.keySet()) && Files.exists(fileStore.getImagePath())) {
+                RuleImage.restamp(fileStore.getImagePath(), hash);
+                imageHash = hash;
+                return;
+            }
+            RuleImage.write(fileStore.getImagePath(), hash, automata);
+            imageHash = hash;
+            imageKeys = new HashSet<>(automata.keySet());
+            logger.info("规则映像已更新: {}（{} 个自动机）", fileStore.getImagePath(), automata.size());
+        } catch (IOException e) {
+            logger.warn("写入规则映像 {} 失败: {}", fileStore.getImagePath(), e.toString());
+        }
+    }
+
+    // 本地修改：Lamport 时钟加一，记为本节点的修改并分配新的修改序号
+    private void touch(String id, boolean deleted) {
+        versions.put(id, new RuleVersion(++clock, nodeId, ++seq, deleted));
+    }
+
+    private void touchEnabled() {
+        enabledVersion = new RuleVersion(++clock, nodeId, ++seq, false);
+    }
+
+    /** 规则集代数：本节点的修改序号，本地修改或合并进远端修改都会加一，只增不减 */
+    public long getGeneration() {
+        return seq;
+    }
+
+    public synchronized String getNodeId() {
+        return nodeId;
+    }
+
+    /** 当前全部有效规则的摘要，各节点相同即表示规则已一致 */
+    public synchronized String getStateHash() {
+        if (stateHashSeq != seq) {
+            Map<String, Rule> sorted = new TreeMap<>(ruleById);
+            List<RuleChange> live = new ArrayList<>(sorted.size());
+            for (Map.Entry<String, Rule> e : sorted.entrySet()) {
+                live.add(toChange(e.getKey(), e.getValue(), versions.get(e.getKey())));
+            }
+            stateHash = RuleDigest.ofState(state.isEnabled(), live);
+            stateHashSeq = seq;
+        }
+        return stateHash;
+    }
+
+    /**
+     * 本节点修改序号大于 since 的所有规则和删除标记，按修改顺序排列；since 为 0 时即完整规则集。
+     */
+    public synchronized RuleDelta changesSince(long since) {
+        List<Map.Entry<String, RuleVersion>> changed = new ArrayList<>();
+        for (Map.Entry<String, RuleVersion> e : versions.entrySet()) {
+            if (e.getValue().seq > since) {
+                changed.add(e);
+            }
+        }
+        changed.sort(Comparator.comparingLong(e -> e.getValue().seq));
+        RuleDelta delta = new RuleDelta();
+        delta.node = nodeId;
+        delta.since = since;
+        delta.generation = seq;
+        for (Map.Entry<String, RuleVersion> e : changed) {
+            RuleVersion v = e.getValue();
+            delta.changes.add(toChange(e.getKey(), v.deleted ? null : ruleById.get(e.getKey()), v));
+        }
+        if (enabledVersion.seq > since) {
+            delta.enabled = state.isEnabled();
+            delta.enabledRevision = enabledVersion.revision;
+            delta.enabledOrigin = enabledVersion.origin;
+        }
+        delta.deltaHash = RuleDigest.ofChanges(delta.changes);
+        delta.stateHash = getStateHash();
+        return delta;
+    }
+
+    /**
+     * 合并其他节点的增量：先校验摘要，再逐条比较版本，只接受比本地新的修改，
+     * 有变化时重建快照并落盘一次。
+     *
+     * @return 实际生效的修改条数
+     * @throws IllegalArgumentException 摘要与内容不符
+     */
+    public synchronized int applyChanges(RuleDelta delta) {
+        List<RuleChange> changes = delta.changes == null ? Collections.<RuleChange>emptyList() : delta.changes;
+        if (!RuleDigest.ofChanges(changes).equals(delta.deltaHash)) {
+            throw new IllegalArgumentException("规则增量摘要校验失败: " + delta.node);
+        }
+        int applied = 0;
+        for (RuleChange c : changes) {
+            if (c.id == null || c.id.isEmpty() || (!c.deleted && c.rule == null)) {
+                continue;
+            }
+            clock = Math.max(clock, c.revision);
+            if (!supersedes(c, versions.get(c.id), ruleById.get(c.id))) {
+                continue;
+            }
+            versions.put(c.id, new RuleVersion(c.revision, c.origin, ++seq, c.deleted));
+            if (c.deleted) {
+                ruleById.remove(c.id);
+            } else {
+                c.rule.setId(c.id);
+                ruleById.put(c.id, c.rule);
+            }
+            applied++;
+        }
+        if (delta.enabled != null) {
+            clock = Math.max(clock, delta.enabledRevision);
+            if (new RuleVersion(delta.enabledRevision, delta.enabledOrigin, 0, false)
+                    .isNewerThan(enabledVersion.revision, enabledVersion.origin)) {
+                enabledVersion = new RuleVersion(delta.enabledRevision, delta.enabledOrigin, ++seq, false);
+                state.setEnabled(delta.enabled);
+                applied++;
+            }
+        }
+        if (applied > 0) {
+            state.replaceRules(new ArrayList<>(ruleById.values()));
+            recompile();
+            saveSilently();
+        }
+        return applied;
+    }
+
+    // 远端修改是否取代本地：版本新者胜；版本相同（例如各节点旧文件里的初始版本）时删除优先，再按内容比较
+    private static boolean supersedes(RuleChange c, RuleVersion local, Rule localRule) {
+        if (local == null) {
+            return true;
+        }
+        RuleVersion remote = new RuleVersion(c.revision, c.origin, 0, c.deleted);
+        if (remote.isNewerThan(local.revision, local.origin)) {
+            return true;
+        }
+        if (local.isNewerThan(remote.revision, remote.origin)) {
+            return false;
+        }
+        if (c.deleted || local.deleted) {
+            return c.deleted && !local.deleted;
+        }
+        return localRule != null && RuleDigest.canonical(c.rule).compareTo(RuleDigest.canonical(localRule)) > 0;
+    }
+
+    private static RuleChange toChange(String id, Rule rule, RuleVersion v) {
+        RuleChange c = new RuleChange();
+        c.id = id;
+        if (v != null) {
+            c.revision = v.revision;
+            c.origin = v.origin;
+            c.deleted = v.deleted;
+        }
+        c.rule = rule == null || c.deleted ? null : RuleDigest.copy(rule);
+        return c;
+    }
+
+    /**
+     * 清理本节点修改序号不大于 upTo 的删除标记。调用方保证所有已知对端都已合并到 upTo，
+     * 之后不会再有人需要从本节点得知这些删除。
+     *
+     * @return 清理的条数
+     */
+    public synchronized int pruneTombstones(long upTo) {
+        int pruned = 0;
+        for (Iterator<RuleVersion> it = versions.values().iterator(); it.hasNext(); ) {
+            RuleVersion v = it.next();
+            if (v.deleted && v.seq <= upTo) {
+                it.remove();
+                pruned++;
+            }
+        }
+        if (pruned > 0) {
+            saveSilently();
+        }
+        return pruned;
+    }
+
+    // 计分模式拦截阈值，0 表示首个命中模式
+    public int getScoreThreshold() {
+        return scoreThreshold;
+    }
+
+    // 全局规则快照（未匹配到应用的请求使用）
+    public RuleSnapshot getSnapshot() {
+        return compiled.getGlobal();
+    }
+
+    // 指定应用的规则快照，applicationId 为空或应用没有专属规则时返回全局快照
+    public RuleSnapshot getSnapshot(Long applicationId) {
+        return compiled.forApplication(applicationId);
+    }
+
     private void saveSilently() {
         try {
-            fileStore.save(state.isEnabled(), state.getRules());
+            saveToFile();
         } catch (IOException ignored) {
         }
     }
@@ -75,7 +393,10 @@ public class WafService {
         return state.isEnabled();
     }
 
-    public void setEnabled(boolean enabled) {
+    public synchronized void setEnabled(boolean enabled) {
+        if (enabled != state.isEnabled()) {
+            touchEnabled();
+        }
         state.setEnabled(enabled);
         saveSilently();
     }
@@ -84,20 +405,25 @@ public class WafService {
         return state.getRules();
     }
 
-    public Rule createRule(Rule rule) {
+    public synchronized Rule createRule(Rule rule) {
         if (rule.getId() == null || rule.getId().isEmpty()) {
             rule.setId(UUID.randomUUID().toString());
         }
         if (rule.getPriority() == 0) {
             rule.setPriority(1000);
         }
+        if (rule.getApplicationId() != null && rule.getApplicationId() <= 0) {
+            rule.setApplicationId(null);
+        }
         ruleById.put(rule.getId(), rule);
         state.addRule(rule);
+        touch(rule.getId(), false);
+        recompile();
         saveSilently();
         return rule;
     }
 
-    public Rule updateRule(String id, Rule update) {
+    public synchronized Rule updateRule(String id, Rule update) {
         Rule existing = ruleById.get(id);
         if (existing == null) {
             return null;
@@ -107,24 +433,41 @@ public class WafService {
         if (update.getScope() != null) existing.setScope(update.getScope());
         existing.setEnabled(update.isEnabled());
         if (update.getPriority() != 0) existing.setPriority(update.getPriority());
+        if (update.getCategory() != null) existing.setCategory(update.getCategory());
+        if (update.getScore() != null) existing.setScore(update.getScore());
+        if (update.getTarget() != null) existing.setTarget(update.getTarget().trim().isEmpty() ? null : update.getTarget());
+        if (update.getDetector() != null) existing.setDetector(update.getDetector().trim().isEmpty() ? null : update.getDetector());
+        // applicationId 为 null 表示不修改，0 或负数表示改回全局规则
+        if (update.getApplicationId() != null) existing.setApplicationId(update.getApplicationId() > 0 ? update.getApplicationId() : null);
         state.replaceRules(new ArrayList<>(ruleById.values()));
+        touch(id, false);
+        recompile();
         saveSilently();
         return existing;
     }
 
-    public boolean deleteRule(String id) {
+    public synchronized boolean deleteRule(String id) {
         Rule removed = ruleById.remove(id);
         boolean ok = removed != null && state.removeRuleById(id);
         if (ok) {
+            touch(id, true);
+            recompile();
             saveSilently();
         }
         return ok;
     }
 
-    public boolean saveToFile() throws IOException {
-        fileStore.save(state.isEnabled(), state.getRules());
+    public synchronized boolean saveToFile() throws IOException {
+        RuleFileStore.PersistedConfig cfg = new RuleFileStore.PersistedConfig();
+        cfg.enabled = state.isEnabled();
+        cfg.rules = new ArrayList<>(state.getRules());
+        cfg.nodeId = nodeId;
+        cfg.clock = clock;
+        cfg.seq = seq;
+        cfg.enabledVersion = enabledVersion;
+        cfg.versions = new TreeMap<>(versions);
+        fileStore.save(cfg);
+        refreshImage();
         return true;
     }
 }
-
-
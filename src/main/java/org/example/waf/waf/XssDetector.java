@@ -0,0 +1,258 @@
+package org.example.waf.waf;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 基于 HTML 词法的 XSS 检测（思路同 libinjection）。
+ *
+ * 输入按 HTML5 的标签/属性规则切分，分别假设它出现在正文、双引号/单引号/反引号属性值内、无引号属性值内
+ * 五种上下文（后几种只在含有对应字符时进行）。命中条件：危险标签（script、iframe 等）、
+ * 标签内的 on* 事件属性、属性值以 javascript: 等脚本协议开头、style 中的 expression()；
+ * 不在真实标签内（属性注入）时只认已知的事件属性名，并要求带 '='，避免普通文本误报。
+ */
+final class XssDetector implements Detector {
+    static final XssDetector INSTANCE = new XssDetector();
+
+    private static final Set<String> TAGS = new HashSet<>(Arrays.asList(
+            "script", "iframe", "frame", "frameset", "object", "embed", "applet", "base", "meta", "link", "style",
+            "svg", "math", "xml", "xss", "import", "vmlframe", "isindex", "bgsound", "layer", "ilayer"));
+
+    private static final Set<String> EVENTS = new HashSet<>(Arrays.asList(
+            "onabort", "onafterprint", "onanimationend", "onanimationiteration", "onanimationstart", "onauxclick",
+            "onbeforecopy", "onbeforecut", "onbeforeinput", "onbeforeprint", "onbeforeunload", "onbegin", "onblur",
+            "oncanplay", "oncanplaythrough", "onchange", "onclick", "onclose", "oncontextmenu", "oncopy",
+            "oncuechange", "oncut", "ondblclick", "ondrag", "ondragend", "ondragenter", "ondragleave", "ondragover",
+            "ondragstart", "ondrop", "ondurationchange", "onend", "onended", "onerror", "onfinish", "onfocus",
+            "onfocusin", "onfocusout", "onhashchange", "oninput", "oninvalid", "onkeydown", "onkeypress", "onkeyup",
+            "onload", "onloadeddata", "onloadedmetadata", "onloadstart", "onmessage", "onmousedown",
+            "onmouseenter", "onmouseleave", "onmousemove", "onmouseout", "onmouseover", "onmouseup",
+            "onmousewheel", "onpageshow", "onpaste", "onpause", "onplay", "onplaying", "onpointerdown",
+            "onpointerenter", "onpointerleave", "onpointermove", "onpointerout", "onpointerover", "onpointerup",
+            "onpopstate", "onprogress", "onrepeat", "onreset", "onresize", "onscroll", "onsearch", "onseeked",
+            "onseeking", "onselect", "onselectstart", "onshow", "onstart", "onsubmit", "ontoggle", "ontouchend",
+            "ontouchmove", "ontouchstart", "ontransitionend", "onunload", "onvolumechange", "onwheel"));
+
+    private static final String[] SCHEMES = {"javascript:", "vbscript:", "livescript:", "data:text/html"};
+
+    // 起始上下文：0 表示正文，其余为属性值的引号字符，' ' 表示无引号属性值
+    private static final char DATA = 0;
+    private static final char UNQUOTED = ' ';
+
+    private XssDetector() {
+    }
+
+    @Override
+    public boolean detect(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        if (isScriptUrl(s)) {
+            return true;
+        }
+        return (s.indexOf('<') >= 0 && scan(s, DATA))
+                || (s.indexOf('"') >= 0 && scan(s, '"'))
+                || (s.indexOf('\'') >= 0 && scan(s, '\''))
+                || (s.indexOf('`') >= 0 && scan(s, '`'))
+                || (s.indexOf('=') >= 0 && scan(s, UNQUOTED));
+    }
+
+    private static boolean scan(String s, char context) {
+        int n = s.length();
+        int i = 0;
+        boolean inTag = false;
+        boolean inAttributes;
+        if (context == DATA) {
+            inAttributes = false;
+        } else {
+            // 先读完注入点所在的属性值，之后即为同一标签内的属性
+            i = context == UNQUOTED ? endOfUnquoted(s, 0) : endOfQuoted(s, 0, context);
+            inAttributes = true;
+        }
+        while (i < n) {
+            if (!inAttributes) {
+                int lt = s.indexOf('<', i);
+                if (lt < 0 || lt + 1 >= n) {
+                    return false;
+                }
+                char c = s.charAt(lt + 1);
+                if (c == '!') {
+                    // 注释和声明
+                    int end = s.startsWith("<!--", lt) ? s.indexOf("-->", lt + 4) : s.indexOf('>', lt + 2);
+                    if (end < 0) {
+                        return false;
+                    }
+                    i = end + 1;
+                    continue;
+                }
+                if (!isLetter(c)) {
+                    i = lt + 1;
+                    continue;
+                }
+                int start = lt + 1;
+                int end = start;
+                while (end < n && !isTagEnd(s.charAt(end))) {
+                    end++;
+                }
+                if (TAGS.contains(s.substring(start, end))) {
+                    return true;
+                }
+                i = end;
+                inTag = true;
+                inAttributes = true;
+                continue;
+            }
+
+            // 属性列表
+            char c = s.charAt(i);
+            if (c <= ' ' || c == '/') {
+                i++;
+                continue;
+            }
+            if (c == '>') {
+                inAttributes = false;
+                inTag = false;
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < n && !isAttributeNameEnd(s.charAt(i))) {
+                i++;
+            }
+            String name = s.substring(start, i);
+            while (i < n && s.charAt(i) <= ' ') {
+                i++;
+            }
+            if (i >= n || s.charAt(i) != '=') {
+                continue;
+            }
+            if (inTag ? name.startsWith("on") && name.length() > 2 : EVENTS.contains(name)) {
+                return true;
+            }
+            i++;
+            while (i < n && s.charAt(i) <= ' ') {
+                i++;
+            }
+            if (i >= n) {
+                return false;
+            }
+            char q = s.charAt(i);
+            int valueStart;
+            int valueEnd;
+            if (q == '"' || q == '\'' || q == '`') {
+                valueStart = i + 1;
+                i = endOfQuoted(s, valueStart, q);
+                valueEnd = Math.min(i - 1, n);
+                if (valueEnd < valueStart) {
+                    valueEnd = n;
+                }
+            } else {
+                valueStart = i;
+                i = endOfUnquoted(s, i);
+                valueEnd = i;
+            }
+            String value = s.substring(valueStart, Math.max(valueStart, valueEnd));
+            if (isScriptUrl(value) || ("style".equals(name) && isScriptStyle(value))
+                    || ("srcdoc".equals(name) && value.indexOf('<') >= 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 引号属性值从 start 开始，返回结束引号之后的位置；没有结束引号时为输入末尾
+    private static int endOfQuoted(String s, int start, char quote) {
+        int end = s.indexOf(quote, start);
+        return end < 0 ? s.length() : end + 1;
+    }
+
+    private static int endOfUnquoted(String s, int i) {
+        while (i < s.length() && s.charAt(i) > ' ' && s.charAt(i) != '>') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 去掉控制字符、空白并解码字符实体后，是否以脚本协议开头（浏览器会忽略协议名中的制表符和换行）。
+     */
+    static boolean isScriptUrl(String value) {
+        String v = normalize(value, 32);
+        for (String scheme : SCHEMES) {
+            if (v.startsWith(scheme)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isScriptStyle(String value) {
+        String v = normalize(value, value.length());
+        return v.contains("expression(") || v.contains("url(javascript") || v.contains("behavior:");
+    }
+
+    private static final String[] ENTITY_NAMES = {"colon;", "tab;", "newline;", "lpar;", "rpar;"};
+    private static final char[] ENTITY_CHARS = {':', '\t', '\n', '(', ')'};
+
+    // 只处理前 limit 个输出字符：去掉空白和控制字符，解码 &#..;（分号可省略）和常见的命名实体
+    private static String normalize(String s, int limit) {
+        int n = s.length();
+        StringBuilder sb = new StringBuilder(Math.min(limit, n));
+        for (int i = 0; i < n && sb.length() < limit; i++) {
+            char c = s.charAt(i);
+            if (c == '&' && i + 1 < n) {
+                int j = i + 1;
+                int value = -1;
+                if (s.charAt(j) == '#') {
+                    j++;
+                    int radix = 10;
+                    if (j < n && s.charAt(j) == 'x') {
+                        radix = 16;
+                        j++;
+                    }
+                    int start = j;
+                    int v = 0;
+                    while (j < n && j - start < 7 && Character.digit(s.charAt(j), radix) >= 0) {
+                        v = v * radix + Character.digit(s.charAt(j), radix);
+                        j++;
+                    }
+                    if (j > start && v <= 0xffff) {
+                        value = v;
+                        if (j < n && s.charAt(j) == ';') {
+                            j++;
+                        }
+                    }
+                } else {
+                    for (int k = 0; k < ENTITY_NAMES.length; k++) {
+                        if (s.startsWith(ENTITY_NAMES[k], j)) {
+                            value = ENTITY_CHARS[k];
+                            j += ENTITY_NAMES[k].length();
+                            break;
+                        }
+                    }
+                }
+                if (value >= 0) {
+                    c = (char) value;
+                    i = j - 1;
+                }
+            }
+            if (c > ' ') {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isTagEnd(char c) {
+        return c <= ' ' || c == '/' || c == '>';
+    }
+
+    private static boolean isAttributeNameEnd(char c) {
+        return c <= ' ' || c == '/' || c == '>' || c == '=';
+    }
+}
@@ -0,0 +1,183 @@
+package org.example.waf.cluster;
+
+import org.example.waf.waf.RuleFileStore;
+import org.example.waf.waf.WafService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterRateLimiterTest {
+
+    private static final String IP = "203.0.113.7";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void aggregatesCountsReportedByPeers() throws Exception {
+        ClusterRateLimiter self = limiter("self", 100, "", 0);
+        ClusterRateLimiter peerA = limiter("peer-a", 100, "", 0);
+        ClusterRateLimiter peerB = limiter("peer-b", 100, "", 0);
+        acquire(peerA, IP, 40);
+        acquire(peerB, IP, 30);
+        deliver(self, peerA, "peer-a", IP);
+        deliver(self, peerB, "peer-b", IP);
+        assertEquals(70, self.estimate(IP));
+
+        // 本地只剩 30 次额度，超出的请求被拒绝且不计数
+        assertEquals(30, acquire(self, IP, 50));
+        assertEquals(100, self.estimate(IP));
+        assertFalse(self.tryAcquire(IP));
+        assertEquals(100, self.estimate(IP));
+        assertEquals(21L, self.getStatus().get("limitedRequests"));
+
+        // 上报的是当前计数：同一对端的新报文替换旧值，不累加
+        acquire(peerA, IP, 10);
+        deliver(self, peerA, "peer-a", IP);
+        assertEquals(110, self.estimate(IP));
+        assertEquals(0, self.estimate("198.51.100.1"));
+    }
+
+    @Test
+    void rejectsReplayedOwnAndForeignPackets() throws Exception {
+        ClusterRateLimiter self = limiter("self", 100, "", 0);
+        ClusterRateLimiter peer = limiter("peer", 100, "", 0);
+        acquire(peer, IP, 5);
+        byte[] packet = peer.encode("peer", System.currentTimeMillis(), report(peer, IP)).get(0);
+        assertTrue(self.accept(InetAddress.getLoopbackAddress(), packet, packet.length, null));
+        // 重放同一报文
+        assertFalse(self.accept(InetAddress.getLoopbackAddress(), packet, packet.length, null));
+        // 未配置密钥时只接受本机地址
+        byte[] next = peer.encode("peer", System.currentTimeMillis(), report(peer, IP)).get(0);
+        assertFalse(self.accept(InetAddress.getByName("192.0.2.1"), next, next.length, null));
+        // 自己发出的、时间超出窗口的
+        byte[] own = peer.encode("self", System.currentTimeMillis(), report(peer, IP)).get(0);
+        assertFalse(self.accept(InetAddress.getLoopbackAddress(), own, own.length, null));
+        byte[] stale = peer.encode("peer", System.currentTimeMillis() - 120_000, report(peer, IP)).get(0);
+        assertFalse(self.accept(InetAddress.getLoopbackAddress(), stale, stale.length, null));
+        assertEquals(5, self.estimate(IP));
+    }
+
+    @Test
+    void largeReportsAreSplitIntoDatagrams() throws Exception {
+        ClusterRateLimiter self = limiter("self", 1000, "", 0);
+        ClusterRateLimiter peer = limiter("peer", 1000, "", 0);
+        List<Map.Entry<String, Long>> entries = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>("10.0." + (i / 256) + "." + (i % 256), (long) i + 1));
+        }
+        List<byte[]> packets = peer.encode("peer", System.currentTimeMillis(), entries);
+        assertTrue(packets.size() > 1);
+        for (byte[] p : packets) {
+            assertTrue(p.length <= 1400);
+            assertTrue(self.accept(InetAddress.getLoopbackAddress(), p, p.length, null));
+        }
+        assertEquals(500, self.getStatus().get("remoteIps"));
+        assertEquals(1, self.estimate("10.0.0.0"));
+        assertEquals(500, self.estimate("10.0.1.243"));
+    }
+
+    @Test
+    void remoteTableKeepsHeaviestIpsWhenFull() throws Exception {
+        ClusterRateLimiter self = limiter("self", 1000, "", 10);
+        ClusterRateLimiter peer = limiter("peer", 1000, "", 10);
+        List<Map.Entry<String, Long>> entries = new ArrayList<>();
+        for (int i = 1; i <= 15; i++) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>("10.0.0." + i, (long) i * 10));
+        }
+        byte[] packet = peer.encode("peer", System.currentTimeMillis(), entries).get(0);
+        assertTrue(self.accept(InetAddress.getLoopbackAddress(), packet, packet.length, null));
+        assertEquals(9, self.getStatus().get("remoteIps"));
+        assertEquals(0, self.estimate("10.0.0.6"));
+        assertEquals(70, self.estimate("10.0.0.7"));
+        assertEquals(150, self.estimate("10.0.0.15"));
+    }
+
+    @Test
+    void fullLocalTableStillLimitsNewIps() {
+        ClusterRateLimiter self = limiter("self", 5, "", 10);
+        // 已接近上限的 IP，之后轮换源地址把表填满
+        assertEquals(4, acquire(self, IP, 4));
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(self.tryAcquire("2001:db8::" + Integer.toHexString(i)));
+        }
+        assertTrue((Integer) self.getStatus().get("trackedIps") <= 10);
+        // 表满后的新 IP 照常计数，超限即拒绝
+        String fresh = "198.51.100.9";
+        assertEquals(5, acquire(self, fresh, 8));
+        assertFalse(self.tryAcquire(fresh));
+        // 计数大的 IP 没有被淘汰
+        assertEquals(1, acquire(self, IP, 3));
+        assertEquals(5, self.estimate(IP));
+    }
+
+    @Test
+    void signedPacketsAreVerified() throws Exception {
+        int port;
+        try (DatagramSocket probe = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            port = probe.getLocalPort();
+        }
+        ClusterRateLimiter self = limiter("self", 100, "secret", 0);
+        ClusterRateLimiter peer = new ClusterRateLimiter(node("peer"), true, 100, 60, 12, port, "127.0.0.1", "",
+                60_000, 1, 100, 1000, "secret");
+        peer.start();
+        try {
+            acquire(peer, IP, 8);
+            byte[] packet = peer.encode("peer", System.currentTimeMillis(), report(peer, IP)).get(0);
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec("secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+
+            byte[] tampered = packet.clone();
+            tampered[tampered.length - 20] ^= 1;
+            assertFalse(self.accept(InetAddress.getByName("192.0.2.1"), tampered, tampered.length, mac));
+            // 配置了密钥时不限制来源地址
+            assertTrue(self.accept(InetAddress.getByName("192.0.2.1"), packet, packet.length, mac));
+            assertEquals(8, self.estimate(IP));
+        } finally {
+            peer.stop();
+        }
+    }
+
+    private ClusterRateLimiter limiter(String node, long limit, String token, int maxTrackedIps) {
+        return new ClusterRateLimiter(node(node), true, limit, 60, 12, 0, "127.0.0.1", "", 60_000, 1, 2000,
+                maxTrackedIps > 0 ? maxTrackedIps : 1000, token);
+    }
+
+    private WafService node(String name) {
+        return new WafService(new RuleFileStore(dir.resolve(name).resolve("rules.json").toString()), 0, name, false);
+    }
+
+    private static int acquire(ClusterRateLimiter limiter, String ip, int times) {
+        int allowed = 0;
+        for (int i = 0; i < times; i++) {
+            if (limiter.tryAcquire(ip)) {
+                allowed++;
+            }
+        }
+        return allowed;
+    }
+
+    private static List<Map.Entry<String, Long>> report(ClusterRateLimiter from, String ip) {
+        return Collections.singletonList(new AbstractMap.SimpleImmutableEntry<>(ip, from.estimate(ip)));
+    }
+
+    private static void deliver(ClusterRateLimiter to, ClusterRateLimiter from, String node, String ip) throws Exception {
+        byte[] packet = from.encode(node, System.currentTimeMillis(), report(from, ip)).get(0);
+        assertTrue(to.accept(InetAddress.getLoopbackAddress(), packet, packet.length, null));
+    }
+}
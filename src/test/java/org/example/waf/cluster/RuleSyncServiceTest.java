@@ -0,0 +1,185 @@
+package org.example.waf.cluster;
+
+import org.example.waf.waf.Rule;
+import org.example.waf.waf.RuleDelta;
+import org.example.waf.waf.RuleFileStore;
+import org.example.waf.waf.WafService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RuleSyncServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void twoNodesConvergeThroughDeltas() {
+        WafService a = node("a");
+        WafService b = node("b");
+        long[] cursors = new long[2];
+        exchange(a, b, cursors);
+        assertEquals(a.getStateHash(), b.getStateHash());
+        assertEquals(rules(a), rules(b));
+
+        // 两边同时修改：各自新增、改同一条规则、一边删除另一边刚改过的规则
+        Rule shared = a.createRule(rule("evil"));
+        Rule doomed = a.createRule(rule("doomed"));
+        exchange(a, b, cursors);
+        a.createRule(rule("only-on-a"));
+        b.createRule(rule("only-on-b"));
+        a.updateRule(shared.getId(), priority(7));
+        b.updateRule(shared.getId(), priority(9));
+        b.updateRule(doomed.getId(), priority(3));
+        a.deleteRule(doomed.getId());
+        a.setEnabled(false);
+        exchange(a, b, cursors);
+
+        assertEquals(a.getStateHash(), b.getStateHash());
+        assertEquals(rules(a), rules(b));
+        assertFalse(b.isEnabled());
+        assertTrue(patterns(a).contains("only-on-a") && patterns(a).contains("only-on-b"));
+        // 同一条规则的并发修改只保留一个版本，两边一致
+        int winner = find(a, shared.getId()).getPriority();
+        assertTrue(winner == 7 || winner == 9);
+        assertEquals(winner, find(b, shared.getId()).getPriority());
+
+        // 已同步的增量再合并一次不产生变化
+        assertEquals(0, b.applyChanges(a.changesSince(0)));
+        assertEquals(0, a.applyChanges(b.changesSince(0)));
+    }
+
+    @Test
+    void deletionPropagatesAndTombstoneCanBePruned() {
+        WafService a = node("a");
+        WafService b = node("b");
+        long[] cursors = new long[2];
+        Rule r = a.createRule(rule("evil"));
+        exchange(a, b, cursors);
+        // 对端修改过的规则再被删除，删除的版本更新，两边都应删除
+        b.updateRule(r.getId(), priority(3));
+        exchange(a, b, cursors);
+        a.deleteRule(r.getId());
+        exchange(a, b, cursors);
+        assertNull(find(a, r.getId()));
+        assertNull(find(b, r.getId()));
+        assertEquals(a.getStateHash(), b.getStateHash());
+
+        long tombstones = a.changesSince(0).changes.stream().filter(c -> c.deleted).count();
+        assertEquals(1, tombstones);
+        assertEquals(1, a.pruneTombstones(a.getGeneration()));
+        assertEquals(0, a.changesSince(0).changes.stream().filter(c -> c.deleted).count());
+    }
+
+    @Test
+    void tamperedDeltaIsRejected() {
+        WafService a = node("a");
+        WafService b = node("b");
+        a.createRule(rule("evil"));
+        RuleDelta delta = a.changesSince(0);
+        delta.changes.get(delta.changes.size() - 1).rule.setPattern("harmless");
+        assertThrows(IllegalArgumentException.class, () -> b.applyChanges(delta));
+        assertFalse(patterns(b).contains("harmless"));
+    }
+
+    @Test
+    void sharedDirectorySyncConvergesAndRejectsForeignSignatures() {
+        String shared = dir.resolve("shared").toString();
+        WafService a = node("a");
+        WafService b = node("b");
+        WafService c = node("c");
+        RuleSyncService syncA = new RuleSyncService(a, "", shared, "secret", 2000);
+        RuleSyncService syncB = new RuleSyncService(b, "", shared, "secret", 2000);
+        RuleSyncService syncC = new RuleSyncService(c, "", shared, "other", 2000);
+        a.createRule(rule("from-a"));
+        b.createRule(rule("from-b"));
+
+        syncA.sync();
+        syncB.sync();
+        syncA.sync();
+        syncC.sync();
+
+        assertEquals(a.getStateHash(), b.getStateHash());
+        assertTrue(patterns(a).contains("from-b"));
+        assertTrue(patterns(b).contains("from-a"));
+        // 密钥不同的节点不合并任何内容，并在状态里记录签名错误
+        assertFalse(patterns(c).contains("from-a") || patterns(c).contains("from-b"));
+        assertNotEquals(a.getStateHash(), c.getStateHash());
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> peers = (List<Map<String, Object>>) syncC.getStatus().get("peers");
+        assertEquals(2, peers.size());
+        for (Map<String, Object> p : peers) {
+            assertNotNull(p.get("lastError"));
+            assertTrue(p.get("lastError").toString().contains("签名"));
+        }
+        assertEquals(b.getNodeId(), peerNode(syncA));
+    }
+
+    // 双向交换一次增量，cursors[0] 为 b 已从 a 合并到的序号，cursors[1] 反之
+    private static void exchange(WafService a, WafService b, long[] cursors) {
+        for (int round = 0; round < 2; round++) {
+            RuleDelta fromA = a.changesSince(cursors[0]);
+            b.applyChanges(fromA);
+            cursors[0] = fromA.generation;
+            RuleDelta fromB = b.changesSince(cursors[1]);
+            a.applyChanges(fromB);
+            cursors[1] = fromB.generation;
+        }
+    }
+
+    private WafService node(String name) {
+        return new WafService(new RuleFileStore(dir.resolve(name).resolve("rules.json").toString()), 0, name, false);
+    }
+
+    private static Rule rule(String pattern) {
+        Rule r = new Rule();
+        r.setPattern(pattern);
+        r.setScope("query");
+        r.setAction("block");
+        r.setEnabled(true);
+        r.setPriority(5);
+        return r;
+    }
+
+    private static Rule priority(int priority) {
+        Rule r = new Rule();
+        r.setEnabled(true);
+        r.setPriority(priority);
+        return r;
+    }
+
+    private static Rule find(WafService waf, String id) {
+        return waf.listRules().stream().filter(r -> r.getId().equals(id)).findFirst().orElse(null);
+    }
+
+    private static List<String> patterns(WafService waf) {
+        return waf.listRules().stream().map(Rule::getPattern).collect(Collectors.toList());
+    }
+
+    private static Map<String, String> rules(WafService waf) {
+        Map<String, String> m = new TreeMap<>();
+        for (Rule r : waf.listRules()) {
+            m.put(r.getId(), r.getPattern() + "|" + r.getPriority() + "|" + r.isEnabled());
+        }
+        return m;
+    }
+
+    private static Object peerNode(RuleSyncService sync) {
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> peers = (List<Map<String, Object>>) sync.getStatus().get("peers");
+        return peers.stream().filter(p -> p.get("lastError") == null).map(p -> p.get("node")).findFirst().orElse(null);
+    }
+}
@@ -0,0 +1,102 @@
+package org.example.waf.proxy;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerExpectContinueHandler;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import java.util.Arrays;
+
+/**
+ * 压测用的本地替身上游：对任何请求返回固定大小的 200 响应，请求体只读不存。
+ *
+ * 压测步骤：
+ * <pre>
+ * 1. 启动替身上游（在测试源码里，不随应用打包，先 mvn test-compile）：
+ *    java -cp target/classes:target/test-classes:&lt;依赖&gt; org.example.waf.proxy.StandInUpstream 9000 512
+ * 2. 启动 WAF：app.proxy.enabled=true、app.proxy.upstream.allow-loopback=true，并为应用设置上游
+ *    PUT /api/applications/{id}/upstream {"upstream":"http://127.0.0.1:9000"}
+ * 3. 对比直连与经过代理的吞吐和延迟：
+ *    wrk -t4 -c128 -d30s http://127.0.0.1:9000/
+ *    wrk -t4 -c128 -d30s -H "Host: api.demo.com" http://127.0.0.1:8090/
+ * </pre>
+ */
+public class StandInUpstream {
+
+    public static void main(String[] args) throws InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9000;
+        int bodySize = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+        byte[] body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'x');
+        ByteBuf payload = Unpooled.unreleasableBuffer(Unpooled.directBuffer(bodySize).writeBytes(body));
+
+        EventLoopGroup group = new NioEventLoopGroup();
+        try {
+            new ServerBootstrap()
+                    .group(group)
+                    .channel(NioServerSocketChannel.class)
+                    .option(ChannelOption.SO_BACKLOG, 1024)
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(new HttpServerCodec(), new HttpServerExpectContinueHandler(),
+                                    new Responder(payload));
+                        }
+                    })
+                    .bind(port).sync()
+                    .channel().closeFuture().sync();
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    private static final class Responder extends SimpleChannelInboundHandler<HttpObject> {
+        private final ByteBuf payload;
+        private boolean keepAlive;
+
+        Responder(ByteBuf payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
+            if (msg instanceof HttpRequest) {
+                keepAlive = HttpUtil.isKeepAlive((HttpRequest) msg);
+            }
+            if (!(msg instanceof LastHttpContent)) {
+                return;
+            }
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                    payload.duplicate());
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.TEXT_PLAIN);
+            HttpUtil.setContentLength(response, payload.readableBytes());
+            HttpUtil.setKeepAlive(response, keepAlive);
+            if (keepAlive) {
+                ctx.writeAndFlush(response);
+            } else {
+                ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+    }
+}
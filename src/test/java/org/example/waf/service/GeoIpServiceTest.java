@@ -0,0 +1,40 @@
+package org.example.waf.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class GeoIpServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void malformedRowsAreSkippedWithoutDroppingTheTable() throws Exception {
+        Path file = dir.resolve("ip-regions.csv");
+        Files.write(file, Arrays.asList(
+                "# 起始IP,结束IP,国家代码,省份,城市,经度,纬度",
+                "1.0.0.0,1.0.0.255,CN,广东,广州,113.26,23.13",
+                "2.0.0.0,2.0.0.255,CN,北京,北京,N/A,39.90",
+                "3.0.0.0,3.0.0.255,CN,上海,上海,121.47,",
+                "4.0.0.0,not-an-ip,CN,浙江,杭州,120.15,30.28",
+                "5.0.0.0,5.0.0.255,CN,四川",
+                "2001:db8::,2001:db8::ffff,CN,四川,成都,104.06,30.67"), StandardCharsets.UTF_8);
+
+        GeoIpService geo = new GeoIpService(file.toString());
+        assertEquals("广州", geo.lookup("1.0.0.7").getCity());
+        assertEquals(113.26, geo.lookup("1.0.0.7").getLongitude());
+        assertEquals(23.13, geo.lookup("1.0.0.7").getLatitude());
+        assertEquals("成都", geo.lookup("2001:db8::1").getCity());
+        for (String ip : new String[]{"2.0.0.1", "3.0.0.1", "4.0.0.1", "5.0.0.1"}) {
+            assertFalse(geo.lookup(ip).isKnown(), ip);
+        }
+    }
+}
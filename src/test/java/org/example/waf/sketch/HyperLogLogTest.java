@@ -0,0 +1,94 @@
+package org.example.waf.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperLogLogTest {
+
+    private static final int P = 13;
+
+    @Test
+    void estimateWithinErrorBound() {
+        for (int n : new int[]{10, 1000, 100_000}) {
+            HyperLogLog h = sketch(0, n);
+            // 标准误差约 1.15%，按 4 倍放宽
+            assertEquals(n, h.estimate(), Math.max(1, n * 0.046), "n=" + n);
+        }
+        assertTrue(new HyperLogLog(P).isEmpty());
+        assertEquals(0, new HyperLogLog(P).estimate());
+    }
+
+    @Test
+    void mergeEqualsSketchOfUnion() {
+        // 稀疏+稀疏、稀疏+稠密、稠密+稀疏、稠密+稠密，有重叠
+        int[][] cases = {{0, 300, 200, 600}, {0, 300, 100, 20_000}, {0, 20_000, 19_000, 19_500}, {0, 30_000, 10_000, 50_000}};
+        for (int[] c : cases) {
+            HyperLogLog a = sketch(c[0], c[1]);
+            HyperLogLog b = sketch(c[2], c[3]);
+            HyperLogLog union = sketch(Math.min(c[0], c[2]), Math.max(c[1], c[3]));
+            a.merge(b);
+            assertEquals(union.estimate(), a.estimate(), "case " + c[1] + "/" + c[3]);
+            assertArrayEquals(denseBytes(union), denseBytes(a), "registers " + c[1] + "/" + c[3]);
+        }
+    }
+
+    @Test
+    void mergeIsIdempotentAndDoesNotTouchSource() {
+        HyperLogLog a = sketch(0, 5000);
+        HyperLogLog b = sketch(2500, 7500);
+        HyperLogLog before = b.copy();
+        a.merge(b);
+        long once = a.estimate();
+        a.merge(b);
+        assertEquals(once, a.estimate());
+        assertEquals(before.estimate(), b.estimate());
+        assertArrayEquals(serialize(before), serialize(b));
+    }
+
+    @Test
+    void serializationRoundTrip() {
+        for (int n : new int[]{0, 50, 50_000}) {
+            HyperLogLog h = sketch(0, n);
+            byte[] bytes = serialize(h);
+            assertEquals(h.serializedSize(), bytes.length);
+            HyperLogLog back = HyperLogLog.readFrom(ByteBuffer.wrap(bytes));
+            assertEquals(h.estimate(), back.estimate());
+            assertArrayEquals(bytes, serialize(back));
+        }
+    }
+
+    @Test
+    void rejectsMismatchedPrecision() {
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(P).merge(new HyperLogLog(P + 1)));
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(HyperLogLog.MAX_PRECISION + 1));
+    }
+
+    private static HyperLogLog sketch(int from, int to) {
+        HyperLogLog h = new HyperLogLog(P);
+        for (int i = from; i < to; i++) {
+            h.add("10." + (i >>> 16 & 255) + "." + (i >>> 8 & 255) + "." + (i & 255));
+        }
+        return h;
+    }
+
+    // 并入一个全零的稠密草图，把寄存器统一成稠密表示后比较
+    private static byte[] denseBytes(HyperLogLog h) {
+        ByteBuffer zeros = ByteBuffer.allocate(6 + (1 << P));
+        zeros.put((byte) P).put((byte) 1).putInt(1 << P).rewind();
+        HyperLogLog dense = HyperLogLog.readFrom(zeros);
+        dense.merge(h);
+        return serialize(dense);
+    }
+
+    private static byte[] serialize(HyperLogLog h) {
+        ByteBuffer buf = ByteBuffer.allocate(h.serializedSize());
+        h.writeTo(buf);
+        return buf.array();
+    }
+}
@@ -0,0 +1,136 @@
+package org.example.waf.tools;
+
+import org.example.waf.domain.DbLog;
+import org.example.waf.search.AttackLogIndex;
+import org.example.waf.search.LogSearchQuery;
+import org.example.waf.search.LogSearchResult;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 攻击日志倒排索引与"整表加载后 Java 过滤"的对比：同一批合成日志分别写入索引和实体列表，
+ * 执行相同的过滤 + 按时间取前 N，比较耗时并核对命中数和返回的 id。
+ *
+ * 实体列表一侧只计内存中的过滤排序，不含 findAll 的 SQL 和实体填充，是原有路径耗时的下界。
+ *
+ * 用法：
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -Xmx6g -cp "target/classes:target/test-classes:$(cat cp.txt)" org.example.waf.tools.AttackLogIndexBenchmark [--events 5000000] [--ips 50000]
+ * </pre>
+ */
+public class AttackLogIndexBenchmark {
+    private static final String[] PATHS = {
+            "/api/users", "/api/orders", "/login", "/search", "/download", "/admin/config", "/wp-admin/install.php",
+            "/static/app.js", "/api/products/list", "/upload"};
+    private static final String[] PAYLOADS = {
+            "?id=1%20union%20select%20password%20from%20users", "?q=%3Cscript%3Ealert(1)%3C/script%3E",
+            "?file=../../../etc/passwd", "?page=2", "?name=test", "?cmd=cat%20/etc/shadow", ""};
+    private static final String[] AGENTS = {
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 Chrome/120.0 Safari/537.36",
+            "Mozilla/5.0 (Macintosh; Intel Mac OS X 14_1) AppleWebKit/605.1.15 Version/17.1 Safari/605.1.15",
+            "sqlmap/1.7.2#stable (https://sqlmap.org)", "curl/8.4.0", "python-requests/2.31.0",
+            "Nikto/2.5.0", "Go-http-client/1.1"};
+    private static final String[] ACTIONS = {"block", "block", "log", "allow"};
+    private static final int ROUNDS = 5;
+    private static final int LIMIT = 50;
+
+    public static void main(String[] args) {
+        int events = 5_000_000;
+        int ips = 50_000;
+        for (int i = 0; i < args.length; i++) {
+            if ("--events".equals(args[i]) && i + 1 < args.length) {
+                events = Integer.parseInt(args[++i]);
+            } else if ("--ips".equals(args[i]) && i + 1 < args.length) {
+                ips = Integer.parseInt(args[++i]);
+            }
+        }
+
+        AttackLogIndex index = new AttackLogIndex(null, true, events, 1 << 20, false);
+        index.start();
+        long now = System.currentTimeMillis();
+        long start = now - 7L * 24 * 3600 * 1000;
+        long step = Math.max(1, (now - start) / events);
+
+        List<DbLog> logs = new ArrayList<>(events);
+        List<DbLog> batch = new ArrayList<>(500);
+        Random random = new Random(7);
+        long indexNanos = 0;
+        for (int i = 0; i < events; i++) {
+            int ipIndex = (int) (Math.pow(random.nextDouble(), 3) * ips);
+            String action = ACTIONS[random.nextInt(ACTIONS.length)];
+            DbLog log = new DbLog();
+            log.setId((long) i + 1);
+            log.setLogTimestamp(new Date(start + i * step));
+            log.setClientIp("10." + (ipIndex >> 16 & 255) + "." + (ipIndex >> 8 & 255) + "." + (ipIndex & 255));
+            log.setRuleId("rule-" + random.nextInt(60));
+            log.setUrl(PATHS[random.nextInt(PATHS.length)] + PAYLOADS[random.nextInt(PAYLOADS.length)]);
+            log.setUserAgent(AGENTS[random.nextInt(AGENTS.length)]);
+            log.setActionTaken(action);
+            log.setStatusCode("block".equals(action) ? 403 : 200);
+            logs.add(log);
+            batch.add(log);
+            if (batch.size() == 500 || i == events - 1) {
+                long t = System.nanoTime();
+                index.addAll(batch);
+                indexNanos += System.nanoTime() - t;
+                batch.clear();
+            }
+        }
+        System.out.printf("事件: %d  索引写入: %.0f ns/条  %s%n%n", events, indexNanos / (double) events, index.getStatus());
+
+        String hotIp = "10.0.0.3";
+        compare(index, logs, "单个 IP",
+                new LogSearchQuery().ip(hotIp),
+                l -> hotIp.equals(l.getClientIp()));
+        compare(index, logs, "规则 + 拦截",
+                new LogSearchQuery().ruleId("rule-7").action("block"),
+                l -> "rule-7".equals(l.getRuleId()) && "block".equals(l.getActionTaken()));
+        compare(index, logs, "URL 片段 etc/passwd",
+                new LogSearchQuery().url("etc/passwd"),
+                l -> l.getUrl().contains("etc/passwd"));
+        compare(index, logs, "UA sqlmap 且 403",
+                new LogSearchQuery().userAgent("sqlmap").status("403"),
+                l -> l.getUserAgent().startsWith("sqlmap") && l.getStatusCode() == 403);
+        compare(index, logs, "两个 IP 或 nikto（op=or）",
+                new LogSearchQuery().ip(hotIp + ",10.0.0.9").userAgent("nikto").or(),
+                l -> hotIp.equals(l.getClientIp()) || "10.0.0.9".equals(l.getClientIp()) || l.getUserAgent().startsWith("Nikto"));
+        long dayStart = now - 24L * 3600 * 1000;
+        compare(index, logs, "最近 24 小时 wp-admin",
+                new LogSearchQuery().url("wp-admin").between(dayStart, null),
+                l -> l.getLogTimestamp().getTime() >= dayStart && l.getUrl().contains("wp-admin"));
+    }
+
+    private static void compare(AttackLogIndex index, List<DbLog> logs, String name, LogSearchQuery query,
+                                Predicate<DbLog> filter) {
+        Supplier<LogSearchResult> indexed = () -> index.search(query, LIMIT);
+        Supplier<List<DbLog>> scanned = () -> logs.stream().filter(filter)
+                .sorted(Comparator.comparing(DbLog::getLogTimestamp).reversed().thenComparing(DbLog::getId, Comparator.reverseOrder()))
+                .collect(Collectors.toList());
+        double indexMs = best(indexed::get);
+        double scanMs = best(scanned::get);
+        LogSearchResult a = indexed.get();
+        List<DbLog> b = scanned.get();
+        List<Long> expected = b.stream().limit(LIMIT).map(DbLog::getId).collect(Collectors.toList());
+        boolean same = a.getTotal() == b.size() && a.getIds().equals(expected);
+        System.out.printf("%-26s 索引 %8.2f ms   全量过滤 %8.1f ms   命中 %d   结果%s%n", name, indexMs, scanMs,
+                a.getTotal(), same ? "一致" : "不一致: " + a.getTotal() + " / " + b.size());
+    }
+
+    private static double best(Runnable query) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long t = System.nanoTime();
+            query.run();
+            best = Math.min(best, System.nanoTime() - t);
+        }
+        return best / 1e6;
+    }
+}
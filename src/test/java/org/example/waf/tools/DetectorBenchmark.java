@@ -0,0 +1,203 @@
+package org.example.waf.tools;
+
+import org.example.waf.util.LatencyHistogram;
+import org.example.waf.waf.CapturedRequest;
+import org.example.waf.waf.Rule;
+import org.example.waf.waf.RuleSnapshot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 检测器规则与默认关键字规则的对比：在同一批已标注的查询串上统计检出率、误报和单次匹配耗时。
+ *
+ * 默认使用内置样本；也可以用 --samples 指定文件，每行 "attack|benign&lt;TAB&gt;原始查询串"（保持 URL 编码）。
+ *
+ * 用法：
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp "target/classes:target/test-classes:$(cat cp.txt)" org.example.waf.tools.DetectorBenchmark [--samples samples.tsv] [--rounds 200]
+ * </pre>
+ */
+public class DetectorBenchmark {
+
+    private static final String[] ATTACKS = {
+            "id=1%27%20or%20%271%27%3D%271",
+            "id=1%20or%201%3D1",
+            "id=1%27%20or%201%3D1--%20",
+            "user=admin%27--",
+            "user=admin%27%23",
+            "id=-1%20union%20select%201,2,3",
+            "id=1%27%20union%20all%20select%20null,version()--",
+            "id=1%27/**/UnIoN/**/SeLeCt/**/password/**/from/**/users--",
+            "id=1;drop%20table%20users",
+            "id=1%27;%20shutdown--",
+            "id=1%20and%20sleep(5)",
+            "id=1%27%20and%20(select%201%20from%20dual)%3D1--",
+            "id=1%20AND%201%3D2",
+            "id=%27%20or%20%27%27%3D%27",
+            "id=1%27)%20or%20(%271%27%3D%271",
+            "id=1%20/*!50000union*/%20select%201",
+            "id=1%20having%201%3D1",
+            "q=%3Cscript%3Ealert(1)%3C/script%3E",
+            "q=%3CScRiPt%20src%3D//evil.example/x.js%3E",
+            "q=%3Cimg%20src%3Dx%20onerror%3Dalert(1)%3E",
+            "q=%3Csvg/onload%3Dprompt(1)%3E",
+            "q=%3Cbody%20onpageshow%3Dconfirm(1)%3E",
+            "q=%22%20onmouseover%3D%22alert(1)",
+            "q=%27%20autofocus%20onfocus%3Dconfirm(1)%20x%3D%27",
+            "url=javascript:alert(document.cookie)",
+            "url=jav%26%23x61;script:alert(1)",
+            "url=%20%20JaVaScRiPt:eval(name)",
+            "q=%3Ciframe%20src%3Ddata:text/html,%3Cb%3E%3E",
+            "q=%3Ca%20href%3D%22javascript%26colon;alert(1)%22%3Ex%3C/a%3E",
+            "q=%3Cdiv%20style%3D%22width:expression(alert(1))%22%3E",
+            "q=%22%3E%3Cdetails%20open%20ontoggle%3Dfetch(1)%3E",
+    };
+
+    private static final String[] BENIGN = {
+            "q=selection",
+            "q=best%20selection%20of%20drop%20earrings",
+            "q=insert%20coin",
+            "q=delete%20account%20help",
+            "q=union%20station%20parking",
+            "q=description",
+            "name=O%27Brien",
+            "name=Dwayne%20%22The%20Rock%22%20Johnson",
+            "q=rock%20%26%20roll",
+            "q=1%20or%202%20tickets",
+            "q=select%20a%20plan",
+            "q=what%20is%20a%20javascript%20framework",
+            "q=alert%20settings",
+            "q=postscript",
+            "q=i%3C3%20you",
+            "q=a%20%3C%20b%20and%20c%20%3E%20d",
+            "q=C%2B%2B%20templates",
+            "page=2&sort=price&order=desc",
+            "email=alice%40example.com",
+            "redirect=%2Faccount%2Fsettings",
+            "ts=2024-01-01T10:00:00Z",
+            "q=it%27s%20fine",
+            "q=don%27t%20stop",
+            "q=10%25%20off",
+            "q=%E4%BD%A0%E5%A5%BD",
+            "phone=%2B86-138-0000-0000",
+            "q=drop%20shipping",
+            "filter=price%3E100",
+            "q=scripts%20for%20actors",
+            "q=onerror%20handling%20in%20node",
+    };
+
+    public static void main(String[] args) throws IOException {
+        String samplesPath = null;
+        int rounds = 200;
+        for (int i = 0; i < args.length; i++) {
+            if ("--samples".equals(args[i]) && i + 1 < args.length) {
+                samplesPath = args[++i];
+            } else if ("--rounds".equals(args[i]) && i + 1 < args.length) {
+                rounds = Integer.parseInt(args[++i]);
+            }
+        }
+
+        List<String> attacks = new ArrayList<>();
+        List<String> benign = new ArrayList<>();
+        if (samplesPath == null) {
+            attacks.addAll(Arrays.asList(ATTACKS));
+            benign.addAll(Arrays.asList(BENIGN));
+        } else {
+            for (String line : Files.readAllLines(Paths.get(samplesPath), StandardCharsets.UTF_8)) {
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    continue;
+                }
+                (line.startsWith("attack") ? attacks : benign).add(line.substring(tab + 1));
+            }
+        }
+
+        List<Rule> keywords = new ArrayList<>();
+        int priority = 100;
+        for (String p : new String[]{"union", "select", "insert", "delete", "drop", "script", "alert"}) {
+            keywords.add(rule(p, null, priority++));
+        }
+        List<Rule> detectors = new ArrayList<>();
+        detectors.add(rule(null, "sqli", 100));
+        detectors.add(rule(null, "xss", 101));
+
+        System.out.printf("样本: 攻击 %d  正常 %d  轮数 %d%n%n", attacks.size(), benign.size(), rounds);
+        run("关键字规则", RuleSnapshot.compile(keywords, 0), attacks, benign, rounds);
+        run("检测器规则", RuleSnapshot.compile(detectors, 0), attacks, benign, rounds);
+    }
+
+    private static Rule rule(String pattern, String detector, int priority) {
+        Rule r = new Rule();
+        r.setId(detector != null ? detector : pattern);
+        r.setPattern(pattern);
+        r.setDetector(detector);
+        r.setAction("block");
+        r.setScope("query");
+        r.setEnabled(true);
+        r.setPriority(priority);
+        return r;
+    }
+
+    private static void run(String label, RuleSnapshot snapshot, List<String> attacks, List<String> benign, int rounds) {
+        List<String> missed = new ArrayList<>();
+        for (String q : attacks) {
+            if (!snapshot.match(request(q)).isBlocking()) {
+                missed.add(q);
+            }
+        }
+        List<String> falsePositives = new ArrayList<>();
+        for (String q : benign) {
+            if (snapshot.match(request(q)).isBlocking()) {
+                falsePositives.add(q);
+            }
+        }
+
+        List<String> all = new ArrayList<>(attacks);
+        all.addAll(benign);
+        // 预热后计时，每次新建请求对象，包含解码和小写化的开销
+        for (int i = 0; i < Math.min(rounds, 50); i++) {
+            for (String q : all) {
+                snapshot.match(request(q));
+            }
+        }
+        LatencyHistogram latency = new LatencyHistogram();
+        for (int i = 0; i < rounds; i++) {
+            for (String q : all) {
+                CapturedRequest request = request(q);
+                long start = System.nanoTime();
+                snapshot.match(request);
+                latency.record(System.nanoTime() - start);
+            }
+        }
+
+        System.out.printf("== %s（%d 条）%n", label, snapshot.size());
+        System.out.printf("检出: %d/%d (%.1f%%)  误报: %d/%d (%.1f%%)%n",
+                attacks.size() - missed.size(), attacks.size(), percent(attacks.size() - missed.size(), attacks.size()),
+                falsePositives.size(), benign.size(), percent(falsePositives.size(), benign.size()));
+        System.out.printf("单次匹配耗时(ns): p50=%d p99=%d mean=%.0f%n",
+                latency.percentile(50), latency.percentile(99), latency.mean());
+        for (String q : missed) {
+            System.out.println("  漏报: " + q);
+        }
+        for (String q : falsePositives) {
+            System.out.println("  误报: " + q);
+        }
+        System.out.println();
+    }
+
+    private static CapturedRequest request(String query) {
+        return new CapturedRequest("GET", "bench.local", "/search", query, "127.0.0.1", Collections.emptyList());
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : part * 100.0 / total;
+    }
+}
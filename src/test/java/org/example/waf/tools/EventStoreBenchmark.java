@@ -0,0 +1,158 @@
+package org.example.waf.tools;
+
+import org.example.waf.domain.DbLog;
+import org.example.waf.events.EventDimension;
+import org.example.waf.events.EventQuery;
+import org.example.waf.events.EventStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 内嵌事件存储与 JPA 路径的对比：同一批合成事件分别写入事件存储和 DbLog 实体列表，
+ * 执行相同的统计查询（与 StatisticsController 的流式过滤、分组写法一致），比较耗时和占用。
+ *
+ * JPA 一侧只计实体已加载到内存之后的过滤/分组时间，不含 SQL 执行、网络传输和实体填充，
+ * 因此是 JPA 路径耗时的下界。
+ *
+ * 用法：
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp "target/classes:target/test-classes:$(cat cp.txt)" org.example.waf.tools.EventStoreBenchmark [--events 2000000] [--ips 20000]
+ * </pre>
+ */
+public class EventStoreBenchmark {
+    private static final String[] ACTIONS = {"block", "block", "block", "log", "log", "allow"};
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int events = 2_000_000;
+        int ips = 20_000;
+        for (int i = 0; i < args.length; i++) {
+            if ("--events".equals(args[i]) && i + 1 < args.length) {
+                events = Integer.parseInt(args[++i]);
+            } else if ("--ips".equals(args[i]) && i + 1 < args.length) {
+                ips = Integer.parseInt(args[++i]);
+            }
+        }
+
+        Path dir = Files.createTempDirectory("waf-events-bench");
+        EventStore store = new EventStore(true, dir.toString(), 65536, Integer.MAX_VALUE, 0);
+        long now = System.currentTimeMillis();
+        long start = now - 7L * 24 * 3600 * 1000;
+        long step = (now - start) / events;
+
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = rt.totalMemory() - rt.freeMemory();
+        List<DbLog> logs = new ArrayList<>(events);
+        Random random = new Random(42);
+        long t0 = System.nanoTime();
+        long appendNanos = 0;
+        for (int i = 0; i < events; i++) {
+            // 少量 IP 贡献大部分事件
+            int ipIndex = (int) (Math.pow(random.nextDouble(), 3) * ips);
+            String ip = "10." + (ipIndex >> 16 & 255) + "." + (ipIndex >> 8 & 255) + "." + (ipIndex & 255);
+            String rule = "rule-" + random.nextInt(40);
+            String action = ACTIONS[random.nextInt(ACTIONS.length)];
+            int category = random.nextInt(9);
+            int status = "block".equals(action) ? 403 : 200;
+            int score = random.nextInt(100);
+            int latency = 200 + random.nextInt(5000);
+            long ts = start + i * step;
+
+            long a = System.nanoTime();
+            store.append(ts, ip, rule, action, category, status, score, latency);
+            appendNanos += System.nanoTime() - a;
+
+            DbLog log = new DbLog();
+            log.setId((long) i);
+            log.setLogTimestamp(new Date(ts));
+            log.setClientIp(ip);
+            log.setRuleId(rule);
+            log.setActionTaken(action);
+            log.setAttackCategory(category);
+            log.setStatusCode(status);
+            log.setThreatScore(score);
+            log.setRequestTime(latency / 1000.0);
+            logs.add(log);
+        }
+        System.gc();
+        long heapAfter = rt.totalMemory() - rt.freeMemory();
+        System.out.printf("事件: %d  生成耗时: %.1fs  事件存储追加: %.0f ns/条%n", events,
+                (System.nanoTime() - t0) / 1e9, appendNanos / (double) events);
+        System.out.printf("事件存储: %s  DbLog 实体堆占用约 %.1f MB（仅上面 9 个字段非空）%n%n",
+                store.getStatus(), (heapAfter - heapBefore) / 1048576.0);
+
+        long dayStart = now - 24L * 3600 * 1000;
+        String hotIp = "10.0.0.0";
+
+        compare("最近 24 小时拦截数",
+                () -> store.count(EventQuery.between(dayStart, now).action("block")),
+                () -> logs.stream().filter(l -> l.getLogTimestamp().getTime() >= dayStart && l.getLogTimestamp().getTime() <= now)
+                        .filter(l -> "block".equals(l.getActionTaken())).count());
+
+        compare("全部拦截按 IP 分组 Top 10",
+                () -> store.groupBy(EventQuery.between(Long.MIN_VALUE, Long.MAX_VALUE).action("block"), EventDimension.IP, 10),
+                () -> top(logs.stream().filter(l -> "block".equals(l.getActionTaken()))
+                        .collect(Collectors.groupingBy(DbLog::getClientIp, Collectors.counting())), 10));
+
+        compare("最近 24 小时高分事件按规则分组",
+                () -> store.groupBy(EventQuery.between(dayStart, now).minScore(80), EventDimension.RULE, 0).size(),
+                () -> logs.stream().filter(l -> l.getLogTimestamp().getTime() >= dayStart && l.getLogTimestamp().getTime() <= now)
+                        .filter(l -> l.getThreatScore() >= 80)
+                        .collect(Collectors.groupingBy(DbLog::getRuleId, Collectors.counting())).size());
+
+        compare("单个 IP 的事件数",
+                () -> store.count(EventQuery.between(Long.MIN_VALUE, Long.MAX_VALUE).ip(hotIp)),
+                () -> logs.stream().filter(l -> hotIp.equals(l.getClientIp())).count());
+
+        compare("单个 IP 最新 20 条",
+                () -> store.latest(EventQuery.between(Long.MIN_VALUE, Long.MAX_VALUE).ip(hotIp), 20).size(),
+                () -> logs.stream().filter(l -> hotIp.equals(l.getClientIp()))
+                        .sorted(Comparator.comparing(DbLog::getLogTimestamp).reversed()).limit(20).count());
+
+        store.shutdown();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(f -> f.toFile().delete());
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    private static Map<String, Long> top(Map<String, Long> counts, int n) {
+        return counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(n)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    private static void compare(String name, Supplier<Object> store, Supplier<Object> jpa) {
+        long storeMs = best(store);
+        long jpaMs = best(jpa);
+        Object a = store.get();
+        Object b = jpa.get();
+        System.out.printf("%-24s 事件存储 %6d ms   实体列表 %6d ms   结果%s%n", name, storeMs, jpaMs,
+                String.valueOf(a).equals(String.valueOf(b)) ? "一致" : "不一致: " + a + " / " + b);
+    }
+
+    private static long best(Supplier<Object> query) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long t = System.nanoTime();
+            query.get();
+            best = Math.min(best, (System.nanoTime() - t) / 1_000_000);
+        }
+        return best;
+    }
+}
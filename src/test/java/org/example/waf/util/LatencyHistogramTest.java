@@ -0,0 +1,107 @@
+package org.example.waf.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketsTileTheWholeRange() {
+        int buckets = LatencyHistogram.indexOf(Long.MAX_VALUE) + 1;
+        assertEquals(1888, buckets);
+        assertEquals(0, LatencyHistogram.lowerBound(0));
+        for (int i = 0; i < buckets; i++) {
+            assertTrue(LatencyHistogram.lowerBound(i) <= LatencyHistogram.upperBound(i), "bucket " + i);
+            assertEquals(i, LatencyHistogram.indexOf(LatencyHistogram.lowerBound(i)), "lower bound of " + i);
+            assertEquals(i, LatencyHistogram.indexOf(LatencyHistogram.upperBound(i)), "upper bound of " + i);
+            if (i + 1 < buckets) {
+                // 相邻桶首尾相接，没有空隙也不重叠
+                assertEquals(LatencyHistogram.upperBound(i) + 1, LatencyHistogram.lowerBound(i + 1), "gap after " + i);
+            }
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(buckets - 1));
+    }
+
+    @Test
+    void relativeErrorStaysWithinSubBucketWidth() {
+        for (long v = 32; v > 0 && v < Long.MAX_VALUE / 3; v = v * 3 + 7) {
+            int i = LatencyHistogram.indexOf(v);
+            long width = LatencyHistogram.upperBound(i) - LatencyHistogram.lowerBound(i) + 1;
+            assertTrue(width <= v / 32 + 1, "bucket too wide for " + v);
+        }
+    }
+
+    @Test
+    void percentileReportsBucketUpperBound() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.percentile(99));
+        for (long v = 1; v <= 1000; v++) {
+            h.record(v * 1000);
+        }
+        h.record(-5);
+        assertEquals(1001, h.count());
+        long p50 = h.percentile(50);
+        assertEquals(LatencyHistogram.upperBound(LatencyHistogram.indexOf(500_000)), p50);
+        assertTrue(h.percentile(100) >= 1_000_000);
+        assertEquals(h.percentile(100), h.max());
+    }
+
+    @Test
+    void mergeAddsCounts() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        b.record(10);
+        b.record(5_000_000);
+        a.merge(b);
+        assertEquals(3, a.count());
+        assertEquals(LatencyHistogram.upperBound(LatencyHistogram.indexOf(5_000_000)), a.max());
+        a.reset();
+        assertEquals(0, a.count());
+    }
+
+    @Test
+    void concurrentRecordsAreAllCounted() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        int threads = 8;
+        int perThread = 200_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // 绝大多数样本落在同一个桶里，制造同一计数上的争抢
+                for (int i = 0; i < perThread; i++) {
+                    h.record(i % 100 == 0 ? 5_000_000 : 1000);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals((long) threads * perThread, h.count());
+        assertEquals(LatencyHistogram.upperBound(LatencyHistogram.indexOf(1000)), h.percentile(50));
+        assertEquals(LatencyHistogram.upperBound(LatencyHistogram.indexOf(5_000_000)), h.max());
+
+        // 合并、清零都要带上各条带
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.merge(h);
+        assertEquals(h.count(), merged.count());
+        h.reset();
+        assertEquals(0, h.count());
+        assertEquals(0, h.max());
+    }
+}
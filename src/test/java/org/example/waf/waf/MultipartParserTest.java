@@ -0,0 +1,141 @@
+package org.example.waf.waf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultipartParserTest {
+
+    private static final String BOUNDARY = "----WebKitFormBoundary7MA4YWxk";
+
+    // 文件内容里夹带分隔符的前缀和只差一个字节的"分隔符"，检查暂扣的前缀能原样还给内容
+    private static final String FILE_CONTENT = "line1\r\n--\r\n------WebKitFormBoundary7MA4YWx\r\n\r\n--"
+            + BOUNDARY.substring(0, 10) + "<?php system($_GET['c']); ?>\r";
+
+    private static final String BODY = "preamble ignored\r\n"
+            + "--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"title\"\r\n"
+            + "\r\n"
+            + "hello world\r\n"
+            + "--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"file\"; filename=\"x;.php\"\r\n"
+            + "Content-Type: application/octet-stream\r\n"
+            + "\r\n"
+            + FILE_CONTENT + "\r\n"
+            + "--" + BOUNDARY + "--\r\n"
+            + "epilogue ignored";
+
+    @Test
+    void parsesWholeBody() {
+        assertEquals(Arrays.asList(
+                "title|null|null|hello world",
+                "file|x;.php|application/octet-stream|" + FILE_CONTENT), parse(bytes(BODY), BODY.length()));
+    }
+
+    @Test
+    void delimiterSplitAcrossChunksAtEveryOffset() {
+        byte[] body = bytes(BODY);
+        List<String> expected = parse(body, body.length);
+        for (int split = 1; split < body.length; split++) {
+            assertEquals(expected, parse(body, split), "split at " + split);
+        }
+    }
+
+    @Test
+    void singleByteChunks() {
+        byte[] body = bytes(BODY);
+        assertEquals(parse(body, body.length), parse(body, 1));
+    }
+
+    @Test
+    void unterminatedLastPartIsFlushedOnFinish() {
+        String tail = "partial\r\n--" + BOUNDARY.substring(0, 5);
+        String body = "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"a\"\r\n\r\n"
+                + tail;
+        assertEquals(Collections.singletonList("a|null|null|" + tail), parse(bytes(body), 7));
+    }
+
+    @Test
+    void garbageAfterDelimiterFails() {
+        Recorder recorder = new Recorder();
+        MultipartParser parser = new MultipartParser(BOUNDARY, recorder);
+        byte[] body = bytes("--" + BOUNDARY + "-x\r\n");
+        parser.feed(body, 0, body.length);
+        assertTrue(parser.isFailed());
+        assertTrue(recorder.parts.isEmpty());
+    }
+
+    @Test
+    void oversizedPartHeaderFails() {
+        MultipartParser parser = new MultipartParser(BOUNDARY, new Recorder());
+        StringBuilder body = new StringBuilder("--" + BOUNDARY + "\r\nX-Pad: ");
+        while (body.length() < MultipartParser.MAX_HEADER_BYTES + 100) {
+            body.append('a');
+        }
+        byte[] bytes = bytes(body.toString());
+        parser.feed(bytes, 0, bytes.length);
+        assertTrue(parser.isFailed());
+    }
+
+    @Test
+    void headerParameters() {
+        assertEquals(BOUNDARY, MultipartParser.boundaryOf("multipart/form-data; boundary=" + BOUNDARY));
+        assertEquals("a b", MultipartParser.boundaryOf("multipart/form-data; boundary=\"a b\""));
+        assertNull(MultipartParser.boundaryOf("multipart/form-data"));
+        assertNull(MultipartParser.boundaryOf("multipart/form-data; boundary="));
+        assertEquals("x;.php", MultipartParser.param("form-data; name=\"f\"; filename=\"x;.php\"", "filename"));
+        assertEquals("a\"b", MultipartParser.param("form-data; name=\"a\\\"b\"", "name"));
+    }
+
+    private static List<String> parse(byte[] body, int chunk) {
+        Recorder recorder = new Recorder();
+        MultipartParser parser = new MultipartParser(BOUNDARY, recorder);
+        for (int offset = 0; offset < body.length; offset += chunk) {
+            // 每块单独拷贝，确保解析器没有引用上一块的缓冲区
+            byte[] piece = Arrays.copyOfRange(body, offset, Math.min(body.length, offset + chunk));
+            parser.feed(piece, 0, piece.length);
+        }
+        parser.finish();
+        assertFalse(parser.isFailed());
+        return recorder.parts;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static final class Recorder implements MultipartParser.Handler {
+        final List<String> parts = new ArrayList<>();
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private String current;
+
+        @Override
+        public void startPart(String name, String filename, String contentType) {
+            current = name + "|" + filename + "|" + contentType + "|";
+            content.reset();
+        }
+
+        @Override
+        public void content(byte[] buf, int offset, int length) {
+            assertTrue(length > 0, "empty content callback");
+            content.write(buf, offset, length);
+        }
+
+        @Override
+        public void endPart() {
+            parts.add(current + new String(content.toByteArray(), StandardCharsets.ISO_8859_1));
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.example.waf.waf;
+
+import org.example.waf.DbLogRepository;
+import org.example.waf.domain.DbLog;
+import org.example.waf.domain.GeoRegion;
+import org.example.waf.events.EventStore;
+import org.example.waf.search.AttackLogIndex;
+import org.example.waf.service.GeoIpService;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SecurityEventRecorderTest {
+
+    @Test
+    void toDbLogTruncatesToColumnWidths() {
+        StringBuilder pattern = new StringBuilder();
+        while (pattern.length() < 300) {
+            pattern.append("(select|union)");
+        }
+        SecurityEvent event = event(pattern.toString(), pattern.toString());
+        event.setRegion(GeoRegion.UNKNOWN);
+        DbLog log = event.toDbLog();
+        assertEquals(50, log.getRuleId().length());
+        assertEquals(100, log.getRuleName().length());
+        assertEquals(pattern.substring(0, 100), log.getRuleName());
+    }
+
+    @Test
+    void failedBatchIsRetriedRowByRow() throws Exception {
+        DbLogRepository repository = mock(DbLogRepository.class);
+        GeoIpService geo = mock(GeoIpService.class);
+        AttackLogIndex index = mock(AttackLogIndex.class);
+        when(geo.lookup(anyString())).thenReturn(GeoRegion.UNKNOWN);
+        when(repository.saveAll(anyList())).thenThrow(new RuntimeException("Data too long"));
+        when(repository.save(any(DbLog.class))).thenAnswer(inv -> {
+            DbLog log = inv.getArgument(0);
+            if ("bad".equals(log.getRuleId())) {
+                throw new RuntimeException("Data too long");
+            }
+            return log;
+        });
+        SecurityEventRecorder recorder = new SecurityEventRecorder(repository, geo, mock(EventStore.class), index, 100);
+        // 写入线程无论分成几批，批量写入都失败，逐条重试后只丢弃 bad
+        for (String id : new String[]{"r1", "bad", "r2", "r3"}) {
+            recorder.record(event(id, "pattern-" + id));
+        }
+        verify(repository, timeout(5000).times(4)).save(any(DbLog.class));
+        // 等写入线程处理完队列后再检查索引
+        recorder.shutdown();
+
+        ArgumentCaptor<List<DbLog>> indexed = captor();
+        verify(index, atLeastOnce()).addAll(indexed.capture());
+        List<String> ids = new ArrayList<>();
+        for (List<DbLog> logs : indexed.getAllValues()) {
+            for (DbLog log : logs) {
+                ids.add(log.getRuleId());
+            }
+        }
+        Collections.sort(ids);
+        assertEquals(Arrays.asList("r1", "r2", "r3"), ids);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<List<DbLog>> captor() {
+        return ArgumentCaptor.forClass((Class<List<DbLog>>) (Class<?>) List.class);
+    }
+
+    private static SecurityEvent event(String ruleId, String pattern) {
+        Rule rule = new Rule();
+        rule.setId(ruleId);
+        rule.setPattern(pattern);
+        rule.setAction("block");
+        rule.setScope("query");
+        rule.setEnabled(true);
+        return new SecurityEvent(System.currentTimeMillis(), "req-" + ruleId, "203.0.113.7", "GET", "/search",
+                "curl/8.0", new MatchResult(new CompiledRule(0, rule), "block", 0));
+    }
+}
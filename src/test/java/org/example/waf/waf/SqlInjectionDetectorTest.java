@@ -0,0 +1,56 @@
+package org.example.waf.waf;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqlInjectionDetectorTest {
+
+    private static final char NO_QUOTE = 0;
+
+    @Test
+    void fingerprints() {
+        assertEquals("s&sos", SqlInjectionDetector.fingerprint("1' or '1'='1", '\''));
+        assertEquals("1&1o1", SqlInjectionDetector.fingerprint("1 or 1=1", NO_QUOTE));
+        assertEquals("1UE1,", SqlInjectionDetector.fingerprint("-1 union select 1,2,3", NO_QUOTE));
+        assertEquals("sc", SqlInjectionDetector.fingerprint("admin'--", '\''));
+        assertEquals("1;Ekn", SqlInjectionDetector.fingerprint("1;drop table users", NO_QUOTE));
+        assertEquals("1&f(1", SqlInjectionDetector.fingerprint("1 and sleep(5)", NO_QUOTE));
+        assertEquals("sUE1,", SqlInjectionDetector.fingerprint("1' union all select null,version()--", '\''));
+        // 注释当作空白，不能用来拆开关键字
+        assertEquals("1UEnk", SqlInjectionDetector.fingerprint("1/**/union/**/select/**/password/**/from/**/users--", NO_QUOTE));
+        assertEquals("1)&(1", SqlInjectionDetector.fingerprint("1) or (1=1", NO_QUOTE));
+        assertEquals("s&1of", SqlInjectionDetector.fingerprint("x' and 1=convert(int,@@version)--", '\''));
+    }
+
+    @Test
+    void detectsAttacks() {
+        for (String s : new String[]{
+                "1' or '1'='1", "1 or 1=1", "-1 union select 1,2,3", "admin'--", "1;drop table users",
+                "1 and sleep(5)", "1' union all select null,version()--",
+                "1/**/union/**/select/**/password/**/from/**/users--", "1) or (1=1",
+                "x' and 1=convert(int,@@version)--"}) {
+            assertTrue(SqlInjectionDetector.INSTANCE.detect(s), s);
+        }
+    }
+
+    @Test
+    void ignoresOrdinaryText() {
+        for (String s : new String[]{
+                "", "selection", "o'brien", "1 or 2 tickets", "rock & roll", "drop shipping", "it's fine",
+                "select a plan", "page=2&sort=price", "@@version"}) {
+            assertFalse(SqlInjectionDetector.INSTANCE.detect(s), s);
+        }
+    }
+
+    @Test
+    void lookupByName() {
+        assertSame(SqlInjectionDetector.INSTANCE, Detector.of(" SQLi "));
+        assertSame(XssDetector.INSTANCE, Detector.of("xss"));
+        assertNull(Detector.of("unknown"));
+    }
+}
@@ -0,0 +1,42 @@
+package org.example.waf.waf;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class XssDetectorTest {
+
+    @Test
+    void detectsAttacks() {
+        for (String s : new String[]{
+                "<script>alert(1)</script>",
+                "<img src=x onerror=alert(1)>",
+                "<svg/onload=prompt(1)>",
+                "\" onmouseover=\"alert(1)",
+                "' autofocus onfocus=confirm(1) x='",
+                "javascript:alert(document.cookie)",
+                "jav&#x61;script:alert(1)",
+                "  javascript:eval(name)",
+                "<a href=\"javascript&colon;alert(1)\">x</a>",
+                "<div style=\"width:expression(alert(1))\">"}) {
+            assertTrue(XssDetector.INSTANCE.detect(s), s);
+        }
+    }
+
+    @Test
+    void ignoresOrdinaryText() {
+        for (String s : new String[]{
+                "", "i<3 you", "a < b and c > d", "onerror handling in node", "scripts for actors",
+                "what is a javascript framework", "<b>bold</b>", "x=1&y=2", "filter=price>100", "<p class=\"x\">"}) {
+            assertFalse(XssDetector.INSTANCE.detect(s), s);
+        }
+    }
+
+    @Test
+    void scriptUrls() {
+        assertTrue(XssDetector.isScriptUrl("vbscript:msgbox(1)"));
+        assertTrue(XssDetector.isScriptUrl("data:text/html,<b>"));
+        assertFalse(XssDetector.isScriptUrl("https://example.com/javascript:"));
+    }
+}